@@ -0,0 +1,72 @@
+package quanta.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import quanta.config.ServiceBase;
+import quanta.model.client.PrivilegeType;
+import quanta.mongo.model.SubNode;
+
+/**
+ * MongoAuth.nodeAuth, which runs for every node a non-admin reads. The generated nodes have the
+ * usual mix of public, shared and private nodes, and each call checks a different user.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AuthBench {
+	private static final int NODE_COUNT = 1000;
+
+	private static final List<PrivilegeType> READ = Arrays.asList(PrivilegeType.READ);
+	private static final List<PrivilegeType> READ_WRITE = Arrays.asList(PrivilegeType.READ, PrivilegeType.WRITE);
+
+	private List<SubNode> nodes;
+	private String[] userIds;
+	private int idx;
+
+	@Setup
+	public void setup() {
+		nodes = BenchFixtures.makeNodes(NODE_COUNT);
+		userIds = new String[BenchFixtures.USER_COUNT];
+		for (int i = 0; i < userIds.length; i++) {
+			userIds[i] = BenchFixtures.userId(i).toHexString();
+		}
+	}
+
+	private int next() {
+		if (++idx >= nodes.size()) {
+			idx = 0;
+		}
+		return idx;
+	}
+
+	@Benchmark
+	public boolean nodeAuthRead() {
+		int i = next();
+		return ServiceBase.auth.nodeAuth(nodes.get(i), userIds[i % userIds.length], READ);
+	}
+
+	@Benchmark
+	public boolean nodeAuthReadWrite() {
+		int i = next();
+		return ServiceBase.auth.nodeAuth(nodes.get(i), userIds[i % userIds.length], READ_WRITE);
+	}
+
+	@Benchmark
+	public boolean nodeAuthAnon() {
+		return ServiceBase.auth.nodeAuth(nodes.get(next()), null, READ);
+	}
+}
@@ -0,0 +1,286 @@
+package quanta.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import org.bson.types.ObjectId;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import quanta.actpub.ActPubCache;
+import quanta.actpub.ActPubCrypto;
+import quanta.actpub.ActPubLog;
+import quanta.actpub.ActPubService;
+import quanta.actpub.ActPubUtil;
+import quanta.config.AppProp;
+import quanta.config.ServiceBase;
+import quanta.config.SessionContext;
+import quanta.model.client.Attachment;
+import quanta.model.client.Constant;
+import quanta.model.client.NodeProp;
+import quanta.model.client.NodeType;
+import quanta.model.client.PrincipalName;
+import quanta.model.client.PrivilegeType;
+import quanta.mongo.MongoAuth;
+import quanta.mongo.MongoSession;
+import quanta.mongo.model.AccessControl;
+import quanta.mongo.model.SubNode;
+import quanta.service.CryptoService;
+import quanta.service.node.NodeSearchService;
+import quanta.util.Convert;
+import quanta.util.EnglishDictionary;
+import quanta.util.ThreadLocals;
+
+/**
+ * Fixture data and service wiring shared by the benchmarks.
+ *
+ * The services are created in a small Spring context holding only the beans the benchmarked code
+ * needs, none of which touch MongoDB, and then set into the ServiceBase statics the same way
+ * ServiceBase.init does for the real app.
+ *
+ * Nodes are built from the paragraphs of war-and-peace.txt (the same text ImportWarAndPeace loads),
+ * with hashtags, mentions, sharing and attachments mixed in from a fixed seed, so every run (and
+ * every release) benchmarks the same data.
+ */
+public class BenchFixtures {
+	public static final String META_HOST = "bench.quanta.wiki";
+	public static final long SEED = 12345;
+
+	// how many users the generated nodes are owned by and shared to
+	public static final int USER_COUNT = 50;
+
+	private static AnnotationConfigApplicationContext ctx;
+	private static List<String> paragraphs;
+	private static KeyPair keyPair;
+
+	public static synchronized void init() {
+		if (ctx != null)
+			return;
+
+		// we set the ServiceBase statics ourselves, so stop the context refresh from trying to (it expects the full app)
+		ServiceBase.initComplete = true;
+
+		ctx = new AnnotationConfigApplicationContext();
+		HashMap<String, Object> props = new HashMap<>();
+		props.put("metaHost", META_HOST);
+		props.put("httpProtocol", "https");
+		props.put("server.port", "443");
+		ctx.getEnvironment().getPropertySources().addFirst(new MapPropertySource("bench", props));
+
+		ctx.register(AppProp.class, ActPubLog.class, ActPubCache.class, ActPubUtil.class, ActPubService.class,
+				ActPubCrypto.class, CryptoService.class, MongoAuth.class, NodeSearchService.class, Convert.class,
+				EnglishDictionary.class);
+		// refresh loads the dictionaries, in EnglishDictionary.handleContextRefresh
+		ctx.refresh();
+
+		ServiceBase.apCache = ctx.getBean(ActPubCache.class);
+		ServiceBase.apUtil = ctx.getBean(ActPubUtil.class);
+		ServiceBase.apub = ctx.getBean(ActPubService.class);
+		ServiceBase.apCrypto = ctx.getBean(ActPubCrypto.class);
+		ServiceBase.crypto = ctx.getBean(CryptoService.class);
+		ServiceBase.auth = ctx.getBean(MongoAuth.class);
+		ServiceBase.search = ctx.getBean(NodeSearchService.class);
+		ServiceBase.convert = ctx.getBean(Convert.class);
+		ServiceBase.english = ctx.getBean(EnglishDictionary.class);
+		ensureDictionary();
+
+		try {
+			KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+			kpg.initialize(2048, new java.security.SecureRandom(new byte[] {1, 2, 3}));
+			keyPair = kpg.generateKeyPair();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * english-dictionary.txt isn't in the source tree, so when it's not on the classpath we use every
+	 * word of the book seen at least twice instead. That's close enough for timing isEnglish, which
+	 * only does a HashSet lookup per word.
+	 */
+	private static void ensureDictionary() {
+		try {
+			ServiceBase.english.isEnglish("test");
+			return;
+		} catch (RuntimeException e) {
+			// not loaded, so make one
+		}
+
+		HashMap<String, Integer> counts = new HashMap<>();
+		for (String para : getParagraphs()) {
+			for (String word : para.split("[^A-Za-z]+")) {
+				if (word.length() >= 4) {
+					counts.merge(word.toLowerCase(), 1, Integer::sum);
+				}
+			}
+		}
+		try {
+			File file = File.createTempFile("bench-dictionary", ".txt");
+			file.deleteOnExit();
+			List<String> words = new ArrayList<>();
+			counts.forEach((word, count) -> {
+				if (count >= 2) {
+					words.add(word);
+				}
+			});
+			Files.write(file.toPath(), words, StandardCharsets.UTF_8);
+			ServiceBase.english.loadDictionary("file:" + file.getAbsolutePath());
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static KeyPair getKeyPair() {
+		init();
+		return keyPair;
+	}
+
+	/* Every paragraph of War and Peace, in order */
+	public static synchronized List<String> getParagraphs() {
+		if (paragraphs != null)
+			return paragraphs;
+
+		paragraphs = new ArrayList<>();
+		try (InputStream is = BenchFixtures.class.getResourceAsStream("/public/data/war-and-peace.txt")) {
+			if (is == null) {
+				throw new RuntimeException("war-and-peace.txt not found on classpath");
+			}
+			BufferedReader in = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+			StringBuilder paragraph = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0) {
+					if (paragraph.length() > 0) {
+						paragraphs.add(paragraph.toString());
+						paragraph.setLength(0);
+					}
+					continue;
+				}
+				if (paragraph.length() > 0) {
+					paragraph.append(" ");
+				}
+				paragraph.append(line);
+			}
+			if (paragraph.length() > 0) {
+				paragraphs.add(paragraph.toString());
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return paragraphs;
+	}
+
+	public static ObjectId userId(int idx) {
+		// fixed ids, so ACL keys are the same from run to run
+		return new ObjectId(String.format("%024x", 0x5f0000000000L + idx));
+	}
+
+	/*
+	 * Generates 'count' nodes, one per paragraph (wrapping around the book if needed), with a mix like
+	 * a real feed: about 1 in 3 public, most shared to a few users, some with hashtags, local mentions
+	 * and attachments.
+	 */
+	public static List<SubNode> makeNodes(int count) {
+		init();
+		setThreadSession();
+		List<String> paras = getParagraphs();
+		Random rand = new Random(SEED);
+		List<SubNode> nodes = new ArrayList<>(count);
+		Date now = new Date(1700000000000L);
+
+		for (int i = 0; i < count; i++) {
+			ObjectId owner = userId(rand.nextInt(USER_COUNT));
+			SubNode node = new SubNode(owner, "/r/usr/" + owner.toHexString() + "/" + i, NodeType.NONE.s(), (long) i);
+
+			String content = paras.get(i % paras.size());
+			if (rand.nextInt(4) == 0) {
+				content += " #" + randomWord(rand, content) + " #quanta";
+			}
+			if (rand.nextInt(5) == 0) {
+				content = "@user" + rand.nextInt(USER_COUNT) + "@" + META_HOST + " " + content;
+			}
+			node.setContent(content);
+			node.setModifyTime(now);
+
+			HashMap<String, AccessControl> ac = new HashMap<>();
+			int sharing = rand.nextInt(10);
+			if (sharing < 3) {
+				ac.put(PrincipalName.PUBLIC.s(), new AccessControl(null, PrivilegeType.READ.s()));
+			} else if (sharing < 4) {
+				ac.put(PrincipalName.PUBLIC.s(),
+						new AccessControl(null, PrivilegeType.READ.s() + "," + PrivilegeType.WRITE.s()));
+			}
+			int shares = sharing < 8 ? rand.nextInt(4) : 0;
+			for (int s = 0; s < shares; s++) {
+				ac.put(userId(rand.nextInt(USER_COUNT)).toHexString(), new AccessControl(null, PrivilegeType.READ.s()));
+			}
+			if (ac.size() > 0) {
+				node.setAc(ac);
+			}
+
+			if (rand.nextInt(8) == 0) {
+				Attachment att = node.getAttachment(Constant.ATTACHMENT_PRIMARY.s(), true, true);
+				att.setBin(new ObjectId(String.format("%024x", 0x6f0000000000L + i)).toHexString());
+				att.setMime("image/jpeg");
+				att.setFileName("image" + i + ".jpg");
+				att.setSize(100000L + rand.nextInt(900000));
+			}
+
+			if (rand.nextInt(20) == 0) {
+				node.set(NodeProp.CRYPTO_SIG, "x");
+			}
+
+			// set last so none of the above marks the node dirty in ThreadLocals
+			node.setId(new ObjectId(String.format("%024x", 0x7f0000000000L + i)));
+			nodes.add(node);
+		}
+		return nodes;
+	}
+
+	/*
+	 * Nodes can only be created as their owner or the admin, so the setup thread acts as the admin
+	 * (like ImportWarAndPeace running under arun). JMH runs each @Setup on the benchmark's own thread.
+	 */
+	private static void setThreadSession() {
+		if (ThreadLocals.getSC() == null) {
+			SessionContext sc = new SessionContext();
+			sc.setUserName(PrincipalName.ADMIN.s());
+			ThreadLocals.setSC(sc);
+		}
+		ThreadLocals.setMongoSession(new MongoSession(PrincipalName.ADMIN.s(), null));
+	}
+
+	/* Signs the node the way the browser does, for the sig verify benchmarks */
+	public static byte[] sign(String data) {
+		try {
+			Signature sig = Signature.getInstance("SHA256withRSA");
+			sig.initSign(getKeyPair().getPrivate());
+			sig.update(data.getBytes(StandardCharsets.UTF_8));
+			return sig.sign();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String randomWord(Random rand, String content) {
+		String[] words = content.split("[^A-Za-z]+");
+		for (int tries = 0; tries < 10; tries++) {
+			String word = words[rand.nextInt(words.length)];
+			if (word.length() > 4) {
+				return word.toLowerCase();
+			}
+		}
+		return "history";
+	}
+}
@@ -0,0 +1,100 @@
+package quanta.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import quanta.actpub.HttpSigRequest;
+import quanta.config.ServiceBase;
+import quanta.mongo.model.SubNode;
+import quanta.util.XString;
+
+/**
+ * Signatures: node signature data and verification (CryptoService), and HTTP Signatures for
+ * ActivityPub, signing each outbound delivery and verifying each inbound post (ActPubCrypto).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoBench {
+	private static final int NODE_COUNT = 256;
+	private static final String INBOX_URL = "https://mastodon.example.com/users/bob/inbox";
+	private static final String ACTOR = "https://" + BenchFixtures.META_HOST + "/ap/u/alice";
+
+	private List<SubNode> nodes;
+	private byte[][] sigData;
+	private byte[][] sigs;
+	private PublicKey pubKey;
+	private String privKey;
+	private byte[] body;
+	private HttpSigRequest signedReq;
+	private int idx;
+
+	@Setup
+	public void setup() {
+		nodes = BenchFixtures.makeNodes(NODE_COUNT);
+		sigData = new byte[nodes.size()][];
+		sigs = new byte[nodes.size()][];
+		for (int i = 0; i < nodes.size(); i++) {
+			String data = ServiceBase.crypto.getNodeSigData(nodes.get(i));
+			sigData[i] = data.getBytes(StandardCharsets.UTF_8);
+			sigs[i] = BenchFixtures.sign(data);
+		}
+
+		pubKey = BenchFixtures.getKeyPair().getPublic();
+		privKey = Base64.getEncoder().encodeToString(BenchFixtures.getKeyPair().getPrivate().getEncoded());
+
+		// a typical Create Note, as it goes out to a follower's inbox
+		body = XString.compactPrint(JsonBench.makeCreate(nodes.get(0).getContent())).getBytes(StandardCharsets.UTF_8);
+
+		HttpHeaders headers = new HttpHeaders();
+		ServiceBase.apCrypto.loadSignatureHeaderVals(headers, privKey, INBOX_URL, ACTOR, body, "post");
+		signedReq = new HttpSigRequest("POST", "/users/bob/inbox", headers.toSingleValueMap());
+	}
+
+	private int next() {
+		if (++idx >= nodes.size()) {
+			idx = 0;
+		}
+		return idx;
+	}
+
+	@Benchmark
+	public String getNodeSigData() {
+		return ServiceBase.crypto.getNodeSigData(nodes.get(next()));
+	}
+
+	@Benchmark
+	public boolean sigVerify() {
+		int i = next();
+		return ServiceBase.crypto.sigVerify(pubKey, sigs[i], sigData[i]);
+	}
+
+	@Benchmark
+	public HttpHeaders apSignHeaders() {
+		HttpHeaders headers = new HttpHeaders();
+		ServiceBase.apCrypto.loadSignatureHeaderVals(headers, privKey, INBOX_URL, ACTOR, body, "post");
+		return headers;
+	}
+
+	@Benchmark
+	public HttpSigRequest apVerifyHeaders() {
+		ServiceBase.apCrypto.verifySignature(signedReq, pubKey, body);
+		return signedReq;
+	}
+}
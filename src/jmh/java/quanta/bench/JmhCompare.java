@@ -0,0 +1,76 @@
+package quanta.bench;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares two JMH json result files (like the last release's and this build's) and prints each
+ * benchmark's score in both and the change. Changes within the two runs' combined error margin are
+ * shown as '~' since they're just noise.
+ *
+ * Usage: JmhCompare base.json new.json
+ */
+public class JmhCompare {
+	private static class Result {
+		double score;
+		double error;
+		String unit;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.out.println("Usage: JmhCompare base.json new.json");
+			System.exit(1);
+		}
+		Map<String, Result> base = load(args[0]);
+		Map<String, Result> cur = load(args[1]);
+
+		System.out.println(String.format("%-60s %14s %14s %10s  %s", "Benchmark", "Base", "New", "Change", "Unit"));
+		for (Map.Entry<String, Result> e : cur.entrySet()) {
+			Result n = e.getValue();
+			Result b = base.get(e.getKey());
+			if (b == null) {
+				System.out.println(String.format("%-60s %14s %14.3f %10s  %s", e.getKey(), "-", n.score, "new", n.unit));
+				continue;
+			}
+			String change;
+			if (Math.abs(n.score - b.score) <= errorOrZero(n) + errorOrZero(b)) {
+				change = "~";
+			} else {
+				change = String.format("%+.1f%%", (n.score - b.score) * 100.0 / b.score);
+			}
+			System.out.println(String.format("%-60s %14.3f %14.3f %10s  %s", e.getKey(), b.score, n.score, change, n.unit));
+		}
+		for (String key : base.keySet()) {
+			if (!cur.containsKey(key)) {
+				System.out.println(String.format("%-60s %14.3f %14s %10s", key, base.get(key).score, "-", "removed"));
+			}
+		}
+	}
+
+	private static double errorOrZero(Result r) {
+		return Double.isNaN(r.error) ? 0 : r.error;
+	}
+
+	private static Map<String, Result> load(String fileName) throws Exception {
+		Map<String, Result> ret = new LinkedHashMap<>();
+		JsonNode root = new ObjectMapper().readTree(new File(fileName));
+		for (JsonNode run : root) {
+			String key = run.path("benchmark").asText().replace("quanta.bench.", "");
+			JsonNode params = run.path("params");
+			if (params.isObject() && params.size() > 0) {
+				key += params.toString();
+			}
+			JsonNode metric = run.path("primaryMetric");
+			Result r = new Result();
+			r.score = metric.path("score").asDouble();
+			r.error = metric.path("scoreError").asDouble(Double.NaN);
+			r.unit = metric.path("scoreUnit").asText();
+			ret.put(key, r);
+		}
+		return ret;
+	}
+}
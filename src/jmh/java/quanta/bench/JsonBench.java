@@ -0,0 +1,93 @@
+package quanta.bench;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import quanta.actpub.APConst;
+import quanta.actpub.model.APList;
+import quanta.actpub.model.APOCreate;
+import quanta.actpub.model.APOMention;
+import quanta.actpub.model.APONote;
+import quanta.actpub.model.APObj;
+import quanta.model.AccessControlInfo;
+import quanta.model.NodeInfo;
+import quanta.model.PropertyInfo;
+import quanta.model.client.NodeType;
+import quanta.model.client.PrincipalName;
+import quanta.mongo.model.SubNode;
+import quanta.util.DateUtil;
+import quanta.util.XString;
+
+/**
+ * XString.prettyPrint, which we call (mostly for logging) on ActivityPub objects and NodeInfos. The
+ * objects are built the way ActPubFactory and Convert build them, with content from the book.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBench {
+	private APOCreate create;
+	private NodeInfo nodeInfo;
+
+	@Setup
+	public void setup() {
+		List<SubNode> nodes = BenchFixtures.makeNodes(100);
+		SubNode node = nodes.get(42);
+		create = makeCreate(node.getContent());
+		nodeInfo = makeNodeInfo(node);
+	}
+
+	public static APOCreate makeCreate(String content) {
+		String actor = "https://" + BenchFixtures.META_HOST + APConst.ACTOR_PATH + "/alice";
+		String noteId = "https://" + BenchFixtures.META_HOST + "?id=5f00000000000000000000aa";
+		String published = DateUtil.isoStringFromDate(new Date(1700000000000L));
+
+		APList to = new APList() //
+				.val(APConst.CONTEXT_STREAMS_PUBLIC) //
+				.val("https://mastodon.example.com/users/bob");
+
+		APONote note = new APONote(noteId, published, actor, null, noteId, null, false, "<p>" + content + "</p>", to);
+		APList tags = new APList() //
+				.val(new APOMention("https://mastodon.example.com/users/bob", "@bob@mastodon.example.com"));
+		note.put(APObj.tag, tags);
+
+		return new APOCreate(noteId + "&create=t", actor, published, note, to);
+	}
+
+	public static NodeInfo makeNodeInfo(SubNode node) {
+		List<PropertyInfo> props = new ArrayList<>();
+		props.add(new PropertyInfo("sn:bench", "value"));
+
+		List<AccessControlInfo> acList = new ArrayList<>();
+		acList.add(new AccessControlInfo(null, PrincipalName.PUBLIC.s(), null, null, null, null, null, null));
+
+		return new NodeInfo(node.jsonId(), node.getPath(), null, node.getContent(), null, node.getTags(), "Alice", //
+				"alice", node.getOwner().toHexString(), null, null, node.getOrdinal(), node.getModifyTime(), props,
+				node.getAttachments(), null, acList, null, true, NodeType.NONE.s(), node.getOrdinal(), false, null, "1", null,
+				null);
+	}
+
+	@Benchmark
+	public String prettyPrintAPObj() {
+		return XString.prettyPrint(create);
+	}
+
+	@Benchmark
+	public String prettyPrintNodeInfo() {
+		return XString.prettyPrint(nodeInfo);
+	}
+}
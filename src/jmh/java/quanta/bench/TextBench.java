@@ -0,0 +1,95 @@
+package quanta.bench;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import quanta.config.ServiceBase;
+import quanta.mongo.model.SubNode;
+import quanta.service.WordStats;
+import quanta.util.Convert;
+import quanta.util.val.LongVal;
+
+/**
+ * Text processing done on every node we render or analyze: the english and bad word filters used by
+ * the trending feed, hashtag/mention rendering, and the word counting of NodeSearchService.getNodeStats.
+ *
+ * Each call takes the next node in turn, so the numbers are the average over the whole book.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TextBench {
+	// getNodeStats does at most TRENDING_LIMIT (10000) nodes for the trending feed
+	private static final int NODE_COUNT = 10000;
+
+	private List<SubNode> nodes;
+	private String[] contents;
+	private int idx;
+
+	@Setup
+	public void setup() {
+		nodes = BenchFixtures.makeNodes(NODE_COUNT);
+		contents = new String[nodes.size()];
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = nodes.get(i).getContent();
+		}
+	}
+
+	private int next() {
+		if (++idx >= contents.length) {
+			idx = 0;
+		}
+		return idx;
+	}
+
+	@Benchmark
+	public boolean isEnglish() {
+		return ServiceBase.english.isEnglish(contents[next()]);
+	}
+
+	@Benchmark
+	public boolean hasBadWords() {
+		return ServiceBase.english.hasBadWords(contents[next()]);
+	}
+
+	@Benchmark
+	public String replaceTagsWithHtml() {
+		return Convert.replaceTagsWithHtml(nodes.get(next()), true);
+	}
+
+	@Benchmark
+	public HashSet<String> countTokens() {
+		return ServiceBase.search.countTokens(contents[next()], null, new HashMap<>(), new HashMap<>(), new HashMap<>(),
+				new LongVal());
+	}
+
+	/* The whole getNodeStats word counting pass over a trending-sized batch, with fresh maps like each request */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public HashMap<String, WordStats> countTokensTrendingBatch() {
+		HashMap<String, WordStats> wordMap = new HashMap<>();
+		HashMap<String, WordStats> tagMap = new HashMap<>();
+		HashMap<String, WordStats> mentionMap = new HashMap<>();
+		LongVal totalWords = new LongVal();
+		for (String content : contents) {
+			if (!ServiceBase.english.isEnglish(content) || ServiceBase.english.hasBadWords(content))
+				continue;
+			ServiceBase.search.countTokens(content, null, wordMap, tagMap, mentionMap, totalWords);
+		}
+		return wordMap;
+	}
+}
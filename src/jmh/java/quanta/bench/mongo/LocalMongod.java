@@ -0,0 +1,127 @@
+package quanta.bench.mongo;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A throwaway mongod for MongoBench: started from the binary named by '-Dbench.mongod' (default
+ * 'mongod' on the PATH) on a free port, with its data in a temp folder that is deleted on stop.
+ *
+ * The app's database name is fixed (MongoAppConfig.databaseName), so the benchmark never points at
+ * a shared server unless '-Dbench.mongoPort' is given explicitly, in which case nothing is started
+ * here and the caller's server is used as is.
+ */
+public class LocalMongod {
+	private static final long START_TIMEOUT_MS = 60000;
+
+	private final String host;
+	private final int port;
+	private Process process;
+	private Path dbPath;
+
+	private LocalMongod(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/* Uses the server at -Dbench.mongoHost/-Dbench.mongoPort if given, or else starts one */
+	public static LocalMongod start() {
+		String port = System.getProperty("bench.mongoPort");
+		if (port != null && port.length() > 0) {
+			return new LocalMongod(System.getProperty("bench.mongoHost", "127.0.0.1"), Integer.parseInt(port));
+		}
+
+		LocalMongod mongod = new LocalMongod("127.0.0.1", freePort());
+		mongod.launch(System.getProperty("bench.mongod", "mongod"));
+		return mongod;
+	}
+
+	private void launch(String binary) {
+		try {
+			dbPath = Files.createTempDirectory("bench-mongod");
+			File log = dbPath.resolve("mongod.log").toFile();
+			ProcessBuilder pb = new ProcessBuilder(binary, //
+					"--dbpath", dbPath.toString(), //
+					"--port", String.valueOf(port), //
+					"--bind_ip", host, //
+					"--quiet");
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(log);
+			process = pb.start();
+			Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+
+			long timeout = System.currentTimeMillis() + START_TIMEOUT_MS;
+			while (!accepting()) {
+				if (!process.isAlive()) {
+					throw new RuntimeException("mongod exited with code " + process.exitValue() + ", see " + log);
+				}
+				if (System.currentTimeMillis() > timeout) {
+					throw new RuntimeException("mongod did not start listening on port " + port + ", see " + log);
+				}
+				Thread.sleep(100);
+			}
+		} catch (RuntimeException e) {
+			stop();
+			throw e;
+		} catch (Exception e) {
+			stop();
+			throw new RuntimeException("Unable to start " + binary
+					+ " (set -Dbench.mongod to the mongod binary, or -Dbench.mongoPort to use a running server)", e);
+		}
+	}
+
+	private boolean accepting() {
+		try (Socket s = new Socket()) {
+			s.connect(new InetSocketAddress(host, port), 200);
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	public synchronized void stop() {
+		if (process != null) {
+			process.destroy();
+			try {
+				if (!process.waitFor(10, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+			}
+			process = null;
+		}
+
+		if (dbPath != null) {
+			try (Stream<Path> files = Files.walk(dbPath)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			} catch (Exception e) {
+				// best effort, it's in the temp folder
+			}
+			dbPath = null;
+		}
+	}
+
+	private static int freePort() {
+		try (ServerSocket s = new ServerSocket(0)) {
+			return s.getLocalPort();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+}
@@ -0,0 +1,389 @@
+package quanta.bench.mongo;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.types.ObjectId;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import lombok.extern.slf4j.Slf4j;
+import quanta.AppServer;
+import quanta.bench.BenchFixtures;
+import quanta.config.AppProp;
+import quanta.config.ServiceBase;
+import quanta.config.SessionContext;
+import quanta.model.UserPreferences;
+import quanta.model.client.NodeType;
+import quanta.model.client.PrincipalName;
+import quanta.mongo.CreateNodeLocation;
+import quanta.mongo.MongoQueryProfiler;
+import quanta.mongo.MongoRepository;
+import quanta.mongo.MongoSession;
+import quanta.mongo.model.SubNode;
+import quanta.request.DeleteNodesRequest;
+import quanta.request.MoveNodesRequest;
+import quanta.request.NodeFeedRequest;
+import quanta.request.NodeSearchRequest;
+import quanta.request.RenderNodeRequest;
+import quanta.response.base.ResponseBase;
+import quanta.util.ThreadLocals;
+
+/**
+ * Benchmarks the Mongo bound service calls (render, feed, search, insert, move and delete) against a
+ * local mongod, at several database sizes, to catch regressions from index and query changes without
+ * standing up the docker distro.
+ *
+ * Run with: mvn -P java-compile,jmh compile exec:exec@mongo-bench
+ *
+ * The full app is started (web server on a random port, daemons off) against a mongod from
+ * LocalMongod, the bench users are created by the usual 'testUserAccounts' startup code, and the
+ * trees from TreeSeeder are grown to each size in -Dbench.sizes (default 10000,100000,1000000).
+ * At each size every operation is run -Dbench.warmup times untimed and then -Dbench.ops times timed,
+ * on -Dbench.threads threads, calling the services the same way CallProcessor does for a request of
+ * the owning user.
+ *
+ * Results are written to -Dbench.out as tab separated lines. If -Dbench.base names the results of an
+ * earlier run, any op whose p50 or p90 got slower by more than -Dbench.maxRegress (default 0.25) is
+ * listed and the exit code is 1, so this can gate a build. The per query shape report from
+ * MongoQueryProfiler is written next to the results, for finding which query changed.
+ */
+@Slf4j
+public class MongoBench extends ServiceBase {
+	private static final String[] SEARCH_WORDS = {"Natasha", "Moscow", "prince", "battle", "Napoleon", "regiment"};
+
+	// differences below this are noise, whatever the percentage
+	private static final long MIN_REGRESS_NANOS = 1000000;
+
+	private final int opCount = Integer.getInteger("bench.ops", 200);
+	private final int warmup = Integer.getInteger("bench.warmup", 20);
+	private final int threads = Integer.getInteger("bench.threads", 1);
+
+	private final ConfigurableApplicationContext ctx;
+	private final TreeSeeder seeder;
+	private final HashMap<String, UserPreferences> prefs = new HashMap<>();
+	private final List<String> results = new ArrayList<>();
+
+	/*
+	 * Render, insert and move targets, one per run of each op, picked up front for each size. Each run
+	 * is done as the owner of parents[i], so the moves stay within the owner's trees.
+	 */
+	private int[] parents;
+
+	private interface BenchOp {
+		ResponseBase run(MongoSession ms, TreeSeeder.BenchUser u, int i);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int users = Integer.getInteger("bench.users", 20);
+		String out = System.getProperty("bench.out", "target/mongo-bench.tsv");
+		String base = System.getProperty("bench.base");
+		double maxRegress = Double.parseDouble(System.getProperty("bench.maxRegress", "0.25"));
+
+		LocalMongod mongod = LocalMongod.start();
+		ConfigurableApplicationContext ctx = null;
+		int exitCode = 0;
+		try {
+			ctx = boot(mongod, users);
+			MongoBench bench = new MongoBench(ctx, users);
+			for (String size : System.getProperty("bench.sizes", "10000,100000,1000000").split(",")) {
+				bench.runSize(Integer.parseInt(size.trim()));
+			}
+
+			File outFile = new File(out);
+			if (outFile.getParentFile() != null) {
+				outFile.getParentFile().mkdirs();
+			}
+			Files.write(outFile.toPath(), bench.results, StandardCharsets.UTF_8);
+			Files.write(new File(outFile.getPath().replaceAll("\\.[^./]*$", "") + "-queries.html").toPath(),
+					bench.getQueryReport().getBytes(StandardCharsets.UTF_8));
+			log.info("Results written to " + outFile);
+
+			if (base != null && base.length() > 0) {
+				exitCode = compare(new File(base), bench.results, maxRegress) ? 0 : 1;
+			}
+		} finally {
+			if (ctx != null) {
+				ctx.close();
+			}
+			mongod.stop();
+		}
+		System.exit(exitCode);
+	}
+
+	/*
+	 * Command line args override application.properties, so these are passed that way. MongoAppConfig
+	 * uses a fixed database name, which is why LocalMongod gives us our own server.
+	 */
+	private static ConfigurableApplicationContext boot(LocalMongod mongod, int users) {
+		StringBuilder accounts = new StringBuilder();
+		for (int i = 0; i < users; i++) {
+			if (i > 0) {
+				accounts.append(",");
+			}
+			accounts.append(userName(i) + ":benchpass:" + userName(i) + "@localhost");
+		}
+
+		String[] args = {"--mongodb.host=" + mongod.getHost(), //
+				"--mongodb.port=" + mongod.getPort(), //
+				"--spring.data.mongodb.host=" + mongod.getHost(), //
+				"--spring.data.mongodb.port=" + mongod.getPort(), //
+				"--mongoSecurity=false", //
+				"--adminPassword=benchpass", //
+				"--metaHost=localhost", //
+				"--httpProtocol=http", //
+				"--server.port=0", //
+				"--actPubEnabled=false", //
+				"--ipfsEnabled=false", //
+				"--nostrDaemonEnabled=false", //
+				"--runTests=", //
+				"--testUserAccounts=" + accounts};
+
+		ConfigurableApplicationContext ctx = new SpringApplicationBuilder(AppServer.class).run(args);
+		if (!MongoRepository.fullInit) {
+			throw new RuntimeException("MongoRepository did not finish initializing, see the log above.");
+		}
+		ctx.getBean(AppProp.class).setDaemonsEnabled(false);
+		return ctx;
+	}
+
+	private static String userName(int i) {
+		return "bench" + i;
+	}
+
+	private MongoBench(ConfigurableApplicationContext ctx, int userCount) {
+		this.ctx = ctx;
+		List<TreeSeeder.BenchUser> users = new ArrayList<>();
+		arun.run(as -> {
+			for (int i = 0; i < userCount; i++) {
+				SubNode userNode = read.getUserNodeByUserName(as, userName(i));
+				if (userNode == null) {
+					throw new RuntimeException("Bench user was not created: " + userName(i));
+				}
+				users.add(new TreeSeeder.BenchUser(userName(i), userNode.getId(), userNode.getPath()));
+				prefs.put(userName(i), user.getUserPreferences(userName(i), userNode));
+			}
+			return null;
+		});
+		seeder = new TreeSeeder(users);
+		results.add("nodes\top\tcount\terrors\tops_per_sec\tp50_ms\tp90_ms\tp99_ms\tmax_ms");
+	}
+
+	private void runSize(int size) throws Exception {
+		seeder.seedTo(size);
+		log.info("Benchmarking at " + seeder.getCount() + " nodes");
+
+		Random rand = new Random(BenchFixtures.SEED + size);
+		parents = new int[warmup + opCount];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = seeder.randomParent(rand);
+		}
+
+		run("render", (ms, u, i) -> {
+			RenderNodeRequest req = new RenderNodeRequest();
+			req.setNodeId(seeder.getId(parents[i]).toHexString());
+			return render.renderNode(ms, req);
+		});
+
+		run("feed", (ms, u, i) -> {
+			NodeFeedRequest req = new NodeFeedRequest();
+			req.setPage(0);
+			req.setToMe(true);
+			req.setMyMentions(false);
+			req.setFromMe(false);
+			req.setFromFriends(false);
+			req.setToPublic(true);
+			req.setLocalOnly(false);
+			req.setNsfw(false);
+			req.setLoadFriendsTags(false);
+			req.setProtocol("ap");
+			return userFeed.generateFeed(ms, req);
+		});
+
+		run("search", (ms, u, i) -> {
+			NodeSearchRequest req = new NodeSearchRequest();
+			req.setNodeId(u.benchNodeId.toHexString());
+			req.setSearchText(SEARCH_WORDS[i % SEARCH_WORDS.length]);
+			req.setSearchProp("");
+			req.setSortField("");
+			req.setSortDir("");
+			req.setSearchDefinition("");
+			req.setRecursive(true);
+			return search.search(ms, req);
+		});
+
+		// the nodes inserted here are what gets moved and then deleted, so the seeded trees stay the same
+		ObjectId[] inserted = new ObjectId[warmup + opCount];
+		run("insert", (ms, u, i) -> {
+			SubNode parent = read.getNode(ms, seeder.getId(parents[i]));
+			SubNode node = create.createNode(ms, parent, NodeType.NONE.s(), 0L, CreateNodeLocation.LAST, true);
+			node.setContent(BenchFixtures.getParagraphs().get(i));
+			node.touch();
+			update.save(ms, node);
+			inserted[i] = node.getId();
+			ResponseBase res = new ResponseBase();
+			res.setSuccess(true);
+			return res;
+		});
+
+		run("move", (ms, u, i) -> {
+			if (inserted[i] == null)
+				return null;
+			MoveNodesRequest req = new MoveNodesRequest();
+			req.setTargetNodeId(seeder.getId(parents[(i + 1) % parents.length]).toHexString());
+			req.setNodeIds(Arrays.asList(inserted[i].toHexString()));
+			req.setLocation("inside");
+			return move.moveNodes(ms, req);
+		});
+
+		run("delete", (ms, u, i) -> {
+			if (inserted[i] == null)
+				return null;
+			DeleteNodesRequest req = new DeleteNodesRequest();
+			req.setNodeIds(Arrays.asList(inserted[i].toHexString()));
+			return delete.deleteNodes(ms, req);
+		});
+	}
+
+	private void run(String name, BenchOp op) throws Exception {
+		int total = warmup + opCount;
+		// warmup runs all finish before the timed ones start, so one pool run each
+		runAll(name, op, 0, warmup, null);
+		long[] nanos = new long[opCount];
+		long start = System.nanoTime();
+		int errors = runAll(name, op, warmup, total, nanos);
+		long wallNanos = System.nanoTime() - start;
+
+		Arrays.sort(nanos);
+		String line = seeder.getCount() + "\t" + name + "\t" + opCount + "\t" + errors + "\t"
+				+ String.format("%.1f", opCount / (wallNanos / 1e9)) + "\t" + ms(percentile(nanos, 50)) + "\t"
+				+ ms(percentile(nanos, 90)) + "\t" + ms(percentile(nanos, 99)) + "\t" + ms(nanos[nanos.length - 1]);
+		results.add(line);
+		log.info("BENCH: " + line);
+	}
+
+	/* Runs op for i from 'from' to 'to' on the thread pool, storing each time in 'nanos', and returns the error count */
+	private int runAll(String name, BenchOp op, int from, int to, long[] nanos) throws Exception {
+		AtomicInteger errors = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int _t = t;
+				futures.add(pool.submit(() -> {
+					for (int i = from + _t; i < to; i += threads) {
+						long time = runOne(name, op, i);
+						if (time < 0) {
+							errors.incrementAndGet();
+							time = -time;
+						}
+						if (nanos != null) {
+							nanos[i - from] = time;
+						}
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return errors.get();
+	}
+
+	/*
+	 * Runs one op with the thread set up the way AppFilter and CallProcessor set it up for a request,
+	 * and returns the time it took, negated if it failed.
+	 */
+	private long runOne(String name, BenchOp op, int i) {
+		TreeSeeder.BenchUser u = seeder.getUser(parents[i]);
+		SessionContext sc = ctx.getBean(SessionContext.class);
+		sc.setUserName(u.userName);
+		sc.setUserNodeId(u.userNodeId);
+		sc.setRootId(u.userNodeId.toHexString());
+		sc.setUserPreferences(prefs.get(u.userName));
+		ThreadLocals.setSC(sc);
+		MongoSession ms = new MongoSession(u.userName, u.userNodeId);
+		ThreadLocals.setMongoSession(ms);
+		ThreadLocals.setMongoStats(new MongoQueryProfiler.RequestStats("bench." + name));
+
+		boolean ok = false;
+		long start = System.nanoTime();
+		try {
+			ResponseBase res = op.run(ms, u, i);
+			update.saveSession(ms);
+			ok = res == null || res.isSuccess();
+			if (!ok) {
+				log.warn(name + " failed: " + res.getMessage());
+			}
+		} catch (Exception e) {
+			log.warn(name + " failed", e);
+		} finally {
+			MongoQueryProfiler.endRequest(ThreadLocals.getMongoStats());
+			ThreadLocals.removeAll();
+		}
+		long time = System.nanoTime() - start;
+		return ok ? time : -time;
+	}
+
+	private String getQueryReport() {
+		SessionContext sc = ctx.getBean(SessionContext.class);
+		sc.setUserName(PrincipalName.ADMIN.s());
+		ThreadLocals.setSC(sc);
+		try {
+			return MongoQueryProfiler.getInstance().getReport();
+		} finally {
+			ThreadLocals.removeAll();
+		}
+	}
+
+	/* Prints each op against the same op and size in 'baseFile', and returns false if any regressed */
+	private static boolean compare(File baseFile, List<String> results, double maxRegress) throws Exception {
+		HashMap<String, String[]> base = new HashMap<>();
+		for (String line : Files.readAllLines(baseFile.toPath(), StandardCharsets.UTF_8)) {
+			String[] cols = line.split("\t");
+			base.put(cols[0] + "/" + cols[1], cols);
+		}
+
+		boolean ok = true;
+		System.out.println(String.format("%-18s %10s %10s %10s %10s  %s", "op", "base p50", "new p50", "base p90", "new p90", ""));
+		for (String line : results.subList(1, results.size())) {
+			String[] cols = line.split("\t");
+			String key = cols[0] + "/" + cols[1];
+			String[] old = base.get(key);
+			if (old == null) {
+				System.out.println(String.format("%-18s %10s %10s %10s %10s  %s", key, "-", cols[5], "-", cols[6], "new"));
+				continue;
+			}
+			boolean regressed = regressed(old[5], cols[5], maxRegress) || regressed(old[6], cols[6], maxRegress);
+			System.out.println(String.format("%-18s %10s %10s %10s %10s  %s", key, old[5], cols[5], old[6], cols[6],
+					regressed ? "REGRESSED" : ""));
+			ok &= !regressed;
+		}
+		return ok;
+	}
+
+	private static boolean regressed(String baseMs, String newMs, double maxRegress) {
+		double b = Double.parseDouble(baseMs);
+		double n = Double.parseDouble(newMs);
+		return n > b * (1 + maxRegress) && (n - b) * 1e6 > MIN_REGRESS_NANOS;
+	}
+
+	private static long percentile(long[] sorted, double pct) {
+		int idx = (int) Math.ceil(pct / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+	}
+
+	private static String ms(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+}
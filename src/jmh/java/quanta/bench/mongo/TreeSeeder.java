@@ -0,0 +1,223 @@
+package quanta.bench.mongo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import org.bson.types.ObjectId;
+import lombok.extern.slf4j.Slf4j;
+import quanta.bench.BenchFixtures;
+import quanta.config.ServiceBase;
+import quanta.model.client.NodeType;
+import quanta.model.client.PrincipalName;
+import quanta.model.client.PrivilegeType;
+import quanta.mongo.MongoCreate;
+import quanta.mongo.MongoSession;
+import quanta.mongo.model.AccessControl;
+import quanta.mongo.model.SubNode;
+import quanta.util.ThreadLocals;
+
+/**
+ * Seeds the synthetic trees MongoBench runs against, and answers which seeded nodes have children
+ * (render targets) without reading them back.
+ *
+ * Each user gets a 'bench' node under their account node, holding trees of 'fanOut' children per
+ * node, 'depth' levels deep. A user's nodes are numbered in breadth first order, and once a tree is
+ * full the next one is started, so the shape of the data only depends on the node count and these
+ * settings:
+ *
+ * -Dbench.users (default 20), -Dbench.depth (4), -Dbench.fanOut (8), -Dbench.publicPct (30, the
+ * percent of nodes shared to public) and -Dbench.sharedPct (40, the percent shared to one to three
+ * other bench users).
+ *
+ * Content is the paragraphs of War and Peace, as ImportWarAndPeace loads them. Seeding is
+ * incremental, so growing from 10k to 100k nodes only inserts the extra 90k.
+ */
+@Slf4j
+public class TreeSeeder extends ServiceBase {
+	private static final int BATCH_SIZE = 1000;
+
+	public final int depth = Integer.getInteger("bench.depth", 4);
+	public final int fanOut = Integer.getInteger("bench.fanOut", 8);
+	public final int publicPct = Integer.getInteger("bench.publicPct", 30);
+	public final int sharedPct = Integer.getInteger("bench.sharedPct", 40);
+
+	// nodes per tree
+	private final int treeSize;
+
+	private final List<BenchUser> users;
+	private final Random rand = new Random(BenchFixtures.SEED);
+
+	// every seeded node, in the order seeded, so the benchmark can pick targets at random
+	private ObjectId[] ids = new ObjectId[1024];
+	private int[] userIdx = new int[1024];
+	private int[] localIdx = new int[1024];
+	private int count;
+
+	public static class BenchUser {
+		public final String userName;
+		public final ObjectId userNodeId;
+		public final String benchPath;
+		public ObjectId benchNodeId;
+
+		// nodes seeded for this user so far, and the root node of each of their trees
+		int count;
+		final List<ObjectId> treeRootIds = new ArrayList<>();
+
+		public BenchUser(String userName, ObjectId userNodeId, String accountPath) {
+			this.userName = userName;
+			this.userNodeId = userNodeId;
+			this.benchPath = accountPath + "/bench";
+		}
+	}
+
+	public TreeSeeder(List<BenchUser> users) {
+		this.users = users;
+		int size = 0;
+		int level = 1;
+		for (int d = 0; d < depth; d++) {
+			level *= fanOut;
+			size += level;
+		}
+		treeSize = size;
+	}
+
+	public List<BenchUser> getUsers() {
+		return users;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/* Seeds nodes, spread evenly over the users, until there are 'total' in all */
+	public void seedTo(int total) {
+		MongoSession as = auth.getAdminSession();
+		ThreadLocals.setMongoSession(as);
+		// every parent is seeded before its children, so skip the per node parent lookup
+		ThreadLocals.setParentCheckEnabled(false);
+		try {
+			for (BenchUser u : users) {
+				if (u.benchNodeId == null) {
+					SubNode bench = new SubNode(u.userNodeId, u.benchPath, NodeType.NONE.s(), 0L);
+					bench.setContent("Benchmark data");
+					ops.insert(bench);
+					u.benchNodeId = bench.getId();
+				}
+			}
+
+			List<SubNode> batch = new ArrayList<>(BATCH_SIZE);
+			List<String> paras = BenchFixtures.getParagraphs();
+			long start = System.currentTimeMillis();
+			int startCount = count;
+
+			while (count < total) {
+				int ui = count % users.size();
+				BenchUser u = users.get(ui);
+				int j = u.count++;
+				int tree = j / treeSize;
+				int k = j % treeSize;
+
+				if (tree == u.treeRootIds.size()) {
+					SubNode root = new SubNode(u.userNodeId, u.benchPath + "/t" + tree, NodeType.NONE.s(),
+							(long) tree * MongoCreate.ORDINAL_GAP);
+					root.setContent("Tree " + tree);
+					ops.insert(root);
+					u.treeRootIds.add(root.getId());
+				}
+
+				SubNode node = new SubNode(u.userNodeId, pathOf(u, tree, k), NodeType.NONE.s(),
+						(long) (k % fanOut) * MongoCreate.ORDINAL_GAP);
+				node.setContent(paras.get(count % paras.size()));
+				node.setModifyTime(new Date(1700000000000L + count * 1000L));
+				node.setAc(makeAcl(u));
+				// hasChildren is left unset, so the app works it out (and saves it) like it does for older data
+				node.setId(new ObjectId());
+				batch.add(node);
+				add(node.getId(), ui, j);
+
+				if (batch.size() >= BATCH_SIZE) {
+					ops.insert(batch, SubNode.class);
+					batch.clear();
+				}
+			}
+			if (batch.size() > 0) {
+				ops.insert(batch, SubNode.class);
+			}
+
+			long secs = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+			log.info("Seeded " + (count - startCount) + " nodes in " + secs + "s, total=" + count);
+		} finally {
+			ThreadLocals.removeAll();
+		}
+	}
+
+	/* Path of the k-th node (breadth first) of a user's tree. Parent of k is k/fanOut-1 */
+	private String pathOf(BenchUser u, int tree, int k) {
+		StringBuilder sb = new StringBuilder();
+		while (k >= 0) {
+			sb.insert(0, "/" + Integer.toString(k, 36));
+			k = k / fanOut - 1;
+		}
+		return u.benchPath + "/t" + tree + sb;
+	}
+
+	private HashMap<String, AccessControl> makeAcl(BenchUser owner) {
+		int pct = rand.nextInt(100);
+		HashMap<String, AccessControl> ac = new HashMap<>();
+		if (pct < publicPct) {
+			ac.put(PrincipalName.PUBLIC.s(), new AccessControl(null, PrivilegeType.READ.s()));
+		} else if (pct < publicPct + sharedPct) {
+			int shares = 1 + rand.nextInt(3);
+			for (int s = 0; s < shares; s++) {
+				BenchUser to = users.get(rand.nextInt(users.size()));
+				if (to != owner) {
+					ac.put(to.userNodeId.toHexString(), new AccessControl(null, PrivilegeType.READ.s()));
+				}
+			}
+		}
+		return ac.size() > 0 ? ac : null;
+	}
+
+	private void add(ObjectId id, int user, int j) {
+		if (count == ids.length) {
+			int len = ids.length * 2;
+			ids = Arrays.copyOf(ids, len);
+			userIdx = Arrays.copyOf(userIdx, len);
+			localIdx = Arrays.copyOf(localIdx, len);
+		}
+		ids[count] = id;
+		userIdx[count] = user;
+		localIdx[count] = j;
+		count++;
+	}
+
+	/* A random seeded node that currently has children, for render and insert targets */
+	public int randomParent(Random r) {
+		for (int tries = 0; tries < 1000; tries++) {
+			int i = r.nextInt(count);
+			BenchUser u = users.get(userIdx[i]);
+			int j = localIdx[i];
+			int tree = j / treeSize;
+			int inTree = Math.min(treeSize, u.count - tree * treeSize);
+			if ((long) (j % treeSize + 1) * fanOut < inTree) {
+				return i;
+			}
+		}
+		throw new RuntimeException("no seeded node with children found, is fanOut too large for the node count?");
+	}
+
+	public ObjectId getId(int i) {
+		return ids[i];
+	}
+
+	public BenchUser getUser(int i) {
+		return users.get(userIdx[i]);
+	}
+
+	public ObjectId getTreeRoot(BenchUser u, int tree) {
+		return u.treeRootIds.get(tree);
+	}
+}
@@ -15,7 +15,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.servlet.error.ErrorController;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
-import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -44,6 +43,7 @@ import quanta.config.SessionContext;
 import quanta.exception.base.RuntimeEx;
 import quanta.filter.AuditFilter;
 import quanta.instrument.PerfMon;
+import quanta.instrument.PerfMetrics;
 import quanta.instrument.PerformanceReport;
 import quanta.mail.EmailSender;
 import quanta.model.NodeInfo;
@@ -53,12 +53,14 @@ import quanta.model.client.MFSDirEntry;
 import quanta.model.client.NodeProp;
 import quanta.model.client.NodeType;
 import quanta.model.client.UserProfile;
+import quanta.mongo.MongoQueryProfiler;
 import quanta.mongo.model.SubNode;
 import quanta.request.AddFriendRequest;
 import quanta.request.AddPrivilegeRequest;
 import quanta.request.AppDropRequest;
 import quanta.request.BlockUserRequest;
 import quanta.request.ChangePasswordRequest;
+import quanta.request.CancelSubGraphUpdateRequest;
 import quanta.request.CheckMessagesRequest;
 import quanta.request.CloseAccountRequest;
 import quanta.request.CopySharingRequest;
@@ -388,6 +390,30 @@ public class AppController extends ServiceBase implements ErrorController {
 		return PerformanceReport.getReport();
 	}
 
+	/*
+	 * Mongo commands per API call, and the slowest query shapes. See MongoQueryProfiler
+	 */
+	@GetMapping(value = {"/mongo-report"}, produces = MediaType.TEXT_HTML_VALUE)
+	public @ResponseBody String mongoReport() {
+		ThreadLocals.requireAdmin();
+		MongoQueryProfiler mqp = MongoQueryProfiler.getInstance();
+		return mqp != null ? mqp.getReport() : "Mongo profiling not running.";
+	}
+
+	/*
+	 * Latency metrics in the Prometheus text format. Allowed for the admin, or for a scraper sending
+	 * the 'metricsToken' property as a bearer token.
+	 */
+	@GetMapping(value = {"/metrics"}, produces = "text/plain; version=0.0.4")
+	public @ResponseBody String metrics(
+			@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+		String token = prop.getMetricsToken();
+		if (StringUtils.isEmpty(token) || !("Bearer " + token).equals(authorization)) {
+			ThreadLocals.requireAdmin();
+		}
+		return PerfMetrics.getPrometheusText();
+	}
+
 	/*
 	 * This was sort of experimental, but I need to document how it works and put in the User Guide
 	 */
@@ -836,6 +862,14 @@ public class AppController extends ServiceBase implements ErrorController {
 		});
 	}
 
+	@RequestMapping(value = API_PATH + "/cancelSubGraphUpdate", method = RequestMethod.POST)
+	public @ResponseBody Object cancelSubGraphUpdate(@RequestBody CancelSubGraphUpdateRequest req, HttpSession session) {
+
+		return callProc.run("cancelSubGraphUpdate", true, true, req, session, ms -> {
+			return edit.cancelSubGraphUpdate(ms, req);
+		});
+	}
+
 	@RequestMapping(value = API_PATH + "/publishNodeToIpfs", method = RequestMethod.POST)
 	public @ResponseBody Object publishNodeToIpfs(@RequestBody PublishNodeToIpfsRequest req, HttpSession session) {
 		checkIpfs();
@@ -1102,7 +1136,7 @@ public class AppController extends ServiceBase implements ErrorController {
 						log.debug("Node did not exist: " + _id);
 						throw new RuntimeException("Node not found.");
 					} else {
-						attach.getBinary(as, _attName, node, null, null, download != null, response);
+						attach.getBinary(as, _attName, node, null, null, download != null, null, req, response);
 					}
 					return null;
 				});
@@ -1138,21 +1172,26 @@ public class AppController extends ServiceBase implements ErrorController {
 			 */
 			@RequestParam(value = "token", required = false) String token, //
 			@RequestParam(value = "download", required = false) String download, //
-			HttpSession session, HttpServletResponse response) {
+			/*
+			 * Width the image will be shown at, so we can send a downscaled copy of it rather than the original
+			 * (see ImageVariantService)
+			 */
+			@RequestParam(value = "w", required = false) Integer width, //
+			HttpSession session, HttpServletRequest request, HttpServletResponse response) {
 		// NO NOT HERE -> SessionContext.checkReqToken();
 
 		if (token == null) {
 			// Check if this is an 'avatar' request and if so bypass security
 			if ("avatar".equals(binId)) {
 				arun.run(as -> {
-					attach.getBinary(as, Constant.ATTACHMENT_PRIMARY.s(), null, nodeId, binId, download != null, response);
+					attach.getBinary(as, Constant.ATTACHMENT_PRIMARY.s(), null, nodeId, binId, download != null, width, request, response);
 					return null;
 				});
 			}
 			// Check if this is an 'profileHeader Image' request and if so bypass security
 			else if ("profileHeader".equals(binId)) {
 				arun.run(as -> {
-					attach.getBinary(as, Constant.ATTACHMENT_HEADER.s(), null, nodeId, binId, download != null, response);
+					attach.getBinary(as, Constant.ATTACHMENT_HEADER.s(), null, nodeId, binId, download != null, width, request, response);
 					return null;
 				});
 			}
@@ -1162,7 +1201,7 @@ public class AppController extends ServiceBase implements ErrorController {
 					if (ipfsCid != null) {
 						ipfs.streamResponse(response, ms, ipfsCid, null);
 					} else {
-						attach.getBinary(null, null, null, nodeId, binId, download != null, response);
+						attach.getBinary(null, null, null, nodeId, binId, download != null, width, request, response);
 					}
 					return null;
 				});
@@ -1170,7 +1209,7 @@ public class AppController extends ServiceBase implements ErrorController {
 		} else {
 			if (SessionContext.validToken(token, null)) {
 				arun.run(as -> {
-					attach.getBinary(as, null, null, nodeId, binId, download != null, response);
+					attach.getBinary(as, null, null, nodeId, binId, download != null, width, request, response);
 					return null;
 				});
 			}
@@ -1225,10 +1264,9 @@ public class AppController extends ServiceBase implements ErrorController {
 	public Object getFileSystemResourceStream(//
 			@PathVariable("nodeId") String nodeId, //
 			@RequestParam(name = "disp", required = false) String disposition, //
-			HttpSession session) {
+			HttpSession session, HttpServletRequest request, HttpServletResponse response) {
 		return callProc.run("filesys", false, false, null, session, ms -> {
-			// return attachmentService.getFileSystemResourceStream(ms, nodeId,
-			// disposition);
+			// attach.getFileSystemResourceStream(ms, nodeId, disposition, request, response);
 			return null;
 		});
 	}
@@ -1244,17 +1282,17 @@ public class AppController extends ServiceBase implements ErrorController {
 	// }
 	@PerfMon
 	@RequestMapping(value = API_PATH + "/stream/{fileName}", method = RequestMethod.GET)
-	public ResponseEntity<ResourceRegion> streamMultiPart(//
+	public void streamMultiPart(//
 			@PathVariable("fileName") String fileName, //
 			@RequestParam("nodeId") String nodeId, //
 			@RequestParam(name = "disp", required = false) final String disp, //
-			@RequestHeader HttpHeaders headers, //
 			HttpServletRequest request, //
 			HttpServletResponse response, //
 			HttpSession session) {
 		// NO NOT HERE -> SessionContext.checkReqToken();
-		return (ResponseEntity<ResourceRegion>) callProc.run("stream", false, false, null, session, ms -> {
-			return attach.getStreamResource(ms, headers, nodeId);
+		callProc.run("stream", false, false, null, session, ms -> {
+			attach.getStreamResource(ms, nodeId, request, response);
+			return null;
 		});
 	}
 
@@ -1606,7 +1644,7 @@ public class AppController extends ServiceBase implements ErrorController {
 					break;
 
 				case "refreshTrendingCache":
-					res.getMessages().add(new InfoMessage(search.refreshTrendingCache(), null));
+					res.getMessages().add(new InfoMessage(trending.refreshTrendingCache(), null));
 					break;
 
 				case "refreshFediverseUsers":
@@ -1625,6 +1663,11 @@ public class AppController extends ServiceBase implements ErrorController {
 					res.getMessages().add(new InfoMessage(system.getSystemInfo(), null));
 					break;
 
+				case "toggleNodeCache":
+					nodeCache.setEnabled(!nodeCache.isEnabled());
+					res.getMessages().add(new InfoMessage(system.getSystemInfo(), null));
+					break;
+
 				case "toggleDaemons":
 					prop.setDaemonsEnabled(!prop.isDaemonsEnabled());
 					res.getMessages().add(new InfoMessage(system.getSystemInfo(), null));
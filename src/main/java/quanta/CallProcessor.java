@@ -1,6 +1,7 @@
 package quanta;
 
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import org.apache.commons.lang3.StringUtils;
@@ -13,8 +14,11 @@ import quanta.config.SessionContext;
 import quanta.exception.NotLoggedInException;
 import quanta.exception.OutOfSpaceException;
 import quanta.instrument.Instrument;
+import quanta.instrument.LatencyHistogram;
+import quanta.instrument.PerfMetrics;
 import quanta.instrument.PerfMonEvent;
 import quanta.model.client.ErrorType;
+import quanta.mongo.MongoQueryProfiler;
 import quanta.mongo.MongoSession;
 import quanta.request.LogoutRequest;
 import quanta.request.base.RequestBase;
@@ -28,6 +32,9 @@ import quanta.util.XString;
 @Component
 @Slf4j
 public class CallProcessor extends ServiceBase {
+	// latency histogram for each command
+	private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
 	/*
 	 * Wraps the processing of any command by using whatever info is on the session and/or the request
 	 * to perform the login if the user is not logged in, and then call the function to be processed
@@ -75,6 +82,8 @@ public class CallProcessor extends ServiceBase {
 		switch (command) {
 			case "serverPush":
 			case "signNodes":
+			// must get thru while the update it's cancelling holds the lock
+			case "cancelSubGraphUpdate":
 				useLock = false;
 			default:
 				break;
@@ -87,6 +96,7 @@ public class CallProcessor extends ServiceBase {
 		}
 
 		long startTime = 0;
+		long startNanos = 0;
 		String userName = null;
 
 		try {
@@ -102,6 +112,8 @@ public class CallProcessor extends ServiceBase {
 				// log.debug("Enter: mutexCounter: "+String.valueOf(mutexCounter));
 				Date now = new Date();
 				sc.setLastActiveTime(startTime = now.getTime());
+				startNanos = System.nanoTime();
+				ThreadLocals.setMongoStats(new MongoQueryProfiler.RequestStats(command));
 				userName = sc.getUserName();
 				MongoSession ms = ThreadLocals.getMongoSession();
 				ret = runner.run(ms);
@@ -141,9 +153,20 @@ public class CallProcessor extends ServiceBase {
 				orb.setStackTrace(ExceptionUtils.getStackTrace(e));
 			}
 		} finally {
-			int duration = (int) (System.currentTimeMillis() - startTime);
-			if (duration > Instrument.CAPTURE_THRESHOLD) {
-				new PerfMonEvent(duration, "callProc." + command, userName);
+			if (startNanos != 0) {
+				LatencyHistogram histogram = histograms.get(command);
+				if (histogram == null) {
+					histogram = histograms.computeIfAbsent(command, c -> PerfMetrics.get("callProc." + c));
+				}
+				histogram.record(System.nanoTime() - startNanos);
+
+				MongoQueryProfiler.endRequest(ThreadLocals.getMongoStats());
+				ThreadLocals.setMongoStats(null);
+
+				int duration = (int) (System.currentTimeMillis() - startTime);
+				if (duration > Instrument.CAPTURE_THRESHOLD) {
+					new PerfMonEvent(duration, histogram.getName(), userName);
+				}
 			}
 
 			if (useLock && mutex != null) {
@@ -128,13 +128,8 @@ public class ActPubController extends ServiceBase {
 	public @ResponseBody Object sharedInboxPost(//
 			@RequestBody byte[] body, //
 			HttpServletRequest req) {
-		try {
-			ActPubService.inboxCount++;
-			apub.processInboxPost(req, body);
-			return new ResponseEntity<String>(HttpStatus.OK);
-		} catch (Exception e) {
-			return new ResponseEntity<String>(HttpStatus.BAD_REQUEST);
-		}
+		ActPubService.inboxCount++;
+		return inboxResponse(apInbox.enqueue(req, body));
 	}
 
 	/**
@@ -153,13 +148,17 @@ public class ActPubController extends ServiceBase {
 			@PathVariable(value = "userName", required = true) String userName, //
 			HttpServletRequest httpReq) {
 		Util.failIfAdmin(userName);
-		try {
-			ActPubService.inboxCount++;
-			apub.processInboxPost(httpReq, body);
-			return new ResponseEntity<String>(HttpStatus.OK);
-		} catch (Exception e) {
-			return new ResponseEntity<String>(HttpStatus.BAD_REQUEST);
+		ActPubService.inboxCount++;
+		return inboxResponse(apInbox.enqueue(httpReq, body));
+	}
+
+	private ResponseEntity<String> inboxResponse(HttpStatus status) {
+		if (status == HttpStatus.TOO_MANY_REQUESTS) {
+			HttpHeaders hdr = new HttpHeaders();
+			hdr.set(HttpHeaders.RETRY_AFTER, String.valueOf(ActPubInbox.RETRY_AFTER_SECONDS));
+			return new ResponseEntity<String>(hdr, status);
 		}
+		return new ResponseEntity<String>(status);
 	}
 
 	/**
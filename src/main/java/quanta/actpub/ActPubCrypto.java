@@ -19,7 +19,6 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
-import javax.servlet.http.HttpServletRequest;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
@@ -68,7 +67,7 @@ public class ActPubCrypto extends ServiceBase {
         return privateKey;
     }
 
-    public void parseHttpHeaderSig(HttpServletRequest httpReq, Val<String> keyId, Val<String> signature, boolean requireDigest,
+    public void parseHttpHeaderSig(HttpSigRequest httpReq, Val<String> keyId, Val<String> signature, boolean requireDigest,
             Val<List<String>> headers) {
         String reqSig = httpReq.getHeader("Signature");
         if (reqSig == null) {
@@ -122,7 +121,7 @@ public class ActPubCrypto extends ServiceBase {
     // todo-2: need a version of this method that wraps the logic of going and getting the publickey
     // off the original server and updating it into our local db if necessary, and then trying THAT
     // key before finally failing.
-    public void verifySignature(HttpServletRequest httpReq, PublicKey pubKey, byte[] bodyBytes) {
+    public void verifySignature(HttpSigRequest httpReq, PublicKey pubKey, byte[] bodyBytes) {
         if (pubKey == null) {
             throw new RuntimeException("no pubKey");
         }
@@ -240,7 +239,7 @@ public class ActPubCrypto extends ServiceBase {
     }
 
     // bodyBytes can be null and they simply won't be checked.
-    private byte[] getHeaderSignatureBytes(HttpServletRequest httpReq, List<String> headers, byte[] bodyBytes) {
+    private byte[] getHeaderSignatureBytes(HttpSigRequest httpReq, List<String> headers, byte[] bodyBytes) {
         ArrayList<String> sigParts = new ArrayList<>();
 
         for (String header : headers) {
@@ -351,7 +350,7 @@ public class ActPubCrypto extends ServiceBase {
     }
 
     // it's NOT an error condition when bodyBytes is null, it just means no body exists.
-    private String digestFromBodyBytes(byte[] bytes) {
+    public String digestFromBodyBytes(byte[] bytes) {
         try {
             return bytes != null
                     ? DIGEST_ALGO + "=" + Base64.getEncoder().encodeToString(MessageDigest.getInstance(DIGEST_ALGO).digest(bytes))
@@ -366,7 +365,7 @@ public class ActPubCrypto extends ServiceBase {
     }
 
     /* Returns true if signaure check is successful */
-    public boolean verifySignature(HttpServletRequest httpReq, Object payload, String actorUrl, byte[] bodyBytes,
+    public boolean verifySignature(HttpSigRequest httpReq, Object payload, String actorUrl, byte[] bodyBytes,
             Val<String> keyEncoded) {
         PublicKey pubKey = apCrypto.getPubKeyFromActorUrl(null, actorUrl, keyEncoded);
         if (pubKey == null) {
@@ -0,0 +1,433 @@
+package quanta.actpub;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import lombok.extern.slf4j.Slf4j;
+import quanta.actpub.model.APObj;
+import quanta.config.ServiceBase;
+import quanta.mongo.MongoRepository;
+import quanta.mongo.model.APDelivery;
+import quanta.util.DateUtil;
+
+/**
+ * Sends outbound ActivityPub messages to foreign inboxes.
+ *
+ * The message is serialized once, and then each inbox gets its own signed POST, all sent
+ * concurrently on a dedicated thread pool (so a post going to hundreds of servers doesn't tie up
+ * the shared AsyncExec threads) over one pooled HTTP client. No more than 'apDeliveryPerHost'
+ * posts are ever in flight to the same host.
+ *
+ * Every post is saved in the DB (see APDelivery) before the first attempt and removed once it's
+ * sent, so nothing is lost on a restart. Posts failing with a 5xx, 408, 429 or a network
+ * error/timeout are retried with exponential backoff. A host that fails CIRCUIT_FAILURES times in a
+ * row is considered dead for CIRCUIT_OPEN_MILLIS, during which anything for it just waits in the
+ * retry queue. The pool's queue holds at most QUEUE_SIZE posts, and anything more waits in the DB
+ * for pollRetries to pick up.
+ */
+@Component
+@Slf4j
+public class ActPubDelivery extends ServiceBase {
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long FIRST_RETRY_MILLIS = DateUtil.MINUTE_MILLIS;
+    private static final long MAX_RETRY_MILLIS = 6 * DateUtil.HOUR_MILLIS;
+    private static final int CIRCUIT_FAILURES = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 10 * DateUtil.MINUTE_MILLIS;
+
+    // max number of retries we load from the DB per poll
+    private static final int RETRY_BATCH_SIZE = 500;
+
+    // max posts waiting for a thread in memory
+    private static final int QUEUE_SIZE = 10000;
+
+    // how long to wait before trying again when a host already has 'apDeliveryPerHost' posts in flight
+    private static final long HOST_BUSY_DELAY_MILLIS = 250;
+
+    private static class HostState {
+        final Semaphore permits;
+        final AtomicInteger failures = new AtomicInteger();
+        volatile long openUntil = 0;
+
+        HostState(int perHost) {
+            permits = new Semaphore(perHost);
+        }
+    }
+
+    private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService delayer;
+    private CloseableHttpClient httpClient;
+    private RestTemplate restTemplate;
+    private int perHost;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retriesQueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // for throughput: 'sent' count as of the last minute tick, and how many were sent in that minute
+    private long sentAtLastTick = 0;
+    private volatile long sentLastMinute = 0;
+
+    private boolean polling = false;
+
+    private synchronized void init() {
+        if (executor != null)
+            return;
+
+        perHost = prop.getApDeliveryPerHost();
+        int threads = prop.getApDeliveryThreads();
+
+        PoolingHttpClientConnectionManager connMgr = new PoolingHttpClientConnectionManager();
+        connMgr.setMaxTotal(threads * perHost);
+        connMgr.setDefaultMaxPerRoute(perHost);
+
+        RequestConfig config = RequestConfig.custom() //
+                .setConnectTimeout(TIMEOUT_MILLIS) //
+                .setConnectionRequestTimeout(TIMEOUT_MILLIS) //
+                .setSocketTimeout(TIMEOUT_MILLIS) //
+                .build();
+
+        httpClient = HttpClients.custom() //
+                .setConnectionManager(connMgr) //
+                .setDefaultRequestConfig(config) //
+                .evictIdleConnections(60, TimeUnit.SECONDS) //
+                .build();
+        restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+
+        AtomicInteger threadNum = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+            Thread t = new Thread(runnable, "ap-delivery-" + threadNum.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        delayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread t = new Thread(runnable, "ap-delivery-delay");
+            t.setDaemon(true);
+            return t;
+        });
+        log.debug("ActPubDelivery started: threads=" + threads + " perHost=" + perHost);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor == null)
+            return;
+        delayer.shutdownNow();
+        executor.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+
+    /*
+     * Queues 'message' to be posted to every one of 'inboxes', signed as 'actor', and returns
+     * immediately.
+     */
+    public void deliver(Collection<String> inboxes, String privateKey, String actor, APObj message, MediaType postType) {
+        if (inboxes == null || inboxes.size() == 0)
+            return;
+        init();
+
+        String body;
+        try {
+            // compact form, since no human will ever read this
+            body = ActPubUtil.mapper.writeValueAsString(message);
+        } catch (Exception e) {
+            log.error("Unable to serialize outbound message", e);
+            return;
+        }
+
+        Date now = new Date();
+        // the poll mustn't pick these up while they're being sent, same as for retries
+        Date leaseEnd = new Date(now.getTime() + MAX_RETRY_MILLIS);
+        List<APDelivery> deliveries = new ArrayList<>();
+        for (String inbox : inboxes) {
+            APDelivery delivery = new APDelivery();
+            delivery.setUrl(inbox);
+            delivery.setActor(actor);
+            delivery.setBody(body);
+            delivery.setPostType(postType.toString());
+            delivery.setAttempts(0);
+            delivery.setNextAttempt(leaseEnd);
+            delivery.setCreateTime(now);
+            deliveries.add(delivery);
+        }
+
+        try {
+            ops.insert(deliveries, APDelivery.class);
+        } catch (Exception e) {
+            // still worth trying to send, it just won't survive a restart
+            log.error("Unable to save ActPub deliveries", e);
+        }
+
+        for (APDelivery delivery : deliveries) {
+            queued.incrementAndGet();
+            submit(delivery, privateKey);
+        }
+    }
+
+    private void submit(APDelivery delivery, String privateKey) {
+        try {
+            executor.execute(() -> send(delivery, privateKey));
+        } catch (RejectedExecutionException e) {
+            defer(delivery);
+        }
+    }
+
+    /* The pool's queue is full, so leave 'delivery' in the DB for the next poll to send */
+    private void defer(APDelivery delivery) {
+        if (delivery.getId() == null) {
+            drop(delivery);
+            return;
+        }
+        deferred.incrementAndGet();
+        delivery.setNextAttempt(new Date());
+        try {
+            ops.save(delivery);
+        } catch (Exception e) {
+            log.error("Unable to save deferred ActPub delivery: " + delivery.getUrl(), e);
+        }
+    }
+
+    private void send(APDelivery delivery, String privateKey) {
+        String host = getHost(delivery.getUrl());
+        if (host == null) {
+            log.debug("Bad inbox url: " + delivery.getUrl());
+            drop(delivery);
+            return;
+        }
+        HostState state = hosts.computeIfAbsent(host, k -> new HostState(perHost));
+
+        // dead host, so park this in the retry queue until the circuit closes again.
+        long now = System.currentTimeMillis();
+        if (state.openUntil > now) {
+            saveRetry(delivery, new Date(state.openUntil), false);
+            return;
+        }
+
+        // host already has all the concurrent posts it's allowed, so come back shortly
+        if (!state.permits.tryAcquire()) {
+            delayer.schedule(() -> submit(delivery, privateKey), HOST_BUSY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        long start = System.currentTimeMillis();
+        try {
+            post(delivery, privateKey);
+            recordLatency(System.currentTimeMillis() - start);
+            sent.incrementAndGet();
+            state.failures.set(0);
+            state.openUntil = 0;
+
+            if (delivery.getId() != null) {
+                ops.remove(delivery);
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            if (isRetryable(e)) {
+                if (state.failures.incrementAndGet() >= CIRCUIT_FAILURES) {
+                    state.openUntil = System.currentTimeMillis() + CIRCUIT_OPEN_MILLIS;
+                    log.debug("ActPub delivery circuit open for host: " + host);
+                }
+                saveRetry(delivery, null, true);
+            } else {
+                log.debug("ActPub delivery failed permanently: " + delivery.getUrl() + " " + e.getMessage());
+                drop(delivery);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+            state.permits.release();
+        }
+    }
+
+    private void post(APDelivery delivery, String privateKey) {
+        byte[] bodyBytes = delivery.getBody().getBytes(StandardCharsets.UTF_8);
+
+        // signed per inbox (and per attempt) since the signature covers the target and the date
+        HttpHeaders headers = new HttpHeaders();
+        apCrypto.loadSignatureHeaderVals(headers, privateKey, delivery.getUrl(), delivery.getActor(), bodyBytes, "post");
+        apUtil.loadPostHeaders(headers, MediaType.parseMediaType(delivery.getPostType()));
+
+        // sending bytes (not a String) guarantees the body is exactly what the digest was computed over
+        HttpEntity<byte[]> requestEntity = new HttpEntity<>(bodyBytes, headers);
+        restTemplate.exchange(delivery.getUrl(), HttpMethod.POST, requestEntity, String.class);
+    }
+
+    private boolean isRetryable(Exception e) {
+        if (e instanceof ResourceAccessException) {
+            return true;
+        }
+        if (e instanceof HttpStatusCodeException) {
+            HttpStatus status = ((HttpStatusCodeException) e).getStatusCode();
+            return status.is5xxServerError() || status == HttpStatus.REQUEST_TIMEOUT || status == HttpStatus.TOO_MANY_REQUESTS;
+        }
+        return false;
+    }
+
+    /*
+     * Saves 'delivery' to the DB to be sent again at 'when', or if 'when' is null then at the next
+     * backoff interval. 'countAttempt' is false when we never actually tried to send.
+     */
+    private void saveRetry(APDelivery delivery, Date when, boolean countAttempt) {
+        int attempts = delivery.getAttempts() + (countAttempt ? 1 : 0);
+        if (attempts >= MAX_ATTEMPTS) {
+            log.debug("ActPub delivery gave up after " + attempts + " attempts: " + delivery.getUrl());
+            drop(delivery);
+            return;
+        }
+
+        if (when == null) {
+            long backoff = Math.min(FIRST_RETRY_MILLIS << Math.max(0, attempts - 1), MAX_RETRY_MILLIS);
+            when = new Date(System.currentTimeMillis() + backoff);
+        }
+        delivery.setAttempts(attempts);
+        delivery.setNextAttempt(when);
+        try {
+            ops.save(delivery);
+            retriesQueued.incrementAndGet();
+        } catch (Exception e) {
+            log.error("Unable to save ActPub delivery retry: " + delivery.getUrl(), e);
+        }
+    }
+
+    private void drop(APDelivery delivery) {
+        dropped.incrementAndGet();
+        if (delivery.getId() != null) {
+            ops.remove(delivery);
+        }
+    }
+
+    /* Sends whatever retries are due. */
+    @Scheduled(fixedDelay = 30 * 1000)
+    public void pollRetries() {
+        if (polling || !prop.isActPubEnabled() || !prop.isDaemonsEnabled() || !MongoRepository.fullInit)
+            return;
+
+        try {
+            polling = true;
+            init();
+
+            // don't load more while the last batch is still going out
+            if (executor.getQueue().size() > 0)
+                return;
+
+            Query q = new Query(Criteria.where(APDelivery.NEXT_ATTEMPT).lte(new Date()));
+            q.with(Sort.by(Sort.Direction.ASC, APDelivery.NEXT_ATTEMPT));
+            q.limit(RETRY_BATCH_SIZE);
+
+            for (APDelivery delivery : ops.find(q, APDelivery.class)) {
+                String privateKey = getPrivateKeyForActor(delivery.getActor());
+                if (privateKey == null) {
+                    drop(delivery);
+                    continue;
+                }
+
+                // push next attempt out so the next poll can't pick this up again while it's in flight
+                delivery.setNextAttempt(new Date(System.currentTimeMillis() + MAX_RETRY_MILLIS));
+                ops.save(delivery);
+                submit(delivery, privateKey);
+            }
+        } catch (Exception e) {
+            log.error("ActPub delivery retry poll failed", e);
+        } finally {
+            polling = false;
+        }
+    }
+
+    private String getPrivateKeyForActor(String actor) {
+        String userName = apUtil.getLocalUserNameFromActorUrl(actor);
+        if (userName == null)
+            return null;
+        return arun.run(as -> apCrypto.getPrivateKey(as, userName));
+    }
+
+    @Scheduled(fixedDelay = DateUtil.MINUTE_MILLIS)
+    public void throughputTick() {
+        long curSent = sent.get();
+        sentLastMinute = curSent - sentAtLastTick;
+        sentAtLastTick = curSent;
+    }
+
+    private void recordLatency(long millis) {
+        totalLatency.addAndGet(millis);
+        maxLatency.accumulateAndGet(millis, Math::max);
+    }
+
+    private String getHost(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public String getStatsReport() {
+        long s = sent.get();
+        int openCircuits = 0;
+        long now = System.currentTimeMillis();
+        for (HostState state : hosts.values()) {
+            if (state.openUntil > now) {
+                openCircuits++;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nActivityPub Delivery Stats:\n");
+        sb.append("Queued: " + queued.get() + "\n");
+        sb.append("Sent: " + s + "\n");
+        sb.append("Sent Last Minute: " + sentLastMinute + "\n");
+        sb.append("Failed Attempts: " + failed.get() + "\n");
+        sb.append("Retries Queued: " + retriesQueued.get() + "\n");
+        sb.append("Dropped: " + dropped.get() + "\n");
+        sb.append("Deferred (queue full): " + deferred.get() + "\n");
+        sb.append("In Flight: " + inFlight.get() + "\n");
+        sb.append("Waiting: " + (executor != null ? executor.getQueue().size() : 0) + "\n");
+        sb.append("Avg Latency: " + (s == 0 ? 0 : totalLatency.get() / s) + "ms\n");
+        sb.append("Max Latency: " + maxLatency.get() + "ms\n");
+        sb.append("Hosts: " + hosts.size() + " (open circuits: " + openCircuits + ")\n");
+        return sb.toString();
+    }
+}
@@ -186,17 +186,9 @@ public class ActPubFollower extends ServiceBase {
             q.limit(ConstantInt.ROWS_PER_PAGE.val());
             q.skip(ConstantInt.ROWS_PER_PAGE.val() * req.getPage());
 
-            Iterable<SubNode> iterable = mongoUtil.find(q);
-            List<NodeInfo> searchResults = new LinkedList<NodeInfo>();
-            int counter = 0;
-
-            for (SubNode node : iterable) {
-                NodeInfo info = convert.convertToNodeInfo(false, ThreadLocals.getSC(), as, node, false, counter + 1, false,
-                        false, false, true, false, false, null, false);
-                if (info != null) {
-                    searchResults.add(info);
-                }
-            }
+            List<SubNode> nodes = mongoUtil.find(q);
+            List<NodeInfo> searchResults = convert.convertToNodeInfos(false, ThreadLocals.getSC(), as, nodes, false, 1, false,
+                    false, true, false, false, null);
 
             res.setSearchResults(searchResults);
             return res;
@@ -397,17 +397,9 @@ public class ActPubFollowing extends ServiceBase {
             q.limit(ConstantInt.ROWS_PER_PAGE.val());
             q.skip(ConstantInt.ROWS_PER_PAGE.val() * req.getPage());
 
-            Iterable<SubNode> iterable = mongoUtil.find(q);
-            List<NodeInfo> searchResults = new LinkedList<>();
-            int counter = 0;
-
-            for (SubNode node : iterable) {
-                NodeInfo info = convert.convertToNodeInfo(false, ThreadLocals.getSC(), as, node, false, counter + 1, false, false,
-                        false, false, false, false, null, false);
-                if (info != null) {
-                    searchResults.add(info);
-                }
-            }
+            List<SubNode> nodes = mongoUtil.find(q);
+            List<NodeInfo> searchResults = convert.convertToNodeInfos(false, ThreadLocals.getSC(), as, nodes, false, 1, false,
+                    false, false, false, false, null);
 
             res.setSearchResults(searchResults);
             return res;
@@ -468,8 +460,7 @@ public class ActPubFollowing extends ServiceBase {
          * query all the direct children under the friendsListNode, that are FRIEND type although they
          * should all be FRIEND types.
          */
-        Criteria crit = Criteria.where(//
-                SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(friendsListNode.getPath()))//
+        Criteria crit = mongoUtil.directChildrenCriteria(friendsListNode.getPath())//
                 .and(SubNode.TYPE).is(NodeType.FRIEND.s());
 
         q.addCriteria(crit);
@@ -0,0 +1,419 @@
+package quanta.actpub;
+
+import static quanta.actpub.model.AP.apStr;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.actpub.model.APObj;
+import quanta.actpub.model.APType;
+import quanta.config.ServiceBase;
+import quanta.config.SessionContext;
+import quanta.mongo.MongoRepository;
+import quanta.mongo.model.APInboxItem;
+import quanta.util.DateUtil;
+import quanta.util.ThreadLocals;
+import quanta.util.val.Val;
+
+/**
+ * Queue for inbound ActivityPub inbox posts.
+ *
+ * The inbox endpoints only do a cheap check of the Signature header and the body digest, save the
+ * raw post (see APInboxItem) and return 202. The expensive part (getting the actor's public key,
+ * verifying the signature, and processing the activity) is done by 'apInboxThreads' worker threads.
+ * The queue is in the DB, so nothing accepted is lost on a restart.
+ *
+ * Nothing about a post is trusted until its signature is checked, so an unverified post must not
+ * be able to keep out the real one. An exact repeat of a queued post (same activity 'id' and same
+ * signature) is dropped by a unique index, but posts that only share the 'id' are all queued, and
+ * whichever one verifies first wins. Only ids that were processed successfully are remembered, and
+ * later posts of those ids are dropped. When a worker gets to an Update or Delete, and the same actor
+ * has queued a newer Update or Delete of the same object, it processes the newest one first, and if
+ * that succeeds the older ones are simply discarded.
+ *
+ * When the queue has 'apInboxMaxQueue' items in it, posts are refused with a 429 until the workers
+ * catch up. So that one server (or someone just claiming to be it) can't fill the queue on its own,
+ * a host with 'apInboxMaxPerHost' posts queued gets a 429 too, going by the host of the keyId.
+ */
+@Component
+@Slf4j
+public class ActPubInbox extends ServiceBase {
+    // claims older than this are assumed to belong to a worker that died (or to a previous run)
+    private static final long STALE_CLAIM_MILLIS = 5 * DateUtil.MINUTE_MILLIS;
+
+    // how long an idle worker waits before looking in the DB again
+    private static final long IDLE_WAIT_MILLIS = 5000;
+
+    // how many recently processed activity ids we remember
+    private static final int RECENT_IDS_SIZE = 10000;
+
+    // the value we send in the Retry-After header with a 429
+    public static final int RETRY_AFTER_SECONDS = 60;
+
+    private final Map<String, Boolean> recentIds = Collections.synchronizedMap(new LinkedHashMap<>() {
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_IDS_SIZE;
+        }
+    });
+
+    private final Object signal = new Object();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean stopping = false;
+
+    // approximate number of items in the queue, kept exact-ish by 'maintain'
+    private final AtomicLong depth = new AtomicLong();
+
+    // same as 'depth' but per host, also resynced by 'maintain'
+    private final ConcurrentHashMap<String, AtomicLong> hostDepth = new ConcurrentHashMap<>();
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rejectedHost = new AtomicLong();
+    private final AtomicLong badRequests = new AtomicLong();
+
+    // processing lag is the time from the post arriving until we're done processing it
+    private final AtomicLong totalLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+    private volatile long lastLag = 0;
+    private volatile long oldestPendingAge = 0;
+
+    /*
+     * Called by the inbox endpoints. Returns ACCEPTED if the post is queued (or is a duplicate of one
+     * we already have), TOO_MANY_REQUESTS if the queue, or this host's share of it, is full, or
+     * BAD_REQUEST if the post fails the cheap checks.
+     */
+    public HttpStatus enqueue(HttpServletRequest httpReq, byte[] body) {
+        if (depth.get() >= prop.getApInboxMaxQueue()) {
+            rejected.incrementAndGet();
+            return HttpStatus.TOO_MANY_REQUESTS;
+        }
+
+        HttpSigRequest sigReq = HttpSigRequest.of(httpReq);
+        Val<List<String>> headers = new Val<>();
+        APObj payload = null;
+        String host = null;
+        try {
+            Val<String> keyId = new Val<>();
+            Val<String> signature = new Val<>();
+            apCrypto.parseHttpHeaderSig(sigReq, keyId, signature, true, headers);
+
+            host = getHost(keyId.getVal());
+            if (hostDepth(host).get() >= prop.getApInboxMaxPerHost()) {
+                rejectedHost.incrementAndGet();
+                return HttpStatus.TOO_MANY_REQUESTS;
+            }
+
+            if (!apCrypto.digestFromBodyBytes(body).equals(sigReq.getHeader("digest"))) {
+                throw new RuntimeException("body digest compare fail.");
+            }
+
+            payload = apUtil.buildObj(body);
+            if (payload.getType() == null || payload.getActor() == null) {
+                throw new RuntimeException("missing type or actor");
+            }
+        } catch (Exception e) {
+            badRequests.incrementAndGet();
+            log.debug("Inbox post refused: " + e.getMessage());
+            return HttpStatus.BAD_REQUEST;
+        }
+
+        String activityId = payload.getId();
+        if (activityId != null && recentIds.containsKey(activityId)) {
+            duplicates.incrementAndGet();
+            return HttpStatus.ACCEPTED;
+        }
+
+        // keep only what the signature check needs
+        HashMap<String, String> keptHeaders = new HashMap<>();
+        keptHeaders.put("signature", sigReq.getHeader("signature"));
+        for (String header : headers.getVal()) {
+            String val = sigReq.getHeader(header);
+            if (val != null && !header.contains(".") && !header.startsWith("$")) {
+                keptHeaders.put(header.toLowerCase(), val);
+            }
+        }
+
+        APInboxItem item = new APInboxItem();
+        item.setActivityId(activityId);
+        item.setActivityType(payload.getType());
+        item.setActor(payload.getActor());
+        item.setHost(host);
+        if (APType.Update.equals(payload.getType()) || APType.Delete.equals(payload.getType())) {
+            item.setObjectId(getObjectId(payload));
+        }
+        item.setMethod(sigReq.getMethod());
+        item.setUri(sigReq.getRequestURI());
+        item.setHeaders(keptHeaders);
+        item.setBody(body);
+        item.setCreateTime(new Date());
+
+        try {
+            ops.insert(item);
+        } catch (DuplicateKeyException e) {
+            duplicates.incrementAndGet();
+            return HttpStatus.ACCEPTED;
+        }
+
+        accepted.incrementAndGet();
+        depth.incrementAndGet();
+        hostDepth(host).incrementAndGet();
+        synchronized (signal) {
+            signal.notify();
+        }
+        return HttpStatus.ACCEPTED;
+    }
+
+    // host part of the keyId, which is normally the URL of the actor's key
+    private String getHost(String keyId) {
+        if (keyId == null)
+            throw new RuntimeException("missing keyId");
+        try {
+            String host = new URI(keyId).getHost();
+            if (host != null)
+                return host.toLowerCase();
+        } catch (Exception e) {
+            // fall thru to use the whole keyId
+        }
+        return keyId;
+    }
+
+    private AtomicLong hostDepth(String host) {
+        return hostDepth.computeIfAbsent(host, k -> new AtomicLong());
+    }
+
+    // the object being acted on may be given as just its id, or as the object itself
+    private String getObjectId(APObj payload) {
+        Object obj = payload.get(APObj.object);
+        if (obj instanceof String) {
+            return (String) obj;
+        }
+        if (obj instanceof Map) {
+            return apStr(obj, APObj.id, false);
+        }
+        return null;
+    }
+
+    /*
+     * Starts the workers once the DB is ready, resyncs the queue depth, and releases stale claims.
+     */
+    @Scheduled(fixedDelay = 30 * 1000)
+    public void maintain() {
+        if (!prop.isActPubEnabled() || !MongoRepository.fullInit)
+            return;
+
+        try {
+            startWorkers();
+
+            Query staleQuery = new Query(Criteria.where(APInboxItem.CLAIMED)
+                    .lt(new Date(System.currentTimeMillis() - STALE_CLAIM_MILLIS)));
+            ops.updateMulti(staleQuery, new Update().unset(APInboxItem.CLAIMED), APInboxItem.class);
+
+            depth.set(ops.count(new Query(), APInboxItem.class));
+            resyncHostDepth();
+
+            Query oldestQuery = new Query().with(Sort.by(Sort.Direction.ASC, APInboxItem.CREATE_TIME)).limit(1);
+            oldestQuery.fields().include(APInboxItem.CREATE_TIME);
+            APInboxItem oldest = ops.findOne(oldestQuery, APInboxItem.class);
+            oldestPendingAge = oldest != null ? System.currentTimeMillis() - oldest.getCreateTime().getTime() : 0;
+        } catch (Exception e) {
+            log.error("ActPubInbox maintenance failed", e);
+        }
+    }
+
+    private void resyncHostDepth() {
+        Aggregation agg = Aggregation.newAggregation(//
+                Aggregation.project(APInboxItem.HOST), //
+                Aggregation.group(APInboxItem.HOST).count().as("count"));
+
+        HashMap<String, Long> counts = new HashMap<>();
+        for (Document doc : ops.aggregate(agg, ops.getCollectionName(APInboxItem.class), Document.class)) {
+            Object host = doc.get("_id");
+            Object count = doc.get("count");
+            if (host instanceof String && count instanceof Number) {
+                counts.put((String) host, ((Number) count).longValue());
+            }
+        }
+
+        hostDepth.keySet().removeIf(host -> !counts.containsKey(host));
+        counts.forEach((host, count) -> hostDepth(host).set(count));
+    }
+
+    private synchronized void startWorkers() {
+        if (workers.size() > 0)
+            return;
+
+        int threads = prop.getApInboxThreads();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::workerLoop, "ap-inbox-" + (i + 1));
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+        log.debug("ActPubInbox started: threads=" + threads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    private void workerLoop() {
+        while (!stopping) {
+            try {
+                APInboxItem item = claim(new Query(Criteria.where(APInboxItem.CLAIMED).is(null)));
+                if (item == null) {
+                    synchronized (signal) {
+                        signal.wait(IDLE_WAIT_MILLIS);
+                    }
+                    continue;
+                }
+                processItem(item);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                // we don't know what happened, so don't spin on it
+                log.error("ActPubInbox worker failed", e);
+                try {
+                    Thread.sleep(IDLE_WAIT_MILLIS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // atomically claims the oldest unclaimed item matching 'q', or returns null if there's none
+    private APInboxItem claim(Query q) {
+        q.with(Sort.by(Sort.Direction.ASC, APInboxItem.CREATE_TIME));
+        return ops.findAndModify(q, new Update().set(APInboxItem.CLAIMED, new Date()),
+                FindAndModifyOptions.options().returnNew(true), APInboxItem.class);
+    }
+
+    private void processItem(APInboxItem item) {
+        if (item.getObjectId() == null) {
+            process(item);
+            return;
+        }
+
+        // look for the newest Update or Delete of the same object, queued after this one by the same actor
+        Query newerQuery = new Query(Criteria.where(APInboxItem.CLAIMED).is(null) //
+                .and(APInboxItem.OBJECT_ID).is(item.getObjectId()) //
+                .and(APInboxItem.ACTOR).is(item.getActor()) //
+                .and(APInboxItem.CREATE_TIME).gt(item.getCreateTime()));
+        newerQuery.with(Sort.by(Sort.Direction.DESC, APInboxItem.CREATE_TIME));
+        APInboxItem newest = ops.findAndModify(newerQuery, new Update().set(APInboxItem.CLAIMED, new Date()),
+                FindAndModifyOptions.options().returnNew(true), APInboxItem.class);
+
+        if (newest == null) {
+            process(item);
+            return;
+        }
+
+        /*
+         * Only once the newest one has passed the signature check and been processed do we know the older
+         * ones are really superseded. Otherwise we go back and process them normally.
+         */
+        if (process(newest)) {
+            Criteria older = Criteria.where(APInboxItem.OBJECT_ID).is(item.getObjectId()) //
+                    .and(APInboxItem.ACTOR).is(item.getActor()) //
+                    .and(APInboxItem.CREATE_TIME).lt(newest.getCreateTime()) //
+                    .orOperator(Criteria.where(APInboxItem.CLAIMED).is(null), Criteria.where(APInboxItem.ID).is(item.getId()));
+            long count = ops.remove(new Query(older), APInboxItem.class).getDeletedCount();
+            coalesced.addAndGet(count);
+            depth.addAndGet(-count);
+            // the older ones are almost always from the same host, and 'maintain' fixes it if not
+            if (item.getHost() != null) {
+                hostDepth(item.getHost()).addAndGet(-count);
+            }
+        } else {
+            process(item);
+        }
+    }
+
+    /*
+     * Verifies and processes one item, and removes it from the queue. Returns true on success, or if
+     * another post of the same activity already succeeded.
+     */
+    private boolean process(APInboxItem item) {
+        boolean success = false;
+        if (item.getActivityId() != null && recentIds.containsKey(item.getActivityId())) {
+            duplicates.incrementAndGet();
+            success = true;
+        } else {
+            try {
+                ThreadLocals.setSC(context.getBean(SessionContext.class));
+                apub.processInboxPost(new HttpSigRequest(item.getMethod(), item.getUri(), item.getHeaders()), item.getBody());
+                processed.incrementAndGet();
+                success = true;
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.debug("Inbox item failed: " + item.getActivityType() + " " + item.getActivityId() + ": " + e.getMessage());
+            } finally {
+                ThreadLocals.removeAll();
+            }
+
+            // a failed post may have been forged, so it mustn't stop the real one getting in
+            if (success && item.getActivityId() != null) {
+                recentIds.put(item.getActivityId(), Boolean.TRUE);
+            }
+        }
+
+        ops.remove(new Query(Criteria.where(APInboxItem.ID).is(item.getId())), APInboxItem.class);
+        depth.decrementAndGet();
+        if (item.getHost() != null) {
+            hostDepth(item.getHost()).decrementAndGet();
+        }
+
+        long lag = System.currentTimeMillis() - item.getCreateTime().getTime();
+        lastLag = lag;
+        totalLag.addAndGet(lag);
+        maxLag.accumulateAndGet(lag, Math::max);
+        return success;
+    }
+
+    public String getStatsReport() {
+        long done = processed.get() + failed.get();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Inbox Queue Depth: " + depth.get() + " (max " + prop.getApInboxMaxQueue() + ")\n");
+        sb.append("Inbox Accepted: " + accepted.get() + "\n");
+        sb.append("Inbox Processed: " + processed.get() + "\n");
+        sb.append("Inbox Failed: " + failed.get() + "\n");
+        sb.append("Inbox Duplicates Dropped: " + duplicates.get() + "\n");
+        sb.append("Inbox Coalesced: " + coalesced.get() + "\n");
+        sb.append("Inbox Refused (queue full): " + rejected.get() + "\n");
+        sb.append("Inbox Refused (host share full, max " + prop.getApInboxMaxPerHost() + "): " + rejectedHost.get()
+                + " (hosts queued: " + hostDepth.size() + ")\n");
+        sb.append("Inbox Refused (bad request): " + badRequests.get() + "\n");
+        sb.append("Inbox Lag (ms): last=" + lastLag + " avg=" + (done > 0 ? totalLag.get() / done : 0) + " max="
+                + maxLag.get() + "\n");
+        sb.append("Inbox Oldest Pending (ms): " + oldestPendingAge + "\n");
+        return sb.toString();
+    }
+}
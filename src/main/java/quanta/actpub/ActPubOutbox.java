@@ -240,7 +240,7 @@ public class ActPubOutbox extends ServiceBase {
             Val<String> signature = new Val<>();
             Val<List<String>> headers = new Val<>();
 
-            apCrypto.parseHttpHeaderSig(httpReq, keyId, signature, false, headers);
+            apCrypto.parseHttpHeaderSig(HttpSigRequest.of(httpReq), keyId, signature, false, headers);
 
             if (keyId.getVal() != null) {
                 log.debug("keyId=" + keyId.getVal());
@@ -273,7 +273,7 @@ public class ActPubOutbox extends ServiceBase {
                         if (pubKey != null) {
                             try {
                                 log.debug("Checking with pubKey.");
-                                apCrypto.verifySignature(httpReq, pubKey, null);
+                                apCrypto.verifySignature(HttpSigRequest.of(httpReq), pubKey, null);
                                 log.debug("Sig ok.");
 
                                 // this will remain PUBLIC until we set it here.
@@ -415,7 +415,7 @@ public class ActPubOutbox extends ServiceBase {
                 Val<String> signature = new Val<>();
                 Val<List<String>> headers = new Val<>();
 
-                apCrypto.parseHttpHeaderSig(httpReq, keyId, signature, false, headers);
+                apCrypto.parseHttpHeaderSig(HttpSigRequest.of(httpReq), keyId, signature, false, headers);
 
                 if (keyId.getVal() != null) {
                     // keyId should be like this:
@@ -440,7 +440,7 @@ public class ActPubOutbox extends ServiceBase {
                             if (pubKey != null) {
                                 try {
                                     log.debug("Checking with pubKey.");
-                                    apCrypto.verifySignature(httpReq, pubKey, null);
+                                    apCrypto.verifySignature(HttpSigRequest.of(httpReq), pubKey, null);
                                     authSuccess = true;
                                     log.debug("Sig ok.");
                                 } catch (Exception e) {
@@ -20,7 +20,6 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
-import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -656,7 +655,7 @@ public class ActPubService extends ServiceBase {
      * follow a user on this server
      */
     @PerfMon(category = "apub")
-    public void processInboxPost(HttpServletRequest httpReq, byte[] body) {
+    public void processInboxPost(HttpSigRequest httpReq, byte[] body) {
         APObj payload = apUtil.buildObj(body);
         apLog.trace("INBOX: " + XString.prettyPrint(payload));
         if (payload.getType() == null)
@@ -718,7 +717,7 @@ public class ActPubService extends ServiceBase {
 
     /* Process inbound undo actions (coming from foreign servers) */
     @PerfMon(category = "apub")
-    public void processUndoActivity(HttpServletRequest httpReq, APOUndo activity, byte[] bodyBytes) {
+    public void processUndoActivity(HttpSigRequest httpReq, APOUndo activity, byte[] bodyBytes) {
         APObj obj = apAPObj(activity, APObj.object);
         apLog.trace("Undo Type: " + obj.getType());
         switch (obj.getType()) {
@@ -757,7 +756,7 @@ public class ActPubService extends ServiceBase {
 
     /* action will be APType.Create or APType.Update */
     @PerfMon(category = "apub")
-    public void processCreateOrUpdateActivity(HttpServletRequest httpReq, APOActivity activity, byte[] bodyBytes,
+    public void processCreateOrUpdateActivity(HttpSigRequest httpReq, APOActivity activity, byte[] bodyBytes,
             Val<String> keyEncoded) {
         arun.run(as -> {
             apLog.trace("processCreateOrUpdateAction");
@@ -790,7 +789,7 @@ public class ActPubService extends ServiceBase {
     }
 
     @PerfMon(category = "apub")
-    public void processLikeActivity(HttpServletRequest httpReq, APOActivity activity, byte[] bodyBytes) {
+    public void processLikeActivity(HttpSigRequest httpReq, APOActivity activity, byte[] bodyBytes) {
         boolean unlike = activity instanceof APOUndo;
         arun.<Object>run(as -> {
             apLog.trace("process " + (unlike ? "unlike" : "like"));
@@ -880,7 +879,7 @@ public class ActPubService extends ServiceBase {
     }
 
     @PerfMon(category = "apub")
-    public void processDeleteActivity(HttpServletRequest httpReq, APODelete activity, byte[] bodyBytes, Val<String> keyEncoded) {
+    public void processDeleteActivity(HttpSigRequest httpReq, APODelete activity, byte[] bodyBytes, Val<String> keyEncoded) {
         arun.<Object>run(as -> {
             apLog.trace("processDeleteAction");
 
@@ -1235,6 +1234,12 @@ public class ActPubService extends ServiceBase {
         addAttachments(ms, newNode, obj);
         update.save(ms, newNode, false);
 
+        // only for accounts someone here follows, so any remote server can't have us fetching whatever it links to
+        Query followersQuery = apFollower.getPeopleByUserName_query(ms, toAccountNode, null);
+        if (followersQuery != null && ops.exists(followersQuery, SubNode.class)) {
+            openGraph.prefetch(contentHtml);
+        }
+
         try {
             push.pushNodeUpdateToBrowsers(ms, null, newNode);
         } catch (Exception e) {
@@ -2018,6 +2023,7 @@ public class ActPubService extends ServiceBase {
         sb.append("Total Foreign Outbox Queries: " + outboxQueryCount + "\n");
         sb.append("New Incomming Posts last cycle: " + newPostsInCycle + "\n");
         sb.append("Inbox Post count: " + inboxCount + "\n");
+        sb.append(apInbox.getStatsReport());
         return sb.toString();
     }
 
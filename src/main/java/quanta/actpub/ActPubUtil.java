@@ -279,20 +279,15 @@ public class ActPubUtil extends ServiceBase {
         return getJson(url, clazz, mediaType, headers);
     }
 
-    /* Posts to all inboxes */
+    /*
+     * Posts to all inboxes. Returns immediately, and the posts go out concurrently with retries (see
+     * ActPubDelivery)
+     */
     public void securePostEx(HashSet<String> inboxes, String fromActor, String privateKey, String actor, APObj message,
             MediaType postType) {
         if (inboxes == null)
             return;
-        for (String inbox : inboxes) {
-            try {
-                apUtil.securePostEx(inbox, privateKey, fromActor, message, APConst.MTYPE_LD_JSON_PROF);
-            }
-            // catch error from any server, and ignore, go to next server to send to.
-            catch (Exception e) {
-                apLog.trace("failed to post to: " + inbox);
-            }
-        }
+        apDelivery.deliver(inboxes, privateKey, fromActor, message, APConst.MTYPE_LD_JSON_PROF);
     }
 
     public void securePostEx(String url, String privateKey, String actor, APObj message, MediaType postType) {
@@ -437,16 +432,7 @@ public class ActPubUtil extends ServiceBase {
             if (headers == null) {
                 headers = new HttpHeaders();
             }
-            headers.setAccept(List.of(APConst.MTYPE_ACT_JSON, APConst.MTYPE_JSON));
-
-            String appName = prop.getConfigText("brandingAppName");
-            if (appName == null)
-                appName = "Quanta";
-
-            // NOTE: I'm not sure this is ever necessary. Noticed Pleroma doing it and copied it.
-            headers.add("user-agent", appName + "; https://" + prop.getMetaHost() + " <fake@email.com>");
-
-            headers.setContentType(postType);
+            loadPostHeaders(headers, postType);
 
             HttpEntity<String> requestEntity = new HttpEntity<>(body, headers);
             ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
@@ -459,6 +445,20 @@ public class ActPubUtil extends ServiceBase {
         return ret;
     }
 
+    /* Sets the headers (other than the signature) that every outbound post has */
+    public void loadPostHeaders(HttpHeaders headers, MediaType postType) {
+        headers.setAccept(List.of(APConst.MTYPE_ACT_JSON, APConst.MTYPE_JSON));
+
+        String appName = prop.getConfigText("brandingAppName");
+        if (appName == null)
+            appName = "Quanta";
+
+        // NOTE: I'm not sure this is ever necessary. Noticed Pleroma doing it and copied it.
+        headers.add("user-agent", appName + "; https://" + prop.getMetaHost() + " <fake@email.com>");
+
+        headers.setContentType(postType);
+    }
+
     /*
      * Generate webfinger response from our server
      */
@@ -957,14 +957,12 @@ public class ActPubUtil extends ServiceBase {
                         Iterable<SubNode> iter =
                                 read.getChildren(ms, node, Sort.by(Sort.Direction.DESC, SubNode.CREATE_TIME), 20, 0);
                         HashSet<String> childIds = new HashSet<>();
-                        List<NodeInfo> children = new LinkedList<>();
+                        List<SubNode> childNodes = new LinkedList<>();
 
                         for (SubNode child : iter) {
                             if (!child.getId().equals(lastNodeId)) {
                                 childIds.add(child.getIdStr());
-                                children.add(convert.convertToNodeInfo(false, ThreadLocals.getSC(), ms, //
-                                        child, false, Convert.LOGICAL_ORDINAL_IGNORE, false, false, false, false, true, true,
-                                        null, false));
+                                childNodes.add(child);
                             }
                         }
 
@@ -989,11 +987,13 @@ public class ActPubUtil extends ServiceBase {
                         for (SubNode child : iter) {
                             // if we didn't already add above, add now
                             if (!childIds.contains(child.getIdStr())) {
-                                children.add(convert.convertToNodeInfo(false, ThreadLocals.getSC(), ms, child, false,
-                                        Convert.LOGICAL_ORDINAL_IGNORE, false, false, false, false, true, true, null, false));
+                                childNodes.add(child);
                             }
                         }
 
+                        List<NodeInfo> children = convert.convertToNodeInfos(false, ThreadLocals.getSC(), ms, childNodes, false,
+                                Convert.LOGICAL_ORDINAL_IGNORE, false, false, false, true, true, null);
+
                         if (children.size() > 0) {
                             info.setChildren(children);
                         }
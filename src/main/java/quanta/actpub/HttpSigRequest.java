@@ -0,0 +1,56 @@
+package quanta.actpub;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The parts of an HTTP request that HTTP Signature verification needs (method, URI and headers),
+ * copied out of the servlet request so the verification can happen after the request has completed
+ * (see ActPubInbox), including after a restart.
+ */
+public class HttpSigRequest {
+    private final String method;
+    private final String requestURI;
+
+    // keys are lower case
+    private final HashMap<String, String> headers;
+
+    public HttpSigRequest(String method, String requestURI, Map<String, String> headers) {
+        this.method = method;
+        this.requestURI = requestURI;
+        this.headers = new HashMap<>();
+        if (headers != null) {
+            headers.forEach((k, v) -> this.headers.put(k.toLowerCase(), v));
+        }
+    }
+
+    public static HttpSigRequest of(HttpServletRequest httpReq) {
+        HashMap<String, String> headers = new HashMap<>();
+        Enumeration<String> names = httpReq.getHeaderNames();
+        if (names != null) {
+            while (names.hasMoreElements()) {
+                String name = names.nextElement();
+                headers.put(name, httpReq.getHeader(name));
+            }
+        }
+        return new HttpSigRequest(httpReq.getMethod(), httpReq.getRequestURI(), headers);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    public HashMap<String, String> getHeaders() {
+        return headers;
+    }
+}
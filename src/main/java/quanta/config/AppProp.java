@@ -156,6 +156,15 @@ public class AppProp {
 		return env.getProperty("httpProtocol");
 	}
 
+	public int getMongoSlowQueryMillis() {
+		String val = env.getProperty("mongoSlowQueryMillis");
+		return StringUtils.isEmpty(val) ? 100 : Integer.parseInt(val);
+	}
+
+	public String getMetricsToken() {
+		return env.getProperty("metricsToken");
+	}
+
 	public String getProtocolHostAndPort() {
 		if (protocolHostAndPort != null)
 			return protocolHostAndPort;
@@ -285,8 +294,14 @@ public class AppProp {
 		return env.getProperty("anonUserLandingPageNode");
 	}
 
-	public int getThrottleTime() {
-		return Integer.parseInt(env.getProperty("throttleTime"));
+	public int getRateLimitBurst() {
+		String val = env.getProperty("rateLimitBurst");
+		return StringUtils.isEmpty(val) ? 40 : Integer.parseInt(val);
+	}
+
+	public double getRateLimitPerSecond() {
+		String val = env.getProperty("rateLimitPerSecond");
+		return StringUtils.isEmpty(val) ? 10 : Double.parseDouble(val);
 	}
 
 	public String getMailHost() {
@@ -309,6 +324,45 @@ public class AppProp {
 		return env.getProperty("mail.password");
 	}
 
+	public boolean isNodeCacheEnabled() {
+		return getBooleanProp("nodeCacheEnabled");
+	}
+
+	public int getNodeCacheSize() {
+		String val = env.getProperty("nodeCacheSize");
+		return StringUtils.isEmpty(val) ? 10000 : Integer.parseInt(val);
+	}
+
+	public int getApDeliveryThreads() {
+		String val = env.getProperty("apDeliveryThreads");
+		return StringUtils.isEmpty(val) ? 16 : Integer.parseInt(val);
+	}
+
+	public int getApDeliveryPerHost() {
+		String val = env.getProperty("apDeliveryPerHost");
+		return StringUtils.isEmpty(val) ? 4 : Integer.parseInt(val);
+	}
+
+	public int getApInboxThreads() {
+		String val = env.getProperty("apInboxThreads");
+		return StringUtils.isEmpty(val) ? 4 : Integer.parseInt(val);
+	}
+
+	public int getTimelineMaxFollows() {
+		String val = env.getProperty("timelineMaxFollows");
+		return StringUtils.isEmpty(val) ? 2000 : Integer.parseInt(val);
+	}
+
+	public int getApInboxMaxQueue() {
+		String val = env.getProperty("apInboxMaxQueue");
+		return StringUtils.isEmpty(val) ? 20000 : Integer.parseInt(val);
+	}
+
+	public int getApInboxMaxPerHost() {
+		String val = env.getProperty("apInboxMaxPerHost");
+		return StringUtils.isEmpty(val) ? 2000 : Integer.parseInt(val);
+	}
+
 	public boolean isAllowFileSystemSearch() {
 		return getBooleanProp("allowFileSystemSearch");
 	}
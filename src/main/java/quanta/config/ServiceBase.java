@@ -9,6 +9,8 @@ import lombok.extern.slf4j.Slf4j;
 import quanta.CallProcessor;
 import quanta.actpub.ActPubCache;
 import quanta.actpub.ActPubCrypto;
+import quanta.actpub.ActPubDelivery;
+import quanta.actpub.ActPubInbox;
 import quanta.actpub.ActPubFactory;
 import quanta.actpub.ActPubFollower;
 import quanta.actpub.ActPubFollowing;
@@ -16,6 +18,7 @@ import quanta.actpub.ActPubOutbox;
 import quanta.actpub.ActPubReplies;
 import quanta.actpub.ActPubService;
 import quanta.actpub.ActPubUtil;
+import quanta.filter.RateLimiter;
 import quanta.lucene.FileIndexer;
 import quanta.mail.EmailSender;
 import quanta.mail.EmailSenderDaemon;
@@ -29,16 +32,22 @@ import quanta.mongo.MongoRead;
 import quanta.mongo.MongoRepository;
 import quanta.mongo.MongoUpdate;
 import quanta.mongo.MongoUtil;
+import quanta.mongo.NodeCache;
+import quanta.mongo.SubGraphUpdate;
 import quanta.service.AclService;
 import quanta.service.AttachmentService;
 import quanta.service.CryptoService;
 import quanta.service.GraphNodesService;
+import quanta.service.GridDedupService;
+import quanta.service.HomeTimelineService;
+import quanta.service.ImageVariantService;
 import quanta.service.LuceneService;
 import quanta.service.OpenGraphService;
 import quanta.service.PushService;
 import quanta.service.RSSFeedService;
 import quanta.service.SchemaOrgService;
 import quanta.service.SystemService;
+import quanta.service.TrendingService;
 import quanta.service.UserFeedService;
 import quanta.service.UserManagerService;
 import quanta.service.imports.ImportBookService;
@@ -114,6 +123,7 @@ public class ServiceBase {
 	public static MongoDelete delete;
 	public static MongoAuth auth;
 	public static MongoUtil mongoUtil;
+	public static NodeCache nodeCache;
 	public static SubNodeUtil snUtil;
 	public static AclService acl;
 	public static UserManagerService user;
@@ -129,6 +139,8 @@ public class ServiceBase {
 	public static EmailSender mail;
 	public static PushService push;
 	public static ActPubUtil apUtil;
+	public static ActPubDelivery apDelivery;
+	public static ActPubInbox apInbox;
 	public static ActPubFollower apFollower;
 	public static ActPubFollowing apFollowing;
 	public static ActPubReplies apReplies;
@@ -137,6 +149,10 @@ public class ServiceBase {
 	public static EnglishDictionary english;
 	public static AsyncExec exec;
 	public static NodeSearchService search;
+	public static TrendingService trending;
+	public static HomeTimelineService homeTimeline;
+	public static SubGraphUpdate subGraphUpdate;
+	public static RateLimiter rateLimiter;
 	public static CallProcessor callProc;
 	public static NodeMoveService move;
 	public static ImportBookService importBookService;
@@ -147,6 +163,8 @@ public class ServiceBase {
 	public static SystemService system;
 	public static RSSFeedService rssFeed;
 	public static OpenGraphService openGraph;
+	public static ImageVariantService imageVariants;
+	public static GridDedupService gridDedup;
 	public static ActPubFactory apFactory;
 	public static FileUtils fileUtil;
 	public static MimeUtil mimeUtil;
@@ -205,6 +223,7 @@ public class ServiceBase {
 			delete = getBean(ctx, MongoDelete.class);
 			auth = getBean(ctx, MongoAuth.class);
 			mongoUtil = getBean(ctx, MongoUtil.class);
+			nodeCache = getBean(ctx, NodeCache.class);
 			snUtil = getBean(ctx, SubNodeUtil.class);
 			acl = getBean(ctx, AclService.class);
 			user = getBean(ctx, UserManagerService.class);
@@ -220,6 +239,8 @@ public class ServiceBase {
 			mail = getBean(ctx, EmailSender.class);
 			push = getBean(ctx, PushService.class);
 			apUtil = getBean(ctx, ActPubUtil.class);
+			apDelivery = getBean(ctx, ActPubDelivery.class);
+			apInbox = getBean(ctx, ActPubInbox.class);
 			apFollower = getBean(ctx, ActPubFollower.class);
 			apFollowing = getBean(ctx, ActPubFollowing.class);
 			apReplies = getBean(ctx, ActPubReplies.class);
@@ -228,6 +249,10 @@ public class ServiceBase {
 			english = getBean(ctx, EnglishDictionary.class);
 			exec = getBean(ctx, AsyncExec.class);
 			search = getBean(ctx, NodeSearchService.class);
+			trending = getBean(ctx, TrendingService.class);
+			homeTimeline = getBean(ctx, HomeTimelineService.class);
+			subGraphUpdate = getBean(ctx, SubGraphUpdate.class);
+			rateLimiter = getBean(ctx, RateLimiter.class);
 			callProc = getBean(ctx, CallProcessor.class);
 			move = getBean(ctx, NodeMoveService.class);
 			importBookService = getBean(ctx, ImportBookService.class);
@@ -238,6 +263,8 @@ public class ServiceBase {
 			system = getBean(ctx, SystemService.class);
 			rssFeed = getBean(ctx, RSSFeedService.class);
 			openGraph = getBean(ctx, OpenGraphService.class);
+			imageVariants = getBean(ctx, ImageVariantService.class);
+			gridDedup = getBean(ctx, GridDedupService.class);
 			apFactory = getBean(ctx, ActPubFactory.class);
 			fileUtil = getBean(ctx, FileUtils.class);
 			mimeUtil = getBean(ctx, MimeUtil.class);
@@ -6,6 +6,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.servlet.http.HttpSession;
 import org.bson.types.ObjectId;
 import org.springframework.context.ApplicationContext;
@@ -18,6 +20,7 @@ import quanta.model.client.NodeProp;
 import quanta.model.client.PrincipalName;
 import quanta.mongo.MongoUtil;
 import quanta.mongo.model.SubNode;
+import quanta.response.ServerPushInfo;
 import quanta.util.ThreadLocals;
 import quanta.util.Util;
 
@@ -77,9 +80,23 @@ public class SessionContext extends ServiceBase {
 	/* Emitter for sending push notifications to the client */
 	private SseEmitter pushEmitter = new SseEmitter();
 
+	/*
+	 * Pushes waiting to be written to 'pushEmitter' (see PushService.sendServerPushInfo), bounded so a
+	 * browser that stops reading can't make us hold an unlimited number of messages for it.
+	 */
+	public static final int MAX_QUEUED_PUSHES = 100;
+	private final ArrayBlockingQueue<ServerPushInfo> pushQueue = new ArrayBlockingQueue<>(MAX_QUEUED_PUSHES);
+	private final AtomicBoolean pushDraining = new AtomicBoolean();
+
 	// this one WILL work with multiple sessions per user
 	private static final HashSet<SessionContext> allSessions = new HashSet<>();
 
+	// indexes of the sessions in 'allSessions', by userName, watchingPath and timelinePath
+	private static final SessionIndex index = new SessionIndex();
+
+	// true while this session is in 'index'. Only changed while holding the lock on 'index'
+	private boolean indexed = false;
+
 	// Full list of active and inactive (dead) sessions.
 	public static final HashSet<SessionContext> historicalSessions = new HashSet<>();
 
@@ -150,6 +167,7 @@ public class SessionContext extends ServiceBase {
 			synchronized (allSessions) {
 				allSessions.add(scBean);
 			}
+			scBean.addToIndex();
 	
 			synchronized (historicalSessions) {
 				historicalSessions.add(scBean);
@@ -172,11 +190,16 @@ public class SessionContext extends ServiceBase {
 	/* Extra layer of security to invalidate this session object */
 	public void forceAnonymous() {
 		userToken = null;
-		userName = PrincipalName.ANON.s();
+		synchronized (index) {
+			if (indexed) {
+				index.setUserName(this, userName, PrincipalName.ANON.s());
+			}
+			userName = PrincipalName.ANON.s();
+		}
 		rootId = null;
 		userNodeId = null;
-		timelinePath = null;
-		watchingPath = null;
+		setTimelinePath(null);
+		setWatchingPath(null);
 	}
 
 	public void addAction(String actionName) {
@@ -339,6 +362,29 @@ public class SessionContext extends ServiceBase {
 		synchronized (allSessions) {
 			allSessions.remove(sc);
 		}
+		sc.removeFromIndex();
+	}
+
+	public static SessionIndex getIndex() {
+		return index;
+	}
+
+	private void addToIndex() {
+		synchronized (index) {
+			if (!indexed) {
+				index.add(this);
+				indexed = true;
+			}
+		}
+	}
+
+	private void removeFromIndex() {
+		synchronized (index) {
+			if (indexed) {
+				index.remove(this);
+				indexed = false;
+			}
+		}
 	}
 
 	public static int getSessionCount() {
@@ -415,6 +461,7 @@ public class SessionContext extends ServiceBase {
 			allSessions.remove(this);
 			setLive(false);
 		}
+		removeFromIndex();
 	}
 
 	public boolean isAdmin() {
@@ -437,7 +484,12 @@ public class SessionContext extends ServiceBase {
 		if (userName != null) {
 			pastUserName = userName;
 		}
-		this.userName = userName;
+		synchronized (index) {
+			if (indexed) {
+				index.setUserName(this, this.userName, userName);
+			}
+			this.userName = userName;
+		}
 	}
 
 	public String getPastUserName() {
@@ -500,6 +552,14 @@ public class SessionContext extends ServiceBase {
 		return pushEmitter;
 	}
 
+	public ArrayBlockingQueue<ServerPushInfo> getPushQueue() {
+		return pushQueue;
+	}
+
+	public AtomicBoolean getPushDraining() {
+		return pushDraining;
+	}
+
 	public String getCaptcha() {
 		return captcha;
 	}
@@ -521,7 +581,12 @@ public class SessionContext extends ServiceBase {
 	}
 
 	public void setTimelinePath(String timelinePath) {
-		this.timelinePath = timelinePath;
+		synchronized (index) {
+			if (indexed) {
+				index.setTimelinePath(this, this.timelinePath, timelinePath);
+			}
+			this.timelinePath = timelinePath;
+		}
 	}
 
 	public boolean isLive() {
@@ -549,7 +614,12 @@ public class SessionContext extends ServiceBase {
 	}
 
 	public void setWatchingPath(String watchingPath) {
-		this.watchingPath = watchingPath;
+		synchronized (index) {
+			if (indexed) {
+				index.setWatchingPath(this, this.watchingPath, watchingPath);
+			}
+			this.watchingPath = watchingPath;
+		}
 	}
 
 	public ObjectId getUserNodeId() {
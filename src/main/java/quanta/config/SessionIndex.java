@@ -0,0 +1,148 @@
+package quanta.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indexes of the live sessions, so that server pushes can find the sessions interested in a node
+ * without scanning every session. SessionContext keeps these up to date as its userName,
+ * watchingPath and timelinePath change, and as sessions come and go.
+ *
+ * Lookups take no locks. Changes are serialized on the index, but are rare compared to lookups
+ * (they only happen on login/logout and when a user opens a feed or timeline).
+ */
+public class SessionIndex {
+	private final Map<String, Set<SessionContext>> byUserName = new ConcurrentHashMap<>();
+	private final PathTrie byWatchingPath = new PathTrie();
+	private final PathTrie byTimelinePath = new PathTrie();
+
+	/*
+	 * Sessions keyed by path, where a lookup by a node path returns the sessions at that path or any
+	 * ancestor of it. Each trie level is one path segment.
+	 */
+	private static class PathTrie {
+		private static class TrieNode {
+			final Map<String, TrieNode> children = new ConcurrentHashMap<>();
+			final Set<SessionContext> sessions = ConcurrentHashMap.newKeySet();
+		}
+
+		private final TrieNode root = new TrieNode();
+
+		synchronized void add(String path, SessionContext sc) {
+			TrieNode node = root;
+			for (String seg : segments(path)) {
+				node = node.children.computeIfAbsent(seg, k -> new TrieNode());
+			}
+			node.sessions.add(sc);
+		}
+
+		synchronized void remove(String path, SessionContext sc) {
+			List<TrieNode> trail = new ArrayList<>();
+			List<String> segs = segments(path);
+			TrieNode node = root;
+			trail.add(node);
+			for (String seg : segs) {
+				node = node.children.get(seg);
+				if (node == null)
+					return;
+				trail.add(node);
+			}
+			node.sessions.remove(sc);
+
+			// prune empty nodes from the bottom up, so the trie only holds paths someone is watching
+			for (int i = trail.size() - 1; i > 0; i--) {
+				TrieNode n = trail.get(i);
+				if (!n.sessions.isEmpty() || !n.children.isEmpty())
+					break;
+				trail.get(i - 1).children.remove(segs.get(i - 1));
+			}
+		}
+
+		// returns the sessions at 'path' or any of its ancestors
+		List<SessionContext> find(String path) {
+			List<SessionContext> ret = new ArrayList<>();
+			TrieNode node = root;
+			ret.addAll(node.sessions);
+			for (String seg : segments(path)) {
+				node = node.children.get(seg);
+				if (node == null)
+					break;
+				ret.addAll(node.sessions);
+			}
+			return ret;
+		}
+
+		private static List<String> segments(String path) {
+			List<String> ret = new ArrayList<>();
+			for (String seg : path.split("/")) {
+				if (seg.length() > 0) {
+					ret.add(seg);
+				}
+			}
+			return ret;
+		}
+	}
+
+	public List<SessionContext> getByUserName(String userName) {
+		if (userName == null)
+			return Collections.emptyList();
+		Set<SessionContext> set = byUserName.get(userName);
+		return set != null ? new ArrayList<>(set) : Collections.emptyList();
+	}
+
+	/* Returns all sessions whose watchingPath is 'path' or an ancestor of it */
+	public List<SessionContext> getWatching(String path) {
+		return path != null ? byWatchingPath.find(path) : Collections.emptyList();
+	}
+
+	/* Returns all sessions whose timelinePath is 'path' or an ancestor of it */
+	public List<SessionContext> getTimelineWatching(String path) {
+		return path != null ? byTimelinePath.find(path) : Collections.emptyList();
+	}
+
+	synchronized void add(SessionContext sc) {
+		setUserName(sc, null, sc.getUserName());
+		setWatchingPath(sc, null, sc.getWatchingPath());
+		setTimelinePath(sc, null, sc.getTimelinePath());
+	}
+
+	synchronized void remove(SessionContext sc) {
+		setUserName(sc, sc.getUserName(), null);
+		setWatchingPath(sc, sc.getWatchingPath(), null);
+		setTimelinePath(sc, sc.getTimelinePath(), null);
+	}
+
+	synchronized void setUserName(SessionContext sc, String oldVal, String newVal) {
+		if (oldVal != null) {
+			byUserName.computeIfPresent(oldVal, (k, set) -> {
+				set.remove(sc);
+				return set.isEmpty() ? null : set;
+			});
+		}
+		if (newVal != null) {
+			byUserName.computeIfAbsent(newVal, k -> ConcurrentHashMap.newKeySet()).add(sc);
+		}
+	}
+
+	synchronized void setWatchingPath(SessionContext sc, String oldVal, String newVal) {
+		if (oldVal != null) {
+			byWatchingPath.remove(oldVal, sc);
+		}
+		if (newVal != null) {
+			byWatchingPath.add(newVal, sc);
+		}
+	}
+
+	synchronized void setTimelinePath(SessionContext sc, String oldVal, String newVal) {
+		if (oldVal != null) {
+			byTimelinePath.remove(oldVal, sc);
+		}
+		if (newVal != null) {
+			byTimelinePath.add(newVal, sc);
+		}
+	}
+}
@@ -1,13 +1,13 @@
 package quanta.filter;
 
 import java.io.IOException;
-import java.util.HashMap;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.GenericFilterBean;
@@ -16,13 +16,15 @@ import quanta.util.Const;
 import quanta.util.Util;
 
 /**
- * Servlet filter for monitoring load statistics
+ * Servlet filter for monitoring load statistics. Hits are counted by session in the RateLimiter, and
+ * ThrottleFilter does any limiting.
  */
 @Component
 @Order(4)
 @Slf4j 
 public class HitFilter extends GenericFilterBean {
-	private static final HashMap<String, Integer> uniqueHits = new HashMap<>();
+	@Autowired
+	private RateLimiter rateLimiter;
 
 	@Override
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
@@ -45,32 +47,9 @@ public class HitFilter extends GenericFilterBean {
 	private void updateHitCounter(HttpServletRequest httpReq) {
 		HttpSession session = ((HttpServletRequest) httpReq).getSession(false);
 		if (session != null) {
-			addHit(session.getId());
+			rateLimiter.addHit(session.getId());
 		}
 	}
 
-	// Identifier can be a username OR a sessionId, depending on which map is being updated
-	public static void addHit(String id) {
-		synchronized (uniqueHits) {
-			Integer hitCount = id != null ? uniqueHits.get(id) : null;
-
-			if (hitCount == null) {
-				uniqueHits.put(id, 1);
-			} else {
-				hitCount = hitCount.intValue() + 1;
-
-				// Throttle heavy users
-				if (hitCount > 20) {
-					Util.sleep(hitCount);
-				}
-				uniqueHits.put(id, hitCount);
-			}
-		}
-	}
-
-	public static HashMap<String, Integer> getHits() {
-		return uniqueHits;
-	}
-
 	public void destroy() {}
 }
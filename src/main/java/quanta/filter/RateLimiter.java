@@ -0,0 +1,118 @@
+package quanta.filter;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.AppProp;
+import quanta.util.DateUtil;
+
+/**
+ * Per client (session ID) token bucket rate limiting, plus the hit counts for the session report,
+ * shared by ThrottleFilter and HitFilter. Each client can make 'rateLimitBurst' requests at once, and
+ * then 'rateLimitPerSecond' per second after that.
+ *
+ * There's no global lock: each client's bucket is only ever locked by that client's own requests,
+ * and only for the few instructions it takes to refill and take a token. Nothing ever waits here,
+ * instead tryAcquire tells the caller how long the client should wait, so it can reject the request.
+ * Buckets of clients we haven't heard from for IDLE_MILLIS are dropped.
+ */
+@Component
+@Slf4j
+public class RateLimiter {
+	private static final long IDLE_MILLIS = 10 * DateUtil.MINUTE_MILLIS;
+
+	@Autowired
+	private AppProp prop;
+
+	private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+	private double burst = 40;
+	private double perSecond = 10;
+
+	private static class Bucket {
+		final LongAdder hits = new LongAdder();
+		volatile long lastAccess;
+
+		// guarded by the bucket itself
+		double tokens;
+		long lastRefill;
+
+		Bucket(double tokens, long nanos) {
+			this.tokens = tokens;
+			this.lastRefill = nanos;
+			this.lastAccess = System.currentTimeMillis();
+		}
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		configure(prop.getRateLimitBurst(), prop.getRateLimitPerSecond());
+	}
+
+	/* A perSecond of zero turns limiting off (hits are still counted) */
+	public void configure(int burst, double perSecond) {
+		this.burst = Math.max(burst, 1);
+		this.perSecond = perSecond;
+	}
+
+	private Bucket bucket(String key) {
+		Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket(burst, System.nanoTime()));
+		bucket.lastAccess = System.currentTimeMillis();
+		return bucket;
+	}
+
+	/*
+	 * Takes a token from the client's bucket. Returns 0 if there was one, otherwise how many millis
+	 * until there will be, during which the client's requests should be turned away.
+	 */
+	public long tryAcquire(String key) {
+		if (perSecond <= 0)
+			return 0;
+
+		Bucket bucket = bucket(key);
+		synchronized (bucket) {
+			long now = System.nanoTime();
+			bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastRefill) * perSecond / 1_000_000_000d);
+			bucket.lastRefill = now;
+
+			if (bucket.tokens >= 1) {
+				bucket.tokens -= 1;
+				return 0;
+			}
+			return (long) Math.ceil((1 - bucket.tokens) * 1000 / perSecond);
+		}
+	}
+
+	public void addHit(String key) {
+		bucket(key).hits.increment();
+	}
+
+	/* Snapshot of the hit counts by client */
+	public Map<String, Long> getHits() {
+		HashMap<String, Long> hits = new HashMap<>();
+		buckets.forEach((key, bucket) -> hits.put(key, bucket.hits.sum()));
+		return hits;
+	}
+
+	@Scheduled(fixedDelay = DateUtil.MINUTE_MILLIS)
+	public void evictIdle() {
+		long cutoff = System.currentTimeMillis() - IDLE_MILLIS;
+		int count = 0;
+		for (Iterator<Bucket> iter = buckets.values().iterator(); iter.hasNext();) {
+			if (iter.next().lastAccess < cutoff) {
+				iter.remove();
+				count++;
+			}
+		}
+		if (count > 0) {
+			log.debug("RateLimiter evicted " + count + " idle clients, " + buckets.size() + " remain");
+		}
+	}
+}
@@ -1,36 +1,40 @@
 package quanta.filter;
 
 import java.io.IOException;
-import java.util.HashMap;
-import javax.annotation.PostConstruct;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.GenericFilterBean;
 import lombok.extern.slf4j.Slf4j;
-import quanta.config.AppProp;
+import quanta.AppController;
 import quanta.model.IPInfo;
 import quanta.util.Const;
 import quanta.util.Util;
 
 /**
- * ServletFilter for throttling access
+ * ServletFilter for throttling access. RPC calls over the client's rate limit (see RateLimiter) are
+ * turned away right away with a 429 and a Retry-After, rather than holding a servlet thread to make
+ * them wait. Binaries (images, avatars, video range requests) and static resources aren't limited,
+ * since a single page can ask for any number of them at once, and only the RPC calls know how to
+ * handle a 429.
  */
 @Component
 @Order(3)
 @Slf4j 
 public class ThrottleFilter extends GenericFilterBean {
-	@Autowired
-	private AppProp appProp;
+	// HttpServletResponse has no constant for this one
+	private static final int SC_TOO_MANY_REQUESTS = 429;
 
-	private static boolean THROTTLE_ENABLED = false;
-	private static int THROTTLE_INTERVAL = 500;
+	@Autowired
+	private RateLimiter rateLimiter;
 
 	/*
 	 * For debugging we can turn this flag on and disable the server from processing multiple requests
@@ -38,12 +42,7 @@ public class ThrottleFilter extends GenericFilterBean {
 	 */
 	private static boolean singleThreadDebugging = false;
 
-	private static final HashMap<String, IPInfo> ipInfo = new HashMap<>();
-
-	@PostConstruct
-	public void postConstruct() {
-		THROTTLE_INTERVAL = appProp.getThrottleTime();
-	}
+	private static final ConcurrentHashMap<String, IPInfo> ipInfo = new ConcurrentHashMap<>();
 
 	@Override
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
@@ -62,13 +61,12 @@ public class ThrottleFilter extends GenericFilterBean {
 			HttpSession session = sreq.getSession(false);
 			if (session != null) {
 				String ip = session.getId();
-				synchronized (ipInfo) {
-					info = ipInfo.get(ip);
-					if (info == null) {
-						ipInfo.put(ip, info = new IPInfo());
-					}
+				if (!throttleRequest(sreq, (HttpServletResponse) response, ip))
+					return;
+
+				if (singleThreadDebugging) {
+					info = ipInfo.computeIfAbsent(ip, k -> new IPInfo());
 				}
-				throttleRequest(sreq, info);
 			}
 		}
 
@@ -85,17 +83,16 @@ public class ThrottleFilter extends GenericFilterBean {
 		}
 	}
 
-	private void throttleRequest(HttpServletRequest httpReq, IPInfo info) {
-		if (httpReq == null)
-			return;
-
-		long curTime = System.currentTimeMillis();
-		if (info.getLastRequestTime() == 0) {
-			info.setLastRequestTime(curTime);
-			return;
+	/* Returns false if the request was over the limit, and has been answered with a 429 */
+	private boolean throttleRequest(HttpServletRequest httpReq, HttpServletResponse httpRes, String key) {
+		// log.debug("check:" + httpReq.getRequestURI());
+		String uri = httpReq.getRequestURI();
+		if (!uri.startsWith(AppController.API_PATH + "/") || //
+				uri.startsWith(AppController.API_PATH + "/bin/") || //
+				uri.startsWith(AppController.API_PATH + "/stream/")) {
+			return true;
 		}
 
-		// log.debug("check:" + httpReq.getRequestURI());
 		if (httpReq.getRequestURI().endsWith("/checkMessages") || //
 				httpReq.getRequestURI().endsWith("/getUserProfile") || //
 				httpReq.getRequestURI().endsWith("/getConfig") || //
@@ -105,19 +102,17 @@ public class ThrottleFilter extends GenericFilterBean {
 				httpReq.getRequestURI().endsWith("/serverPush") || //
 				httpReq.getRequestURI().endsWith("/anonPageLoad") || //
 				httpReq.getRequestURI().endsWith("/getOpenGraph")) {
-		} else {
-			if (THROTTLE_ENABLED) {
-				long wait = THROTTLE_INTERVAL - (curTime - info.getLastRequestTime());
-				if (wait > 0) {
-					log.debug("throt: " + httpReq.getRequestURI() + " " + String.valueOf(wait));
-					try {
-						Thread.sleep(wait);
-					} catch (Exception e) {
-					}
-				}
-			}
+			return true;
 		}
-		info.setLastRequestTime(System.currentTimeMillis());
+
+		long wait = rateLimiter.tryAcquire(key);
+		if (wait <= 0)
+			return true;
+
+		log.debug("throt: " + httpReq.getRequestURI() + " " + String.valueOf(wait));
+		httpRes.setStatus(SC_TOO_MANY_REQUESTS);
+		httpRes.setHeader("Retry-After", String.valueOf((wait + 999) / 1000));
+		return false;
 	}
 
 	public void destroy() {}
@@ -1,8 +1,10 @@
 package quanta.instrument;
 import java.lang.reflect.Method;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.reflect.MethodSignature;
@@ -42,15 +44,23 @@ import quanta.util.ThreadLocals;
 public class Instrument {
 	public static final int CAPTURE_THRESHOLD = 10; // 10 for prod
 
+	/*
+	 * The most recent MAX_EVENTS slow events, in a ring so adding one never locks and the oldest ones
+	 * just get overwritten.
+	 */
 	private static final int MAX_EVENTS = 10000;
-	public static List<PerfMonEvent> data = Collections.synchronizedList(new LinkedList());
+	private static final AtomicReferenceArray<PerfMonEvent> events = new AtomicReferenceArray<>(MAX_EVENTS);
+	private static final AtomicLong eventCount = new AtomicLong();
+
+	// histogram for each instrumented method, so finding it doesn't require building the category string
+	private static final ConcurrentHashMap<Method, LatencyHistogram> histograms = new ConcurrentHashMap<>();
 
 	// @Around("execution(@PerfMon * *(..))") <--- this one also did work, but I changed to the simpler
 	// looking version.
 	@Around("@annotation(PerfMon)")
 	public Object perfMonAdvice(ProceedingJoinPoint jp) throws Throwable {
 		Object value = null;
-		long startTime = System.currentTimeMillis();
+		long startTime = System.nanoTime();
 		String userName = null;
 		try {
 			SessionContext sc = ThreadLocals.getSC();
@@ -62,7 +72,7 @@ public class Instrument {
 		} catch (Throwable e) {
 			throw e;
 		} finally {
-			int duration = (int) (System.currentTimeMillis() - startTime);
+			long nanos = System.nanoTime() - startTime;
 			MethodSignature signature = (MethodSignature) jp.getSignature();
 
 			///////////////////
@@ -91,20 +101,38 @@ public class Instrument {
 			// aClass));
 
 			Method method = signature.getMethod();
-			PerfMon annotation = method.getAnnotation(PerfMon.class);
+			LatencyHistogram histogram = histograms.get(method);
+			if (histogram == null) {
+				histogram = histograms.computeIfAbsent(method, m -> PerfMetrics.get(category(m)));
+			}
+			histogram.record(nanos);
 
+			int duration = (int) (nanos / 1000000);
 			if (duration > CAPTURE_THRESHOLD) {
-				new PerfMonEvent(duration, annotation.category().equals("") ? signature.getName() : //
-						(annotation.category() + "." + signature.getName()), userName);
+				new PerfMonEvent(duration, histogram.getName(), userName);
 			}
 		}
 		return value;
 	}
 
+	private static String category(Method method) {
+		PerfMon annotation = method.getAnnotation(PerfMon.class);
+		return annotation.category().equals("") ? method.getName() : (annotation.category() + "." + method.getName());
+	}
+
 	public static void add(PerfMonEvent event) {
-		if (data.size() > MAX_EVENTS) {
-			data.clear();
+		events.set((int) (eventCount.getAndIncrement() % MAX_EVENTS), event);
+	}
+
+	/* Returns a copy of the recent slow events, in no particular order */
+	public static List<PerfMonEvent> getEvents() {
+		List<PerfMonEvent> ret = new ArrayList<>();
+		for (int i = 0; i < MAX_EVENTS; i++) {
+			PerfMonEvent event = events.get(i);
+			if (event != null) {
+				ret.add(event);
+			}
 		}
-		data.add(event);
+		return ret;
 	}
 }
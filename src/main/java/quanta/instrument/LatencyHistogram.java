@@ -0,0 +1,169 @@
+package quanta.instrument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, in the style of HdrHistogram: buckets are
+ * log-linear (each power of two split into SUB_BUCKETS equal parts) so percentiles are accurate to
+ * within 1/SUB_BUCKETS (about 12%) of the value at any magnitude, in a fixed small number of buckets.
+ *
+ * Counts are kept per minute in a ring of SLOTS slots, so we can report over any window of up to
+ * SLOTS - 1 whole minutes (plus the current partial minute), and also since startup.
+ *
+ * 'record' never locks and never allocates. A slot is cleared by whichever thread first records into
+ * it in a new minute, so a few counts recorded by other threads during that clearing can be lost.
+ * That's fine for monitoring.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	// values at or above 2^MAX_BITS ns (about 18 minutes) all land in the last bucket
+	private static final int MAX_BITS = 40;
+	private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+
+	public static final int SLOTS = 16;
+	private static final long SLOT_MILLIS = 60 * 1000;
+
+	private static class Slot {
+		final AtomicLong minute = new AtomicLong(-1);
+		final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong max = new AtomicLong();
+
+		void clear() {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts.set(i, 0);
+			}
+			count.set(0);
+			sum.set(0);
+			max.set(0);
+		}
+	}
+
+	/* Percentiles and totals over some window, as computed by 'snapshot' */
+	public static class Snapshot {
+		public long count;
+		public long sumNanos;
+		public long maxNanos;
+		private long[] counts;
+
+		public long avgNanos() {
+			return count > 0 ? sumNanos / count : 0;
+		}
+
+		/* Returns the value at 'percentile' (0 to 100), never more than the max seen */
+		public long percentileNanos(double percentile) {
+			if (count == 0)
+				return 0;
+			long target = (long) Math.ceil(count * percentile / 100.0);
+			if (target < 1) {
+				target = 1;
+			}
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= target) {
+					return Math.min(bucketHigh(i), maxNanos);
+				}
+			}
+			return maxNanos;
+		}
+	}
+
+	private final String name;
+	private final Slot[] slots = new Slot[SLOTS];
+
+	// totals since startup
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalSum = new AtomicLong();
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+		for (int i = 0; i < SLOTS; i++) {
+			slots[i] = new Slot();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	public long getTotalSumNanos() {
+		return totalSum.get();
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		long minute = System.currentTimeMillis() / SLOT_MILLIS;
+		Slot slot = slots[(int) (minute % SLOTS)];
+
+		long slotMinute = slot.minute.get();
+		if (slotMinute != minute && slot.minute.compareAndSet(slotMinute, minute)) {
+			slot.clear();
+		}
+
+		slot.counts.incrementAndGet(bucketIndex(nanos));
+		slot.count.incrementAndGet();
+		slot.sum.addAndGet(nanos);
+		slot.max.accumulateAndGet(nanos, Math::max);
+
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(nanos);
+	}
+
+	/* Merges the last 'minutes' minutes (including the current one) into a Snapshot */
+	public Snapshot snapshot(int minutes) {
+		if (minutes < 1 || minutes >= SLOTS) {
+			throw new IllegalArgumentException("minutes must be from 1 to " + (SLOTS - 1));
+		}
+		long curMinute = System.currentTimeMillis() / SLOT_MILLIS;
+		Snapshot snap = new Snapshot();
+		snap.counts = new long[BUCKETS];
+
+		for (Slot slot : slots) {
+			long slotMinute = slot.minute.get();
+			if (slotMinute < 0 || slotMinute > curMinute || slotMinute <= curMinute - minutes)
+				continue;
+
+			for (int i = 0; i < BUCKETS; i++) {
+				snap.counts[i] += slot.counts.get(i);
+			}
+			snap.count += slot.count.get();
+			snap.sumNanos += slot.sum.get();
+			snap.maxNanos = Math.max(snap.maxNanos, slot.max.get());
+		}
+		return snap;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		if (magnitude >= MAX_BITS)
+			return BUCKETS - 1;
+
+		int sub = (int) ((value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1));
+		return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/* Highest value that lands in bucket 'idx' */
+	static long bucketHigh(int idx) {
+		if (idx < SUB_BUCKETS)
+			return idx;
+
+		int magnitude = idx / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = idx % SUB_BUCKETS;
+		long low = (1L << magnitude) | (sub << (magnitude - SUB_BITS));
+		return low + (1L << (magnitude - SUB_BITS)) - 1;
+	}
+}
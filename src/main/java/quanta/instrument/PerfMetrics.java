@@ -0,0 +1,81 @@
+package quanta.instrument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The LatencyHistograms, one per category, fed by Instrument (@PerfMon methods), CallProcessor (each
+ * request) and PerfMonEvent.chain. Read by PerformanceReport, and by the Prometheus endpoint.
+ */
+public class PerfMetrics {
+	private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	// windows (in minutes) we report percentiles over
+	public static final int[] WINDOWS = {1, 5, 15};
+
+	/*
+	 * Gets the histogram for 'category', creating it the first time. After that this is just a map
+	 * lookup, so callers with a fixed category string can call it on every record.
+	 */
+	public static LatencyHistogram get(String category) {
+		LatencyHistogram h = histograms.get(category);
+		if (h == null) {
+			h = histograms.computeIfAbsent(category, LatencyHistogram::new);
+		}
+		return h;
+	}
+
+	public static void record(String category, long nanos) {
+		get(category).record(nanos);
+	}
+
+	public static List<LatencyHistogram> getAll() {
+		List<LatencyHistogram> ret = new ArrayList<>(histograms.values());
+		ret.sort((a, b) -> a.getName().compareTo(b.getName()));
+		return ret;
+	}
+
+	/*
+	 * Returns all histograms in the Prometheus text exposition format, as a 'summary' using the 5
+	 * minute window for the quantiles, and the totals since startup for _sum and _count.
+	 */
+	public static String getPrometheusText() {
+		StringBuilder sb = new StringBuilder();
+		String name = "quanta_call_duration_seconds";
+		sb.append("# HELP " + name + " Duration of instrumented calls, by category.\n");
+		sb.append("# TYPE " + name + " summary\n");
+
+		List<LatencyHistogram> all = getAll();
+		for (LatencyHistogram h : all) {
+			LatencyHistogram.Snapshot snap = h.snapshot(5);
+			String label = "category=\"" + escapeLabel(h.getName()) + "\"";
+			appendQuantile(sb, name, label, "0.5", snap.percentileNanos(50));
+			appendQuantile(sb, name, label, "0.9", snap.percentileNanos(90));
+			appendQuantile(sb, name, label, "0.99", snap.percentileNanos(99));
+			appendQuantile(sb, name, label, "0.999", snap.percentileNanos(99.9));
+			sb.append(name + "_sum{" + label + "} " + seconds(h.getTotalSumNanos()) + "\n");
+			sb.append(name + "_count{" + label + "} " + h.getTotalCount() + "\n");
+		}
+
+		String maxName = "quanta_call_duration_max_seconds";
+		sb.append("# HELP " + maxName + " Longest instrumented call in the last 5 minutes, by category.\n");
+		sb.append("# TYPE " + maxName + " gauge\n");
+		for (LatencyHistogram h : all) {
+			sb.append(maxName + "{category=\"" + escapeLabel(h.getName()) + "\"} " + seconds(h.snapshot(5).maxNanos) + "\n");
+		}
+		return sb.toString();
+	}
+
+	private static void appendQuantile(StringBuilder sb, String name, String label, String quantile, long nanos) {
+		sb.append(name + "{" + label + ",quantile=\"" + quantile + "\"} " + seconds(nanos) + "\n");
+	}
+
+	private static String seconds(long nanos) {
+		return String.valueOf(nanos / 1e9);
+	}
+
+	private static String escapeLabel(String val) {
+		return val.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
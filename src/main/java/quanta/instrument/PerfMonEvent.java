@@ -14,12 +14,14 @@ public class PerfMonEvent {
     public String event;
     public String user;
     public long lastTime;
+    private long lastNanos;
 
     // Pass event as 'null' to start a chaining set of event timings, where this constructor
     // doesn't represent processing done, but the beginning of a set of operations
     public PerfMonEvent(long duration, String event, String user) {
         this.user = user;
         lastTime = System.currentTimeMillis();
+        lastNanos = System.nanoTime();
 
         if (event != null) {
             this.duration = duration;
@@ -46,7 +48,10 @@ public class PerfMonEvent {
 
     public void chain(String event) {
         long nowTime = System.currentTimeMillis();
+        long nowNanos = System.nanoTime();
+        PerfMetrics.record(event, nowNanos - lastNanos);
         new PerfMonEvent(nowTime - lastTime, event, this.user);
         lastTime = nowTime;
+        lastNanos = nowNanos;
     }
 }
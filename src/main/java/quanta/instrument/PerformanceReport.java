@@ -20,15 +20,12 @@ public class PerformanceReport {
 		sb.append(htmlH(2, "Performance Report"));
 
 		// Sort list by whichever are consuming the most time (i.e. by duration, descending order)
-		List<PerfMonEvent> orderedData;
-		synchronized (Instrument.data) {
-			if (Instrument.data.size() == 0) {
-				sb.append("No data available yet.");
-				return sb.toString();
-			}
-			orderedData = new ArrayList<>(Instrument.data);
-			orderedData.sort((s1, s2) -> (int) (s2.duration - s1.duration));
+		List<PerfMonEvent> orderedData = Instrument.getEvents();
+		if (orderedData.size() == 0 && PerfMetrics.getAll().size() == 0) {
+			sb.append("No data available yet.");
+			return sb.toString();
 		}
+		orderedData.sort((s1, s2) -> Long.compare(s2.duration, s1.duration));
 
 		sb.append(htmlH(3, "Events over Threshold of " + String.valueOf(REPORT_THRESHOLD)));
 
@@ -112,28 +109,13 @@ public class PerformanceReport {
 		return sb.toString();
 	}
 
-	static class MethodStat {
-		String category;
-		int totalTime;
-		int totalCount;
-	}
-
-	/* This is the most 'powerful/useful' feature, because it displays time usage for each category */
+	/*
+	 * This is the most 'powerful/useful' feature, because it displays time usage for each category. Counts
+	 * and totals are since startup, and the percentiles are shown for each of PerfMetrics.WINDOWS.
+	 */
 	public static String getTimesPerCategory() {
-		HashMap<String, MethodStat> stats = new HashMap<>();
-
-		for (PerfMonEvent event : Instrument.data) {
-			MethodStat stat = stats.get(event.event);
-			if (stat == null) {
-				stats.put(event.event, stat = new MethodStat());
-				stat.category = event.event;
-			}
-			stat.totalTime += event.duration;
-			stat.totalCount++;
-		}
-
-		List<MethodStat> orderedStats = new ArrayList<>(stats.values());
-		orderedStats.sort((s1, s2) -> (int) (s2.totalTime / s2.totalCount - s1.totalTime / s1.totalCount));
+		List<LatencyHistogram> histograms = PerfMetrics.getAll();
+		histograms.sort((h1, h2) -> Long.compare(h2.getTotalSumNanos(), h1.getTotalSumNanos()));
 
 		String table = htmlTr( //
 				htmlTh("Category") + //
@@ -141,15 +123,47 @@ public class PerformanceReport {
 						htmlTh("Avg. Time") + //
 						htmlTh("Time"));
 
-		for (MethodStat stat : orderedStats) {
+		for (LatencyHistogram h : histograms) {
 			table += htmlTr( //
-					htmlTd(stat.category) + //
-							htmlTdRt(String.valueOf(stat.totalCount)) + //
-							htmlTdRt(DateUtil.formatDurationMillis(stat.totalTime / stat.totalCount, true)) + //
-							htmlTdRt(DateUtil.formatDurationMillis(stat.totalTime, true)));
+					htmlTd(h.getName()) + //
+							htmlTdRt(String.valueOf(h.getTotalCount())) + //
+							htmlTdRt(formatNanos(h.getTotalCount() > 0 ? h.getTotalSumNanos() / h.getTotalCount() : 0)) + //
+							htmlTdRt(formatNanos(h.getTotalSumNanos())));
 		}
 
-		return htmlH(3, "Times Per Category") + htmlTable(table);
+		String ret = htmlH(3, "Times Per Category") + htmlTable(table);
+
+		for (int minutes : PerfMetrics.WINDOWS) {
+			table = htmlTr( //
+					htmlTh("Category") + //
+							htmlTh("Count") + //
+							htmlTh("p50") + //
+							htmlTh("p90") + //
+							htmlTh("p99") + //
+							htmlTh("p99.9") + //
+							htmlTh("Max"));
+
+			for (LatencyHistogram h : histograms) {
+				LatencyHistogram.Snapshot snap = h.snapshot(minutes);
+				if (snap.count == 0)
+					continue;
+				table += htmlTr( //
+						htmlTd(h.getName()) + //
+								htmlTdRt(String.valueOf(snap.count)) + //
+								htmlTdRt(formatNanos(snap.percentileNanos(50))) + //
+								htmlTdRt(formatNanos(snap.percentileNanos(90))) + //
+								htmlTdRt(formatNanos(snap.percentileNanos(99))) + //
+								htmlTdRt(formatNanos(snap.percentileNanos(99.9))) + //
+								htmlTdRt(formatNanos(snap.maxNanos)));
+			}
+			ret += htmlH(3, "Percentiles, last " + minutes + " min") + htmlTable(table);
+		}
+		return ret;
+	}
+
+	// milliseconds with enough decimals that sub-millisecond times show up
+	public static String formatNanos(long nanos) {
+		return String.format("%.3f ms", nanos / 1000000.0);
 	}
 
 	/* returns as an HTML Row (user, event, rootEvent, eventId */
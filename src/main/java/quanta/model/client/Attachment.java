@@ -1,5 +1,6 @@
 package quanta.model.client;
 
+import java.util.HashMap;
 import org.springframework.data.annotation.Transient;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
@@ -26,6 +27,9 @@ public class Attachment {
     private String ipfsLink;
     private String ipfsRef;
 
+    // width -> grid ID of each downscaled copy of an image (see ImageVariantService)
+    private HashMap<String, String> variants;
+
     private SubNode ownerNode;
 
     // key in the SubNode hashmap that points to this. May be null unless retrieved
@@ -45,7 +49,7 @@ public class Attachment {
 
     @JsonProperty("w")
     public void setWidth(Integer width) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.width = width;
     }
 
@@ -56,7 +60,7 @@ public class Attachment {
 
     @JsonProperty("h")
     public void setHeight(Integer height) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.height = height;
     }
 
@@ -77,7 +81,7 @@ public class Attachment {
 
     @JsonProperty("m")
     public void setMime(String mime) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.mime = mime;
     }
 
@@ -88,7 +92,7 @@ public class Attachment {
 
     @JsonProperty("f")
     public void setFileName(String fileName) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.fileName = fileName;
     }
 
@@ -99,7 +103,7 @@ public class Attachment {
 
     @JsonProperty("s")
     public void setSize(Long size) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.size = size;
     }
 
@@ -110,7 +114,7 @@ public class Attachment {
 
     @JsonProperty("b")
     public void setBin(String bin) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.bin = bin;
     }
 
@@ -121,7 +125,7 @@ public class Attachment {
 
     @JsonProperty("d")
     public void setBinData(String binData) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.binData = binData;
     }
 
@@ -132,7 +136,7 @@ public class Attachment {
 
     @JsonProperty("u")
     public void setUrl(String url) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.url = url;
     }
 
@@ -143,7 +147,7 @@ public class Attachment {
 
     @JsonProperty("il")
     public void setIpfsLink(String ipfsLink) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.ipfsLink = ipfsLink;
     }
 
@@ -154,10 +158,21 @@ public class Attachment {
 
     @JsonProperty("ir")
     public void setIpfsRef(String ipfsRef) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.ipfsRef = ipfsRef;
     }
 
+    @JsonProperty("v")
+    public HashMap<String, String> getVariants() {
+        return variants;
+    }
+
+    @JsonProperty("v")
+    public void setVariants(HashMap<String, String> variants) {
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
+        this.variants = variants;
+    }
+
     @JsonProperty("c")
     public String getCssSize() {
         return cssSize;
@@ -165,7 +180,7 @@ public class Attachment {
 
     @JsonProperty("c")
     public void setCssSize(String cssSize) {
-        ThreadLocals.dirty(ownerNode);
+        ThreadLocals.dirty(ownerNode, SubNode.ATTACHMENTS);
         this.cssSize = cssSize;
     }
 
@@ -156,6 +156,7 @@ public class MongoAppConfig extends AbstractMongoClientConfiguration {
 				}
 				builder = builder.applyConnectionString(new ConnectionString(uri)); //
 				builder = builder.codecRegistry(pojoCodecRegistry); //
+				builder = builder.addCommandListener(new MongoQueryProfiler(appProp.getMongoSlowQueryMillis())); //
 				MongoClientSettings settings = builder.build();
 				mongoClient = MongoClients.create(settings);
 
@@ -281,14 +281,16 @@ public class MongoAuth extends ServiceBase {
 			myAcntNode = read.getNode(ms, sc.getRootId());
 		}
 
-		// node is public
-		orCriteria.add(Criteria.where(SubNode.AC + "." + PrincipalName.PUBLIC.s()).ne(null));
+		// node is public, or if we have a user, node is shared to us. One '$in' on the indexed readers.
+		List<String> readers = new LinkedList<>();
+		readers.add(PrincipalName.PUBLIC.s());
+		if (myAcntNode != null) {
+			readers.add(myAcntNode.getOwner().toHexString());
+		}
+		orCriteria.add(Criteria.where(SubNode.READERS).in(readers));
 
 		// if we have a user add their privileges in addition to public.
 		if (myAcntNode != null) {
-			// or node is shared to us
-			orCriteria.add(Criteria.where(SubNode.AC + "." + myAcntNode.getOwner().toHexString()).ne(null));
-
 			// or node is OWNED by us
 			orCriteria.add(Criteria.where(SubNode.OWNER).is(myAcntNode.getOwner()));
 
@@ -610,12 +612,7 @@ public class MongoAuth extends ServiceBase {
 		Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(pathToSearch));
 
 		if (sharedToAny != null && sharedToAny.size() > 0) {
-			List<Criteria> orCriteria = new LinkedList<>();
-			for (String share : sharedToAny) {
-				orCriteria.add(Criteria.where(SubNode.AC + "." + share).ne(null));
-			}
-
-			crit = crit.andOperator(new Criteria().orOperator(orCriteria));
+			crit = crit.and(SubNode.READERS).in(sharedToAny);
 		}
 
 		if (ownerIdMatch != null) {
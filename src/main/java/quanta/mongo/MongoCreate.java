@@ -1,6 +1,7 @@
 package quanta.mongo;
 
 import java.util.List;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.BulkOperations;
@@ -17,6 +18,9 @@ import quanta.model.client.NodeType;
 import quanta.model.client.PrivilegeType;
 import quanta.mongo.model.SubNode;
 import quanta.util.Const;
+import quanta.util.val.IntVal;
+import quanta.util.val.LongVal;
+import quanta.util.val.Val;
 
 /**
  * Performs the 'create' (as in CRUD) operations for creating new nodes in MongoDB
@@ -24,10 +28,12 @@ import quanta.util.Const;
 @Component
 @Slf4j 
 public class MongoCreate extends ServiceBase {
-	// this large top reserve size means the "insert at top" will always be done with out multiple node
-	// updates
-	// except for once every thousand times.
-	private static long RESERVE_BLOCK_SIZE = 1000;
+	/*
+	 * Distance between the ordinals of adjacent siblings when we append or renumber, which leaves room
+	 * to insert between any two siblings many times (the gap is halved each time) before any renumbering
+	 * is needed.
+	 */
+	public static final long ORDINAL_GAP = 65536;
 
 	public SubNode createNode(MongoSession ms, SubNode parent, String type, Long ordinal, CreateNodeLocation location,
 			boolean updateParentOrdinals) {
@@ -115,7 +121,7 @@ public class MongoCreate extends ServiceBase {
 				ordinal = create.insertOrdinal(ms, parent, 0L, 1L);
 				break;
 			case LAST:
-				ordinal = read.getMaxChildOrdinal(ms, parent) + 1;
+				ordinal = read.getMaxChildOrdinal(ms, parent) + ORDINAL_GAP;
 				break;
 			case ORDINAL:
 				ordinal = create.insertOrdinal(ms, parent, ordinal, 1L);
@@ -129,85 +135,130 @@ public class MongoCreate extends ServiceBase {
 	}
 
 	/*
-	 * Shifts all child ordinals down (increments them by rangeSize), that are >= 'ordinal' to make a
-	 * slot for the new ordinal positions for some new nodes to be inserted into this newly available
-	 * range of unused sequential ordinal values (range of 'ordinal+1' thru 'ordinal+1+rangeSize')
+	 * Finds room for 'rangeSize' new consecutive ordinals, positioned just above the first child of
+	 * 'node' whose ordinal is >= 'ordinal' (or at the bottom if there is no such child), and returns
+	 * the first ordinal of that range. Callers must use the returned ordinal, and assign 'first',
+	 * 'first+1', etc to the nodes they're inserting.
 	 * 
-	 * Example: Inserting at top will normally send the ordinal in that's the same as the current TOP
-	 * ordinal, so the new node will occupy that slot and everythnig else shifts down.
-	 * 
-	 * Returns the first ordinal in the range we actually ended up freeing up for use.
+	 * Siblings are kept ORDINAL_GAP apart, so normally there's an unused range between the two
+	 * neighboring siblings and nothing but the new nodes needs to be written. We take the middle of that
+	 * gap, so repeated inserts at the same spot keep finding room by halving the gap. Only when a gap is
+	 * used up do we renumber all the children (see 'renumberChildren'), which leaves room for the new
+	 * range and re-opens ORDINAL_GAP between all the siblings.
 	 */
 	@PerfMon(category = "create")
 	public long insertOrdinal(MongoSession ms, SubNode node, long ordinal, long rangeSize) {
-		long minOrdinal = read.getMinChildOrdinal(ms, node);
-
-		// default new ordinal to ordinal
-		long newOrdinal = ordinal;
-		/*
-		 * We detect the special case where we're attempting to insert at 'top' ordinals and if we find room
-		 * to grab an ordinal at minOrdinal-1 then we do so. Whenever Quanta renumbers nodes it tries to
-		 * leave RESERVE_BLOCK_SIZE at the head so that inserts "at top" will alway some in as 999, 998,
-		 * 997, etc, until it's forced to renumber, when the top node happens to have zero ordinal and we
-		 * end up trying to insert above it.
-		 */
-
-		// if we're inserting a single node
-		if (rangeSize == 1) {
-			// if the target ordinal is at or below the current minimum
-			if (ordinal <= minOrdinal) {
-				// if we have space below the current minimum we can just use it
-				if (minOrdinal > 0) {
-					long ret = minOrdinal - 1;
-
-					// always grab the index at halfway to zero so we can leave room for for future inserts to
-					// get lucky and have a place to land without cusing a multi record node renumbering.
-					if (ret > 0) {
-						ret = ret / 2;
-					}
-					return ret;
-				}
-				// else minOrdinal is already at zero so we insert a new block, and then let
-				// "INSERT_BLOCK_SIZE - 1" be the topmost ordinal now
-				else {
-					rangeSize = RESERVE_BLOCK_SIZE;
-					newOrdinal = RESERVE_BLOCK_SIZE - 1;
-				}
-			}
+		auth.auth(ms, node, PrivilegeType.READ);
+
+		// the siblings that will end up just above (lower ordinal) and just below the new range
+		Long above = getNeighborOrdinal(node, ordinal, false);
+		Long below = getNeighborOrdinal(node, ordinal, true);
+
+		// inserting at the bottom (or into an empty parent) never needs any renumbering
+		if (below == null) {
+			return above == null ? ORDINAL_GAP : above + ORDINAL_GAP;
 		}
 
-		auth.auth(ms, node, PrivilegeType.READ);
+		// -1 because zero is the lowest ordinal we ever use
+		long low = above == null ? -1L : above;
+		long free = below - low - 1;
+		if (free >= rangeSize) {
+			return low + 1 + (free - rangeSize) / 2;
+		}
 
-		// save all if there's any to save.
+		// save all if there's any to save, so nothing in memory is dirty while we renumber
 		update.saveSession(ms);
+		return renumberChildren(node, ordinal, rangeSize);
+	}
+
+	/*
+	 * Gets the ordinal of the child of 'parent' that's closest to 'ordinal', which is the lowest one >=
+	 * ordinal if 'atOrAfter' is true, or else the highest one < ordinal. Returns null if there's no such
+	 * child.
+	 * 
+	 * No security criteria here, because we have to see ALL the children to avoid ordinal collisions,
+	 * and only the ordinal is read.
+	 */
+	private Long getNeighborOrdinal(SubNode parent, long ordinal, boolean atOrAfter) {
+		if (read.noChildren(parent)) {
+			return null;
+		}
+
+		Criteria crit = mongoUtil.directChildrenCriteria(parent.getPath());
+		crit = atOrAfter ? crit.and(SubNode.ORDINAL).gte(ordinal) : crit.and(SubNode.ORDINAL).lt(ordinal);
+
+		Query q = new Query(crit);
+		q.with(Sort.by(atOrAfter ? Sort.Direction.ASC : Sort.Direction.DESC, SubNode.ORDINAL));
+		q.fields().include(SubNode.ORDINAL);
 
-		Criteria crit = Criteria.where(SubNode.ORDINAL).gte(ordinal);
+		Document doc = ops.findOne(q, Document.class, ops.getCollectionName(SubNode.class));
+		if (doc == null) {
+			return null;
+		}
+		Object val = doc.get(SubNode.ORDINAL);
+		return val instanceof Number ? ((Number) val).longValue() : null;
+	}
 
-		BulkOperations bops = null;
-		int batchSize = 0;
+	/*
+	 * Rewrites the ordinals of all children of 'parent' so they're ORDINAL_GAP apart, leaving room for
+	 * 'rangeSize' consecutive ordinals right above the first child whose ordinal is >= 'ordinal', and
+	 * returns the first ordinal of that range. Done in bulk, and only children whose ordinal actually
+	 * changes get written.
+	 */
+	private long renumberChildren(SubNode parent, long ordinal, long rangeSize) {
+		Query q = new Query(mongoUtil.directChildrenCriteria(parent.getPath()));
+		q.with(Sort.by(Sort.Direction.ASC, SubNode.ORDINAL));
+		q.fields().include(SubNode.ORDINAL);
 
-		for (SubNode child : read.getChildren(ms, node, Sort.by(Sort.Direction.ASC, SubNode.ORDINAL), null, 0, crit)) {
+		Val<BulkOperations> bops = new Val<>();
+		IntVal batchSize = new IntVal();
+		IntVal total = new IntVal();
+		// numbering starts at ORDINAL_GAP (not zero) so there's always room to insert at the top
+		LongVal nextOrdinal = new LongVal(ORDINAL_GAP);
+		LongVal ret = new LongVal(-1L);
 
-			// lazy create bulkOps
-			if (bops == null) {
-				bops = ops.bulkOps(BulkMode.UNORDERED, SubNode.class);
+		ops.stream(q, Document.class, ops.getCollectionName(SubNode.class)).forEachRemaining(doc -> {
+			Object val = doc.get(SubNode.ORDINAL);
+			long curOrdinal = val instanceof Number ? ((Number) val).longValue() : 0L;
+
+			// reserve the range right before the first child at or past 'ordinal'
+			if (ret.getVal() == -1L && curOrdinal >= ordinal) {
+				ret.setVal(nextOrdinal.getVal());
+				nextOrdinal.add(rangeSize - 1 + ORDINAL_GAP);
 			}
 
-			Query query = new Query().addCriteria(new Criteria("id").is(child.getId()));
-			Update update = new Update().set(SubNode.ORDINAL, child.getOrdinal() + rangeSize);
-			bops.updateOne(query, update);
+			long newOrdinal = nextOrdinal.getVal();
+			nextOrdinal.add(ORDINAL_GAP);
+			if (newOrdinal == curOrdinal) {
+				return;
+			}
 
-			if (++batchSize > Const.MAX_BULK_OPS) {
-				bops.execute();
-				batchSize = 0;
-				bops = null;
+			if (!bops.hasVal()) {
+				bops.setVal(ops.bulkOps(BulkMode.UNORDERED, SubNode.class));
 			}
-		}
 
-		if (bops != null) {
-			bops.execute();
+			ObjectId id = doc.getObjectId(SubNode.ID);
+			Query query = new Query().addCriteria(new Criteria("id").is(id));
+			Update update = new Update().set(SubNode.ORDINAL, newOrdinal);
+			bops.getVal().updateOne(query, update);
+			nodeCache.removePending(id);
+			total.inc();
+
+			batchSize.inc();
+			if (batchSize.getVal() > Const.MAX_BULK_OPS) {
+				bops.getVal().execute();
+				batchSize.setVal(0);
+				bops.setVal(null);
+			}
+		});
+
+		if (bops.hasVal()) {
+			bops.getVal().execute();
 		}
 
-		return newOrdinal;
+		log.debug("Renumbered " + total.getVal() + " children of " + parent.getIdStr());
+
+		// if no child was at or past 'ordinal' the new range goes at the bottom
+		return ret.getVal() == -1L ? nextOrdinal.getVal() : ret.getVal();
 	}
 }
@@ -2,6 +2,7 @@ package quanta.mongo;
 
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -9,6 +10,7 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
@@ -153,6 +155,7 @@ public class MongoDelete extends ServiceBase {
 
 		// set all the parents of all nodes in 'q' to null child status
 		bulkSetPropValOnParents(ms, q, SubNode.HAS_CHILDREN, null);
+		user.releaseAttachmentBytes(crit);
 
 		// Example: Time Range check:
 		// query.addCriteria(Criteria.where("startDate").gte(startDate).lt(endDate));
@@ -175,6 +178,9 @@ public class MongoDelete extends ServiceBase {
 			q.addCriteria(crit);
 		}
 
+		Criteria pathCrit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(path));
+		user.releaseAttachmentBytes(crit == null ? pathCrit : new Criteria().andOperator(pathCrit, crit));
+
 		SubNode parent = read.getNode(ms, path);
 		if (parent != null) {
 			parent.setHasChildren(false);
@@ -220,8 +226,16 @@ public class MongoDelete extends ServiceBase {
 		 * (as substring) this path. Note how efficient it is that we can delete an entire subgraph in one
 		 * single operation!
 		 */
+		Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(node.getPath()));
 		Query q = new Query();
-		q.addCriteria(Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(node.getPath())));
+		q.addCriteria(crit);
+
+		/*
+		 * give the owners back the space the children were using. The node's own attachments are left to
+		 * the caller, since they may be moving to another node (see deleteNode)
+		 */
+		user.releaseAttachmentBytes(crit);
+		homeTimeline.deleteNotify(crit);
 
 		DeleteResult res = ops.remove(q, SubNode.class);
 		log.debug("Num of SubGraph deleted: " + res.getDeletedCount());
@@ -269,6 +283,7 @@ public class MongoDelete extends ServiceBase {
 		// since we're deleting all nodes matching the query 'q' we set the parents of all those nodes do
 		// unknown children state
 		bulkSetPropValOnParents(ms, q, SubNode.HAS_CHILDREN, null);
+		user.releaseAttachmentBytes(crit);
 
 		// look for all calls to 'ops.remove' just to doublecheck none of them need the above
 		// 'bulkSetPropValOnParents'
@@ -399,6 +414,7 @@ public class MongoDelete extends ServiceBase {
 
 					// add bulk ops command to delete this orphan
 					bops.getVal().remove(new Query().addCriteria(new Criteria("id").is(node.getId())));
+					nodeCache.removePending(node.getId());
 
 					// update counters
 					opsPending.inc();
@@ -434,126 +450,179 @@ public class MongoDelete extends ServiceBase {
 	}
 
 	/*
-	 * Deletes Orphan Nodes.
+	 * Deletes all orphan nodes, verifies and repairs HAS_CHILDREN on every node, and reports subtree
+	 * sizes, all from one scan of the DB. Orphan nodes are ones that have a path whose parent path
+	 * doesn't exist.
 	 * 
-	 * Orphan nodes are ones that have a path whose parent path doesn't exist. This version of an
-	 * implementation requires ALL paths of all nodes to fit into RAM but there's an even simpler
-	 * approach that would be just to scan all nodes and for each one do the 'exist' check on it's
-	 * parent and delete those who don't have an existing parent.
-	 * ------------------------------------------------------------------------
+	 * We stream just the path, ID and HAS_CHILDREN of every node into a PathTree, which finds all
+	 * orphans (including entire orphaned subtrees, no matter how deep) and the real children status of
+	 * every node in a single pass over the sorted paths. This requires all paths to fit into RAM, so
+	 * deleteNodeOrphans (above) is still available for when that's not possible.
 	 * 
-	 * #optimization: Can add Verify & Repair HAS_CHILDREN in this method.
+	 * The scan can take minutes while users keep adding and moving nodes, so a node that looked like an
+	 * orphan may not be one by the time we get to it (its parent got inserted after it was scanned, or
+	 * it was scanned part way through a move). So each batch of orphans is checked against the DB
+	 * again right before deleting it (see deleteConfirmedOrphans), and likewise each batch of
+	 * HAS_CHILDREN fixes (see writeConfirmedHasChildren), so a child added since the scan doesn't get
+	 * its parent marked as having none.
 	 * 
-	 * Since every node looks for it's parent in this process we could theoretically use this to also
-	 * perfectly verify and/or repair every HAS_CHILDREN in the system. We'd just keep a list if which
-	 * nodes claim they DO have children in a HashSet of those ObjectIds, and then as we encounter each
-	 * one as a parent we "find" in this as we go along remove from the HashSet, as "correct" so that
-	 * whatever's left in said HashSet when the entire process is completed will be nodes that are known
-	 * to claim to have children and don't. Then do we do the 'inverse of that' to fix the nodes that
-	 * claim NOT to have children but DO have children...which would be a separate hash map doing the
-	 * same kind of logic.
+	 * Returns a report of what was done.
 	 */
-	public void deleteNodeOrphans_fast() {
-		log.debug("deleteNodeOrphans()");
-
-		Val<BulkOperations> bops = new Val<>(null);
-		IntVal nodesProcessed = new IntVal();
-		LongVal opsPending = new LongVal();
-		LongVal totalDeleted = new LongVal();
+	public String repairTree() {
+		log.debug("repairTree()");
+		long start = System.currentTimeMillis();
 
-		// map every path to it's ObjectId
-		HashMap<String, ObjectId> allNodes = new HashMap<>();
+		PathTree tree = new PathTree();
+		IntVal nodesScanned = new IntVal();
 
-		// first all we do is build up the 'allNodes' hashMap.
-		ops.stream(new Query(), SubNode.class).forEachRemaining(node -> {
-			// print progress every 1000th node
-			nodesProcessed.inc();
-			if (nodesProcessed.getVal() % 1000 == 0) {
-				log.debug("SCAN: " + nodesProcessed.getVal());
+		Query q = new Query();
+		q.fields().include(SubNode.PATH).include(SubNode.HAS_CHILDREN);
+		ops.stream(q, Document.class, ops.getCollectionName(SubNode.class)).forEachRemaining(doc -> {
+			nodesScanned.inc();
+			if (nodesScanned.getVal() % 10000 == 0) {
+				log.debug("SCAN: " + nodesScanned.getVal());
 			}
-
-			allNodes.put(node.getPath(), node.getId());
+			tree.add(doc.getString(SubNode.PATH), doc.getObjectId(SubNode.ID), doc.getBoolean(SubNode.HAS_CHILDREN));
 		});
 
-		nodesProcessed.setVal(0);
-
-		int passes = 0;
-		while (passes++ < 20) {
-			log.debug("Running Orphan Pass: " + passes);
-			LongVal deletesInPass = new LongVal();
-			HashMap<String, ObjectId> orphans = new HashMap<>();
-
-			// scan every node we still have and any whose parent is not also in the map is a known orphan
-			allNodes.entrySet().stream().forEach(entry -> {
-				nodesProcessed.inc();
-				if (nodesProcessed.getVal() % 1000 == 0) {
-					log.debug("FINDER SCAN: " + nodesProcessed.getVal());
-				}
+		tree.build(10000, count -> log.debug("TREE PASS: " + count));
 
-				// log.debug("STRM: " + entry.getKey());
-				if (entry.getKey().equals(NodePath.ROOT_PATH)) {
-					// log.debug("ROOT NODE: " + entry.getValue().toHexString());
-					return;
-				}
+		LongVal totalDeleted = new LongVal();
+		LongVal totalFixed = new LongVal();
+
+		LongVal orphansFound = new LongVal();
+		List<ObjectId> orphans = new ArrayList<>();
+		HashSet<String> orphanPaths = new HashSet<>();
+		tree.forEachOrphan(id -> {
+			orphansFound.inc();
+			orphans.add(id);
+			if (orphans.size() >= Const.MAX_BULK_OPS) {
+				totalDeleted.add(deleteConfirmedOrphans(orphans, orphanPaths));
+				orphans.clear();
+			}
+		});
+		totalDeleted.add(deleteConfirmedOrphans(orphans, orphanPaths));
+
+		HashMap<ObjectId, Boolean> fixes = new HashMap<>();
+		tree.forEachHasChildrenFix((id, hasChildren) -> {
+			fixes.put(id, hasChildren);
+			if (fixes.size() >= Const.MAX_BULK_OPS) {
+				totalFixed.add(writeConfirmedHasChildren(fixes));
+				fixes.clear();
+			}
+		});
+		totalFixed.add(writeConfirmedHasChildren(fixes));
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("Nodes scanned: " + tree.size() + "\n");
+		sb.append("Orphans found: " + orphansFound.getVal() + "\n");
+		sb.append("Orphans deleted: " + totalDeleted.getVal() + "\n");
+		sb.append("HAS_CHILDREN repaired: " + totalFixed.getVal() + "\n");
+		sb.append("Subtree sizes:\n");
+		for (String path : tree.getChildPaths(NodePath.ROOT_PATH)) {
+			sb.append("    " + path + ": " + tree.getSubtreeSize(path) + "\n");
+		}
+		sb.append("Time: " + (System.currentTimeMillis() - start) + "ms\n");
 
-				String parent = XString.truncAfterLast(entry.getKey(), "/");
-				if (parent.equalsIgnoreCase(NodePath.ROOT_PATH)) {
-					// log.debug("ROOT CHILD: " + entry.getValue().toHexString());
-					return;
-				}
+		String ret = sb.toString();
+		log.debug(ret);
+		return ret;
+	}
 
-				if (!allNodes.containsKey(parent)) {
-					log.debug("ORPH: " + entry.getValue().toHexString());
+	/*
+	 * Deletes those of the 'ids' (orphans as of the repairTree scan) that are still orphans now, and
+	 * returns how many that was. A node is still an orphan if its parent path (as of now) doesn't exist,
+	 * or is that of an orphan we already deleted or are deleting. 'orphanPaths' holds the paths of
+	 * those, since forEachOrphan gives us parents before their children.
+	 */
+	private long deleteConfirmedOrphans(List<ObjectId> ids, HashSet<String> orphanPaths) {
+		if (ids.isEmpty())
+			return 0;
+		String collection = ops.getCollectionName(SubNode.class);
+
+		// where the nodes are now, parents first
+		Query q = new Query(Criteria.where(SubNode.ID).in(ids));
+		q.fields().include(SubNode.PATH);
+		List<Document> nodes = ops.find(q, Document.class, collection);
+		nodes.sort((a, b) -> Integer.compare(a.getString(SubNode.PATH).length(), b.getString(SubNode.PATH).length()));
+
+		HashSet<String> parentPaths = new HashSet<>();
+		for (Document node : nodes) {
+			parentPaths.add(XString.truncAfterLast(node.getString(SubNode.PATH), "/"));
+		}
 
-					// put the stuff to delete in a separate map to avoid a concurrent modification exception
-					orphans.put(entry.getKey(), entry.getValue());
-				}
-			});
+		Query parentQuery = new Query(Criteria.where(SubNode.PATH).in(parentPaths));
+		parentQuery.fields().include(SubNode.PATH);
+		HashSet<String> existingPaths = new HashSet<>();
+		for (Document parent : ops.find(parentQuery, Document.class, collection)) {
+			existingPaths.add(parent.getString(SubNode.PATH));
+		}
 
-			// found no orphans at all then we're done.
-			if (orphans.size() == 0) {
-				log.debug("No more orphans found. Done!");
+		List<ObjectId> confirmed = new ArrayList<>();
+		for (Document node : nodes) {
+			String path = node.getString(SubNode.PATH);
+			String parentPath = XString.truncAfterLast(path, "/");
+			if (NodePath.ROOT_PATH.equals(path) || NodePath.ROOT_PATH.equals(parentPath))
+				continue;
 
-				// breaks out of while loop of 'passes'
-				break;
+			if (!existingPaths.contains(parentPath) || orphanPaths.contains(parentPath)) {
+				orphanPaths.add(path);
+				confirmed.add(node.getObjectId(SubNode.ID));
 			}
+		}
 
-			// delete all orphans identified in this pass
-			orphans.entrySet().stream().forEach(entry -> {
-				// lazy create bops
-				if (bops.getVal() == null) {
-					bops.setVal(ops.bulkOps(BulkMode.UNORDERED, SubNode.class));
-				}
+		if (confirmed.size() < ids.size()) {
+			log.debug("Orphans no longer orphans: " + (ids.size() - confirmed.size()));
+		}
+		if (confirmed.isEmpty())
+			return 0;
 
-				allNodes.remove(entry.getKey());
-				bops.getVal().remove(new Query().addCriteria(new Criteria("id").is(entry.getValue())));
+		DeleteResult res = ops.remove(new Query(Criteria.where(SubNode.ID).in(confirmed)), SubNode.class);
+		confirmed.forEach(id -> nodeCache.remove(id));
+		log.debug("REPAIR ORPHANS DELETED: " + res.getDeletedCount());
+		return res.getDeletedCount();
+	}
 
-				opsPending.inc();
-				deletesInPass.inc();
+	/*
+	 * Writes those of the 'fixes' (ID to HAS_CHILDREN, as of the repairTree scan) that are still right,
+	 * and returns how many nodes were changed. Whether each node has children now is looked up with one
+	 * query on the parent paths, and a fix that no longer agrees with that is left alone, since the node
+	 * was changed after the scan.
+	 */
+	private long writeConfirmedHasChildren(HashMap<ObjectId, Boolean> fixes) {
+		if (fixes.isEmpty())
+			return 0;
+		String collection = ops.getCollectionName(SubNode.class);
+
+		// where the nodes are now
+		Query q = new Query(Criteria.where(SubNode.ID).in(fixes.keySet()));
+		q.fields().include(SubNode.PATH);
+		List<Document> nodes = ops.find(q, Document.class, collection);
+
+		HashSet<String> paths = new HashSet<>();
+		for (Document node : nodes) {
+			paths.add(node.getString(SubNode.PATH));
+		}
 
-				if (opsPending.getVal() > Const.MAX_BULK_OPS) {
-					BulkWriteResult results = bops.getVal().execute();
-					totalDeleted.add(results.getDeletedCount());
-					log.debug("DEL TOTAL: " + totalDeleted.getVal());
-					bops.setVal(null);
-					opsPending.setVal(0L);
-				}
-			});
+		// which of them have children now (distinct, so a node with lots of children costs no more)
+		Query childQuery = new Query(Criteria.where(SubNode.PARENT_PATH).in(paths));
+		HashSet<String> parentPaths =
+				new HashSet<>(ops.findDistinct(childQuery, SubNode.PARENT_PATH, collection, String.class));
 
-			// since we delete in blocks of 100 at a time, we might have some left pending here so
-			// finish deleting those
-			if (opsPending.getVal() > 0) {
-				BulkWriteResult results = bops.getVal().execute();
-				totalDeleted.add(results.getDeletedCount());
-				log.debug("remainders. DEL TOTAL: " + totalDeleted.getVal());
-				bops.setVal(null);
-				opsPending.setVal(0L);
+		BulkOperations bops = null;
+		for (Document node : nodes) {
+			ObjectId id = node.getObjectId(SubNode.ID);
+			boolean hasChildren = parentPaths.contains(node.getString(SubNode.PATH));
+			if (fixes.get(id).booleanValue() == hasChildren) {
+				bops = update.bulkOpSetPropVal(bops, id, SubNode.HAS_CHILDREN, hasChildren);
 			}
-
-			log.debug("Deletes in Pass: " + deletesInPass.getVal());
 		}
+		if (bops == null)
+			return 0;
 
-		log.debug("TOTAL ORPHANS DELETED=" + totalDeleted.getVal());
+		BulkWriteResult results = bops.execute();
+		log.debug("REPAIR HAS_CHILDREN fixed: " + results.getModifiedCount());
+		return results.getModifiedCount();
 	}
 
 	/*
@@ -572,6 +641,8 @@ public class MongoDelete extends ServiceBase {
 		HashSet<ObjectId> parentIds = new HashSet<>();
 		int batchSize = 0;
 
+		List<SubNode> selected = new LinkedList<>();
+		HashSet<String> selectedPaths = new HashSet<>();
 		for (String nodeId : req.getNodeIds()) {
 			// lookup the node we're going to delete, we call with allowAuth, becasuse it would be redundant
 			// since the next thing we do is an 'ownerAuth', which is even more restrictive
@@ -579,6 +650,17 @@ public class MongoDelete extends ServiceBase {
 			if (node == null)
 				continue;
 			auth.ownerAuth(ms, node);
+			selected.add(node);
+			selectedPaths.add(node.getPath());
+		}
+
+		for (SubNode node : selected) {
+			/*
+			 * If an ancestor of this node is also selected, this node goes with the ancestor's subgraph, and
+			 * handling it here too would take its bytes off the owner's total twice.
+			 */
+			if (hasAncestorIn(node.getPath(), selectedPaths))
+				continue;
 
 			// get the parent of the node and add it's id to parentIds
 			SubNode parent = read.getParent(ms, node, false);
@@ -592,23 +674,17 @@ public class MongoDelete extends ServiceBase {
 				continue;
 			}
 
-			// back out the number of bytes it was using
-			if (!ms.isAdmin()) {
-				/*
-				 * NOTE: There is no equivalent to this on the IPFS code path for deleting ipfs becuase since we
-				 * don't do reference counting we let the garbage collecion cleanup be the only way user quotas are
-				 * deducted from.
-				 * 
-				 * todo-1: Also this is incorrect for now. If the user deletes a deep subgraph of nodes we don't
-				 * grant them back the space, so this would rob users of some space. Need to fix that.
-				 */
-				long totalBytes = user.getTotalAttachmentBytes(ms, node);
-				user.addBytesToUserNodeBytes(ms, -totalBytes, userNode);
-			}
+			homeTimeline.deleteNotify(node);
 
 			// really need a 'hasForeignShares' here to ignore if there aren't any (todo-2)
 			if (node.getAc() != null) {
 				nodes.add(node);
+				// back out the number of bytes it was using (deleteSubGraphChildren below does its subgraph)
+				user.addBinBytes(node.getOwner(), -user.getTotalAttachmentBytes(ms, node));
+			} else {
+				// back out the number of bytes it and its subgraph (left for the orphan cleanup) were using
+				user.releaseAttachmentBytes(
+						Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPathIncludeRoot(node.getPath())));
 			}
 
 			/*
@@ -650,6 +726,15 @@ public class MongoDelete extends ServiceBase {
 		return res;
 	}
 
+	// true if any ancestor of 'path' is in 'paths'
+	private boolean hasAncestorIn(String path, HashSet<String> paths) {
+		for (int idx = path.lastIndexOf('/'); idx > 0; idx = path.lastIndexOf('/', idx - 1)) {
+			if (paths.contains(path.substring(0, idx)))
+				return true;
+		}
+		return false;
+	}
+
 	/*
 	 * Note: this method assumes that the user associated with 'ms' already has been checked for
 	 * authorization to delete 'node' (owns the node)
@@ -657,6 +742,14 @@ public class MongoDelete extends ServiceBase {
 	public void deleteSubGraphChildren(MongoSession ms, SubNode node, boolean includeRoot) {
 		BulkOperations bops = null;
 
+		// back out the number of bytes the nodes we're about to delete were using, and drop the
+		// timelines of the users whose FRIEND nodes are among them
+		Criteria subGraph = Criteria.where(SubNode.PATH).regex(includeRoot ? //
+				mongoUtil.regexRecursiveChildrenOfPathIncludeRoot(node.getPath()) : //
+				mongoUtil.regexRecursiveChildrenOfPath(node.getPath()));
+		user.releaseAttachmentBytes(subGraph);
+		homeTimeline.deleteNotify(subGraph);
+
 		// if deleting root do it first because the getSubGraph query doesn't include root.
 		if (includeRoot) {
 			// if deleting children AND root then the parent of this root is the one we need to update the
@@ -709,6 +802,7 @@ public class MongoDelete extends ServiceBase {
 		}
 		Query query = new Query().addCriteria(new Criteria("id").is(id));
 		bops.remove(query);
+		nodeCache.removePending(id);
 		return bops;
 	}
 
@@ -734,6 +828,7 @@ public class MongoDelete extends ServiceBase {
 		// we'll be deleting every node in 'q' so we need to set the parents of all those to
 		// hasChildren=null (unknown)
 		bulkSetPropValOnParents(ms, q, SubNode.HAS_CHILDREN, null);
+		user.releaseAttachmentBytes(crit);
 
 		/*
 		 * This will potentially leave orphans and this is fine. We don't bother cleaning orphans now
@@ -763,7 +858,7 @@ public class MongoDelete extends ServiceBase {
 		if (recursive) {
 			crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(node.getPath())); //
 		} else {
-			crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getPath()));
+			crit = mongoUtil.directChildrenCriteria(node.getPath());
 		}
 
 		// Only allow deleting of TEXT-ish type node!!!
@@ -9,10 +9,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
 import org.springframework.data.mongodb.core.mapping.event.AfterConvertEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
 import org.springframework.data.mongodb.core.mapping.event.AfterLoadEvent;
 import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
 import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
 import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
 import quanta.EventPublisher;
@@ -23,6 +26,8 @@ import quanta.model.client.NodeProp;
 import quanta.model.client.NodeType;
 import quanta.mongo.model.SubNode;
 import quanta.service.AclService;
+import quanta.service.HomeTimelineService;
+import quanta.service.TrendingService;
 import quanta.util.SubNodeUtil;
 import quanta.util.ThreadLocals;
 import quanta.util.XString;
@@ -77,6 +82,15 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 	@Autowired
 	private AclService acl;
 
+	@Autowired
+	private NodeCache nodeCache;
+
+	@Autowired
+	private TrendingService trending;
+
+	@Autowired
+	private HomeTimelineService homeTimeline;
+
 	/**
 	 * What we are doing in this method is assigning the ObjectId ourselves, because our path must
 	 * include this id at the very end, since the path itself must be unique. So we assign this prior to
@@ -108,6 +122,22 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 		}
 		dbObj.put(SubNode.ID, id);
 
+		/*
+		 * The binary storage total is only ever changed by an atomic $inc (see
+		 * UserManagerService.incBinTotal), which may have happened since this node was read, so we write
+		 * back what's in the DB now rather than our own copy of it.
+		 */
+		if (!isNew && dbObj.get(SubNode.PROPS) instanceof Document
+				&& ((Document) dbObj.get(SubNode.PROPS)).containsKey(NodeProp.BIN_TOTAL.s())) {
+			Query q = new Query(Criteria.where(SubNode.ID).is(id));
+			q.fields().include(SubNode.propField(NodeProp.BIN_TOTAL.s()));
+			Document current = ops.findOne(q, Document.class, ops.getCollectionName(SubNode.class));
+			Document currentProps = current != null ? current.get(SubNode.PROPS, Document.class) : null;
+			if (currentProps != null && currentProps.get(NodeProp.BIN_TOTAL.s()) != null) {
+				((Document) dbObj.get(SubNode.PROPS)).put(NodeProp.BIN_TOTAL.s(), currentProps.get(NodeProp.BIN_TOTAL.s()));
+			}
+		}
+
 		// Extra protection to be sure accounts and repo root can't have any sharing
 		if (NodeType.ACCOUNT.s().equals(node.getType()) || NodeType.REPO_ROOT.s().equals(node.getType())) {
 			node.setAc(null);
@@ -190,6 +220,9 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 			isNew = true;
 		}
 
+		// path is final at this point, so keep the materialized parent path in sync with it.
+		dbObj.put(SubNode.PARENT_PATH, node.getParentPath());
+
 		// make sure root node can never have any sharing.
 		if (node.getPath().equals(NodePath.ROOT_PATH) && node.getAc() != null) {
 			dbObj.put(SubNode.AC, null);
@@ -222,6 +255,11 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 			dbObj.put(SubNode.PROPS, node.getProps());
 		}
 
+		// content is final at this point, so classify it for the feed filters
+		snUtil.classify(node);
+		putOrRemove(dbObj, SubNode.CLASSES, node.getClasses());
+		putOrRemove(dbObj, SubNode.CLASSES_VERSION, node.getClassesVersion());
+
 		if (node.getAc() != null) {
 			/*
 			 * we need to ensure that we never save an empty Acl, but null instead, because some parts of the
@@ -244,6 +282,9 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 			}
 		}
 
+		// sharing is final at this point, so keep the materialized readers in sync with it.
+		dbObj.put(SubNode.READERS, node.getReaders());
+
 		// Since we're saving this node already make sure none of our setters above left it flagged
 		// as dirty or it might unnecessarily get saved twice.
 		ThreadLocals.clean(node);
@@ -260,7 +301,11 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 
 		// update cache during save
 		if (node != null) {
+			node.persisted = true;
+			nodeCache.remove(node.getId());
 			apCache.saveNotify(node);
+			trending.saveNotify(node);
+			homeTimeline.saveNotify(node);
 		}
 
 		String dbRoot = NodePath.ROOT_PATH;
@@ -305,6 +350,7 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 
 		node.fixAttachments();
 		node.verifyParentPath = StringUtils.isEmpty(node.getPath());
+		node.persisted = true;
 
 		if (ThreadLocals.hasDirtyNode(node.getId())) {
 			log.warn("DIRTY READ: " + node.getIdStr());
@@ -319,9 +365,11 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 	@Override
 	public void onBeforeDelete(BeforeDeleteEvent<SubNode> event) {
 		// super.onBeforeDelete(event); todo-1: this needed?
+		Document doc = event.getDocument();
+		evictDeleted(doc);
+
 		if (!MongoRepository.fullInit)
 			return;
-		Document doc = event.getDocument();
 
 		if (doc != null) {
 			Object id = doc.get("_id");
@@ -331,6 +379,7 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 					log.trace("MDB del: " + node.getPath());
 					auth.ownerAuth(node);
 					ThreadLocals.clean(node);
+					homeTimeline.deleteNotify(node);
 				}
 
 				publisher.getPublisher().publishEvent(new MongoDeleteEvent(id));
@@ -338,6 +387,34 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 		}
 	}
 
+	/*
+	 * We evict again after the delete completes, because a read that ran between onBeforeDelete and the
+	 * actual removal could have put the node right back into the cache.
+	 */
+	@Override
+	public void onAfterDelete(AfterDeleteEvent<SubNode> event) {
+		evictDeleted(event.getDocument());
+	}
+
+	/*
+	 * 'doc' is the query the delete was run with. If that's a single node by ID we evict just that node,
+	 * but any other kind of query (paths, owners, etc) can match nodes we can't identify from here, so
+	 * we evict everything.
+	 */
+	private void evictDeleted(Document doc) {
+		Object id = null;
+		if (doc != null) {
+			// queries built with Criteria("id") aren't mapped to "_id" yet when this event fires
+			id = doc.containsKey(SubNode.ID) ? doc.get(SubNode.ID) : doc.get("id");
+		}
+
+		if (id instanceof ObjectId) {
+			nodeCache.remove((ObjectId) id);
+		} else {
+			nodeCache.clear();
+		}
+	}
+
 	/* To save a node you must own the node and have WRITE access to it's parent */
 	public void saveAuthByThread(SubNode node, boolean isNew) {
 		// during server init no auth is required.
@@ -371,4 +448,13 @@ public class MongoEventListener extends AbstractMongoEventListener<SubNode> {
 			}
 		}
 	}
+
+	// null values are left out of the document entirely, the same as the converter does
+	private void putOrRemove(Document dbObj, String field, Object val) {
+		if (val != null) {
+			dbObj.put(field, val);
+		} else {
+			dbObj.remove(field);
+		}
+	}
 }
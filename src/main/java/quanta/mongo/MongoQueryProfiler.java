@@ -0,0 +1,642 @@
+package quanta.mongo;
+
+import static quanta.instrument.PerformanceReport.formatNanos;
+import static quanta.instrument.PerformanceReport.htmlH;
+import static quanta.instrument.PerformanceReport.htmlStyle;
+import static quanta.instrument.PerformanceReport.htmlTable;
+import static quanta.instrument.PerformanceReport.htmlTd;
+import static quanta.instrument.PerformanceReport.htmlTdRt;
+import static quanta.instrument.PerformanceReport.htmlTh;
+import static quanta.instrument.PerformanceReport.htmlTr;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.springframework.web.util.HtmlUtils;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.util.ThreadLocals;
+
+/**
+ * MongoDB driver CommandListener that accounts for every command the driver sends. Each command is
+ * attributed to the API call running on the thread (CallProcessor puts a RequestStats into
+ * ThreadLocals) and to its 'query shape': the command, collection, and the field names and operators
+ * of its filter and sort, with all literal values removed.
+ *
+ * Shapes that are slow (any single run over the slowMillis threshold), or that a single request runs
+ * more than HIGH_COUNT_PER_REQUEST times (the N+1 pattern), are flagged. For slow read shapes we also
+ * run an 'explain' on a sample of the real command, in the background, so the report can show the
+ * keys and docs examined.
+ *
+ * The sync driver calls the listener on the thread running the command, which is what lets us use
+ * ThreadLocals here.
+ */
+@Slf4j
+public class MongoQueryProfiler implements CommandListener {
+	// a request running the same shape more times than this is probably looping over query results
+	public static final int HIGH_COUNT_PER_REQUEST = 20;
+
+	// how often (at most) we re-explain a shape
+	private static final long EXPLAIN_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+	// shapes beyond this many are all counted under OTHER_SHAPE, so a bug can't grow the map forever
+	private static final int MAX_SHAPES = 2000;
+	private static final String OTHER_SHAPE = "(other)";
+	private static final int MAX_SHAPE_LEN = 600;
+
+	// commands not made by the app, or that we make ourselves
+	private static final Set<String> IGNORED_COMMANDS = Set.of("explain", "hello", "isMaster", "ismaster", "ping",
+			"buildInfo", "saslStart", "saslContinue", "endSessions", "killCursors", "getLastError");
+
+	// commands we can safely explain (explaining writes is supported, but not worth the risk)
+	private static final Set<String> EXPLAINABLE_COMMANDS = Set.of("find", "aggregate", "count", "distinct");
+
+	// command fields that belong to the session/connection and must not go into an explain
+	private static final Set<String> NON_EXPLAIN_FIELDS = Set.of("lsid", "txnNumber", "autocommit", "startTransaction",
+			"readConcern", "writeConcern");
+
+	// field name segments that are really data (node ids used as keys, like in "ac.<id>")
+	private static final Pattern ID_SEGMENT = Pattern.compile("(?<=^|\\.)[0-9a-fA-F]{24}(?=$|\\.)");
+
+	public static final String BACKGROUND = "(background)";
+
+	private static MongoQueryProfiler instance;
+
+	/* Mongo usage of one API call, held in ThreadLocals while the call runs */
+	public static class RequestStats {
+		private final String endpoint;
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final Map<String, AtomicInteger> shapeCounts = new ConcurrentHashMap<>();
+
+		public RequestStats(String endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		public String getEndpoint() {
+			return endpoint;
+		}
+	}
+
+	private static class EndpointStats {
+		final String endpoint;
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong maxCalls = new AtomicLong();
+
+		EndpointStats(String endpoint) {
+			this.endpoint = endpoint;
+		}
+	}
+
+	private static class ShapeStats {
+		final String shape;
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong slowCount = new AtomicLong();
+		final AtomicLong highCountRequests = new AtomicLong();
+		final Set<String> endpoints = ConcurrentHashMap.newKeySet();
+
+		// set when we want the next run of this shape explained
+		volatile boolean wantExplain;
+		volatile long lastExplainTime;
+		volatile String explain;
+
+		ShapeStats(String shape) {
+			this.shape = shape;
+		}
+	}
+
+	/* What we hold from commandStarted until the command completes */
+	private static class Pending {
+		ShapeStats shape;
+		RequestStats req;
+		String dbName;
+		BsonDocument explainCommand;
+	}
+
+	private final long slowNanos;
+	private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+	private final Map<String, ShapeStats> shapes = new ConcurrentHashMap<>();
+	private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+	// one explain at a time, and drop samples rather than queue them up if the db is struggling
+	private final ThreadPoolExecutor explainExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<>(10), r -> {
+				Thread t = new Thread(r, "mongo-explain");
+				t.setDaemon(true);
+				return t;
+			}, new ThreadPoolExecutor.DiscardPolicy());
+
+	public MongoQueryProfiler(int slowMillis) {
+		this.slowNanos = slowMillis * 1000000L;
+		instance = this;
+	}
+
+	public static MongoQueryProfiler getInstance() {
+		return instance;
+	}
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		if (IGNORED_COMMANDS.contains(event.getCommandName()))
+			return;
+		try {
+			BsonDocument cmd = event.getCommand();
+			Pending p = new Pending();
+			p.shape = getShapeStats(shapeOf(event.getCommandName(), cmd));
+			p.req = ThreadLocals.getMongoStats();
+			p.dbName = event.getDatabaseName();
+
+			/*
+			 * The command document is only valid during this callback, so if we're going to explain this
+			 * one we have to copy it now, before we know how long it will take.
+			 */
+			if (p.shape.wantExplain && EXPLAINABLE_COMMANDS.contains(event.getCommandName())) {
+				p.shape.wantExplain = false;
+				p.explainCommand = explainableCopy(cmd);
+			}
+			pending.put(event.getRequestId(), p);
+		} catch (Exception e) {
+			// never let monitoring break a query
+			log.debug("MongoQueryProfiler failed on " + event.getCommandName(), e);
+		}
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		Pending p = pending.remove(event.getRequestId());
+		if (p == null)
+			return;
+
+		long bytes = event.getResponse() instanceof RawBsonDocument
+				? ((RawBsonDocument) event.getResponse()).getByteBuffer().remaining()
+				: 0;
+		record(p, event.getElapsedTime(TimeUnit.NANOSECONDS), bytes);
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		Pending p = pending.remove(event.getRequestId());
+		if (p == null)
+			return;
+		p.shape.failures.incrementAndGet();
+		record(p, event.getElapsedTime(TimeUnit.NANOSECONDS), 0);
+	}
+
+	private void record(Pending p, long nanos, long bytes) {
+		ShapeStats ss = p.shape;
+		ss.count.incrementAndGet();
+		ss.nanos.addAndGet(nanos);
+		ss.maxNanos.accumulateAndGet(nanos, Math::max);
+		ss.bytes.addAndGet(bytes);
+
+		if (p.req != null) {
+			p.req.calls.incrementAndGet();
+			p.req.nanos.addAndGet(nanos);
+			p.req.bytes.addAndGet(bytes);
+			p.req.shapeCounts.computeIfAbsent(ss.shape, k -> new AtomicInteger()).incrementAndGet();
+		} else {
+			// no request to add these to at the end, so count them against BACKGROUND right away
+			EndpointStats es = getEndpointStats(BACKGROUND);
+			es.calls.incrementAndGet();
+			es.nanos.addAndGet(nanos);
+			es.bytes.addAndGet(bytes);
+			ss.endpoints.add(BACKGROUND);
+		}
+
+		if (nanos >= slowNanos) {
+			ss.slowCount.incrementAndGet();
+			if (System.currentTimeMillis() - ss.lastExplainTime > EXPLAIN_INTERVAL_MILLIS) {
+				ss.wantExplain = true;
+			}
+		}
+
+		if (p.explainCommand != null) {
+			ss.lastExplainTime = System.currentTimeMillis();
+			String dbName = p.dbName;
+			BsonDocument cmd = p.explainCommand;
+			explainExecutor.execute(() -> runExplain(ss, dbName, cmd));
+		}
+	}
+
+	/* Called by CallProcessor when an API call completes, to roll its counts into the totals */
+	public static void endRequest(RequestStats req) {
+		MongoQueryProfiler mqp = instance;
+		if (mqp == null || req == null)
+			return;
+
+		EndpointStats es = mqp.getEndpointStats(req.endpoint);
+		int calls = req.calls.get();
+		es.requests.incrementAndGet();
+		es.calls.addAndGet(calls);
+		es.nanos.addAndGet(req.nanos.get());
+		es.bytes.addAndGet(req.bytes.get());
+		es.maxCalls.accumulateAndGet(calls, Math::max);
+
+		req.shapeCounts.forEach((shape, count) -> {
+			ShapeStats ss = mqp.shapes.get(shape);
+			if (ss != null) {
+				ss.endpoints.add(req.endpoint);
+				if (count.get() > HIGH_COUNT_PER_REQUEST) {
+					ss.highCountRequests.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	private ShapeStats getShapeStats(String shape) {
+		ShapeStats ss = shapes.get(shape);
+		if (ss == null) {
+			if (shapes.size() >= MAX_SHAPES) {
+				shape = OTHER_SHAPE;
+			}
+			ss = shapes.computeIfAbsent(shape, ShapeStats::new);
+		}
+		return ss;
+	}
+
+	private EndpointStats getEndpointStats(String endpoint) {
+		EndpointStats es = endpoints.get(endpoint);
+		if (es == null) {
+			es = endpoints.computeIfAbsent(endpoint, EndpointStats::new);
+		}
+		return es;
+	}
+
+	/*
+	 * Builds the shape of a command, like: "find nodes filter={pth: ?, $or: [{ac.*: ?}]} sort={ord: 1}"
+	 */
+	static String shapeOf(String commandName, BsonDocument cmd) {
+		StringBuilder sb = new StringBuilder(commandName);
+		String coll = collectionOf(commandName, cmd);
+		if (coll != null) {
+			sb.append(" ").append(coll);
+		}
+
+		switch (commandName) {
+			case "find":
+				appendShape(sb, "filter", cmd.get("filter"));
+				appendSort(sb, cmd.get("sort"));
+				break;
+			case "count":
+			case "distinct":
+				if (cmd.isString("key")) {
+					sb.append(" key=").append(cmd.getString("key").getValue());
+				}
+				appendShape(sb, "query", cmd.get("query"));
+				break;
+			case "findAndModify":
+			case "findandmodify":
+				appendShape(sb, "query", cmd.get("query"));
+				appendSort(sb, cmd.get("sort"));
+				break;
+			case "update":
+				appendFirstStatement(sb, cmd.get("updates"), "q");
+				break;
+			case "delete":
+				appendFirstStatement(sb, cmd.get("deletes"), "q");
+				break;
+			case "aggregate":
+				if (cmd.isArray("pipeline")) {
+					sb.append(" pipeline=[");
+					boolean first = true;
+					for (BsonValue stage : cmd.getArray("pipeline")) {
+						if (!stage.isDocument() || stage.asDocument().isEmpty())
+							continue;
+						if (!first) {
+							sb.append(", ");
+						}
+						first = false;
+						String op = stage.asDocument().getFirstKey();
+						sb.append(op);
+						if (op.equals("$match")) {
+							sb.append(normalizeQuery(stage.asDocument().get(op)));
+						}
+					}
+					sb.append("]");
+				}
+				break;
+			default:
+				break;
+		}
+
+		return sb.length() > MAX_SHAPE_LEN ? sb.substring(0, MAX_SHAPE_LEN) + "..." : sb.toString();
+	}
+
+	private static String collectionOf(String commandName, BsonDocument cmd) {
+		if (commandName.equals("getMore")) {
+			return cmd.isString("collection") ? cmd.getString("collection").getValue() : null;
+		}
+		BsonValue val = cmd.get(commandName);
+		return val != null && val.isString() ? val.asString().getValue() : null;
+	}
+
+	private static void appendShape(StringBuilder sb, String name, BsonValue val) {
+		if (val != null && val.isDocument() && !val.asDocument().isEmpty()) {
+			sb.append(" ").append(name).append("=").append(normalizeQuery(val));
+		}
+	}
+
+	// sort directions are part of the shape, since they decide which index can be used
+	private static void appendSort(StringBuilder sb, BsonValue val) {
+		if (val != null && val.isDocument() && !val.asDocument().isEmpty()) {
+			sb.append(" sort=").append(val.asDocument().toJson());
+		}
+	}
+
+	// bulk updates and deletes send many statements, which are usually all the same shape
+	private static void appendFirstStatement(StringBuilder sb, BsonValue statements, String filterName) {
+		if (statements == null || !statements.isArray() || statements.asArray().isEmpty())
+			return;
+		BsonValue first = statements.asArray().get(0);
+		if (first.isDocument()) {
+			appendShape(sb, filterName, first.asDocument().get(filterName));
+			BsonValue u = first.asDocument().get("u");
+			if (u != null && u.isDocument()) {
+				sb.append(" u=").append(u.asDocument().keySet().stream().filter(k -> k.startsWith("$")).collect(Collectors.toList()));
+			}
+		}
+	}
+
+	/*
+	 * Replaces every literal in a query (a document of field names) with '?', keeping field names and
+	 * operators. Literal values used as field names (like node ids in ACL keys) become '*'.
+	 */
+	static String normalizeQuery(BsonValue val) {
+		if (val == null || !val.isDocument())
+			return "?";
+
+		StringBuilder sb = new StringBuilder("{");
+		boolean first = true;
+		for (Map.Entry<String, BsonValue> e : val.asDocument().entrySet()) {
+			if (!first) {
+				sb.append(", ");
+			}
+			first = false;
+			String key = e.getKey();
+			sb.append(ID_SEGMENT.matcher(key).replaceAll("*")).append(": ");
+
+			switch (key) {
+				case "$and":
+				case "$or":
+				case "$nor":
+					sb.append(normalizeList(e.getValue()));
+					break;
+				default:
+					// $expr, $text, etc. are kept by name only
+					sb.append(key.startsWith("$") ? "?" : normalizeValue(e.getValue()));
+					break;
+			}
+		}
+		return sb.append("}").toString();
+	}
+
+	/*
+	 * The value matched against one field: either an operator document like {$gt: ?, $lt: ?} or a
+	 * literal (including literal subdocuments) which is just '?'.
+	 */
+	private static String normalizeValue(BsonValue val) {
+		if (!val.isDocument() || val.asDocument().isEmpty() || !val.asDocument().getFirstKey().startsWith("$"))
+			return "?";
+
+		StringBuilder sb = new StringBuilder("{");
+		boolean first = true;
+		for (Map.Entry<String, BsonValue> e : val.asDocument().entrySet()) {
+			if (!first) {
+				sb.append(", ");
+			}
+			first = false;
+			String op = e.getKey();
+			sb.append(op).append(": ");
+
+			switch (op) {
+				case "$in":
+				case "$nin":
+				case "$all":
+					sb.append("[?]");
+					break;
+				case "$elemMatch":
+					sb.append(normalizeQuery(e.getValue()));
+					break;
+				case "$not":
+					sb.append(normalizeValue(e.getValue()));
+					break;
+				default:
+					sb.append("?");
+					break;
+			}
+		}
+		return sb.append("}").toString();
+	}
+
+	// each distinct clause once, so "$or" over 3 or 30 similar clauses is the same shape
+	private static String normalizeList(BsonValue val) {
+		if (!val.isArray())
+			return "?";
+		List<String> parts = new ArrayList<>();
+		for (BsonValue v : val.asArray()) {
+			String part = normalizeQuery(v);
+			if (!parts.contains(part)) {
+				parts.add(part);
+			}
+		}
+		return "[" + String.join(", ", parts) + "]";
+	}
+
+	private static BsonDocument explainableCopy(BsonDocument cmd) {
+		// clone() gives us a plain BsonDocument that outlives the driver's buffer
+		BsonDocument copy = cmd.clone();
+		copy.keySet().removeIf(key -> key.startsWith("$") || NON_EXPLAIN_FIELDS.contains(key));
+		// $out and $merge pipelines write, even under explain with executionStats
+		if (copy.isArray("pipeline")) {
+			for (BsonValue stage : copy.getArray("pipeline")) {
+				if (stage.isDocument() && (stage.asDocument().containsKey("$out") || stage.asDocument().containsKey("$merge")))
+					return null;
+			}
+		}
+		return copy;
+	}
+
+	private void runExplain(ShapeStats ss, String dbName, BsonDocument cmd) {
+		if (ServiceBase.mdbf == null)
+			return;
+		try {
+			BsonDocument explainCmd = new BsonDocument("explain", cmd).append("verbosity", new BsonString("executionStats"));
+			BsonDocument res = ServiceBase.mdbf.getMongoDatabase(dbName).runCommand(explainCmd, BsonDocument.class);
+			ss.explain = summarizeExplain(res);
+		} catch (Exception e) {
+			ss.explain = "explain failed: " + e.getMessage();
+		}
+	}
+
+	/* Turns explain output into one line, like: "FETCH <- IXSCAN(pth_1) keys=120 docs=120 returned=20" */
+	static String summarizeExplain(BsonDocument res) {
+		StringBuilder sb = new StringBuilder();
+		BsonValue plan = findFirst(res, "winningPlan");
+		if (plan != null && plan.isDocument()) {
+			List<String> stages = new ArrayList<>();
+			planStages(plan.asDocument(), stages);
+			sb.append(String.join(" <- ", stages));
+		}
+		appendStat(sb, res, "totalKeysExamined", "keys");
+		appendStat(sb, res, "totalDocsExamined", "docs");
+		appendStat(sb, res, "nReturned", "returned");
+		appendStat(sb, res, "executionTimeMillis", "ms");
+		return sb.toString().trim();
+	}
+
+	private static void appendStat(StringBuilder sb, BsonDocument res, String key, String label) {
+		BsonValue val = findFirst(res, key);
+		if (val != null && val.isNumber()) {
+			sb.append(" ").append(label).append("=").append(val.asNumber().longValue());
+		}
+	}
+
+	private static void planStages(BsonDocument plan, List<String> stages) {
+		if (plan.isString("stage")) {
+			String stage = plan.getString("stage").getValue();
+			if (plan.isString("indexName")) {
+				stage += "(" + plan.getString("indexName").getValue() + ")";
+			}
+			stages.add(stage);
+		}
+		for (String key : new String[] {"queryPlan", "inputStage"}) {
+			if (plan.isDocument(key)) {
+				planStages(plan.getDocument(key), stages);
+			}
+		}
+		if (plan.isArray("inputStages")) {
+			for (BsonValue v : plan.getArray("inputStages")) {
+				if (v.isDocument()) {
+					planStages(v.asDocument(), stages);
+				}
+			}
+		}
+	}
+
+	// depth first search for 'key', since where things are in explain output varies by command and version
+	private static BsonValue findFirst(BsonValue val, String key) {
+		if (val.isDocument()) {
+			BsonDocument doc = val.asDocument();
+			if (doc.containsKey(key))
+				return doc.get(key);
+			for (BsonValue v : doc.values()) {
+				BsonValue ret = findFirst(v, key);
+				if (ret != null)
+					return ret;
+			}
+		} else if (val.isArray()) {
+			for (BsonValue v : (BsonArray) val) {
+				BsonValue ret = findFirst(v, key);
+				if (ret != null)
+					return ret;
+			}
+		}
+		return null;
+	}
+
+	public String getReport() {
+		ThreadLocals.requireAdmin();
+		StringBuilder sb = new StringBuilder();
+		sb.append("<html><head>" + htmlStyle() + "</head><body>");
+		sb.append(htmlH(2, "Mongo Query Report"));
+		sb.append("Slow threshold: " + formatNanos(slowNanos) + ". High count: more than " + HIGH_COUNT_PER_REQUEST
+				+ " runs of one shape in one request.");
+
+		List<EndpointStats> eps = new ArrayList<>(endpoints.values());
+		eps.sort((a, b) -> Double.compare(callsPerRequest(b), callsPerRequest(a)));
+
+		String rows = "";
+		for (EndpointStats es : eps) {
+			long reqs = es.requests.get();
+			rows += htmlTr(htmlTd(esc(es.endpoint)) + //
+					htmlTdRt(String.valueOf(reqs)) + //
+					htmlTdRt(String.format("%.1f", callsPerRequest(es))) + //
+					htmlTdRt(String.valueOf(es.maxCalls.get())) + //
+					htmlTdRt(String.valueOf(es.calls.get())) + //
+					htmlTdRt(formatNanos(reqs > 0 ? es.nanos.get() / reqs : es.nanos.get())) + //
+					htmlTdRt(String.valueOf(reqs > 0 ? es.bytes.get() / reqs : es.bytes.get())));
+		}
+		sb.append(htmlH(3, "Endpoints by Mongo Calls per Request"));
+		sb.append(htmlTable(htmlTr(htmlTh("Endpoint") + //
+				htmlTh("Requests") + //
+				htmlTh("Calls/Req") + //
+				htmlTh("Max Calls") + //
+				htmlTh("Total Calls") + //
+				htmlTh("Mongo Time/Req") + //
+				htmlTh("Bytes/Req")) + rows));
+
+		List<ShapeStats> ssList = new ArrayList<>(shapes.values());
+		ssList.sort((a, b) -> Long.compare(b.nanos.get(), a.nanos.get()));
+
+		rows = "";
+		for (ShapeStats ss : ssList) {
+			long count = ss.count.get();
+			String flags = "";
+			if (ss.slowCount.get() > 0) {
+				flags += "SLOW(" + ss.slowCount.get() + ") ";
+			}
+			if (ss.highCountRequests.get() > 0) {
+				flags += "HIGH-COUNT(" + ss.highCountRequests.get() + ") ";
+			}
+			if (ss.failures.get() > 0) {
+				flags += "FAILED(" + ss.failures.get() + ")";
+			}
+			rows += htmlTr(htmlTd(esc(ss.shape)) + //
+					htmlTdRt(String.valueOf(count)) + //
+					htmlTdRt(formatNanos(ss.nanos.get())) + //
+					htmlTdRt(formatNanos(count > 0 ? ss.nanos.get() / count : 0)) + //
+					htmlTdRt(formatNanos(ss.maxNanos.get())) + //
+					htmlTdRt(String.valueOf(ss.bytes.get())) + //
+					htmlTd(flags) + //
+					htmlTd(esc(String.join(", ", ss.endpoints))) + //
+					htmlTd(ss.explain != null ? esc(ss.explain) : ""));
+		}
+		sb.append(htmlH(3, "Query Shapes by Total Time"));
+		sb.append(htmlTable(htmlTr(htmlTh("Shape") + //
+				htmlTh("Count") + //
+				htmlTh("Total Time") + //
+				htmlTh("Avg Time") + //
+				htmlTh("Max Time") + //
+				htmlTh("Bytes") + //
+				htmlTh("Flags") + //
+				htmlTh("Endpoints") + //
+				htmlTh("Explain (sampled)")) + rows));
+
+		sb.append("</body></html>");
+		return sb.toString();
+	}
+
+	private static double callsPerRequest(EndpointStats es) {
+		long reqs = es.requests.get();
+		return reqs > 0 ? (double) es.calls.get() / reqs : es.calls.get();
+	}
+
+	private static String esc(String val) {
+		return val != null ? HtmlUtils.htmlEscape(val) : null;
+	}
+}
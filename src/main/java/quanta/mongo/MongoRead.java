@@ -1,8 +1,11 @@
 package quanta.mongo;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -136,7 +139,7 @@ public class MongoRead extends ServiceBase {
             return 0;
 
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(path));
+        Criteria crit = mongoUtil.directChildrenCriteria(path);
         crit = auth.addSecurityCriteria(ms, crit);
         q.addCriteria(crit);
         return ops.count(q, SubNode.class);
@@ -175,7 +178,7 @@ public class MongoRead extends ServiceBase {
         // if (noChildren(ms, path)) return false;
 
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(path));
+        Criteria crit = mongoUtil.directChildrenCriteria(path);
         if (doAuth) {
             crit = auth.addSecurityCriteria(ms, crit);
         }
@@ -183,6 +186,23 @@ public class MongoRead extends ServiceBase {
         return ops.exists(q, SubNode.class);
     }
 
+    /*
+     * Batch version of hasChildrenByQuery (with doAuth=false) that returns the subset of 'paths' that
+     * have at least one child. This is a single 'distinct' on the parent path, which the 'parent-ord'
+     * index answers by visiting one index key per parent rather than running one query per path.
+     */
+    @PerfMon(category = "read")
+    public HashSet<String> getPathsWithChildren(Collection<String> paths) {
+        HashSet<String> ret = new HashSet<>();
+        if (paths.isEmpty()) {
+            return ret;
+        }
+
+        Query q = new Query(Criteria.where(SubNode.PARENT_PATH).in(paths));
+        ret.addAll(ops.findDistinct(q, SubNode.PARENT_PATH, SubNode.class, String.class));
+        return ret;
+    }
+
     @PerfMon(category = "read")
     public long getNodeCount() {
         Query q = new Query();
@@ -418,6 +438,9 @@ public class MongoRead extends ServiceBase {
     @PerfMon(category = "read")
     public SubNode findNodeByPath(String path) {
         path = XString.stripIfEndsWith(path, "/");
+        if (nodeCache.isEnabled()) {
+            return nodeCache.findByPath(path);
+        }
         Query q = new Query();
         q.addCriteria(Criteria.where(SubNode.PATH).is(path));
         return mongoUtil.findOne(q);
@@ -441,6 +464,31 @@ public class MongoRead extends ServiceBase {
         return read.getNode(ms, objId, true);
     }
 
+    /*
+     * Gets all the nodes in 'ids' in a single query. When allowAuth is true any node the user isn't
+     * allowed to read is left out of the result rather than failing the whole call.
+     */
+    @PerfMon(category = "read")
+    public HashMap<ObjectId, SubNode> getNodesByIds(MongoSession ms, Collection<ObjectId> ids, boolean allowAuth) {
+        HashMap<ObjectId, SubNode> ret = new HashMap<>();
+        if (ids.isEmpty()) {
+            return ret;
+        }
+
+        Query q = new Query(Criteria.where(SubNode.ID).in(ids));
+        for (SubNode node : mongoUtil.find(q)) {
+            if (allowAuth) {
+                try {
+                    auth.auth(ms, node, PrivilegeType.READ);
+                } catch (Exception e) {
+                    continue;
+                }
+            }
+            ret.put(node.getId(), node);
+        }
+        return ret;
+    }
+
     @PerfMon(category = "read")
     public SubNode getOwner(MongoSession ms, SubNode node, boolean allowAuth) {
         return read.getNode(ms, node.getOwner(), allowAuth);
@@ -519,18 +567,11 @@ public class MongoRead extends ServiceBase {
         }
 
         /*
-         * This regex finds all that START WITH "path/" and then end with some other string that does NOT
-         * contain "/", so that we know it's not at a deeper level of the tree, but is immediate children of
-         * 'node'
-         * 
-         * ^:aa:bb:([^:])*$
-         * 
-         * example: To find all DIRECT children (non-recursive) under path /aa/bb regex is
-         * ^\/aa\/bb\/([^\/])*$ (Note that in the java string the \ becomes \\ below...)
-         * 
+         * Direct children (non-recursive) are found by an exact match on the materialized parent path,
+         * which the 'parent-ord' index serves without touching any deeper descendants.
          */
         Criteria crit =
-                Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node == null ? "" : node.getPath()));
+                mongoUtil.directChildrenCriteria(node == null ? "" : node.getPath());
         crit = auth.addSecurityCriteria(ms, crit);
 
         if (ordered) {
@@ -567,17 +608,10 @@ public class MongoRead extends ServiceBase {
         }
 
         /*
-         * This regex finds all that START WITH "path/" and then end with some other string that does NOT
-         * contain "/", so that we know it's not at a deeper level of the tree, but is immediate children of
-         * 'node'
-         * 
-         * ^:aa:bb:([^:])*$
-         * 
-         * example: To find all DIRECT children (non-recursive) under path /aa/bb regex is
-         * ^\/aa\/bb\/([^\/])*$ (Note that in the java string the \ becomes \\ below...)
-         * 
+         * Direct children (non-recursive) are found by an exact match on the materialized parent path,
+         * which the 'parent-ord' index serves without touching any deeper descendants.
          */
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(path));
+        Criteria crit = mongoUtil.directChildrenCriteria(path);
 
         if (textCriteria != null) {
             q.addCriteria(textCriteria);
@@ -618,6 +652,49 @@ public class MongoRead extends ServiceBase {
         return read.getChildren(ms, node, null, null, 0);
     }
 
+    /*
+     * Gets the children of all of 'paths' at once (in ordinal order), returning a map from parent path
+     * to its first 'limit' children. The query asks for 'limit' rows per parent, but since they can't
+     * be split evenly across parents in one query, if the result got truncated we redo any parent that
+     * came back short with its own query.
+     */
+    @PerfMon(category = "read")
+    public HashMap<String, List<SubNode>> getChildrenOfPaths(MongoSession ms, Collection<String> paths, int limit) {
+        HashMap<String, List<SubNode>> ret = new HashMap<>();
+        if (paths.isEmpty()) {
+            return ret;
+        }
+
+        Query q = new Query();
+        q.with(Sort.by(Sort.Direction.ASC, SubNode.PARENT_PATH, SubNode.ORDINAL));
+        q.limit(limit * paths.size());
+        Criteria crit = Criteria.where(SubNode.PARENT_PATH).in(paths);
+        crit = auth.addSecurityCriteria(ms, crit);
+        q.addCriteria(crit);
+
+        int count = 0;
+        for (SubNode child : mongoUtil.find(q)) {
+            count++;
+            List<SubNode> children = ret.computeIfAbsent(child.getParentPath(), k -> new ArrayList<>());
+            if (children.size() < limit) {
+                children.add(child);
+            }
+        }
+
+        if (count >= limit * paths.size()) {
+            for (String path : paths) {
+                List<SubNode> children = ret.get(path);
+                if (children == null || children.size() < limit) {
+                    List<SubNode> list = new ArrayList<>();
+                    read.getChildren(ms, path, Sort.by(Sort.Direction.ASC, SubNode.ORDINAL), limit, 0, null, null, false)
+                            .forEach(list::add);
+                    ret.put(path, list);
+                }
+            }
+        }
+        return ret;
+    }
+
     /*
      * All we need to do here is query for children an do a "max(ordinal)" operation on that, but
      * digging the information off the web for how to do this appears to be something that may take a
@@ -653,7 +730,7 @@ public class MongoRead extends ServiceBase {
         // todo-2: research if there's a way to query for just one, rather than simply
         // calling findOne at the end? What's best practice here?
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getPath()));
+        Criteria crit = mongoUtil.directChildrenCriteria(node.getPath());
         q.with(Sort.by(Sort.Direction.DESC, SubNode.ORDINAL));
         q.addCriteria(crit);
         q.limit(1);
@@ -674,7 +751,7 @@ public class MongoRead extends ServiceBase {
         auth.auth(ms, node, PrivilegeType.READ);
 
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getPath()));
+        Criteria crit = mongoUtil.directChildrenCriteria(node.getPath());
         q.with(Sort.by(Sort.Direction.ASC, SubNode.ORDINAL));
         q.addCriteria(crit);
         q.limit(1);
@@ -705,7 +782,7 @@ public class MongoRead extends ServiceBase {
         // todo-2: research if there's a way to query for just one, rather than simply
         // calling findOne at the end? What's best practice here?
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getParentPath()));
+        Criteria crit = mongoUtil.directChildrenCriteria(node.getParentPath());
         q.with(Sort.by(Sort.Direction.DESC, SubNode.ORDINAL));
         crit = auth.addSecurityCriteria(ms, crit);
         q.addCriteria(crit);
@@ -735,7 +812,7 @@ public class MongoRead extends ServiceBase {
         // todo-2: research if there's a way to query for just one, rather than simply
         // calling findOne at the end? What's best practice here?
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getParentPath()));
+        Criteria crit = mongoUtil.directChildrenCriteria(node.getParentPath());
         q.with(Sort.by(Sort.Direction.ASC, SubNode.ORDINAL));
         crit = auth.addSecurityCriteria(ms, crit);
         q.addCriteria(crit);
@@ -777,7 +854,7 @@ public class MongoRead extends ServiceBase {
         Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(node.getPath()));
 
         if (publicOnly) {
-            crit = crit.and(SubNode.AC + "." + PrincipalName.PUBLIC.s()).ne(null);
+            crit = crit.and(SubNode.READERS).is(PrincipalName.PUBLIC.s());
         }
 
         if (doAuth) {
@@ -801,12 +878,19 @@ public class MongoRead extends ServiceBase {
      * prop is optional and if non-null means we should search only that one field.
      * 
      * timeRangeType: futureOnly, pastOnly, all
+     * 
+     * cursor is optional. If non-null it holds the PageCursor token from the client (if any), which
+     * when there's a sort is used in place of 'skip', and on return it holds the token for the next
+     * page (or null if this page wasn't full).
      */
     @PerfMon(category = "read")
-    public Iterable<SubNode> searchSubGraph(MongoSession ms, SubNode node, String prop, String text, String sortField,
-            String sortDir, int limit, int skip, boolean fuzzy, boolean caseSensitive, String timeRangeType, boolean recursive,
+    public List<SubNode> searchSubGraph(MongoSession ms, SubNode node, String prop, String text, String sortField,
+            String sortDir, int limit, int skip, Val<String> cursor, boolean fuzzy, boolean caseSensitive, String timeRangeType, boolean recursive,
             boolean requirePriority, boolean requireAttachment) {
         if (noChildren(node)) {
+            if (cursor != null) {
+                cursor.setVal(null);
+            }
             return Collections.<SubNode>emptyList();
         }
         auth.auth(ms, node, PrivilegeType.READ);
@@ -823,7 +907,7 @@ public class MongoRead extends ServiceBase {
         if (recursive) {
             crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(node.getPath())); //
         } else {
-            crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getPath()));
+            crit = mongoUtil.directChildrenCriteria(node.getPath());
         }
 
         crit = auth.addSecurityCriteria(ms, crit);
@@ -914,6 +998,12 @@ public class MongoRead extends ServiceBase {
             }
         }
 
+        PageCursor pageCursor = cursor != null ? PageCursor.parse(cursor.getVal(), sort) : null;
+        if (pageCursor != null) {
+            skip = 0;
+        }
+        List<SubNode> results = null;
+
         /*
          * We support the special case of "contentLength" as sort order string, which is not a "real"
          * property, but a calculated one.
@@ -921,7 +1011,7 @@ public class MongoRead extends ServiceBase {
          * For a calculated field we do an Aggregate Query operation. The purpose of this entire Aggregation
          * is to calculate contentLength on the fly so we can sort on it.
          */
-        if ("contentLength".equals(sortField)) {
+        if (PageCursor.CONTENT_LENGTH.equals(sortField)) {
             List<AggregationOperation> aggOps = new LinkedList<>();
 
             /*
@@ -943,7 +1033,12 @@ public class MongoRead extends ServiceBase {
 
             // calculate contentLength
             aggOps.add(Aggregation.project().andInclude(SubNode.ALL_FIELDS)//
-                    .andExpression("strLenCP(cont)").as("contentLength"));
+                    .andExpression("strLenCP(cont)").as(PageCursor.CONTENT_LENGTH));
+
+            // the cursor can only be applied once contentLength exists
+            if (pageCursor != null) {
+                aggOps.add(Aggregation.match(pageCursor.criteria(sort)));
+            }
 
             /*
              * IMPORTANT: Having 'sort' before 'skip' and 'limit' is REQUIRED to get correct behavior, because
@@ -956,8 +1051,8 @@ public class MongoRead extends ServiceBase {
 
             Aggregation agg = Aggregation.newAggregation(aggOps);
 
-            AggregationResults<SubNode> results = ops.aggregate(agg, SubNode.class, SubNode.class);
-            return results.getMappedResults();
+            AggregationResults<SubNode> aggResults = ops.aggregate(agg, SubNode.class, SubNode.class);
+            results = aggResults.getMappedResults();
         }
         // Otherwise a standard Query.
         else {
@@ -967,6 +1062,10 @@ public class MongoRead extends ServiceBase {
                 q.addCriteria(c);
             }
 
+            if (pageCursor != null) {
+                q.addCriteria(pageCursor.criteria(sort));
+            }
+
             if (sort != null) {
                 q.with(sort);
             }
@@ -979,8 +1078,15 @@ public class MongoRead extends ServiceBase {
                 q.skip(skip);
             }
 
-            return mongoUtil.find(q);
+            results = mongoUtil.find(q);
         }
+
+        if (cursor != null) {
+            cursor.setVal(limit > 0 && results.size() >= limit //
+                    ? PageCursor.next(ops.getConverter(), sort, pageCursor, results)
+                    : null);
+        }
+        return results;
     }
 
     /**
@@ -1131,7 +1237,7 @@ public class MongoRead extends ServiceBase {
         
         // Otherwise for ordinary users root is based off their username
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(NodePath.LOCAL_USERS_PATH)) //
+        Criteria crit = mongoUtil.directChildrenCriteria(NodePath.LOCAL_USERS_PATH) //
                 .and(SubNode.PROPS + "." + propName).is(propVal) //
                 .and(SubNode.TYPE).is(NodeType.ACCOUNT.s());
 
@@ -1171,7 +1277,7 @@ public class MongoRead extends ServiceBase {
 
         // Otherwise for ordinary users root is based off their username
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(pathToQuery)) //
+        Criteria crit = mongoUtil.directChildrenCriteria(pathToQuery) //
                 // case-insensitive lookup of username:
                 .and(SubNode.PROPS + "." + NodeProp.USER).regex("^" + user + "$") //
                 .and(SubNode.TYPE).is(NodeType.ACCOUNT.s());
@@ -1239,8 +1345,7 @@ public class MongoRead extends ServiceBase {
 
         // Otherwise for ordinary users root is based off their username
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH)//
-                .regex(mongoUtil.regexDirectChildrenOfPath(node.getPath()))//
+        Criteria crit = mongoUtil.directChildrenCriteria(node.getPath())//
                 .and(SubNode.TYPE).is(type) //
                 .and(SubNode.PROPS + "." + NodeProp.USER_NODE_ID.s()).is(userNode.getIdStr());
 
@@ -1260,8 +1365,7 @@ public class MongoRead extends ServiceBase {
         }
         // Other wise for ordinary users root is based off their username
         Query q = new Query();
-        Criteria crit = Criteria.where(//
-                SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getPath()))//
+        Criteria crit = mongoUtil.directChildrenCriteria(node.getPath())//
                 .and(SubNode.TYPE).is(type);
 
         q.addCriteria(crit);
@@ -1301,10 +1405,9 @@ public class MongoRead extends ServiceBase {
     public Query typedNodesUnderPath_query(MongoSession ms, SubNode node, String type, boolean recursive, Sort sort,
             Integer limit) {
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH)
-                .regex(recursive ? mongoUtil.regexRecursiveChildrenOfPath(node.getPath())
-                        : mongoUtil.regexDirectChildrenOfPath(node.getPath()))//
-                .and(SubNode.TYPE).is(type);
+        Criteria crit = recursive ? Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(node.getPath()))
+                : mongoUtil.directChildrenCriteria(node.getPath());
+        crit = crit.and(SubNode.TYPE).is(type);
 
         if (sort != null) {
             q.with(sort);
@@ -1332,8 +1435,7 @@ public class MongoRead extends ServiceBase {
         }
 
         Query q = new Query();
-        Criteria crit = Criteria.where(//
-                SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getPath()))//
+        Criteria crit = mongoUtil.directChildrenCriteria(node.getPath())//
                 .and(SubNode.PROPS + "." + propName).is(propVal);
         q.addCriteria(crit);
         SubNode ret = mongoUtil.findOne(q);
@@ -1352,8 +1454,7 @@ public class MongoRead extends ServiceBase {
         }
 
         Query q = new Query();
-        Criteria crit = Criteria.where(//
-                SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(path))//
+        Criteria crit = mongoUtil.directChildrenCriteria(path)//
                 .and(SubNode.PROPS + "." + propName).is(propVal);
 
         crit = auth.addSecurityCriteria(ms, crit);
@@ -1403,11 +1504,11 @@ public class MongoRead extends ServiceBase {
         Criteria crit = new Criteria();
         List<Criteria> critList = new LinkedList<>();
         if (remote) {
-            critList.add(Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(NodePath.REMOTE_USERS_PATH)));
+            critList.add(mongoUtil.directChildrenCriteria(NodePath.REMOTE_USERS_PATH));
         }
 
         if (local) {
-            critList.add(Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(NodePath.LOCAL_USERS_PATH)));
+            critList.add(mongoUtil.directChildrenCriteria(NodePath.LOCAL_USERS_PATH));
         }
 
         if (textCriteria != null) {
@@ -1623,7 +1724,7 @@ public class MongoRead extends ServiceBase {
     // it does. If no nodes are lower in ordinal that makes it the top one, and thus 0th ordinal, etc.
     public long generateLogicalOrdinal(MongoSession ms, SubNode node) {
         Query q = new Query();
-        Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(node.getParentPath())) //
+        Criteria crit = mongoUtil.directChildrenCriteria(node.getParentPath()) //
                 .and(SubNode.ORDINAL).lt(node.getOrdinal());
         q.addCriteria(crit);
         return ops.count(q, SubNode.class);
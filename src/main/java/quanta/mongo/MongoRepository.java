@@ -97,6 +97,12 @@ public class MongoRepository extends ServiceBase {
 				ExUtil.error(log, "Failed in createAlIndexes", e);
 			}
 
+			try {
+				mongoUtil.convertDb(as);
+			} catch (Exception e) {
+				ExUtil.error(log, "Failed in convertDb", e);
+			}
+
 			try {
 				mongoUtil.createTestAccounts();
 			} catch (Exception e) {
@@ -110,6 +116,7 @@ public class MongoRepository extends ServiceBase {
 			publisher.getPublisher().publishEvent(new AppStartupEvent());
 
 			delete.removeAbandonedNodes(as);
+			exec.run(() -> mongoUtil.classifyNodes());
 			// apub.refreshForeignUsers();
 			// apub.refreshFollowedUsers();
 		}
@@ -1,21 +1,27 @@
 package quanta.mongo;
 
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
+import quanta.config.NodePath;
 import quanta.config.ServiceBase;
 import quanta.instrument.PerfMon;
 import quanta.model.UserStats;
 import quanta.model.client.Attachment;
+import quanta.model.client.NodeProp;
 import quanta.mongo.model.SubNode;
 import quanta.util.Cast;
 import quanta.util.ExUtil;
@@ -29,6 +35,9 @@ import quanta.util.val.Val;
 @Component
 @Slf4j 
 public class MongoUpdate extends ServiceBase {
+	// changes to any of these always write the whole document (see buildFieldUpdate)
+	private static final String[] FULL_SAVE_FIELDS = {SubNode.OWNER, SubNode.NAME, SubNode.TYPE, SubNode.AC};
+
 	public void saveObj(Object obj) {
 		ops.save(obj);
 	}
@@ -64,16 +73,42 @@ public class MongoUpdate extends ServiceBase {
 		// because the MongoEventListener looks in threadlocals for auth
 		if (!allowAuth) {
 			arun.run(as -> {
-				ops.save(node);
+				write(node);
 				return null;
 			});
 		}
 		// otherwise leave same/current threadlocals as is and MongoEventListener will auth based on this
 		// thread.
 		else {
+			write(node);
+		}
+		ThreadLocals.clean(node);
+	}
+
+	/*
+	 * Writes only the dirty fields of 'node' when we can (see buildFieldUpdate), so we don't overwrite
+	 * fields someone else changed since it was read, or else the whole document.
+	 */
+	private void write(SubNode node) {
+		Update update = buildFieldUpdate(node, null);
+		if (update == null) {
 			ops.save(node);
+			return;
 		}
+		ops.updateFirst(new Query().addCriteria(new Criteria("id").is(node.getId())), update, SubNode.class);
+		nodeCache.remove(node.getId());
+		afterFieldUpdate(node);
+	}
+
+	// field updates don't go thru MongoEventListener.onAfterSave, so this does the same
+	private void afterFieldUpdate(SubNode node) {
 		ThreadLocals.clean(node);
+		apCache.saveNotify(node);
+		trending.saveNotify(node);
+		homeTimeline.saveNotify(node);
+		if (NodePath.ROOT_PATH.equals(node.getPath())) {
+			read.setDbRoot(node);
+		}
 	}
 
 	public void saveSession(MongoSession ms) {
@@ -119,10 +154,7 @@ public class MongoUpdate extends ServiceBase {
 					nodes.add(node);
 				}
 
-				for (SubNode node : nodes) {
-					// log.debug("Saving Dirty nodeId=" + (node.getId()==null ? "null (new node?)" : node.getIdStr()));
-					update.save(ms, node, false);
-				}
+				flushDirtyNodes(nodes);
 
 				/*
 				 * This theoretically should never find any dirty nodes, because we just saved them all but we
@@ -140,6 +172,157 @@ public class MongoUpdate extends ServiceBase {
 		}
 	}
 
+	/*
+	 * Writes all 'nodes', parents before children. Nodes not yet in the DB are saved one at a time, so
+	 * their parent check (in MongoEventListener.onBeforeSave, which runs when the write is queued) can
+	 * see a new parent saved just before them. The rest go in unordered bulk writes, where nodes that
+	 * only had identifiable fields changed get a $set/$unset of just those fields, and all others get
+	 * their whole document written by an upserting replace, which runs onBeforeSave the same as a
+	 * normal save does.
+	 * 
+	 * Runs as admin, same as the per-node save(ms, node, false) calls this replaces.
+	 */
+	private void flushDirtyNodes(List<SubNode> nodes) {
+		if (nodes.size() == 0)
+			return;
+
+		nodes.sort(Comparator.comparingInt(node -> node.getPath() != null ? node.getPath().length() : 0));
+
+		arun.run(as -> {
+			BulkOperations bops = null;
+			List<SubNode> fieldUpdated = new LinkedList<>();
+			// paths of the nodes in 'bops', whose children can't be checked against the DB until it runs
+			HashSet<String> queuedPaths = new HashSet<>();
+
+			for (SubNode node : nodes) {
+				if (!node.persisted) {
+					// whatever is queued may include this node's parent
+					flushBulk(bops, fieldUpdated);
+					bops = null;
+					fieldUpdated.clear();
+					queuedPaths.clear();
+
+					ops.save(node);
+					continue;
+				}
+
+				if (bops == null) {
+					bops = ops.bulkOps(BulkMode.UNORDERED, SubNode.class);
+				}
+				Query query = new Query().addCriteria(new Criteria("id").is(node.getId()));
+				Update update = buildFieldUpdate(node, queuedPaths);
+				if (update != null) {
+					// log.debug("Updating Dirty nodeId=" + node.getIdStr() + " " + update.getUpdateObject());
+					bops.updateOne(query, update);
+					fieldUpdated.add(node);
+				} else {
+					bops.replaceOne(query, node, FindAndReplaceOptions.options().upsert());
+				}
+				nodeCache.removePending(node.getId());
+				queuedPaths.add(node.getPath());
+			}
+			flushBulk(bops, fieldUpdated);
+			return null;
+		});
+	}
+
+	private void flushBulk(BulkOperations bops, List<SubNode> fieldUpdated) {
+		if (bops == null)
+			return;
+		bops.execute();
+
+		// replaced nodes went thru MongoEventListener.onAfterSave, but field updates don't
+		for (SubNode node : fieldUpdated) {
+			afterFieldUpdate(node);
+		}
+	}
+
+	/*
+	 * Builds the update that writes only the dirty fields of 'node', or returns null if the whole
+	 * document must be written instead. That's the case for nodes not yet in the DB, unidentified
+	 * changes, and the fields MongoEventListener.onBeforeSave normalizes (owner, name, type, and
+	 * sharing) or fills in when missing. The parent check of a moved node is skipped when its parent is
+	 * in 'queuedPaths', since that's being written in the same bulk write.
+	 */
+	private Update buildFieldUpdate(SubNode node, HashSet<String> queuedPaths) {
+		if (!node.persisted || node.getPath() == null || node.getPath().endsWith("/?") || node.getOrdinal() == null
+				|| node.getCreateTime() == null || node.getModifyTime() == null)
+			return null;
+
+		HashSet<String> fields = node.getDirtyFields();
+		if (fields.isEmpty() || fields.contains(null))
+			return null;
+
+		for (String field : FULL_SAVE_FIELDS) {
+			if (fields.contains(field))
+				return null;
+		}
+
+		// same cleanup onBeforeSave does, and any props it removes get added to the dirty fields
+		if (snUtil.removeDefaultProps(node)) {
+			fields = node.getDirtyFields();
+		}
+
+		// We convert the whole node so each value is written exactly as a full save would've stored it.
+		Document doc = new Document();
+		ops.getConverter().write(node, doc);
+		Document props = doc.get(SubNode.PROPS) instanceof Document ? (Document) doc.get(SubNode.PROPS) : null;
+		String propPrefix = SubNode.propField("");
+
+		// only ever changed by UserManagerService.incBinTotal's atomic $inc, so we never write our copy of it
+		String binTotalField = SubNode.propField(NodeProp.BIN_TOTAL.s());
+		if (fields.contains(SubNode.PROPS) && props != null && props.containsKey(NodeProp.BIN_TOTAL.s()))
+			return null;
+
+		Update update = new Update();
+		for (String field : fields) {
+			Object val;
+			if (field.startsWith(propPrefix)) {
+				// the whole props map is being written anyway
+				if (fields.contains(SubNode.PROPS) || field.equals(binTotalField))
+					continue;
+
+				// keys that can't be part of a dotted field name
+				String key = field.substring(propPrefix.length());
+				if (key.length() == 0 || key.contains(".") || key.startsWith("$"))
+					return null;
+				val = props != null ? props.get(key) : null;
+			} else {
+				val = doc.get(field);
+			}
+
+			if (val == null) {
+				update.unset(field);
+			} else {
+				update.set(field, val);
+			}
+		}
+
+		// reclassify changed content (or a changed boost target), same as onBeforeSave
+		if (fields.contains(SubNode.CONTENT) || fields.contains(SubNode.propField(NodeProp.BOOST.s()))
+				|| fields.contains(SubNode.PROPS)) {
+			snUtil.classify(node);
+			if (node.getClasses() != null) {
+				update.set(SubNode.CLASSES, node.getClasses());
+			} else {
+				update.unset(SubNode.CLASSES);
+			}
+			if (node.getClassesVersion() != null) {
+				update.set(SubNode.CLASSES_VERSION, node.getClassesVersion());
+			}
+		}
+
+		// keep the materialized parent path in sync, and never allow orphans, same as onBeforeSave
+		if (fields.contains(SubNode.PATH)) {
+			update.set(SubNode.PARENT_PATH, node.getParentPath());
+			if (!node.getPath().startsWith(NodePath.PENDING_PATH + "/") && ThreadLocals.getParentCheckEnabled()
+					&& (queuedPaths == null || !queuedPaths.contains(node.getParentPath()))) {
+				read.checkParentExists(null, node.getPath());
+			}
+		}
+		return update;
+	}
+
 	/*
 	 * Unpins any IPFS data that is not currently referenced by MongoDb. Cleans up orphans.
 	 */
@@ -219,6 +402,7 @@ public class MongoUpdate extends ServiceBase {
 		Update update = new Update();
 		update.set(SubNode.HAS_CHILDREN, null);
 		ops.findAndModify(query, update, SubNode.class);
+		nodeCache.clear();
 	}
 
 	// returns a new BulkOps if one not yet existing
@@ -229,6 +413,7 @@ public class MongoUpdate extends ServiceBase {
 		Query query = new Query().addCriteria(new Criteria("id").is(id));
 		Update update = new Update().set(prop, val);
 		bops.updateOne(query, update);
+		nodeCache.removePending(id);
 		return bops;
 	}
 }
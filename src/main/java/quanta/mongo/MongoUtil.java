@@ -6,8 +6,10 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.mongodb.core.BulkOperations;
@@ -21,6 +23,7 @@ import org.springframework.data.mongodb.core.index.TextIndexDefinition.TextIndex
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import com.mongodb.bulk.BulkWriteResult;
 import lombok.extern.slf4j.Slf4j;
@@ -34,10 +37,16 @@ import quanta.model.client.NodeType;
 import quanta.model.client.PrincipalName;
 import quanta.model.client.PrivilegeType;
 import quanta.mongo.model.AccessControl;
+import quanta.mongo.model.APDelivery;
+import quanta.mongo.model.APInboxItem;
 import quanta.mongo.model.FediverseName;
+import quanta.mongo.model.GridRef;
+import quanta.mongo.model.OpenGraphEntry;
 import quanta.mongo.model.SubNode;
+import quanta.mongo.model.TrendingCounted;
 import quanta.request.SignupRequest;
 import quanta.util.Const;
+import quanta.util.DateUtil;
 import quanta.util.ExUtil;
 import quanta.util.ImageUtil;
 import quanta.util.ThreadLocals;
@@ -54,6 +63,9 @@ public class MongoUtil extends ServiceBase {
 	private static HashSet<String> testAccountNames = new HashSet<>();
 	private static final Random rand = new Random();
 
+	// set while classifyNodes runs, since it's also started at startup, outside the scheduler
+	private final AtomicBoolean classifying = new AtomicBoolean();
+
 	public static SubNode allUsersRootNode = null;
 	public static SubNode localUsersNode = null;
 	public static SubNode remoteUsersNode = null;
@@ -140,8 +152,8 @@ public class MongoUtil extends ServiceBase {
 	}
 
 	/**
-	 * Runs the mongo 'findById' but if it finds a node that's already in memory we return the memory
-	 * object.
+	 * Runs the mongo 'findById' but goes thru the shared NodeCache when that's enabled. Either way the
+	 * caller gets its own SubNode instance.
 	 * 
 	 * NOTE: All security checks are done external to this method.
 	 */
@@ -150,6 +162,10 @@ public class MongoUtil extends ServiceBase {
 		if (objId == null)
 			return null;
 
+		if (nodeCache.isEnabled()) {
+			return nodeCache.findById(objId);
+		}
+
 		// NOTE: For AOP Instrumentation we have to call thru the bean proxy ref, not 'this'
 		return mongoUtil.ops_findById(objId);
 	}
@@ -321,32 +337,167 @@ public class MongoUtil extends ServiceBase {
 	}
 
 	public void convertDb(MongoSession ms) {
-		// processAllNodes(session);
+		processAllNodes(ms);
+		backfillReaders(ms);
 	}
 
+	/*
+	 * One-time backfill of SubNode.PARENT_PATH onto any nodes saved before that field existed. Nodes
+	 * already having the field are skipped by the query itself (served by the 'parent-ord' index), so
+	 * once the DB has been converted this costs nothing more than one empty query at startup.
+	 * 
+	 * We stream raw Documents (only the path) rather than SubNodes so that no MongoEventListener
+	 * processing can run on partially loaded nodes and accidentally flag them as dirty.
+	 */
 	public void processAllNodes(MongoSession ms) {
-		// Val<Long> nodesProcessed = new Val<Long>(0L);
+		auth.requireAdmin(ms);
+		Query q = new Query(Criteria.where(SubNode.PARENT_PATH).exists(false));
+		q.fields().include(SubNode.PATH);
 
-		// Query query = new Query();
-		// Criteria criteria = Criteria.where(SubNode.FIELD_ACL).ne(null);
-		// query.addCriteria(criteria);
+		Val<BulkOperations> bops = new Val<>();
+		IntVal opCount = new IntVal();
+		IntVal total = new IntVal();
 
-		// saveSession(session);
-		// Iterable<SubNode> iter = find(query);
+		ops.stream(q, Document.class, ops.getCollectionName(SubNode.class)).forEachRemaining(doc -> {
+			String path = doc.getString(SubNode.PATH);
+			if (path == null)
+				return;
 
-		// iter.forEach((node) -> {
-		// nodesProcessed.setVal(nodesProcessed.getVal() + 1);
-		// if (nodesProcessed.getVal() % 1000 == 0) {
-		// log.debug("reSave count: " + nodesProcessed.getVal());
-		// }
+			if (!bops.hasVal()) {
+				bops.setVal(ops.bulkOps(BulkMode.UNORDERED, SubNode.class));
+			}
+
+			Query query = new Query().addCriteria(new Criteria("id").is(doc.getObjectId(SubNode.ID)));
+			Update update = new Update().set(SubNode.PARENT_PATH, XString.truncAfterLast(path, "/"));
+			bops.getVal().updateOne(query, update);
+			opCount.inc();
+			total.inc();
+
+			if (opCount.getVal() > Const.MAX_BULK_OPS) {
+				BulkWriteResult results = bops.getVal().execute();
+				log.debug("Parent path backfill: " + results.getModifiedCount() + " total=" + total.getVal());
+				bops.setVal(null);
+				opCount.setVal(0);
+			}
+		});
+
+		if (bops.hasVal()) {
+			BulkWriteResult results = bops.getVal().execute();
+			log.debug("Final parent path backfill: " + results.getModifiedCount() + " total=" + total.getVal());
+		}
+	}
+
+	/*
+	 * One-time backfill of SubNode.READERS onto any nodes saved before that field existed, the same way
+	 * processAllNodes does for PARENT_PATH. Nodes with no sharing get an empty array, so every node has
+	 * the field afterwards and the query finds nothing on later startups.
+	 */
+	public void backfillReaders(MongoSession ms) {
+		auth.requireAdmin(ms);
+		Query q = new Query(Criteria.where(SubNode.READERS).exists(false));
+		q.fields().include(SubNode.AC);
+
+		Val<BulkOperations> bops = new Val<>();
+		IntVal opCount = new IntVal();
+		IntVal total = new IntVal();
+
+		ops.stream(q, Document.class, ops.getCollectionName(SubNode.class)).forEachRemaining(doc -> {
+			if (!bops.hasVal()) {
+				bops.setVal(ops.bulkOps(BulkMode.UNORDERED, SubNode.class));
+			}
+
+			Object ac = doc.get(SubNode.AC);
+			List<String> readers = SubNode.getReaders(ac instanceof Document ? (Document) ac : null);
+			Query query = new Query().addCriteria(new Criteria("id").is(doc.getObjectId(SubNode.ID)));
+			Update update = new Update().set(SubNode.READERS, readers);
+			bops.getVal().updateOne(query, update);
+			opCount.inc();
+			total.inc();
+
+			if (opCount.getVal() > Const.MAX_BULK_OPS) {
+				BulkWriteResult results = bops.getVal().execute();
+				log.debug("Readers backfill: " + results.getModifiedCount() + " total=" + total.getVal());
+				bops.setVal(null);
+				opCount.setVal(0);
+			}
+		});
+
+		if (bops.hasVal()) {
+			BulkWriteResult results = bops.getVal().execute();
+			log.debug("Final readers backfill: " + results.getModifiedCount() + " total=" + total.getVal());
+		}
+	}
+
+	/*
+	 * Classifies the content (SubNode.CLASSES) of every node not yet classified with the current
+	 * EnglishDictionary.getClassifyVersion, which is all nodes the first time this runs and all of them
+	 * again whenever the word lists or the classifier change. Nodes saved in the meantime are
+	 * classified as they're saved, and the update is conditional on the version so we never overwrite
+	 * that with a classification of content that's since changed.
+	 *
+	 * The feeds leave out nodes that have never been classified (see UserFeedService.generateFeed), so
+	 * this also runs once as soon as the DB is ready (see MongoRepository).
+	 */
+	@Scheduled(fixedDelay = 10 * DateUtil.MINUTE_MILLIS)
+	public void classifyNodes() {
+		if (!prop.isDaemonsEnabled() || !MongoRepository.fullInit)
+			return;
+
+		Integer version = english.getClassifyVersion();
+		if (version == null || !classifying.compareAndSet(false, true))
+			return;
+		try {
+			classifyNodes(version);
+		} finally {
+			classifying.set(false);
+		}
+	}
+
+	private void classifyNodes(Integer version) {
+
+		Query q = new Query(Criteria.where(SubNode.CLASSES_VERSION).ne(version));
+		q.fields().include(SubNode.CONTENT).include(SubNode.propField(NodeProp.BOOST.s()));
+
+		Val<BulkOperations> bops = new Val<>();
+		IntVal opCount = new IntVal();
+		IntVal total = new IntVal();
 
-		// // /*
-		// // * NOTE: MongoEventListener#onBeforeSave runs in here, which is where some
-		// of
-		// // * the workload is done that pertains ot this reSave process
-		// // */
-		// save(session, node, true, false);
-		// });
+		ops.stream(q, Document.class, ops.getCollectionName(SubNode.class)).forEachRemaining(doc -> {
+			if (!bops.hasVal()) {
+				bops.setVal(ops.bulkOps(BulkMode.UNORDERED, SubNode.class));
+			}
+
+			Object props = doc.get(SubNode.PROPS);
+			Object boost = props instanceof Document ? ((Document) props).get(NodeProp.BOOST.s()) : null;
+			List<String> classes = snUtil.classify(doc.getString(SubNode.CONTENT), boost instanceof String ? (String) boost : null);
+
+			ObjectId id = doc.getObjectId(SubNode.ID);
+			Query query = new Query().addCriteria(new Criteria("id").is(id) //
+					.and(SubNode.CLASSES_VERSION).ne(version));
+			Update update = new Update().set(SubNode.CLASSES_VERSION, version);
+			if (classes != null) {
+				update.set(SubNode.CLASSES, classes);
+			} else {
+				update.unset(SubNode.CLASSES);
+			}
+			bops.getVal().updateOne(query, update);
+			// keep the node cache from serving (or picking back up) the unclassified node
+			nodeCache.removePending(id);
+			opCount.inc();
+			total.inc();
+
+			if (opCount.getVal() > Const.MAX_BULK_OPS) {
+				BulkWriteResult results = bops.getVal().execute();
+				log.debug("Classify nodes: " + results.getModifiedCount() + " total=" + total.getVal());
+				bops.setVal(null);
+				opCount.setVal(0);
+			}
+		});
+
+		if (bops.hasVal()) {
+			BulkWriteResult results = bops.getVal().execute();
+			log.debug("Final classify nodes: " + results.getModifiedCount() + " total=" + total.getVal());
+		}
 	}
 
 	/* Returns true if there were actually some encryption keys removed */
@@ -502,7 +653,9 @@ public class MongoUtil extends ServiceBase {
 			}
 
 			Query query = new Query().addCriteria(new Criteria("id").is(node.getId()));
-			Update update = new Update().set(SubNode.PATH, newPath);
+			Update update = new Update().set(SubNode.PATH, newPath) //
+					.set(SubNode.PARENT_PATH, XString.truncAfterLast(newPath, "/"));
+			nodeCache.removePending(node.getId());
 
 			if (!bops.hasVal()) {
 				bops.setVal(ops.bulkOps(BulkMode.UNORDERED, SubNode.class));
@@ -667,6 +820,22 @@ public class MongoUtil extends ServiceBase {
 		log.debug("Creating FediverseName unique index.");
 		ops.indexOps(FediverseName.class).ensureIndex(new Index().on(FediverseName.NAME, Direction.ASC).unique());
 
+		log.debug("Creating APDelivery index.");
+		ops.indexOps(APDelivery.class).ensureIndex(new Index().on(APDelivery.NEXT_ATTEMPT, Direction.ASC));
+
+		log.debug("Creating APInboxItem indexes.");
+		// the activity id alone used to be unique, which let an unverified post block the real one
+		if (ops.indexOps(APInboxItem.class).getIndexInfo().stream().anyMatch(i -> "aid_1".equals(i.getName()))) {
+			dropIndex(ms, APInboxItem.class, "aid_1");
+		}
+		ops.indexOps(APInboxItem.class).ensureIndex(new Index().on(APInboxItem.ACTIVITY_ID, Direction.ASC)
+				.on(APInboxItem.SIGNATURE, Direction.ASC).unique()
+				.partial(PartialIndexFilter.of(Criteria.where(APInboxItem.ACTIVITY_ID).exists(true))));
+		ops.indexOps(APInboxItem.class).ensureIndex(new Index().on(APInboxItem.HOST, Direction.ASC));
+		ops.indexOps(APInboxItem.class).ensureIndex(
+				new Index().on(APInboxItem.OBJECT_ID, Direction.ASC).on(APInboxItem.ACTOR, Direction.ASC).sparse());
+		ops.indexOps(APInboxItem.class).ensureIndex(new Index().on(APInboxItem.CREATE_TIME, Direction.ASC));
+
 		createUniqueIndex(ms, SubNode.class, SubNode.PATH);
 
 		// Other indexes that *could* be added but we don't, just as a performance enhancer is
@@ -689,6 +858,9 @@ public class MongoUtil extends ServiceBase {
 		// delete.removeFriendConstraintViolations(ms);
 
 		createUniqueFriendsIndex(ms);
+
+		// finds the followers of a user, to fan out their posts (see HomeTimelineService)
+		createPartialIndex(ms, "friend-usernode", SubNode.class, SubNode.PROPS + "." + NodeProp.USER_NODE_ID.s());
 		createUniqueNodeNameIndex(ms);
 
 		// DO NOT DELETE
@@ -706,13 +878,27 @@ public class MongoUtil extends ServiceBase {
 		createIndex(ms, SubNode.class, SubNode.OWNER);
 		createIndex(ms, SubNode.class, SubNode.XFR);
 		createIndex(ms, SubNode.class, SubNode.ORDINAL);
+		createParentOrdinalIndex(ms);
 
 		createIndex(ms, SubNode.class, SubNode.MODIFY_TIME, Direction.DESC);
 		createIndex(ms, SubNode.class, SubNode.CREATE_TIME, Direction.DESC);
+		createReadersIndexes(ms);
+
+		// lets classifyNodes find the nodes needing classification without a collection scan
+		createIndex(ms, SubNode.class, SubNode.CLASSES_VERSION, Direction.ASC);
 		createTextIndexes(ms, SubNode.class);
 
 		logIndexes(ms, SubNode.class);
 
+		// lets Mongo delete cached OpenGraph data once it expires (see OpenGraphService)
+		createExpiryIndex(ms, OpenGraphEntry.class, OpenGraphEntry.EXPIRES);
+
+		// lets GridDedupService find the reference count of a grid file
+		createUniqueIndex(ms, GridRef.class, GridRef.GID);
+
+		// lets Mongo delete the marks of counted nodes once they're too old to trend (see TrendingService)
+		createExpiryIndex(ms, TrendingCounted.class, TrendingCounted.EXPIRES);
+
 		log.debug("finished checking all indexes.");
 	}
 
@@ -739,6 +925,47 @@ public class MongoUtil extends ServiceBase {
 		}
 	}
 
+	/*
+	 * Compound index on parent path and ordinal, which serves all the direct-children queries (see
+	 * directChildrenCriteria) including their usual sort by ordinal.
+	 */
+	public void createParentOrdinalIndex(MongoSession ms) {
+		log.debug("Creating parent-ord index.");
+		auth.requireAdmin(ms);
+		String indexName = "parent-ord";
+
+		try {
+			ops.indexOps(SubNode.class).ensureIndex(//
+					new Index().on(SubNode.PARENT_PATH, Direction.ASC) //
+							.on(SubNode.ORDINAL, Direction.ASC) //
+							.named(indexName));
+		} catch (Exception e) {
+			ExUtil.error(log, "Failed to create index: " + indexName, e);
+		}
+	}
+
+	/*
+	 * Multikey indexes on the readers (see SubNode.READERS) paired with each of the times feeds sort on,
+	 * so a feed's '$in' of 'public' and/or the user's id reads the newest entries for each reader in
+	 * index order and merges them, rather than scanning the path range and sorting in memory.
+	 */
+	public void createReadersIndexes(MongoSession ms) {
+		log.debug("Creating readers indexes.");
+		auth.requireAdmin(ms);
+
+		for (String timeField : new String[] {SubNode.MODIFY_TIME, SubNode.CREATE_TIME}) {
+			String indexName = "readers-" + timeField;
+			try {
+				ops.indexOps(SubNode.class).ensureIndex(//
+						new Index().on(SubNode.READERS, Direction.ASC) //
+								.on(timeField, Direction.DESC) //
+								.named(indexName));
+			} catch (Exception e) {
+				ExUtil.error(log, "Failed to create index: " + indexName, e);
+			}
+		}
+	}
+
 	/* Creates an index which will guarantee no duplicate node names can exist, for any user */
 	public void createUniqueNodeNameIndex(MongoSession ms) {
 		log.debug("createUniqueNodeNameIndex()");
@@ -891,6 +1118,17 @@ public class MongoUtil extends ServiceBase {
 		}
 	}
 
+	/* TTL index: Mongo deletes each document once the time in 'property' has passed */
+	public void createExpiryIndex(MongoSession ms, Class<?> clazz, String property) {
+		log.debug("createExpiryIndex: " + property);
+		try {
+			auth.requireAdmin(ms);
+			ops.indexOps(clazz).ensureIndex(new Index().on(property, Direction.ASC).expire(0));
+		} catch (Exception e) {
+			ExUtil.error(log, "Failed in createExpiryIndex: " + property, e);
+		}
+	}
+
 	public void createIndex(MongoSession ms, Class<?> clazz, String property, Direction dir) {
 		log.debug("createIndex: " + property + " dir=" + dir);
 		try {
@@ -987,6 +1225,17 @@ public class MongoUtil extends ServiceBase {
 		// return "^" + Pattern.quote(path) + "\\/([^\\/]*)$";
 	}
 
+	/*
+	 * Matches all children at a path which are at exactly one level deeper into the tree than path,
+	 * exactly like regexDirectChildrenOfPath, but by using an equality match on the materialized
+	 * parent path (SubNode.PARENT_PATH). The regex can only use the 'pth' index as a prefix range, so
+	 * Mongo ends up reading every descendant rather than just the direct children, whereas this
+	 * criteria is served entirely by the 'parent-ord' index.
+	 */
+	public Criteria directChildrenCriteria(String path) {
+		return Criteria.where(SubNode.PARENT_PATH).is(XString.stripIfEndsWith(path, "/"));
+	}
+
 	/*
 	 * Matches all children under path regardless of tree depth. In other words, this matches the entire
 	 * subgraph under path.
@@ -0,0 +1,249 @@
+package quanta.mongo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AfterConvertEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.EventPublisher;
+import quanta.config.ServiceBase;
+import quanta.mongo.model.SubNode;
+import quanta.util.DateUtil;
+
+/**
+ * Process-wide LRU cache of nodes looked up by ID or by path, shared across all requests (unlike
+ * ThreadLocals.cachedNodes which only lives for one request).
+ *
+ * We cache the raw Documents rather than SubNode objects, and convert to a brand new SubNode on
+ * every hit, so that no two threads ever share the same mutable node instance and the per-request
+ * dirty tracking (ThreadLocals.dirty) works exactly as it does for nodes read from the DB. Each hit
+ * also fires the same AfterConvertEvent that MongoTemplate fires, so MongoEventListener.onAfterConvert
+ * runs on cached nodes too.
+ *
+ * Entries are evicted by MongoEventListener on every save and delete. Bulk operations bypass the
+ * listener, so code that queues a bulk write must call 'removePending' for every node it touches.
+ */
+@Component
+@Slf4j
+public class NodeCache extends ServiceBase {
+
+	@Autowired
+	private EventPublisher publisher;
+
+	private Boolean enabled;
+	private int maxSize = -1;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/*
+	 * Incremented on every invalidation. A loader only puts what it read into the cache if no
+	 * invalidation happened while it was reading, so a save racing with a read can never leave a stale
+	 * document behind.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/*
+	 * Bulk writes are queued before they're executed, so evicting at queue time isn't enough: another
+	 * thread could read the old document and cache it before the write lands. So for those we hold the
+	 * ID (ID -> time evicted) and refuse to cache it again until HOLD_MILLIS has passed, which is far
+	 * longer than any batch takes to execute.
+	 */
+	private static final long HOLD_MILLIS = 30 * 1000;
+	private final ConcurrentHashMap<ObjectId, Long> held = new ConcurrentHashMap<>();
+
+	private final LinkedHashMap<ObjectId, Document> docsById = new LinkedHashMap<>(256, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ObjectId, Document> eldest) {
+			if (size() > getMaxSize()) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/*
+	 * Path to ID. Never trusted by itself: on every lookup the cached document's path is checked
+	 * against the requested path, so we don't need to evict from here when paths change.
+	 */
+	private final LinkedHashMap<String, ObjectId> idsByPath = new LinkedHashMap<>(256, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ObjectId> eldest) {
+			return size() > getMaxSize();
+		}
+	};
+
+	public boolean isEnabled() {
+		if (enabled == null) {
+			enabled = prop.isNodeCacheEnabled();
+		}
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		clear();
+		log.debug("NodeCache enabled: " + enabled);
+	}
+
+	private int getMaxSize() {
+		if (maxSize == -1) {
+			maxSize = prop.getNodeCacheSize();
+		}
+		return maxSize;
+	}
+
+	/* Callers check isEnabled() first, and bypass the cache entirely when it's off */
+	public SubNode findById(ObjectId id) {
+		if (id == null)
+			return null;
+
+		Document doc;
+		synchronized (docsById) {
+			doc = docsById.get(id);
+		}
+
+		if (doc != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			long gen = generation.get();
+			doc = ops.findById(id, Document.class, getCollectionName());
+			if (doc == null)
+				return null;
+			put(doc, gen);
+		}
+		return toNode(doc);
+	}
+
+	/* 'path' is expected to already have any trailing slash removed */
+	public SubNode findByPath(String path) {
+		Document doc = null;
+		synchronized (docsById) {
+			ObjectId id = idsByPath.get(path);
+			if (id != null) {
+				doc = docsById.get(id);
+				if (doc != null && !path.equals(doc.getString(SubNode.PATH))) {
+					doc = null;
+				}
+			}
+		}
+
+		if (doc != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			long gen = generation.get();
+			Query q = new Query(Criteria.where(SubNode.PATH).is(path));
+			doc = ops.findOne(q, Document.class, getCollectionName());
+			if (doc == null)
+				return null;
+			put(doc, gen);
+		}
+		return toNode(doc);
+	}
+
+	public void remove(ObjectId id) {
+		if (id == null)
+			return;
+		generation.incrementAndGet();
+		synchronized (docsById) {
+			if (docsById.remove(id) != null) {
+				invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	/* Evicts a node that has a bulk write queued against it but not yet executed */
+	public void removePending(ObjectId id) {
+		if (id == null || !isEnabled())
+			return;
+		held.put(id, System.currentTimeMillis());
+		remove(id);
+	}
+
+	@Scheduled(fixedDelay = DateUtil.MINUTE_MILLIS)
+	public void purgeHeld() {
+		long cutoff = System.currentTimeMillis() - HOLD_MILLIS;
+		held.values().removeIf(time -> time < cutoff);
+	}
+
+	public void clear() {
+		generation.incrementAndGet();
+		synchronized (docsById) {
+			invalidations.addAndGet(docsById.size());
+			docsById.clear();
+			idsByPath.clear();
+		}
+	}
+
+	private void put(Document doc, long gen) {
+		ObjectId id = doc.getObjectId(SubNode.ID);
+		if (id == null)
+			return;
+
+		synchronized (docsById) {
+			// something was saved or deleted while we were reading, so what we have may be stale.
+			if (generation.get() != gen)
+				return;
+
+			Long heldTime = held.get(id);
+			if (heldTime != null && System.currentTimeMillis() - heldTime < HOLD_MILLIS)
+				return;
+
+			docsById.put(id, doc);
+			String path = doc.getString(SubNode.PATH);
+			if (path != null) {
+				idsByPath.put(path, id);
+			}
+		}
+	}
+
+	/*
+	 * Builds a new SubNode from the cached document, and publishes the same event MongoTemplate would
+	 * have published if we had just read it from the DB.
+	 */
+	private SubNode toNode(Document doc) {
+		SubNode node = ops.getConverter().read(SubNode.class, doc);
+		if (node != null) {
+			publisher.getPublisher().publishEvent(new AfterConvertEvent<SubNode>(doc, node, getCollectionName()));
+		}
+		return node;
+	}
+
+	private String getCollectionName() {
+		return ops.getCollectionName(SubNode.class);
+	}
+
+	public String getStatsReport() {
+		int size;
+		synchronized (docsById) {
+			size = docsById.size();
+		}
+		long h = hits.get();
+		long m = misses.get();
+		long total = h + m;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("\nNode Cache Stats:\n");
+		sb.append("Enabled: " + isEnabled() + "\n");
+		sb.append("Size: " + size + " of " + getMaxSize() + "\n");
+		sb.append("Hits: " + h + "\n");
+		sb.append("Misses: " + m + "\n");
+		sb.append("Hit Rate: " + (total == 0 ? 0 : (h * 100 / total)) + "%\n");
+		sb.append("Evictions: " + evictions.get() + "\n");
+		sb.append("Invalidations: " + invalidations.get() + "\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,244 @@
+package quanta.mongo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import quanta.exception.base.RuntimeEx;
+import quanta.mongo.model.SubNode;
+
+/**
+ * Continuation token for keyset pagination. Rather than skipping over the rows of all the earlier
+ * pages (which makes Mongo walk and discard every one of them) the next page is queried as
+ * everything that sorts after the last node of the previous page, so page N costs the same as page
+ * 1 and rows inserted ahead of the cursor (like new posts at the top of a feed) don't shift the page
+ * boundaries.
+ *
+ * The token holds the sort values of the last node seen, plus the IDs of the trailing nodes that
+ * had exactly those values, so ties on the sort values are never repeated or lost no matter what
+ * order Mongo returns them in. It's sent to the client as an opaque base64 string.
+ *
+ * Usage: 'parse' the token from the request against the sort the query will use, add 'criteria' to
+ * the query, and send back 'next' of the nodes that were read, in query order.
+ */
+public class PageCursor {
+	private static final JsonWriterSettings JSON = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+
+	// Fields every node has, so when sorting descending on them we don't need to allow for nulls.
+	private static final Set<String> REQUIRED_FIELDS = Set.of(SubNode.MODIFY_TIME, SubNode.CREATE_TIME);
+
+	// calculated field searchSubGraph can sort on, which is not stored on the node
+	public static final String CONTENT_LENGTH = "contentLength";
+
+	private final List<String> fields;
+	private final List<Object> values;
+	private final List<ObjectId> ids;
+
+	private PageCursor(List<String> fields, List<Object> values, List<ObjectId> ids) {
+		this.fields = fields;
+		this.values = values;
+		this.ids = ids;
+	}
+
+	/*
+	 * Returns null if there's no token, or if the token was made for a different sort order (meaning
+	 * the client changed the sort, so we start again from the top)
+	 */
+	public static PageCursor parse(String token, Sort sort) {
+		if (StringUtils.isEmpty(token) || sort == null || sort.isUnsorted()) {
+			return null;
+		}
+
+		List<String> fields = null;
+		List<Object> values = null;
+		List<ObjectId> ids = null;
+		try {
+			Document doc = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+			fields = doc.getList("f", String.class);
+			values = doc.getList("v", Object.class);
+			ids = doc.getList("i", ObjectId.class);
+		} catch (Exception e) {
+			throw new RuntimeEx("Invalid page cursor.", e);
+		}
+		if (fields == null || values == null || ids == null || fields.size() != values.size()) {
+			throw new RuntimeEx("Invalid page cursor.");
+		}
+
+		/*
+		 * The token comes from the client, and its values go straight into the query, so only plain sort
+		 * values are allowed. A document (or regex, etc) would let it add its own operators.
+		 */
+		for (Object val : values) {
+			if (!isSortValue(val)) {
+				throw new RuntimeEx("Invalid page cursor.");
+			}
+		}
+
+		if (!fields.equals(fieldNames(sort))) {
+			return null;
+		}
+		return new PageCursor(fields, values, ids);
+	}
+
+	/*
+	 * Matches the nodes that come after this cursor in 'sort' order, which must be the sort it was
+	 * parsed against. That's an '$or' over each sort field of "all earlier fields are equal and this one
+	 * is past the cursor", plus "all are equal and it wasn't seen yet". When the first field allows it we
+	 * also AND in a plain range on it, because that's what lets the index scan start right at the cursor
+	 * instead of filtering its way down to it.
+	 */
+	public Criteria criteria(Sort sort) {
+		List<Sort.Order> orders = sort.toList();
+		List<Criteria> branches = new ArrayList<>();
+		for (int i = 0; i < orders.size(); i++) {
+			Criteria after = after(orders.get(i), values.get(i));
+			if (after != null) {
+				branches.add(equalsThen(i, after));
+			}
+		}
+		branches.add(equalsThen(orders.size(), Criteria.where(SubNode.ID).nin(ids)));
+		Criteria crit = new Criteria().orOperator(branches);
+
+		Criteria range = range(orders.get(0), values.get(0));
+		return range != null ? new Criteria().andOperator(range, crit) : crit;
+	}
+
+	// the first 'count' sort fields equal to the cursor, and 'last'
+	private Criteria equalsThen(int count, Criteria last) {
+		if (count == 0) {
+			return last;
+		}
+		List<Criteria> crits = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			crits.add(Criteria.where(fields.get(i)).is(values.get(i)));
+		}
+		crits.add(last);
+		return new Criteria().andOperator(crits);
+	}
+
+	/*
+	 * Values strictly after 'value' on one field. Mongo sorts missing (null) values lowest, so they come
+	 * first ascending and last descending. Returns null if nothing can come after.
+	 */
+	private static Criteria after(Sort.Order order, Object value) {
+		String field = order.getProperty();
+		if (order.isAscending()) {
+			return value == null ? Criteria.where(field).ne(null) : Criteria.where(field).gt(value);
+		}
+		if (value == null) {
+			return null;
+		}
+		if (REQUIRED_FIELDS.contains(field)) {
+			return Criteria.where(field).lt(value);
+		}
+		return new Criteria().orOperator(Criteria.where(field).lt(value), Criteria.where(field).is(null));
+	}
+
+	// Values at or after 'value', if that's expressible as a single range
+	private static Criteria range(Sort.Order order, Object value) {
+		String field = order.getProperty();
+		if (order.isAscending()) {
+			return value == null ? null : Criteria.where(field).gte(value);
+		}
+		if (value == null) {
+			return Criteria.where(field).is(null);
+		}
+		return REQUIRED_FIELDS.contains(field) ? Criteria.where(field).lte(value) : null;
+	}
+
+	/*
+	 * Makes the token for the page after 'nodes', which must be all the nodes the query returned that
+	 * were looked at (not just the ones that made it into the page after any filtering), in query order.
+	 * 'prev' is the cursor this page was queried with, if any, whose tied IDs carry forward when the
+	 * whole page tied with it. Returns null if there are no nodes.
+	 */
+	public static String next(MongoConverter converter, Sort sort, PageCursor prev, List<SubNode> nodes) {
+		if (nodes == null || nodes.isEmpty() || sort == null || sort.isUnsorted()) {
+			return null;
+		}
+		List<String> fields = fieldNames(sort);
+		List<Object> values = sortValues(converter, fields, nodes.get(nodes.size() - 1));
+
+		List<ObjectId> ids = new ArrayList<>();
+		boolean allTied = true;
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			SubNode node = nodes.get(i);
+			if (i < nodes.size() - 1 && !sameValues(values, sortValues(converter, fields, node))) {
+				allTied = false;
+				break;
+			}
+			ids.add(node.getId());
+		}
+		if (allTied && prev != null && sameValues(values, prev.values)) {
+			ids.addAll(prev.ids);
+		}
+
+		Document doc = new Document("f", fields).append("v", values).append("i", ids);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(doc.toJson(JSON).getBytes(StandardCharsets.UTF_8));
+	}
+
+	// the types a sort value we put in a token can have
+	private static boolean isSortValue(Object val) {
+		return val == null || val instanceof ObjectId || val instanceof Date || val instanceof Number || val instanceof String
+				|| val instanceof Boolean;
+	}
+
+	private static List<String> fieldNames(Sort sort) {
+		List<String> names = new ArrayList<>();
+		for (Sort.Order order : sort) {
+			names.add(order.getProperty());
+		}
+		return names;
+	}
+
+	// The values of 'fields' (which can be dotted paths like "p.priority") as the node is stored
+	private static List<Object> sortValues(MongoConverter converter, List<String> fields, SubNode node) {
+		Document doc = new Document();
+		converter.write(node, doc);
+
+		List<Object> values = new ArrayList<>();
+		for (String field : fields) {
+			if (CONTENT_LENGTH.equals(field)) {
+				String content = node.getContent();
+				values.add(content == null ? 0 : content.codePointCount(0, content.length()));
+				continue;
+			}
+			Object val = doc;
+			for (String part : field.split("\\.")) {
+				val = val instanceof Document ? ((Document) val).get(part) : null;
+			}
+			values.add(val);
+		}
+		return values;
+	}
+
+	private static boolean sameValues(List<Object> a, List<Object> b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			Object x = a.get(i);
+			Object y = b.get(i);
+			// numbers can come back from the token as a different type than the node has them
+			if (x instanceof Number && y instanceof Number) {
+				if (((Number) x).doubleValue() != ((Number) y).doubleValue()) {
+					return false;
+				}
+			} else if (!Objects.equals(x, y)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,195 @@
+package quanta.mongo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.bson.types.ObjectId;
+import quanta.config.NodePath;
+import quanta.util.XString;
+
+/**
+ * In-memory image of the whole node tree, holding only the path, ID and HAS_CHILDREN of each node,
+ * for maintenance operations that need to see every node in relation to its parent.
+ *
+ * Paths are kept in one array, sorted so that '/' sorts before every other character. In that order
+ * each node is immediately followed by all of its descendants (i.e. a depth-first traversal), so a
+ * single pass with a stack of ancestors finds every orphan, the true children status of every node,
+ * and the size of every subtree, with no lookups at all.
+ *
+ * Usage: 'add' every node, then call 'build' once, then read the results.
+ */
+public class PathTree {
+	private static class Entry {
+		final String path;
+		final ObjectId id;
+		// HAS_CHILDREN as stored in the DB (may be null)
+		final Boolean hch;
+
+		boolean hasChildren;
+		boolean orphan;
+		// number of nodes in the subtree rooted here, including this node
+		int size;
+
+		Entry(String path, ObjectId id, Boolean hch) {
+			this.path = path;
+			this.id = id;
+			this.hch = hch;
+		}
+	}
+
+	private final ArrayList<Entry> entries = new ArrayList<>();
+	private boolean built = false;
+
+	public void add(String path, ObjectId id, Boolean hch) {
+		if (built)
+			throw new RuntimeException("PathTree already built");
+		if (path == null || id == null)
+			return;
+		entries.add(new Entry(path, id, hch));
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/*
+	 * Sorts the paths and makes the single pass that computes all the results. 'progress' (may be null)
+	 * gets called with the number of nodes processed so far, every 'progressInterval' nodes.
+	 */
+	public void build(int progressInterval, Consumer<Integer> progress) {
+		entries.sort((a, b) -> comparePaths(a.path, b.path));
+
+		// indexes of the ancestors of the current node, nearest on top
+		Deque<Integer> stack = new ArrayDeque<>();
+		int count = entries.size();
+
+		for (int i = 0; i < count; i++) {
+			Entry e = entries.get(i);
+
+			// anything on the stack that's not an ancestor of 'e' has had its whole subtree visited by now
+			while (!stack.isEmpty() && !isAncestor(entries.get(stack.peek()).path, e.path)) {
+				close(stack.pop(), i);
+			}
+
+			String parentPath = XString.truncAfterLast(e.path, "/");
+			if (!stack.isEmpty()) {
+				Entry nearest = entries.get(stack.peek());
+				if (nearest.path.equals(parentPath)) {
+					nearest.hasChildren = true;
+					// children of orphans are orphans too
+					e.orphan = nearest.orphan;
+				} else {
+					// the nearest existing ancestor isn't the parent, so the parent is missing
+					e.orphan = true;
+				}
+			} else {
+				// same as the older orphan scans, root and children of root are never orphans
+				e.orphan = !e.path.equals(NodePath.ROOT_PATH) && !parentPath.equals(NodePath.ROOT_PATH);
+			}
+			stack.push(i);
+
+			if (progress != null && (i + 1) % progressInterval == 0) {
+				progress.accept(i + 1);
+			}
+		}
+
+		while (!stack.isEmpty()) {
+			close(stack.pop(), count);
+		}
+		built = true;
+	}
+
+	// subtree of the entry at 'idx' is all the entries from 'idx' up to (but excluding) 'end'
+	private void close(int idx, int end) {
+		entries.get(idx).size = end - idx;
+	}
+
+	/*
+	 * Calls 'func' with the ID of every orphan, including all the descendants of orphans, each after
+	 * its ancestors
+	 */
+	public void forEachOrphan(Consumer<ObjectId> func) {
+		requireBuilt();
+		for (Entry e : entries) {
+			if (e.orphan) {
+				func.accept(e.id);
+			}
+		}
+	}
+
+	/*
+	 * Calls 'func' with the ID and the correct HAS_CHILDREN value of every non-orphan whose stored value
+	 * is missing or wrong.
+	 */
+	public void forEachHasChildrenFix(BiConsumer<ObjectId, Boolean> func) {
+		requireBuilt();
+		for (Entry e : entries) {
+			if (!e.orphan && (e.hch == null || e.hch.booleanValue() != e.hasChildren)) {
+				func.accept(e.id, e.hasChildren);
+			}
+		}
+	}
+
+	/* Returns the number of nodes in the subtree at 'path' (including itself), or 0 if there's no such node */
+	public int getSubtreeSize(String path) {
+		requireBuilt();
+		int low = 0;
+		int high = entries.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = comparePaths(entries.get(mid).path, path);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return entries.get(mid).size;
+			}
+		}
+		return 0;
+	}
+
+	/* Returns the paths of all direct children of 'path', in sorted order */
+	public List<String> getChildPaths(String path) {
+		requireBuilt();
+		List<String> ret = new ArrayList<>();
+		for (Entry e : entries) {
+			if (!e.orphan && path.equals(XString.truncAfterLast(e.path, "/")) && !path.equals(e.path)) {
+				ret.add(e.path);
+			}
+		}
+		return ret;
+	}
+
+	private void requireBuilt() {
+		if (!built)
+			throw new RuntimeException("PathTree not built");
+	}
+
+	private static boolean isAncestor(String ancestor, String path) {
+		return path.length() > ancestor.length() && path.startsWith(ancestor) && path.charAt(ancestor.length()) == '/';
+	}
+
+	/*
+	 * Ordinary string ordering except that '/' sorts before any other character, which is what puts
+	 * every subtree in one contiguous run.
+	 */
+	static int comparePaths(String a, String b) {
+		int len = Math.min(a.length(), b.length());
+		for (int i = 0; i < len; i++) {
+			char ca = a.charAt(i);
+			char cb = b.charAt(i);
+			if (ca != cb) {
+				if (ca == '/')
+					return -1;
+				if (cb == '/')
+					return 1;
+				return ca - cb;
+			}
+		}
+		return a.length() - b.length();
+	}
+}
@@ -0,0 +1,162 @@
+package quanta.mongo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.config.SessionContext;
+import quanta.mongo.model.SubNode;
+import quanta.response.PushPageMessage;
+import quanta.util.Const;
+import quanta.util.ThreadLocals;
+
+/**
+ * Applies a change to every node of a subgraph with bulk writes, rather than loading every node,
+ * changing it in memory, and saving each whole document back one at a time. Matching nodes are
+ * streamed with only the fields the change needs, and which nodes the user is allowed to change is
+ * part of the query (see 'owned'), so nodes they can't change are never even read.
+ *
+ * Changes that are the same for every node go out as an 'updateMany' per chunk of IDs, and changes
+ * that depend on each node's values as a chunk of 'updateOne's. These writes don't go through
+ * MongoEventListener, so an update must itself set whatever onBeforeSave would have derived from the
+ * fields it changes (like the readers from the sharing, or the classes from the content).
+ *
+ * While running it pushes its progress to the user's browser every few seconds, and 'cancel' stops
+ * it (between chunks already written, so whatever was done stays done).
+ */
+@Component
+@Slf4j
+public class SubGraphUpdate extends ServiceBase {
+	private static final long PROGRESS_MILLIS = 3000;
+
+	// the cancel flag of every run in progress, and the session it's for
+	private static final Map<AtomicBoolean, SessionContext> running = new ConcurrentHashMap<>();
+
+	/* The nodes under 'node', and 'node' itself if 'includeRoot' */
+	public Criteria subGraph(SubNode node, boolean includeRoot) {
+		return Criteria.where(SubNode.PATH).regex(includeRoot ? mongoUtil.regexRecursiveChildrenOfPathIncludeRoot(node.getPath())
+				: mongoUtil.regexRecursiveChildrenOfPath(node.getPath()));
+	}
+
+	/* The nodes of subGraph the user can update: their own ones, or all of them for the admin */
+	public Criteria owned(MongoSession ms, SubNode node, boolean includeRoot) {
+		Criteria crit = subGraph(node, includeRoot);
+		if (!ms.isAdmin()) {
+			crit = crit.and(SubNode.OWNER).is(ms.getUserNodeId());
+		}
+		return crit;
+	}
+
+	/* Applies 'update' to all the nodes matching 'crit'. Returns how many were changed. */
+	public long updateAll(String label, Criteria crit, Update update) {
+		return run(label, crit, null, null, update);
+	}
+
+	/*
+	 * Applies the update 'updater' returns for each node matching 'crit', which gets passed the node as
+	 * a Document holding only 'fields' (and the ID). It can return null to leave a node alone. Returns
+	 * how many were changed.
+	 */
+	public long updateEach(String label, Criteria crit, List<String> fields, Function<Document, Update> updater) {
+		return run(label, crit, fields, updater, null);
+	}
+
+	private long run(String label, Criteria crit, List<String> fields, Function<Document, Update> updater, Update update) {
+		Query q = new Query(crit);
+		q.fields().include(SubNode.ID);
+		if (fields != null) {
+			for (String field : fields) {
+				q.fields().include(field);
+			}
+		}
+
+		SessionContext sc = ThreadLocals.getSC();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		if (sc != null) {
+			running.put(cancelled, sc);
+		}
+
+		long count = 0;
+		long lastProgress = System.currentTimeMillis();
+		List<ObjectId> ids = new ArrayList<>();
+		BulkOperations bops = null;
+
+		try (CloseableIterator<Document> iter = ops.stream(q, Document.class, ops.getCollectionName(SubNode.class))) {
+			while (iter.hasNext()) {
+				if (cancelled.get() || (sc != null && !sc.isLive())) {
+					log.debug(label + " cancelled after " + count + " nodes");
+					break;
+				}
+				Document doc = iter.next();
+				ObjectId id = doc.getObjectId(SubNode.ID);
+
+				if (updater != null) {
+					Update nodeUpdate = updater.apply(doc);
+					if (nodeUpdate == null)
+						continue;
+					if (bops == null) {
+						bops = ops.bulkOps(BulkMode.UNORDERED, SubNode.class);
+					}
+					bops.updateOne(new Query(Criteria.where(SubNode.ID).is(id)), nodeUpdate);
+				}
+				ids.add(id);
+
+				if (ids.size() >= Const.MAX_BULK_OPS) {
+					count += flush(ids, bops, update);
+					ids = new ArrayList<>();
+					bops = null;
+
+					if (sc != null && System.currentTimeMillis() - lastProgress > PROGRESS_MILLIS) {
+						lastProgress = System.currentTimeMillis();
+						push.sendServerPushInfo(sc, new PushPageMessage(label + ": " + count + " nodes so far...", false));
+					}
+				}
+			}
+			count += flush(ids, bops, update);
+		} finally {
+			running.remove(cancelled);
+		}
+		log.debug(label + ": " + count + " nodes updated");
+		return count;
+	}
+
+	private long flush(List<ObjectId> ids, BulkOperations bops, Update update) {
+		if (ids.isEmpty())
+			return 0;
+
+		// keep the node cache from serving (or picking back up) what these are about to replace
+		for (ObjectId id : ids) {
+			nodeCache.removePending(id);
+		}
+
+		if (bops != null) {
+			return bops.execute().getModifiedCount();
+		}
+		return ops.updateMulti(new Query(Criteria.where(SubNode.ID).in(ids)), update, SubNode.class).getModifiedCount();
+	}
+
+	/* Stops any runs in progress for the session. Returns how many there were. */
+	public int cancel(SessionContext sc) {
+		int count = 0;
+		for (Map.Entry<AtomicBoolean, SessionContext> entry : running.entrySet()) {
+			if (entry.getValue() == sc) {
+				entry.getKey().set(true);
+				count++;
+			}
+		}
+		return count;
+	}
+}
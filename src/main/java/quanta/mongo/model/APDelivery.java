@@ -0,0 +1,157 @@
+package quanta.mongo.model;
+
+import java.util.Date;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * An outbound ActivityPub message to one inbox, not yet sent (see ActPubDelivery). Each one is saved
+ * before the first attempt and removed once sent, so nothing is lost on a restart. We hold the
+ * sending actor rather than its private key, and look the key up again when sending.
+ */
+@Document(collection = "apDeliveries")
+@TypeAlias("apd")
+@JsonInclude(Include.NON_NULL)
+@JsonPropertyOrder({APDelivery.ID, APDelivery.URL, APDelivery.ACTOR, APDelivery.POST_TYPE, APDelivery.ATTEMPTS,
+		APDelivery.NEXT_ATTEMPT, APDelivery.CREATE_TIME, APDelivery.BODY})
+@Slf4j
+public class APDelivery {
+	public static final String ID = "_id";
+	@Id
+	@Field(ID)
+	private ObjectId id;
+
+	// inbox url
+	public static final String URL = "url";
+	@Field(URL)
+	private String url;
+
+	public static final String ACTOR = "actor";
+	@Field(ACTOR)
+	private String actor;
+
+	// message, already serialized
+	public static final String BODY = "body";
+	@Field(BODY)
+	private String body;
+
+	public static final String POST_TYPE = "type";
+	@Field(POST_TYPE)
+	private String postType;
+
+	// number of failed attempts so far
+	public static final String ATTEMPTS = "att";
+	@Field(ATTEMPTS)
+	private Integer attempts;
+
+	public static final String NEXT_ATTEMPT = "next";
+	@Field(NEXT_ATTEMPT)
+	private Date nextAttempt;
+
+	public static final String CREATE_TIME = "ctm";
+	@Field(CREATE_TIME)
+	private Date createTime;
+
+	@PersistenceConstructor
+	public APDelivery() {
+		/*
+		 * WARNING: Do NOT initialize times (mod time or create time) in here this constructor gets called
+		 * any time the persistence engine loads a record!!!!
+		 */
+	}
+
+	// we don't annotate this because we have a custom getter.
+	public ObjectId getId() {
+		return id;
+	}
+
+	@JsonProperty(ID)
+	public void setId(ObjectId id) {
+		this.id = id;
+	}
+
+	@JsonGetter(ID)
+	public String jsonId() {
+		return id != null ? id.toHexString() : null;
+	}
+
+	@JsonProperty(URL)
+	public String getUrl() {
+		return url;
+	}
+
+	@JsonProperty(URL)
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	@JsonProperty(ACTOR)
+	public String getActor() {
+		return actor;
+	}
+
+	@JsonProperty(ACTOR)
+	public void setActor(String actor) {
+		this.actor = actor;
+	}
+
+	@JsonProperty(BODY)
+	public String getBody() {
+		return body;
+	}
+
+	@JsonProperty(BODY)
+	public void setBody(String body) {
+		this.body = body;
+	}
+
+	@JsonProperty(POST_TYPE)
+	public String getPostType() {
+		return postType;
+	}
+
+	@JsonProperty(POST_TYPE)
+	public void setPostType(String postType) {
+		this.postType = postType;
+	}
+
+	@JsonProperty(ATTEMPTS)
+	public Integer getAttempts() {
+		return attempts;
+	}
+
+	@JsonProperty(ATTEMPTS)
+	public void setAttempts(Integer attempts) {
+		this.attempts = attempts;
+	}
+
+	@JsonProperty(NEXT_ATTEMPT)
+	public Date getNextAttempt() {
+		return nextAttempt;
+	}
+
+	@JsonProperty(NEXT_ATTEMPT)
+	public void setNextAttempt(Date nextAttempt) {
+		this.nextAttempt = nextAttempt;
+	}
+
+	@JsonProperty(CREATE_TIME)
+	public Date getCreateTime() {
+		return createTime;
+	}
+
+	@JsonProperty(CREATE_TIME)
+	public void setCreateTime(Date createTime) {
+		this.createTime = createTime;
+	}
+}
@@ -0,0 +1,226 @@
+package quanta.mongo.model;
+
+import java.util.Date;
+import java.util.HashMap;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * An inbound ActivityPub post waiting to be verified and processed (see ActPubInbox). We hold the
+ * raw body along with the parts of the HTTP request the signature check needs, so the check can run
+ * later, on a worker thread, even after a restart.
+ */
+@Document(collection = "apInbox")
+@TypeAlias("api")
+@JsonInclude(Include.NON_NULL)
+@JsonPropertyOrder({APInboxItem.ID, APInboxItem.ACTIVITY_ID, APInboxItem.ACTIVITY_TYPE, APInboxItem.ACTOR,
+		APInboxItem.HOST, APInboxItem.OBJECT_ID, APInboxItem.METHOD, APInboxItem.URI, APInboxItem.HEADERS, APInboxItem.CLAIMED,
+		APInboxItem.CREATE_TIME, APInboxItem.BODY})
+@Slf4j
+public class APInboxItem {
+	public static final String ID = "_id";
+	@Id
+	@Field(ID)
+	private ObjectId id;
+
+	/*
+	 * the 'id' of the activity, used to drop duplicate deliveries. Not all activities have one. It's
+	 * only unique together with the signature, since until the signature is checked anyone could have
+	 * sent it.
+	 */
+	public static final String ACTIVITY_ID = "aid";
+	@Field(ACTIVITY_ID)
+	private String activityId;
+
+	public static final String ACTIVITY_TYPE = "type";
+	@Field(ACTIVITY_TYPE)
+	private String activityType;
+
+	// actor as claimed by the payload (not verified until processed)
+	public static final String ACTOR = "actor";
+	@Field(ACTOR)
+	private String actor;
+
+	// host of the signature's keyId (not verified until processed), used to cap each server's share of the queue
+	public static final String HOST = "host";
+	@Field(HOST)
+	private String host;
+
+	// id of the object the activity acts on, for Update and Delete only
+	public static final String OBJECT_ID = "oid";
+	@Field(OBJECT_ID)
+	private String objectId;
+
+	// HTTP method and request URI, for the '(request-target)' part of the signature
+	public static final String METHOD = "mth";
+	@Field(METHOD)
+	private String method;
+
+	public static final String URI = "uri";
+	@Field(URI)
+	private String uri;
+
+	// signed headers, plus 'signature' itself (keys lower case)
+	public static final String HEADERS = "hdr";
+	@Field(HEADERS)
+	private HashMap<String, String> headers;
+
+	public static final String SIGNATURE = HEADERS + ".signature";
+
+	// raw body, exactly as received, since the digest is computed over it
+	public static final String BODY = "body";
+	@Field(BODY)
+	private byte[] body;
+
+	// time a worker took this item, null if not taken yet
+	public static final String CLAIMED = "clm";
+	@Field(CLAIMED)
+	private Date claimed;
+
+	public static final String CREATE_TIME = "ctm";
+	@Field(CREATE_TIME)
+	private Date createTime;
+
+	@PersistenceConstructor
+	public APInboxItem() {
+		/*
+		 * WARNING: Do NOT initialize times (mod time or create time) in here this constructor gets called
+		 * any time the persistence engine loads a record!!!!
+		 */
+	}
+
+	// we don't annotate this because we have a custom getter.
+	public ObjectId getId() {
+		return id;
+	}
+
+	@JsonProperty(ID)
+	public void setId(ObjectId id) {
+		this.id = id;
+	}
+
+	@JsonGetter(ID)
+	public String jsonId() {
+		return id != null ? id.toHexString() : null;
+	}
+
+	@JsonProperty(ACTIVITY_ID)
+	public String getActivityId() {
+		return activityId;
+	}
+
+	@JsonProperty(ACTIVITY_ID)
+	public void setActivityId(String activityId) {
+		this.activityId = activityId;
+	}
+
+	@JsonProperty(ACTIVITY_TYPE)
+	public String getActivityType() {
+		return activityType;
+	}
+
+	@JsonProperty(ACTIVITY_TYPE)
+	public void setActivityType(String activityType) {
+		this.activityType = activityType;
+	}
+
+	@JsonProperty(ACTOR)
+	public String getActor() {
+		return actor;
+	}
+
+	@JsonProperty(ACTOR)
+	public void setActor(String actor) {
+		this.actor = actor;
+	}
+
+	@JsonProperty(HOST)
+	public String getHost() {
+		return host;
+	}
+
+	@JsonProperty(HOST)
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	@JsonProperty(OBJECT_ID)
+	public String getObjectId() {
+		return objectId;
+	}
+
+	@JsonProperty(OBJECT_ID)
+	public void setObjectId(String objectId) {
+		this.objectId = objectId;
+	}
+
+	@JsonProperty(METHOD)
+	public String getMethod() {
+		return method;
+	}
+
+	@JsonProperty(METHOD)
+	public void setMethod(String method) {
+		this.method = method;
+	}
+
+	@JsonProperty(URI)
+	public String getUri() {
+		return uri;
+	}
+
+	@JsonProperty(URI)
+	public void setUri(String uri) {
+		this.uri = uri;
+	}
+
+	@JsonProperty(HEADERS)
+	public HashMap<String, String> getHeaders() {
+		return headers;
+	}
+
+	@JsonProperty(HEADERS)
+	public void setHeaders(HashMap<String, String> headers) {
+		this.headers = headers;
+	}
+
+	@JsonProperty(BODY)
+	public byte[] getBody() {
+		return body;
+	}
+
+	@JsonProperty(BODY)
+	public void setBody(byte[] body) {
+		this.body = body;
+	}
+
+	@JsonProperty(CLAIMED)
+	public Date getClaimed() {
+		return claimed;
+	}
+
+	@JsonProperty(CLAIMED)
+	public void setClaimed(Date claimed) {
+		this.claimed = claimed;
+	}
+
+	@JsonProperty(CREATE_TIME)
+	public Date getCreateTime() {
+		return createTime;
+	}
+
+	@JsonProperty(CREATE_TIME)
+	public void setCreateTime(Date createTime) {
+		this.createTime = createTime;
+	}
+}
@@ -0,0 +1,82 @@
+package quanta.mongo.model;
+
+import java.util.Date;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/*
+ * The one grid file holding some content, by the hash of the content, and how many attachments
+ * point to it (see GridDedupService).
+ */
+@Document(collection = "gridRef")
+@TypeAlias("grf")
+public class GridRef {
+	// SHA-256 of the content, in hex
+	public static final String ID = "_id";
+	@Id
+	@Field(ID)
+	private String id;
+
+	public static final String GID = "gid";
+	@Field(GID)
+	private String gid;
+
+	public static final String REFS = "refs";
+	@Field(REFS)
+	private Long refs;
+
+	public static final String SIZE = "size";
+	@Field(SIZE)
+	private Long size;
+
+	// when a reference was last added
+	public static final String LAST_REF = "lastRef";
+	@Field(LAST_REF)
+	private Date lastRef;
+
+	@PersistenceConstructor
+	public GridRef() {}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getGid() {
+		return gid;
+	}
+
+	public void setGid(String gid) {
+		this.gid = gid;
+	}
+
+	public Long getRefs() {
+		return refs;
+	}
+
+	public void setRefs(Long refs) {
+		this.refs = refs;
+	}
+
+	public Long getSize() {
+		return size;
+	}
+
+	public void setSize(Long size) {
+		this.size = size;
+	}
+
+	public Date getLastRef() {
+		return lastRef;
+	}
+
+	public void setLastRef(Date lastRef) {
+		this.lastRef = lastRef;
+	}
+}
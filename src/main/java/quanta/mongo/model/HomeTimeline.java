@@ -0,0 +1,87 @@
+package quanta.mongo.model;
+
+import java.util.Date;
+import java.util.List;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/*
+ * The materialized "from friends" feed of one user (see HomeTimelineService): the newest posts of
+ * everyone they follow, as a capped list of node IDs and modify times, newest first. A user who
+ * follows too many accounts to keep one of these up to date gets one flagged 'fanOutOnRead' and no
+ * items instead, so we know not to try building it again until they unfollow someone.
+ */
+@Document(collection = "homeTimelines")
+@TypeAlias("htl")
+public class HomeTimeline {
+	// the account node ID of the user
+	public static final String ID = "_id";
+	@Id
+	@Field(ID)
+	private ObjectId id;
+
+	public static final String ITEMS = "items";
+	@Field(ITEMS)
+	private List<Item> items;
+
+	public static final String FAN_OUT_ON_READ = "onRead";
+	@Field(FAN_OUT_ON_READ)
+	private Boolean fanOutOnRead;
+
+	public static class Item {
+		public static final String NODE_ID = "n";
+		@Field(NODE_ID)
+		private ObjectId nodeId;
+
+		public static final String TIME = "t";
+		@Field(TIME)
+		private Date time;
+
+		public ObjectId getNodeId() {
+			return nodeId;
+		}
+
+		public void setNodeId(ObjectId nodeId) {
+			this.nodeId = nodeId;
+		}
+
+		public Date getTime() {
+			return time;
+		}
+
+		public void setTime(Date time) {
+			this.time = time;
+		}
+	}
+
+	@PersistenceConstructor
+	public HomeTimeline() {}
+
+	public ObjectId getId() {
+		return id;
+	}
+
+	public void setId(ObjectId id) {
+		this.id = id;
+	}
+
+	public List<Item> getItems() {
+		return items;
+	}
+
+	public void setItems(List<Item> items) {
+		this.items = items;
+	}
+
+	public Boolean getFanOutOnRead() {
+		return fanOutOnRead;
+	}
+
+	public void setFanOutOnRead(Boolean fanOutOnRead) {
+		this.fanOutOnRead = fanOutOnRead;
+	}
+}
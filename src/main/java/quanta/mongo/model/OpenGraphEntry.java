@@ -0,0 +1,65 @@
+package quanta.mongo.model;
+
+import java.util.Date;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import quanta.model.client.OpenGraph;
+
+/*
+ * The OpenGraph data we fetched for a URL (see OpenGraphService), so restarts don't lose it. A URL we
+ * couldn't get OpenGraph data for is held too, with just the mime type, so we don't keep trying it.
+ * Mongo deletes these once 'expires' passes (it has a TTL index).
+ */
+@Document(collection = "openGraph")
+@TypeAlias("ogr")
+public class OpenGraphEntry {
+	// the URL
+	public static final String ID = "_id";
+	@Id
+	@Field(ID)
+	private String id;
+
+	public static final String OPEN_GRAPH = "og";
+	@Field(OPEN_GRAPH)
+	private OpenGraph openGraph;
+
+	public static final String EXPIRES = "expires";
+	@Field(EXPIRES)
+	private Date expires;
+
+	@PersistenceConstructor
+	public OpenGraphEntry() {}
+
+	public OpenGraphEntry(String id, OpenGraph openGraph, Date expires) {
+		this.id = id;
+		this.openGraph = openGraph;
+		this.expires = expires;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public OpenGraph getOpenGraph() {
+		return openGraph;
+	}
+
+	public void setOpenGraph(OpenGraph openGraph) {
+		this.openGraph = openGraph;
+	}
+
+	public Date getExpires() {
+		return expires;
+	}
+
+	public void setExpires(Date expires) {
+		this.expires = expires;
+	}
+}
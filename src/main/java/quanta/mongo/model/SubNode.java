@@ -1,11 +1,14 @@
 package quanta.mongo.model;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
@@ -67,6 +70,24 @@ public class SubNode {
 	@JsonIgnore
 	public boolean adminUpdate = false;
 
+	/*
+	 * True once this node is known to exist in the DB, because it was read from there or saved there.
+	 * Nodes that aren't persisted yet always get written as a whole document.
+	 */
+	@Transient
+	@JsonIgnore
+	public boolean persisted = false;
+
+	/*
+	 * Names of the fields changed since this node was last read or saved, with properties recorded
+	 * individually as "p.<key>" (see propField). MongoUpdate.saveSession uses these to $set/$unset only
+	 * what changed. A null entry means something changed that we can't identify (ThreadLocals.dirty
+	 * called from outside this class), and forces the whole document to be written.
+	 */
+	@Transient
+	@JsonIgnore
+	private final HashSet<String> dirtyFields = new HashSet<>();
+
 	// note: All bulk ops using "id" when the value here is "_id". I can't remember the
 	// reason for "_id"
 	public static final String ID = "_id";
@@ -88,6 +109,14 @@ public class SubNode {
 	@Field(PATH)
 	private String path;
 
+	/*
+	 * Materialized copy of the parent part of 'pth' (i.e. getParentPath()) so that direct children can
+	 * be queried by an equality match rather than a regex. There's no Java field for this because it's
+	 * always derivable from the path, so it's only ever written by MongoEventListener.onBeforeSave and
+	 * by the bulk operations that rewrite paths directly.
+	 */
+	public static final String PARENT_PATH = "ppth";
+
 	public static final String TYPE = "typ";
 	@Field(TYPE)
 	private String type;
@@ -181,6 +210,30 @@ public class SubNode {
 	@JsonIgnore
 	private Object acLock = new Object();
 
+	/*
+	 * Materialized copy of the keys of 'ac' (the account node ids this node is shared to, and 'public'
+	 * if it's public) so that the security criteria can be an '$in' on one multikey indexed field.
+	 * Matching on 'ac.<key>' can't use any index because every key is its own field name. Like
+	 * PARENT_PATH there's no Java field for this, because it's always derivable from 'ac' (see
+	 * getReaders), so it's only ever written by MongoEventListener.onBeforeSave and by the bulk
+	 * operations that write 'ac' directly.
+	 */
+	public static final String READERS = "rdr";
+
+	/*
+	 * Content classification flags (EnglishDictionary.NON_ENGLISH, BAD_WORDS), present only when some
+	 * apply, and the EnglishDictionary.getClassifyVersion they were computed with. These are set by
+	 * SubNodeUtil.classify whenever the content is saved, and by MongoUtil.classifyNodes for nodes
+	 * classified with an older version, so feed queries can exclude flagged nodes themselves.
+	 */
+	public static final String CLASSES = "cls";
+	@Field(CLASSES)
+	private List<String> classes;
+
+	public static final String CLASSES_VERSION = "clsv";
+	@Field(CLASSES_VERSION)
+	private Integer classesVersion;
+
 	public static final String[] ALL_FIELDS = { //
 			SubNode.PATH, //
 			SubNode.TYPE, //
@@ -198,7 +251,9 @@ public class SubNode {
 			SubNode.PROPS, //
 			SubNode.ATTACHMENTS, //
 			SubNode.LINKS, //
-			SubNode.LIKES};
+			SubNode.LIKES, //
+			SubNode.CLASSES, //
+			SubNode.CLASSES_VERSION};
 
 	@Transient
 	@JsonIgnore
@@ -246,6 +301,36 @@ public class SubNode {
 		this.id = id;
 	}
 
+	@Transient
+	@JsonIgnore
+	public void addDirtyField(String field) {
+		synchronized (dirtyFields) {
+			dirtyFields.add(field);
+		}
+	}
+
+	/* Returns a copy of the dirty field names */
+	@Transient
+	@JsonIgnore
+	public HashSet<String> getDirtyFields() {
+		synchronized (dirtyFields) {
+			return new HashSet<>(dirtyFields);
+		}
+	}
+
+	@Transient
+	@JsonIgnore
+	public void clearDirtyFields() {
+		synchronized (dirtyFields) {
+			dirtyFields.clear();
+		}
+	}
+
+	/* Dotted field name of a property, as used in Mongo updates and in dirtyFields */
+	public static String propField(String key) {
+		return PROPS + "." + key;
+	}
+
 	@JsonGetter(ID)
 	public String jsonId() {
 		return id != null ? id.toHexString() : null;
@@ -283,7 +368,7 @@ public class SubNode {
 
 		ServiceBase.auth.ownerAuth(this);
 		this.verifyParentPath = true;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, PATH);
 		this.path = path;
 	}
 
@@ -313,7 +398,7 @@ public class SubNode {
 	public void setOrdinal(Long ordinal) {
 		if (Util.equalObjs(ordinal, this.ordinal))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, ORDINAL);
 		this.ordinal = ordinal;
 	}
 
@@ -326,7 +411,7 @@ public class SubNode {
 	public void setHasChildren(Boolean hch) {
 		if (Util.equalObjs(hch, this.hch))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, HAS_CHILDREN);
 		this.hch = hch;
 	}
 
@@ -340,7 +425,7 @@ public class SubNode {
 	public void setOwner(ObjectId owner) {
 		if (Util.equalObjs(owner, this.owner))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, OWNER);
 		this.owner = owner;
 	}
 
@@ -357,7 +442,7 @@ public class SubNode {
 	public void setTransferFrom(ObjectId transferFrom) {
 		if (Util.equalObjs(transferFrom, this.transferFrom))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, XFR);
 		this.transferFrom = transferFrom;
 	}
 
@@ -373,7 +458,7 @@ public class SubNode {
 
 	@JsonProperty(CREATE_TIME)
 	public void setCreateTime(Date createTime) {
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, CREATE_TIME);
 		this.createTime = createTime;
 	}
 
@@ -384,7 +469,7 @@ public class SubNode {
 
 	@JsonProperty(MODIFY_TIME)
 	public void setModifyTime(Date modifyTime) {
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, MODIFY_TIME);
 		this.modifyTime = modifyTime;
 	}
 
@@ -399,13 +484,53 @@ public class SubNode {
 		}
 	}
 
+	/* The values for READERS: sorted so the stored array only changes when the sharing does */
+	@Transient
+	@JsonIgnore
+	public List<String> getReaders() {
+		return getReaders(getAc());
+	}
+
+	public static List<String> getReaders(Map<String, ?> ac) {
+		List<String> readers = new ArrayList<>();
+		if (ac != null) {
+			readers.addAll(ac.keySet());
+			Collections.sort(readers);
+		}
+		return readers;
+	}
+
+	/*
+	 * No dirty tracking for the classification, because it's derived from the content and gets written
+	 * along with it.
+	 */
+	@JsonIgnore
+	public List<String> getClasses() {
+		return classes;
+	}
+
+	@JsonIgnore
+	public void setClasses(List<String> classes) {
+		this.classes = classes;
+	}
+
+	@JsonIgnore
+	public Integer getClassesVersion() {
+		return classesVersion;
+	}
+
+	@JsonIgnore
+	public void setClassesVersion(Integer classesVersion) {
+		this.classesVersion = classesVersion;
+	}
+
 	@Transient
 	@JsonIgnore
 	public HashMap<String, AccessControl> safeGetAc() {
 		synchronized (acLock) {
 			if (ac == null) {
 				ac = new HashMap<>();
-				ThreadLocals.dirty(this);
+				ThreadLocals.dirty(this, AC);
 			}
 			return ac;
 		}
@@ -427,7 +552,7 @@ public class SubNode {
 			// already have
 			if (thisAc == null || !thisAc.eq(ac)) {
 				safeGetAc().put(key, ac);
-				ThreadLocals.dirty(this);
+				ThreadLocals.dirty(this, AC);
 			}
 		}
 	}
@@ -436,7 +561,7 @@ public class SubNode {
 	public void setAc(HashMap<String, AccessControl> ac) {
 		if (ac == null && this.ac == null)
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, AC);
 		synchronized (acLock) {
 			// sanity check do disallow this this node sharing to it's owner
 			if (ac != null && getOwner() != null) {
@@ -470,7 +595,7 @@ public class SubNode {
 	public void setProps(HashMap<String, Object> props) {
 		if (props == null && this.props == null)
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, PROPS);
 		synchronized (propLock) {
 			this.props = props;
 		}
@@ -487,7 +612,7 @@ public class SubNode {
 	public void setAttachments(HashMap<String, Attachment> attachments) {
 		if (attachments == null && this.attachments == null)
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, ATTACHMENTS);
 		synchronized (attLock) {
 			this.attachments = attachments;
 		}
@@ -504,7 +629,7 @@ public class SubNode {
 	public void setLinks(HashMap<String, NodeLink> links) {
 		if (links == null && this.links == null)
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, LINKS);
 		synchronized (linksLock) {
 			this.links = links;
 		}
@@ -521,7 +646,7 @@ public class SubNode {
 				key = "k" + links.size();
 			}
 			links.put(key, link);
-			ThreadLocals.dirty(this);
+			ThreadLocals.dirty(this, LINKS);
 		}
 	}
 
@@ -548,7 +673,7 @@ public class SubNode {
 				attachments = new HashMap<>();
 			}
 			attachments.put(att.getKey(), att);
-			ThreadLocals.dirty(this);
+			ThreadLocals.dirty(this, ATTACHMENTS);
 		}
 	}
 
@@ -587,7 +712,7 @@ public class SubNode {
 				if (forceNew) {
 					ret = new Attachment(this);
 					attachments.put(name, ret);
-					ThreadLocals.dirty(this);
+					ThreadLocals.dirty(this, ATTACHMENTS);
 				} else {
 					ret = attachments.get(name);
 					if (ret != null) {
@@ -596,14 +721,14 @@ public class SubNode {
 					if (create) {
 						ret = new Attachment(this);
 						attachments.put(name, ret);
-						ThreadLocals.dirty(this);
+						ThreadLocals.dirty(this, ATTACHMENTS);
 					}
 				}
 			} else if (create || forceNew) {
 				ret = new Attachment(this);
 				attachments = new HashMap<>();
 				attachments.put(name, ret);
-				ThreadLocals.dirty(this);
+				ThreadLocals.dirty(this, ATTACHMENTS);
 			}
 			return ret;
 		}
@@ -635,7 +760,7 @@ public class SubNode {
 	public void setLikes(HashSet<String> likes) {
 		if (likes == null && this.likes == null)
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, LIKES);
 		synchronized (likesLock) {
 			this.likes = likes;
 		}
@@ -650,7 +775,7 @@ public class SubNode {
 
 		if (getLikes().add(actor)) {
 			// set node to dirty only if it just changed.
-			ThreadLocals.dirty(this);
+			ThreadLocals.dirty(this, LIKES);
 		}
 	}
 
@@ -662,7 +787,7 @@ public class SubNode {
 
 		if (getLikes().remove(actor)) {
 			// set node to dirty only if it just changed.
-			ThreadLocals.dirty(this);
+			ThreadLocals.dirty(this, LIKES);
 
 			// if likes set is now empty make it null.
 			if (getLikes().size() == 0) {
@@ -707,7 +832,7 @@ public class SubNode {
 			}
 
 			if (changed) {
-				ThreadLocals.dirty(this);
+				ThreadLocals.dirty(this, propField(key));
 			}
 			return changed;
 		}
@@ -727,7 +852,7 @@ public class SubNode {
 
 		synchronized (propLock) {
 			if (props().remove(key) != null) {
-				ThreadLocals.dirty(this);
+				ThreadLocals.dirty(this, propField(key));
 			}
 		}
 	}
@@ -933,7 +1058,7 @@ public class SubNode {
 	public void setType(String type) {
 		if (Util.equalObjs(type, this.type))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, TYPE);
 		this.type = type;
 	}
 
@@ -946,7 +1071,7 @@ public class SubNode {
 	public void setName(String name) {
 		if (Util.equalObjs(name, this.name))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, NAME);
 		this.name = name;
 	}
 
@@ -959,7 +1084,7 @@ public class SubNode {
 	public void setContent(String content) {
 		if (Util.equalObjs(content, this.content))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, CONTENT);
 		this.content = content;
 	}
 
@@ -975,12 +1100,12 @@ public class SubNode {
 		// temporary hack (I saw empty tags prop in some JSON)
 		if ("".equals(tags))
 			tags = null;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, TAGS);
 		this.tags = tags;
 	}
 
 	public void addProps(HashMap<String, Object> props) {
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, PROPS);
 		synchronized (propLock) {
 			props().putAll(props);
 		}
@@ -1001,7 +1126,7 @@ public class SubNode {
 	public void setMcid(String mcid) {
 		if (Util.equalObjs(mcid, this.mcid))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, MCID);
 		this.mcid = mcid;
 	}
 
@@ -1012,7 +1137,7 @@ public class SubNode {
 	public void setPrevMcid(String prevMcid) {
 		if (Util.equalObjs(prevMcid, this.prevMcid))
 			return;
-		ThreadLocals.dirty(this);
+		ThreadLocals.dirty(this, PREV_MCID);
 		this.prevMcid = prevMcid;
 	}
 }
@@ -0,0 +1,192 @@
+package quanta.mongo.model;
+
+import java.util.Date;
+import java.util.List;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/*
+ * Snapshot of one time bucket of the trending counts (see TrendingService), so restarts don't lose
+ * them. For each of words, hashtags and mentions we hold the count-min sketch as raw bytes, plus the
+ * heavy hitters as parallel lists of words and counts (words can't be keys, since they contain dots).
+ */
+@Document(collection = "trending")
+@TypeAlias("trb")
+public class TrendingBucket {
+	// bucket number, which is the start time in millis divided by the bucket length
+	public static final String ID = "_id";
+	@Id
+	@Field(ID)
+	private Long id;
+
+	public static final String START_TIME = "start";
+	@Field(START_TIME)
+	private Date startTime;
+
+	// when this was saved, so we know what to count again after a restart
+	public static final String SAVED_TIME = "saved";
+	@Field(SAVED_TIME)
+	private Date savedTime;
+
+	public static final String NODE_COUNT = "nodes";
+	@Field(NODE_COUNT)
+	private Long nodeCount;
+
+	public static final String WORD_COUNT = "words";
+	@Field(WORD_COUNT)
+	private Long wordCount;
+
+	public static final String WORD_SKETCH = "wSk";
+	@Field(WORD_SKETCH)
+	private byte[] wordSketch;
+
+	public static final String TOP_WORDS = "wTop";
+	@Field(TOP_WORDS)
+	private List<String> topWords;
+
+	public static final String TOP_WORD_COUNTS = "wCnt";
+	@Field(TOP_WORD_COUNTS)
+	private List<Long> topWordCounts;
+
+	public static final String TAG_SKETCH = "tSk";
+	@Field(TAG_SKETCH)
+	private byte[] tagSketch;
+
+	public static final String TOP_TAGS = "tTop";
+	@Field(TOP_TAGS)
+	private List<String> topTags;
+
+	public static final String TOP_TAG_COUNTS = "tCnt";
+	@Field(TOP_TAG_COUNTS)
+	private List<Long> topTagCounts;
+
+	public static final String MENTION_SKETCH = "mSk";
+	@Field(MENTION_SKETCH)
+	private byte[] mentionSketch;
+
+	public static final String TOP_MENTIONS = "mTop";
+	@Field(TOP_MENTIONS)
+	private List<String> topMentions;
+
+	public static final String TOP_MENTION_COUNTS = "mCnt";
+	@Field(TOP_MENTION_COUNTS)
+	private List<Long> topMentionCounts;
+
+	@PersistenceConstructor
+	public TrendingBucket() {}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
+	public Date getSavedTime() {
+		return savedTime;
+	}
+
+	public void setSavedTime(Date savedTime) {
+		this.savedTime = savedTime;
+	}
+
+	public Long getNodeCount() {
+		return nodeCount;
+	}
+
+	public void setNodeCount(Long nodeCount) {
+		this.nodeCount = nodeCount;
+	}
+
+	public Long getWordCount() {
+		return wordCount;
+	}
+
+	public void setWordCount(Long wordCount) {
+		this.wordCount = wordCount;
+	}
+
+	public byte[] getWordSketch() {
+		return wordSketch;
+	}
+
+	public void setWordSketch(byte[] wordSketch) {
+		this.wordSketch = wordSketch;
+	}
+
+	public List<String> getTopWords() {
+		return topWords;
+	}
+
+	public void setTopWords(List<String> topWords) {
+		this.topWords = topWords;
+	}
+
+	public List<Long> getTopWordCounts() {
+		return topWordCounts;
+	}
+
+	public void setTopWordCounts(List<Long> topWordCounts) {
+		this.topWordCounts = topWordCounts;
+	}
+
+	public byte[] getTagSketch() {
+		return tagSketch;
+	}
+
+	public void setTagSketch(byte[] tagSketch) {
+		this.tagSketch = tagSketch;
+	}
+
+	public List<String> getTopTags() {
+		return topTags;
+	}
+
+	public void setTopTags(List<String> topTags) {
+		this.topTags = topTags;
+	}
+
+	public List<Long> getTopTagCounts() {
+		return topTagCounts;
+	}
+
+	public void setTopTagCounts(List<Long> topTagCounts) {
+		this.topTagCounts = topTagCounts;
+	}
+
+	public byte[] getMentionSketch() {
+		return mentionSketch;
+	}
+
+	public void setMentionSketch(byte[] mentionSketch) {
+		this.mentionSketch = mentionSketch;
+	}
+
+	public List<String> getTopMentions() {
+		return topMentions;
+	}
+
+	public void setTopMentions(List<String> topMentions) {
+		this.topMentions = topMentions;
+	}
+
+	public List<Long> getTopMentionCounts() {
+		return topMentionCounts;
+	}
+
+	public void setTopMentionCounts(List<Long> topMentionCounts) {
+		this.topMentionCounts = topMentionCounts;
+	}
+}
@@ -0,0 +1,52 @@
+package quanta.mongo.model;
+
+import java.util.Date;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.annotation.TypeAlias;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/*
+ * Marks a node as already counted in the trending data (see TrendingService), so editing it later
+ * doesn't count it again, even after a restart. Mongo deletes these once 'expires' passes (it has a
+ * TTL index), which is after the node is too old to count anyway.
+ */
+@Document(collection = "trendingCounted")
+@TypeAlias("trc")
+public class TrendingCounted {
+	// the node ID
+	public static final String ID = "_id";
+	@Id
+	@Field(ID)
+	private ObjectId id;
+
+	public static final String EXPIRES = "expires";
+	@Field(EXPIRES)
+	private Date expires;
+
+	@PersistenceConstructor
+	public TrendingCounted() {}
+
+	public TrendingCounted(ObjectId id, Date expires) {
+		this.id = id;
+		this.expires = expires;
+	}
+
+	public ObjectId getId() {
+		return id;
+	}
+
+	public void setId(ObjectId id) {
+		this.id = id;
+	}
+
+	public Date getExpires() {
+		return expires;
+	}
+
+	public void setExpires(Date expires) {
+		this.expires = expires;
+	}
+}
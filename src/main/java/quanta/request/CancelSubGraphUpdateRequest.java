@@ -0,0 +1,10 @@
+package quanta.request;
+
+import quanta.request.base.RequestBase;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class CancelSubGraphUpdateRequest extends RequestBase {
+}
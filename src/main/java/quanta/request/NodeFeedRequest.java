@@ -11,6 +11,9 @@ public class NodeFeedRequest extends RequestBase {
 	// zero offset page of results (page=0 is first page)
 	private Integer page;
 
+	// 'nextCursor' from the previous page's response, which takes the place of 'page' when given
+	private String cursor;
+
 	/* Note one of the other of these should be non-null, but not both */
 	private String nodeId;
 	private String toUser;
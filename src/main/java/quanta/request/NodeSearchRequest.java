@@ -14,6 +14,9 @@ public class NodeSearchRequest extends RequestBase {
 	/* Zero offset page number. First page is zero */
 	private int page;
 
+	// 'nextCursor' from the previous page's response, which takes the place of 'page' when given
+	private String cursor;
+
 	/* ascending=asc, descending=desc */
 	private String sortDir;
 
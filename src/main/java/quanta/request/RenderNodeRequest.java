@@ -19,6 +19,13 @@ public class RenderNodeRequest extends RequestBase {
 	 */
 	private int offset;
 
+	/*
+	 * 'nextCursor' from the response that rendered the previous page of children. When given, the
+	 * children are read starting right after that page instead of skipping 'offset' of them, although
+	 * 'offset' is still what numbers the children (logicalOrdinal).
+	 */
+	private String cursor;
+
 	/**
 	 * If this is 0, it has no effect. If it's 1 that means try to jump to the next sibling of the
 	 * current page root node, and if -1 then it tries to go to previous sibling.
@@ -0,0 +1,6 @@
+package quanta.response;
+
+import quanta.response.base.ResponseBase;
+
+public class CancelSubGraphUpdateResponse extends ResponseBase {
+}
@@ -16,4 +16,7 @@ public class NodeFeedResponse extends ResponseBase {
 	private List<NodeInfo> searchResults;
 
 	private List<String> friendHashTags;
+
+	// goes in the 'cursor' of the request for the next page. Null if there's no more.
+	private String nextCursor;
 }
@@ -11,4 +11,7 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 public class NodeSearchResponse extends ResponseBase {
 	private List<NodeInfo> searchResults;
+
+	// goes in the 'cursor' of the request for the next page. Null if there's no more.
+	private String nextCursor;
 }
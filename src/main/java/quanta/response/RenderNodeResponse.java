@@ -19,6 +19,9 @@ public class RenderNodeResponse extends ResponseBase {
 	 */
 	private boolean endReached;
 
+	// goes in the 'cursor' of the request for the next page of children. Null if there's no more.
+	private String nextCursor;
+
 	private String noDataResponse;
 
 	private LinkedList<BreadcrumbInfo> breadcrumbs;
@@ -7,10 +7,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.core.BulkOperations;
-import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
@@ -36,7 +35,6 @@ import quanta.response.GetNodePrivilegesResponse;
 import quanta.response.RemovePrivilegeResponse;
 import quanta.response.SetCipherKeyResponse;
 import quanta.response.SetUnpublishedResponse;
-import quanta.util.Const;
 import quanta.util.XString;
 
 /**
@@ -59,57 +57,48 @@ public class AclService extends ServiceBase {
 		return res;
 	}
 
+	/*
+	 * Copies the sharing (and unpublished flag) of the node onto every node under it the user owns, as
+	 * bulk updates (see SubGraphUpdate). Nodes owned by others are left alone.
+	 */
 	public CopySharingResponse copySharing(MongoSession ms, CopySharingRequest req) {
 		CopySharingResponse res = new CopySharingResponse();
 		SubNode node = read.getNode(ms, req.getNodeId());
-		BulkOperations bops = null;
-
-		/*
-		 * todo-2: It seems like maybe batching can't update a collection property? so for now I'm disabling
-		 * batch mode which makes this code work.
-		 */
-		boolean batchMode = false;
-		Boolean unpublished = node.getBool(NodeProp.UNPUBLISHED);
-		int batchSize = 0;
-
-		for (SubNode n : read.getSubGraph(ms, node, null, 0, true, //
-				false, true)) {
-			if (batchMode) {
-				// lazy instantiate
-				if (bops == null) {
-					bops = ops.bulkOps(BulkMode.UNORDERED, SubNode.class);
-				}
-
-				try {
-					auth.ownerAuth(ms, n);
-					n.set(NodeProp.UNPUBLISHED, unpublished ? unpublished : null);
+		auth.ownerAuth(ms, node);
+		boolean unpublished = Boolean.TRUE.equals(node.getBool(NodeProp.UNPUBLISHED));
+
+		// the AC as it's stored, rather than as AccessControl objects
+		Document nodeDoc = new Document();
+		ops.getConverter().write(node, nodeDoc);
+		Document ac = (Document) nodeDoc.get(SubNode.AC);
+
+		long count = subGraphUpdate.updateEach("Copy Sharing", subGraphUpdate.owned(ms, node, false), List.of(SubNode.OWNER),
+				doc -> {
+					// same as onBeforeSave, never share a node to its owner, and store no sharing as null
+					Document nodeAc = ac != null ? new Document(ac) : new Document();
+					ObjectId owner = doc.getObjectId(SubNode.OWNER);
+					if (owner != null) {
+						nodeAc.remove(owner.toHexString());
+					}
 
-					Query query = new Query().addCriteria(new Criteria("id").is(n.getId()));
-					// log.debug("Setting [" + n.getIdStr() + "] AC to " + XString.prettyPrint(node.getAc()));
-					Update update = new Update().set(SubNode.AC, node.getAc()).set(SubNode.PROPS, n.getProps());
-					bops.updateOne(query, update);
+					Update update = new Update();
+					if (nodeAc.isEmpty()) {
+						update.unset(SubNode.AC);
+					} else {
+						update.set(SubNode.AC, nodeAc);
+					}
+					update.set(SubNode.READERS, SubNode.getReaders(nodeAc));
 
-					if (++batchSize > Const.MAX_BULK_OPS) {
-						bops.execute();
-						batchSize = 0;
-						bops = null;
+					String unpub = SubNode.PROPS + "." + NodeProp.UNPUBLISHED.s();
+					if (unpublished) {
+						update.set(unpub, true);
+					} else {
+						update.unset(unpub);
 					}
-				} catch (Exception e) {
-					// not an error, we just can't properties on nodes we don't own, so we skip them
-				}
-			} else {
-				auth.ownerAuth(ms, n);
-				n.set(NodeProp.UNPUBLISHED, unpublished ? unpublished : null);
-				log.debug("Set Unpublished on node " + n.getIdStr() + " to " + unpublished);
-				n.setAc(node.getAc());
-			}
-		}
+					return update;
+				});
 
-		if (batchMode && bops != null) {
-			bops.execute();
-		} else {
-			update.saveSession(ms);
-		}
+		log.debug("Copied sharing of " + node.getIdStr() + " to " + count + " nodes");
 		res.setSuccess(true);
 		return res;
 	}
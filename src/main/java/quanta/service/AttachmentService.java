@@ -1,5 +1,6 @@
 package quanta.service;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -13,16 +14,17 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.AutoCloseInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -32,26 +34,22 @@ import org.apache.http.impl.client.HttpClientBuilder;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.gridfs.GridFsResource;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSFindIterable;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
 import lombok.extern.slf4j.Slf4j;
 import quanta.config.ServiceBase;
 import quanta.exception.OutOfSpaceException;
@@ -81,6 +79,7 @@ import quanta.util.ImageUtil;
 import quanta.util.LimitedInputStream;
 import quanta.util.LimitedInputStreamEx;
 import quanta.util.MimeTypeUtils;
+import quanta.util.RangeStreamer;
 import quanta.util.StreamUtil;
 import quanta.util.ThreadLocals;
 import quanta.util.XString;
@@ -97,6 +96,12 @@ import quanta.util.val.Val;
 @Component
 @Slf4j 
 public class AttachmentService extends ServiceBase {
+	// how many grid files the maintenance scan looks up the nodes of at once
+	private static final int ORPHAN_SCAN_BATCH = 1000;
+
+	// cache time of an original sent when a smaller copy was asked for (see sendAttachment)
+	private static final int UNSCALED_MAX_AGE_SECS = 60;
+
 	@Autowired
 	public GridFsTemplate grid;
 
@@ -390,9 +395,8 @@ public class AttachmentService extends ServiceBase {
 		 * NOTE: Setting this flag to false works just fine, and is more efficient, and will simply do
 		 * everything EXCEPT calculate the image size
 		 */
-		BufferedImage bufImg = null;
 		byte[] imageBytes = null;
-		InputStream isTemp = null;
+		boolean sizeFromGrid = false;
 		int maxFileSize = user.getMaxUploadSize(ms);
 		Attachment att = null;
 
@@ -416,29 +420,30 @@ public class AttachmentService extends ServiceBase {
 			// default image to be 100% size
 			att.setCssSize("100%");
 
+			/*
+			 * We only need the image header to get the size, so an image going into the grid is read back
+			 * from there once stored rather than held in memory here. IPFS needs the whole stream after we've
+			 * read from it so that's the only case we still buffer.
+			 */
 			if (calcImageSize) {
-				LimitedInputStream is = null;
-				try {
-					is = new LimitedInputStreamEx(inputStream, maxFileSize);
-					imageBytes = IOUtils.toByteArray(is);
-					isTemp = new ByteArrayInputStream(imageBytes);
-					bufImg = ImageIO.read(isTemp);
-
+				if (storeLocally && !toIpfs) {
+					sizeFromGrid = true;
+				} else {
+					LimitedInputStream is = null;
 					try {
-						att.setWidth(bufImg.getWidth());
-						att.setHeight(bufImg.getHeight());
+						is = new LimitedInputStreamEx(inputStream, maxFileSize);
+						if (storeLocally) {
+							imageBytes = IOUtils.toByteArray(is);
+							setImageSize(att, new ByteArrayInputStream(imageBytes));
+						} else {
+							setImageSize(att, is);
+						}
 					} catch (Exception e) {
-						/*
-						 * reading files from IPFS caused this exception, and I didn't investigate why yet, because I don't
-						 * think it's a bug in my code, but something in IPFS.
-						 */
-						log.error("Failed to get image length.", e);
-					}
-				} catch (Exception e) {
-					throw ExUtil.wrapEx(e);
-				} finally {
-					if (closeStream) {
-						StreamUtil.close(is, isTemp);
+						throw ExUtil.wrapEx(e);
+					} finally {
+						if (closeStream) {
+							StreamUtil.close(is);
+						}
 					}
 				}
 			}
@@ -459,6 +464,14 @@ public class AttachmentService extends ServiceBase {
 							att.setFileName(fileName);
 						}
 						writeStream(ms, importMode, attName, node, inputStream, fileName, mimeType, userNode);
+
+						if (sizeFromGrid) {
+							try (InputStream gridIs = gridBucket.openDownloadStream(new ObjectId(att.getBin()))) {
+								setImageSize(att, gridIs);
+							} catch (IOException e) {
+								throw ExUtil.wrapEx(e);
+							}
+						}
 					} else {
 						att.setUrl(sourceUrl);
 					}
@@ -494,6 +507,27 @@ public class AttachmentService extends ServiceBase {
 
 		// log.debug("Node to save: " + XString.prettyPrint(node));
 		update.save(ms, node);
+
+		if (att.getBin() != null && ImageUtil.isImageMime(mimeType)) {
+			imageVariants.generateLater(node.getId(), att.getBin(), mimeType);
+		}
+	}
+
+	/* Sets the width and height of the image from its header */
+	private void setImageSize(Attachment att, InputStream is) {
+		try {
+			Dimension size = ImageUtil.readSize(is);
+			if (size != null) {
+				att.setWidth(size.width);
+				att.setHeight(size.height);
+			}
+		} catch (Exception e) {
+			/*
+			 * reading files from IPFS caused this exception, and I didn't investigate why yet, because I don't
+			 * think it's a bug in my code, but something in IPFS.
+			 */
+			log.error("Failed to get image size.", e);
+		}
 	}
 
 	public String getNextAttachmentKey(SubNode node) {
@@ -572,10 +606,7 @@ public class AttachmentService extends ServiceBase {
 	 */
 	@PerfMon(category = "attach")
 	public void getBinary(MongoSession ms, String attName, SubNode node, String nodeId, String binId, boolean download,
-			HttpServletResponse response) {
-		BufferedInputStream inStream = null;
-		BufferedOutputStream outStream = null;
-
+			Integer width, HttpServletRequest request, HttpServletResponse response) {
 		try {
 			ms = ThreadLocals.ensure(ms);
 
@@ -609,8 +640,6 @@ public class AttachmentService extends ServiceBase {
 				}
 			}
 
-			boolean ipfs = StringUtils.isNotEmpty(att.getIpfsLink());
-
 			// Everyone's account node can publish it's attachment and is assumed to be an
 			// avatar.
 			boolean allowAuth = true;
@@ -632,58 +661,89 @@ public class AttachmentService extends ServiceBase {
 				fileName = "filename";
 			}
 
-			InputStream is = getStream(ms, attName, node, allowAuth);
-			if (is == null) {
-				throw new RuntimeException("Image not found.");
+			if (download) {
+				response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
 			}
-			long size = att.getSize();
-			// log.debug("Getting Binary for nodeId=" + nodeId + " size=" + size);
 
-			response.setContentType(mimeTypeProp);
+			// This is max allowed caching time, and is 1 year in seconds
+			response.setHeader("Cache-Control", "public, max-age=31536000");
+
+			sendAttachment(ms, att, mimeTypeProp, width, request, response);
+		} catch (Exception e) {
+			log.error(e.getMessage());
+		}
+	}
+
+	/*
+	 * Writes the content of 'att' to 'response', honoring Range and conditional request headers (see
+	 * RangeStreamer). For GridFS we seek to the chunk holding the first byte asked for, and for IPFS we
+	 * pass the range along to the gateway, so only the bytes being asked for are ever read.
+	 *
+	 * If 'width' is given and the image has a copy at least that wide, we send the smallest such copy
+	 * instead of the original (see ImageVariantService). If it has none, maybe because the copies are
+	 * still being made, we send the original but only let it be cached briefly under that URL, so the
+	 * copy gets picked up once it exists.
+	 */
+	private void sendAttachment(MongoSession ms, Attachment att, String mimeType, Integer width, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		String ipfsHash = att.getIpfsLink();
+		if (StringUtils.isNotEmpty(ipfsHash)) {
+			long size = att.getSize() != null ? att.getSize() : 0;
 
 			/*
-			 * we gracefully tolerate the case where no size is available but normally it will be there.
+			 * todo-2: I'm getting the "disappearing image" (from the browser) network problem related to size
+			 * (content length), so we don't send 'size' as the Content-Length of full IPFS responses (only in
+			 * ranges, which need it).
 			 * 
-			 * todo-2: when we detect this and then stream back some data should be just go ahead and SET the
-			 * correct 'size' on the node at that point?
+			 * You get this error if you just wait about 30s to 1 minute, and maybe scroll out of view and back
+			 * into view the images. What happens is the image loads just fine but then some background thread
+			 * in Chrome looks at content lengths and finds some thing off somehoe and decides to make the image
+			 * just disappear and show a broken link icon instead. Somehow this is *currently* only happening
+			 * for images that are served up from IPFS storage.
+			 * 
+			 * Chrome shows this: Failed to load resource: net::ERR_CONTENT_LENGTH_MISMATCH
 			 */
-			if (size > 0) {
-				/*
-				 * todo-2: I'm getting the "disappearing image" (from the browser) network problem related to size
-				 * (content length), but not calling 'contentLength()' below is a workaround.
-				 * 
-				 * You get this error if you just wait about 30s to 1 minute, and maybe scroll out of view and back
-				 * into view the images. What happens is the image loads just fine but then some background thread
-				 * in Chrome looks at content lengths and finds some thing off somehoe and decides to make the image
-				 * just disappear and show a broken link icon instead.
-				 * 
-				 * SO... I keep having to come back and remove the setContentLength every time I think this problem
-				 * is resolved and then later find out it isn't. Somehow this is *currently* only happening for
-				 * images that are served up from IPFS storage.
-				 * 
-				 * Chrome shows this: Failed to load resource: net::ERR_CONTENT_LENGTH_MISMATCH
-				 */
-				if (!ipfs) {
-					response.setContentLength((int) size);
-				}
-			}
+			RangeStreamer.send(request, response, offset -> ipfs.getStream(ms, ipfsHash, offset), size, mimeType, ipfsHash, 0,
+					false);
+			return;
+		}
 
-			if (download) {
-				response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+		if (att.getBin() == null) {
+			throw new RuntimeEx("Image not found.");
+		}
+
+		String binId = att.getBin();
+		GridFSFile gridFile = null;
+		String variantId = imageVariants.pick(att, width);
+		if (variantId != null) {
+			gridFile = grid.findOne(new Query(Criteria.where("_id").is(variantId)));
+			if (gridFile != null) {
+				binId = variantId;
+				// the copy may not be the same type as the original (a PNG photo gets JPEG copies)
+				mimeType = gridFile.getMetadata().getString("_contentType");
 			}
+		}
 
-			// This is max allowed caching time, and is 1 year in seconds
-			response.setHeader("Cache-Control", "public, max-age=31536000");
+		if (gridFile == null) {
+			gridFile = grid.findOne(new Query(Criteria.where("_id").is(att.getBin())));
+			if (width != null && width > 0) {
+				response.setHeader("Cache-Control", "public, max-age=" + UNSCALED_MAX_AGE_SECS);
+			}
+		}
+		if (gridFile == null) {
+			throw new RuntimeEx("Image not found.");
+		}
 
-			inStream = new BufferedInputStream(is);
-			outStream = new BufferedOutputStream(response.getOutputStream());
+		// grid content never changes, so the grid ID is all the ETag needs to be
+		GridFSFile _gridFile = gridFile;
+		RangeStreamer.send(request, response, offset -> {
+			InputStream is = gridBucket.openDownloadStream(_gridFile.getObjectId());
+			RangeStreamer.skipFully(is, offset);
+			return is;
+		}, gridFile.getLength(), mimeType, binId, gridFile.getUploadDate().getTime(), true);
 
-			IOUtils.copy(inStream, outStream);
-			outStream.flush();
-		} catch (Exception e) {
-			log.error(e.getMessage());
-		} finally {
-			StreamUtil.close(inStream, outStream);
+		if (response.getStatus() != HttpServletResponse.SC_NOT_MODIFIED) {
+			imageVariants.countServed(att, !binId.equals(att.getBin()), gridFile.getLength());
 		}
 	}
 
@@ -734,7 +794,8 @@ public class AttachmentService extends ServiceBase {
 		}
 	}
 
-	public ResponseEntity<StreamingResponseBody> getFileSystemResourceStream(MongoSession ms, String nodeId, String disposition) {
+	public void getFileSystemResourceStream(MongoSession ms, String nodeId, String disposition, HttpServletRequest request,
+			HttpServletResponse response) {
 		if (!ms.isAdmin()) {
 			throw new RuntimeEx("unauthorized");
 		}
@@ -756,37 +817,31 @@ public class AttachmentService extends ServiceBase {
 				disposition = "inline";
 			}
 
-			/*
-			 * I think we could be using the MultipartFileSender here, eventually but not until we decople it
-			 * from reading directly from filesystem
-			 */
-			AutoCloseInputStream acis = new AutoCloseInputStream(new FileInputStream(fullFileName));
+			response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition + "; filename=\"" + file.getName() + "\"");
 
-			/*
-			 * I'm not sure if FileSystemResource is better than StreamingResponseBody, but i do know
-			 * StreamingResponseBody does EXACTLY what is needed which is to use a small buffer size and never
-			 * hold entire media file all in memory
-			 */
-			StreamingResponseBody stream = (os) -> {
-				IOUtils.copy(acis, os);
-				os.flush();
-			};
-
-			return ResponseEntity.ok()//
-					.contentLength(file.length())//
-					.header(HttpHeaders.CONTENT_DISPOSITION, disposition + "; filename=\"" + file.getName() + "\"")//
-					.contentType(MediaType.parseMediaType(mimeType))//
-					.body(stream);
+			// files can change, so the ETag is made from the size and time
+			long lastModified = file.lastModified();
+			RangeStreamer.send(request, response, offset -> {
+				InputStream is = new FileInputStream(file);
+				RangeStreamer.skipFully(is, offset);
+				return is;
+			}, file.length(), mimeType, Long.toHexString(file.length()) + "-" + Long.toHexString(lastModified), lastModified,
+					true);
 		} catch (Exception ex) {
 			throw ExUtil.wrapEx(ex);
 		}
 	}
 
-	public Object getStreamResource(MongoSession ms, HttpHeaders headers, String nodeId) {
-		BufferedInputStream inStream = null;
-		ResponseEntity<ResourceRegion> ret = null;
+	/*
+	 * Streams the primary attachment of a node, for video and audio players, which seek by asking for
+	 * byte ranges.
+	 */
+	public void getStreamResource(MongoSession ms, String nodeId, HttpServletRequest request, HttpServletResponse response) {
 		try {
 			SubNode node = read.getNode(ms, nodeId, false, null);
+			if (node == null)
+				throw ExUtil.wrapEx("node not found");
+
 			Attachment att = node.getFirstAttachment();
 			if (att == null)
 				throw ExUtil.wrapEx("no attachment info found");
@@ -798,56 +853,10 @@ public class AttachmentService extends ServiceBase {
 				throw ExUtil.wrapEx("unable to find mimeType property");
 			}
 
-			String fileName = att.getFileName();
-			if (fileName == null) {
-				fileName = "filename";
-			}
-
-			// long startTime = System.currentTimeMillis();
-			InputStream is = getStream(ms, "", node, false);
-
-			// if (session.isAdmin() && Const.adminDebugStreaming) {
-			// long duration = System.currentTimeMillis() - startTime;
-			// log.debug("getStream took " + String.valueOf(duration) + "ms");
-			// }
-			// startTime = System.currentTimeMillis();
-
-			long size = att.getSize();
-
-			if (size == 0) {
-				throw new RuntimeEx("Can't stream video without the file size. BIN_SIZE property missing");
-			}
-
-			inStream = new BufferedInputStream(is);
-			byte[] bytes = IOUtils.toByteArray(inStream);
-
-			ResourceRegion region = resourceRegion(new ByteArrayResource(bytes), headers);
-			ret = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).contentType(MediaType.valueOf(mimeTypeProp)).body(region);
-
+			sendAttachment(ms, att, mimeTypeProp, null, request, response);
 		} catch (Exception e) {
 			log.error(e.getMessage());
 		}
-		return ret;
-	}
-
-	private ResourceRegion resourceRegion(Resource resource, HttpHeaders headers) throws IOException {
-		/*
-		 * todo-2: Will a smaller chunk size be better to get the video playing sooner after first clicked,
-		 * or will it do that at the cost of less overall resource effeciency? Need to research
-		 */
-		long chunkSize = 500000L;
-		long contentLength = resource.contentLength();
-
-		HttpRange httpRange = headers.getRange().stream().findFirst().get();
-		if (httpRange != null) {
-			long start = httpRange.getRangeStart(contentLength);
-			long end = httpRange.getRangeEnd(contentLength);
-			long rangeLength = Long.min(chunkSize, end - start + 1);
-			return new ResourceRegion(resource, start, rangeLength);
-		} else {
-			long rangeLength = Long.min(chunkSize, contentLength);
-			return new ResourceRegion(resource, 0, rangeLength);
-		}
 	}
 
 	/*
@@ -1079,14 +1088,18 @@ public class AttachmentService extends ServiceBase {
 			deleteBinary(ms, attName, node, userNode, true);
 		}
 
-		String id = grid.store(stream, fileName, mimeType, metaData).toString();
+		// if this content is already in the grid we get that file instead of a new one
+		String id = gridDedup.store(stream, fileName, mimeType, metaData);
 
 		long streamCount = stream.getCount();
 		// log.debug("upload streamCount=" + streamCount);
 
 		// update the user quota which enforces their total storage limit
-		if (!ms.isAdmin()) {
+		try {
 			user.addBytesToUserNodeBytes(ms, streamCount, userNode);
+		} catch (OutOfSpaceException e) {
+			gridDedup.release(id);
+			throw e;
 		}
 
 		if (userNode == null) {
@@ -1098,6 +1111,8 @@ public class AttachmentService extends ServiceBase {
 		 */
 		att.setBin(id);
 		att.setSize(streamCount);
+		// any copies were of the old binary (or, when importing, are grid IDs from some other database)
+		att.setVariants(null);
 
 		if (importMode) {
 			log.debug("Setting attachment id to " + id + " on subNode " + att.getOwnerNode().getIdStr());
@@ -1141,17 +1156,13 @@ public class AttachmentService extends ServiceBase {
 			node.setAttachments(attachments);
 		}
 
-		if (!ms.isAdmin()) {
-			/*
-			 * NOTE: There is no equivalent to this on the IPFS code path for deleting ipfs becuase since we
-			 * don't do reference counting we let the garbage collecion cleanup be the only way user quotas are
-			 * deducted from
-			 */
-			long totalBytes = user.getTotalAttachmentBytes(ms, node);
-			user.addBytesToUserNodeBytes(ms, -totalBytes, userNode);
-		}
+		// give the owner back the space (IPFS data itself only goes once garbage collected, but it's no
+		// longer theirs)
+		user.addBinBytes(node.getOwner(), -user.getStoredBytes(att));
 
-		grid.delete(new Query(Criteria.where("_id").is(att.getBin())));
+		// other attachments may have the same content (see GridDedupService)
+		gridDedup.release(att.getBin());
+		imageVariants.deleteVariants(att);
 	}
 
 	/*
@@ -1286,66 +1297,46 @@ public class AttachmentService extends ServiceBase {
 	}
 
 	/**
-	 * This method makes a single pass over all grid items doing all the daily maintenance on each one
-	 * as necessary to maintain the system health and statistics.
+	 * Deletes the grid files no node owns any longer, and counts up each user's grid storage into
+	 * 'statsMap' for verifying the running totals on their accounts.
 	 * 
-	 * Scans all the uploaded attachments, and finds any that aren't owned by some SubNode, and deletes
-	 * them.
-	 * 
-	 * Also keeps totals by each user account, in a hashmap to be written all out at the end to all the
-	 * nodes.
+	 * The totals are kept up to date as attachments come and go (see
+	 * UserManagerService.addBytesToUserNodeBytes), so this only needs running now and then to catch
+	 * drift. Rather than reading the owning node of each grid file one at a time, we stream the grid
+	 * files and look up their nodes ORPHAN_SCAN_BATCH at a time with a single $in query, and delete
+	 * the orphans of each batch in bulk.
 	 */
 	public void gridMaintenanceScan(HashMap<ObjectId, UserStats> statsMap) {
 		arun.run(as -> {
 			int delCount = 0;
-			// todo-1: do we need to replace this with a 'stream' of some kind to ensure we won't run out of
-			// memory?
-			GridFSFindIterable files = gridBucket.find();
 
-			/* Scan all files in the grid */
-			if (files != null) {
-				for (GridFSFile file : files) {
-					Document meta = file.getMetadata();
-					if (meta != null) {
-						/* Get which nodeId owns this grid file */
-						ObjectId id = (ObjectId) meta.get("nodeId");
-
-						if (id != null) {
-							SubNode subNode = read.getNode(as, id);
-
-							/*
-							 * If the node doesn't exist then this grid file is an orphan and should go away
-							 */
-							if (subNode == null) {
-								log.debug("Grid Orphan Delete: " + id.toHexString());
-
-								// Query query = new Query(GridFsCriteria.where("_id").is(file.getId());
-								Query q = new Query(Criteria.where("_id").is(file.getId()));
-
-								// Note: It's not a bug that we don't call this here:
-								// usrMgr.addNodeBytesToUserNodeBytes(session, node, null, -1);
-								// Because all the userstats are updated at the end of this scan.
-								// todo-1: does grid support bulkOp deleting?
-								grid.delete(q);
-								delCount++;
-							}
-							/*
-							 * else update the UserStats by adding the file length to the total for this user
-							 */
-							else {
-								UserStats stats = statsMap.get(subNode.getOwner());
-								if (stats == null) {
-									stats = new UserStats();
-									stats.binUsage = file.getLength();
-									statsMap.put(subNode.getOwner(), stats);
-								} else {
-									stats.binUsage = stats.binUsage.longValue() + file.getLength();
-								}
-							}
-						}
+			// files that may be shared by many nodes, which get checked by reference count below instead
+			HashSet<String> dedupGids = gridDedup.getGids();
+
+			List<GridFSFile> batch = new LinkedList<>();
+			try (MongoCursor<GridFSFile> files = gridBucket.find().batchSize(ORPHAN_SCAN_BATCH).iterator()) {
+				while (files.hasNext()) {
+					GridFSFile file = files.next();
+					if (dedupGids.contains(file.getObjectId().toHexString()) || file.getMetadata() == null
+							|| file.getMetadata().get("nodeId") == null)
+						continue;
+
+					batch.add(file);
+					if (batch.size() >= ORPHAN_SCAN_BATCH) {
+						delCount += deleteGridOrphans(batch);
+						batch.clear();
 					}
 				}
 			}
+			delCount += deleteGridOrphans(batch);
+			delCount += gridDedup.reconcile(dedupGids);
+
+			// IPFS storage gets added in by the IPFS garbage collection
+			user.getStoredAttachmentBytes(new Criteria(), false).forEach((owner, bytes) -> {
+				UserStats stats = new UserStats();
+				stats.binUsage = bytes;
+				statsMap.put(owner, stats);
+			});
 
 			Iterable<SubNode> accountNodes = read.getAccountNodes(as, null, null, null, -1, true, true);
 
@@ -1367,4 +1358,55 @@ public class AttachmentService extends ServiceBase {
 			return null;
 		});
 	}
+
+	/*
+	 * Deletes those of 'files' whose node is gone, or which are copies (see ImageVariantService) of an
+	 * image the node no longer has, and returns how many that was.
+	 */
+	private int deleteGridOrphans(List<GridFSFile> files) {
+		if (files.isEmpty())
+			return 0;
+
+		HashSet<ObjectId> nodeIds = new HashSet<>();
+		for (GridFSFile file : files) {
+			nodeIds.add((ObjectId) file.getMetadata().get("nodeId"));
+		}
+
+		// the grid IDs held by each of the nodes that still exist
+		HashMap<ObjectId, HashSet<String>> binsOfNode = new HashMap<>();
+		Query q = new Query(Criteria.where(SubNode.ID).in(nodeIds));
+		q.fields().include(SubNode.ATTACHMENTS);
+		for (Document doc : ops.find(q, Document.class, ops.getCollectionName(SubNode.class))) {
+			HashSet<String> bins = new HashSet<>();
+			Document atts = doc.get(SubNode.ATTACHMENTS, Document.class);
+			if (atts != null) {
+				for (Object val : atts.values()) {
+					if (val instanceof Document && ((Document) val).getString("bin") != null) {
+						bins.add(((Document) val).getString("bin"));
+					}
+				}
+			}
+			binsOfNode.put(doc.getObjectId(SubNode.ID), bins);
+		}
+
+		List<ObjectId> orphans = new LinkedList<>();
+		for (GridFSFile file : files) {
+			Document meta = file.getMetadata();
+			HashSet<String> bins = binsOfNode.get(meta.get("nodeId"));
+			String variantOf = meta.getString(ImageVariantService.VARIANT_OF);
+
+			if (bins == null || (variantOf != null && !bins.contains(variantOf))) {
+				log.debug("Grid Orphan Delete: " + file.getObjectId().toHexString());
+				orphans.add(file.getObjectId());
+			}
+		}
+
+		if (!orphans.isEmpty()) {
+			String bucket = gridBucket.getBucketName();
+			// chunks first, so an interrupted delete never leaves chunks without their file
+			ops.getCollection(bucket + ".chunks").deleteMany(Filters.in("files_id", orphans));
+			ops.getCollection(bucket + ".files").deleteMany(Filters.in("_id", orphans));
+		}
+		return orphans.size();
+	}
 }
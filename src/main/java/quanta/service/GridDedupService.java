@@ -0,0 +1,263 @@
+package quanta.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+import com.mongodb.DBObject;
+import com.mongodb.client.result.DeleteResult;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.mongo.model.GridRef;
+import quanta.mongo.model.SubNode;
+import quanta.util.DateUtil;
+import quanta.util.ExUtil;
+
+/**
+ * Stores each distinct attachment content in the grid only once.
+ *
+ * We hash (SHA-256) the content as it's uploaded, and the 'gridRef' collection maps each hash to the
+ * grid file holding that content and a count of the attachments pointing to it. An upload of content
+ * that's already there just adds a reference to the existing file. Content up to BUFFER_SIZE is
+ * hashed before it's written so a duplicate never gets written at all. Bigger content is hashed while
+ * it streams into the grid, and the new file is deleted again if it turns out to be a duplicate.
+ * Deleting an attachment drops its reference (see release), and the file goes once none are left.
+ *
+ * Nodes deleted in bulk (whole subgraphs, old ActivityPub posts) don't release their attachments, so
+ * the grid maintenance scan corrects the counts from the nodes themselves (see reconcile). Grid files
+ * stored before this have no gridRef, and are still owned by the one node in their metadata.
+ */
+@Component
+@Slf4j
+public class GridDedupService extends ServiceBase {
+	// content up to this size is hashed before it's stored, so duplicates of it never get written
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	// reconcile leaves alone counts that changed this recently, since an upload may not have saved its node yet
+	private static final long RECONCILE_GRACE_MILLIS = DateUtil.HOUR_MILLIS;
+
+	private final AtomicLong uniqueUploads = new AtomicLong();
+	private final AtomicLong uniqueNanos = new AtomicLong();
+	private final AtomicLong duplicateUploads = new AtomicLong();
+	private final AtomicLong duplicateNanos = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	/*
+	 * Stores the content of 'stream' in the grid, unless the same content is already there, and returns
+	 * the ID of the grid file holding it, with a reference added for the caller.
+	 */
+	public String store(InputStream stream, String fileName, String mimeType, DBObject metaData) {
+		long start = System.nanoTime();
+		String id;
+		String newId = null;
+		long size;
+
+		try {
+			byte[] head = stream.readNBytes(BUFFER_SIZE + 1);
+			if (head.length <= BUFFER_SIZE) {
+				size = head.length;
+				String hash = DigestUtils.sha256Hex(head);
+				id = addRef(hash);
+				if (id == null) {
+					newId = attach.grid.store(new ByteArrayInputStream(head), fileName, mimeType, metaData).toString();
+					id = acquire(hash, newId, size);
+				}
+			} else {
+				MessageDigest digest = DigestUtils.getSha256Digest();
+				CountingInputStream is = new CountingInputStream(
+						new DigestInputStream(new SequenceInputStream(new ByteArrayInputStream(head), stream), digest));
+				newId = attach.grid.store(is, fileName, mimeType, metaData).toString();
+				size = is.getByteCount();
+				id = acquire(Hex.encodeHexString(digest.digest()), newId, size);
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapEx(e);
+		}
+
+		long nanos = System.nanoTime() - start;
+		if (id.equals(newId)) {
+			uniqueUploads.incrementAndGet();
+			uniqueNanos.addAndGet(nanos);
+		} else {
+			duplicateUploads.incrementAndGet();
+			duplicateNanos.addAndGet(nanos);
+			bytesSaved.addAndGet(size);
+			log.debug("Upload of " + size + " bytes is a duplicate of grid file " + id);
+		}
+		return id;
+	}
+
+	/*
+	 * Adds a reference to the grid file holding the content with this hash, if there is one, and
+	 * returns its ID
+	 */
+	private String addRef(String hash) {
+		Query q = new Query(Criteria.where(GridRef.ID).is(hash));
+		Update u = new Update().inc(GridRef.REFS, 1).set(GridRef.LAST_REF, new Date());
+		GridRef ref = ops.findAndModify(q, u, FindAndModifyOptions.options().returnNew(true), GridRef.class);
+		if (ref == null)
+			return null;
+		if (exists(ref.getGid()))
+			return ref.getGid();
+
+		// its file is gone somehow, so start over with a new one
+		ops.remove(new Query(Criteria.where(GridRef.ID).is(hash).and(GridRef.GID).is(ref.getGid())), GridRef.class);
+		return null;
+	}
+
+	/*
+	 * Adds a reference to the content with this hash we just stored as 'newId', or if someone else
+	 * already stored it, deletes ours and returns theirs.
+	 */
+	private String acquire(String hash, String newId, long size) {
+		Query q = new Query(Criteria.where(GridRef.ID).is(hash));
+		Update u = new Update().setOnInsert(GridRef.GID, newId).setOnInsert(GridRef.SIZE, size).inc(GridRef.REFS, 1)
+				.set(GridRef.LAST_REF, new Date());
+		FindAndModifyOptions options = FindAndModifyOptions.options().upsert(true).returnNew(true);
+
+		GridRef ref;
+		try {
+			ref = ops.findAndModify(q, u, options, GridRef.class);
+		} catch (DuplicateKeyException e) {
+			// someone else inserted it first, so now there's one to update
+			ref = ops.findAndModify(q, u, options, GridRef.class);
+		}
+
+		if (newId.equals(ref.getGid()))
+			return newId;
+
+		if (!exists(ref.getGid())) {
+			ops.updateFirst(new Query(Criteria.where(GridRef.ID).is(hash).and(GridRef.GID).is(ref.getGid())),
+					new Update().set(GridRef.GID, newId).set(GridRef.SIZE, size).set(GridRef.REFS, 1L), GridRef.class);
+			return newId;
+		}
+
+		attach.grid.delete(new Query(Criteria.where("_id").is(newId)));
+		return ref.getGid();
+	}
+
+	/* Drops a reference to the grid file, and deletes the file once nothing refers to it */
+	public void release(String binId) {
+		if (binId == null)
+			return;
+
+		GridRef ref = ops.findAndModify(new Query(Criteria.where(GridRef.GID).is(binId)), new Update().inc(GridRef.REFS, -1),
+				FindAndModifyOptions.options().returnNew(true), GridRef.class);
+
+		// stored before deduplication, so this was its only reference
+		if (ref == null) {
+			attach.grid.delete(new Query(Criteria.where("_id").is(binId)));
+			return;
+		}
+
+		if (ref.getRefs() > 0)
+			return;
+
+		// unless a reference was added since
+		DeleteResult res =
+				ops.remove(new Query(Criteria.where(GridRef.ID).is(ref.getId()).and(GridRef.REFS).lte(0)), GridRef.class);
+		if (res.getDeletedCount() > 0) {
+			attach.grid.delete(new Query(Criteria.where("_id").is(binId)));
+		}
+	}
+
+	private boolean exists(String binId) {
+		return attach.grid.findOne(new Query(Criteria.where("_id").is(binId))) != null;
+	}
+
+	/* IDs of all the grid files under reference counting */
+	public HashSet<String> getGids() {
+		HashSet<String> gids = new HashSet<>();
+		Query q = new Query();
+		q.fields().include(GridRef.GID);
+		try (CloseableIterator<GridRef> iter = ops.stream(q, GridRef.class)) {
+			iter.forEachRemaining(ref -> gids.add(ref.getGid()));
+		}
+		return gids;
+	}
+
+	/*
+	 * Sets the reference count of each of 'gids' to the number of attachments actually pointing to it,
+	 * deleting the files nothing points to. Returns the number of files deleted.
+	 */
+	public int reconcile(HashSet<String> gids) {
+		Date cutoff = new Date(System.currentTimeMillis() - RECONCILE_GRACE_MILLIS);
+		HashMap<String, Long> counts = new HashMap<>();
+
+		Query q = new Query(Criteria.where(SubNode.ATTACHMENTS).ne(null));
+		q.fields().include(SubNode.ATTACHMENTS);
+		try (CloseableIterator<Document> iter = ops.stream(q, Document.class, ops.getCollectionName(SubNode.class))) {
+			while (iter.hasNext()) {
+				Document doc = iter.next();
+				Document atts = doc.get(SubNode.ATTACHMENTS, Document.class);
+				if (atts == null)
+					continue;
+
+				for (Object val : atts.values()) {
+					if (!(val instanceof Document))
+						continue;
+					Document att = (Document) val;
+					String bin = att.getString("bin");
+					if (bin == null || !gids.contains(bin))
+						continue;
+
+					counts.merge(bin, 1L, Long::sum);
+				}
+			}
+		}
+
+		int delCount = 0;
+		try (CloseableIterator<GridRef> iter = ops.stream(new Query(), GridRef.class)) {
+			while (iter.hasNext()) {
+				GridRef ref = iter.next();
+				long actual = counts.getOrDefault(ref.getGid(), 0L);
+				if (actual == ref.getRefs() || (ref.getLastRef() != null && ref.getLastRef().after(cutoff)))
+					continue;
+
+				// only if nothing changed the count since we read it
+				Query refQuery = new Query(Criteria.where(GridRef.ID).is(ref.getId()).and(GridRef.REFS).is(ref.getRefs()));
+				if (actual == 0) {
+					if (ops.remove(refQuery, GridRef.class).getDeletedCount() > 0) {
+						log.debug("Grid Unreferenced Delete: " + ref.getGid());
+						attach.grid.delete(new Query(Criteria.where("_id").is(ref.getGid())));
+						delCount++;
+					}
+				} else {
+					log.debug("Grid Ref Count of " + ref.getGid() + " corrected from " + ref.getRefs() + " to " + actual);
+					ops.updateFirst(refQuery, new Update().set(GridRef.REFS, actual), GridRef.class);
+				}
+			}
+		}
+		return delCount;
+	}
+
+	public String getStatsReport() {
+		long unique = uniqueUploads.get();
+		long dups = duplicateUploads.get();
+		StringBuilder sb = new StringBuilder();
+		sb.append("\nGrid Dedup Stats:\n");
+		sb.append("Unique Uploads: " + unique + "\n");
+		sb.append("Duplicate Uploads: " + dups + "\n");
+		sb.append("Bytes Saved: " + bytesSaved.get() + "\n");
+		sb.append("Avg Unique Upload: " + (unique == 0 ? 0 : uniqueNanos.get() / unique / 1000) + "us\n");
+		sb.append("Avg Duplicate Upload: " + (dups == 0 ? 0 : duplicateNanos.get() / dups / 1000) + "us\n");
+		return sb.toString();
+	}
+}
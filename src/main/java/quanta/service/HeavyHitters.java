@@ -0,0 +1,112 @@
+package quanta.service;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Approximate counts of the most frequent strings in a stream, in bounded memory no matter how many
+ * distinct strings go by. A count-min sketch estimates the count of any string (never under, and
+ * only over by collisions), and a min-heap keeps the 'capacity' strings with the highest estimates
+ * seen so far, so adding is O(1) for the long tail and O(capacity) at worst for the heavy hitters.
+ *
+ * Strings are counted by their lower case form, and the first spelling seen is kept for display.
+ * Not thread safe.
+ */
+public class HeavyHitters {
+	static final int DEPTH = 4;
+	static final int WIDTH = 2048; // must be a power of 2
+
+	private final int capacity;
+	private final int[] sketch;
+	private final HashMap<String, WordStats> top = new HashMap<>();
+	private final PriorityQueue<WordStats> heap = new PriorityQueue<>((a, b) -> Long.compare(a.count, b.count));
+
+	public HeavyHitters(int capacity) {
+		this.capacity = capacity;
+		this.sketch = new int[DEPTH * WIDTH];
+	}
+
+	/* Counts 'word' 'count' more times */
+	public void add(String word, long count) {
+		String key = word.toLowerCase();
+		long est = Long.MAX_VALUE;
+		int h1 = key.hashCode();
+		int h2 = mix(h1);
+		for (int row = 0; row < DEPTH; row++) {
+			int idx = row * WIDTH + ((h1 + row * h2) & (WIDTH - 1));
+			sketch[idx] = (int) Math.min(Integer.MAX_VALUE, sketch[idx] + count);
+			est = Math.min(est, sketch[idx]);
+		}
+
+		WordStats ws = top.get(key);
+		if (ws != null) {
+			heap.remove(ws);
+			ws.count = est;
+			heap.add(ws);
+			return;
+		}
+
+		if (top.size() >= capacity) {
+			if (est <= heap.peek().count) {
+				return;
+			}
+			top.remove(heap.poll().word.toLowerCase());
+		}
+		ws = new WordStats(word);
+		ws.count = est;
+		top.put(key, ws);
+		heap.add(ws);
+	}
+
+	/* Estimated number of times 'word' was added */
+	public long estimate(String word) {
+		String key = word.toLowerCase();
+		long est = Long.MAX_VALUE;
+		int h1 = key.hashCode();
+		int h2 = mix(h1);
+		for (int row = 0; row < DEPTH; row++) {
+			est = Math.min(est, sketch[row * WIDTH + ((h1 + row * h2) & (WIDTH - 1))]);
+		}
+		return est;
+	}
+
+	/* The current heavy hitters, in no particular order */
+	public Collection<WordStats> getTop() {
+		return top.values();
+	}
+
+	// second hash derived from the first (murmur3 finalizer), for double hashing the rows
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h | 1;
+	}
+
+	public byte[] getSketchBytes() {
+		ByteBuffer buf = ByteBuffer.allocate(sketch.length * 4);
+		buf.asIntBuffer().put(sketch);
+		return buf.array();
+	}
+
+	/* Restores the state saved with getSketchBytes and getTop */
+	public void restore(byte[] sketchBytes, Collection<WordStats> topList) {
+		if (sketchBytes != null && sketchBytes.length == sketch.length * 4) {
+			ByteBuffer.wrap(sketchBytes).asIntBuffer().get(sketch);
+		}
+		top.clear();
+		heap.clear();
+		if (topList != null) {
+			for (WordStats ws : topList) {
+				if (top.size() >= capacity)
+					break;
+				top.put(ws.word.toLowerCase(), ws);
+				heap.add(ws);
+			}
+		}
+	}
+}
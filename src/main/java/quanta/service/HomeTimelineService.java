@@ -0,0 +1,227 @@
+package quanta.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.NodeName;
+import quanta.config.NodePath;
+import quanta.config.ServiceBase;
+import quanta.model.client.NodeProp;
+import quanta.model.client.NodeType;
+import quanta.mongo.MongoRepository;
+import quanta.mongo.MongoSession;
+import quanta.mongo.model.HomeTimeline;
+import quanta.mongo.model.SubNode;
+import quanta.util.ExUtil;
+
+/**
+ * Materialized "from friends" feeds (fan-out on write). Rather than every poll and page of a user's
+ * friends feed querying for posts owned by any of everyone they follow, each user gets a HomeTimeline
+ * of the newest posts of the people they follow, which every save of a post adds itself to. The feed
+ * query is then just those node IDs.
+ *
+ * A timeline is built the first time the user reads their friends feed, and thrown away whenever
+ * they follow or unfollow someone (any save or delete of one of their FRIEND nodes), to be built
+ * again on the next read. Users who follow more than
+ * 'timelineMaxFollows' accounts (or everyone, when that's 0) keep querying the friends feed the old
+ * way (fan-out on read).
+ */
+@Component
+@Slf4j
+public class HomeTimelineService extends ServiceBase {
+	// most posts held per timeline. Paging past these ends the feed.
+	public static final int MAX_ITEMS = 1000;
+
+	// the node types the feed shows (see UserFeedService.generateFeed)
+	private static final List<String> FEED_TYPES = List.of(NodeType.NONE.s(), NodeType.COMMENT.s(), NodeType.NOSTR_ENC_DM.s());
+
+	/*
+	 * Returns the node IDs (newest first) the friends feed of the user with account node 'accountId' is
+	 * made of, or null if that user's feed must be queried from their friends list instead. 'ms' must
+	 * be that user's session.
+	 */
+	public List<ObjectId> getTimeline(MongoSession ms, ObjectId accountId) {
+		if (prop.getTimelineMaxFollows() <= 0)
+			return null;
+
+		HomeTimeline timeline = ops.findById(accountId, HomeTimeline.class);
+		if (timeline == null) {
+			return build(ms, accountId);
+		}
+		if (Boolean.TRUE.equals(timeline.getFanOutOnRead()))
+			return null;
+
+		// an edited post can be in there twice for a moment, if it was fanned out while being built
+		LinkedHashSet<ObjectId> ids = new LinkedHashSet<>();
+		if (timeline.getItems() != null) {
+			for (HomeTimeline.Item item : timeline.getItems()) {
+				ids.add(item.getNodeId());
+			}
+		}
+		return new ArrayList<>(ids);
+	}
+
+	/*
+	 * Creates the (empty) timeline first, so posts saved while we query for the ones already there get
+	 * fanned out into it, then fills it in.
+	 */
+	private List<ObjectId> build(MongoSession ms, ObjectId accountId) {
+		List<ObjectId> friendIds = new ArrayList<>();
+		List<SubNode> friendNodes = user.getSpecialNodesList(ms, null, NodeType.FRIEND_LIST.s(), null, true, null);
+		if (friendNodes != null) {
+			for (SubNode friendNode : friendNodes) {
+				String userNodeId = friendNode.getStr(NodeProp.USER_NODE_ID);
+				if (userNodeId != null && ObjectId.isValid(userNodeId)) {
+					friendIds.add(new ObjectId(userNodeId));
+				}
+			}
+		}
+
+		// nothing to materialize, and the feed query has no friends criteria at all in this case
+		if (friendIds.isEmpty())
+			return null;
+
+		Query tlQuery = new Query(Criteria.where(HomeTimeline.ID).is(accountId));
+		if (friendIds.size() > prop.getTimelineMaxFollows()) {
+			ops.upsert(tlQuery, new Update().set(HomeTimeline.FAN_OUT_ON_READ, true), HomeTimeline.class);
+			return null;
+		}
+		ops.upsert(tlQuery, new Update().setOnInsert(HomeTimeline.ITEMS, new ArrayList<>()), HomeTimeline.class);
+
+		Query q = new Query(Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(NodePath.USERS_PATH)) //
+				.and(SubNode.OWNER).in(friendIds) //
+				.and(SubNode.TYPE).in(FEED_TYPES) //
+				.and(SubNode.NAME).ne(NodeName.HOME));
+		q.with(Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME));
+		q.limit(MAX_ITEMS);
+		q.fields().include(SubNode.ID).include(SubNode.MODIFY_TIME);
+
+		List<ObjectId> ids = new ArrayList<>();
+		List<Document> items = new ArrayList<>();
+		for (Document doc : ops.find(q, Document.class, ops.getCollectionName(SubNode.class))) {
+			ids.add(doc.getObjectId(SubNode.ID));
+			items.add(item(doc.getObjectId(SubNode.ID), doc.getDate(SubNode.MODIFY_TIME)));
+		}
+		if (items.size() > 0) {
+			ops.updateFirst(tlQuery, push(items), HomeTimeline.class);
+		}
+		log.debug("Home timeline built for " + accountId.toHexString() + ": " + items.size() + " posts of " + friendIds.size()
+				+ " friends");
+		return ids;
+	}
+
+	/* Called after every save of a node, to fan out posts and to notice follows */
+	public void saveNotify(SubNode node) {
+		if (!MongoRepository.fullInit || node == null || node.getOwner() == null || prop.getTimelineMaxFollows() <= 0)
+			return;
+
+		if (NodeType.FRIEND.s().equals(node.getType())) {
+			invalidate(node.getOwner());
+			return;
+		}
+
+		if (node.getPath() == null || !node.getPath().startsWith(NodePath.USERS_PATH + "/") || node.getModifyTime() == null
+				|| !FEED_TYPES.contains(node.getType()) || NodeName.HOME.equals(node.getName()))
+			return;
+
+		ObjectId nodeId = node.getId();
+		ObjectId ownerId = node.getOwner();
+		Date time = node.getModifyTime();
+		exec.run(() -> {
+			try {
+				fanOut(nodeId, ownerId, time);
+			} catch (Exception e) {
+				ExUtil.error(log, "Failed fanning out " + nodeId.toHexString(), e);
+			}
+		});
+	}
+
+	/* Called before a node is deleted, since deleting a FRIEND node (or a friends list) is an unfollow */
+	public void deleteNotify(SubNode node) {
+		if (node != null && (NodeType.FRIEND.s().equals(node.getType()) || NodeType.FRIEND_LIST.s().equals(node.getType()))) {
+			invalidate(node.getOwner());
+		}
+	}
+
+	/* Same as deleteNotify(SubNode) for all the nodes matching 'crit', which are about to be deleted */
+	public void deleteNotify(Criteria crit) {
+		Query q = new Query(crit).addCriteria(Criteria.where(SubNode.TYPE).in(NodeType.FRIEND.s(), NodeType.FRIEND_LIST.s()));
+		q.fields().include(SubNode.OWNER);
+
+		HashSet<ObjectId> owners = new HashSet<>();
+		for (Document doc : ops.find(q, Document.class, ops.getCollectionName(SubNode.class))) {
+			owners.add(doc.getObjectId(SubNode.OWNER));
+		}
+		owners.forEach(this::invalidate);
+	}
+
+	/*
+	 * Adds the post to the timelines of everyone following its owner that has one, or just updates its
+	 * time where it's already there.
+	 */
+	private void fanOut(ObjectId nodeId, ObjectId ownerId, Date time) {
+		Query q = new Query(Criteria.where(SubNode.PROPS + "." + NodeProp.USER_NODE_ID.s()).is(ownerId.toHexString()) //
+				.and(SubNode.TYPE).is(NodeType.FRIEND.s()));
+		q.fields().include(SubNode.OWNER).include(SubNode.PARENT_PATH);
+
+		HashMap<String, List<ObjectId>> ownersByParent = new HashMap<>();
+		for (Document doc : ops.find(q, Document.class, ops.getCollectionName(SubNode.class))) {
+			String parentPath = doc.getString(SubNode.PARENT_PATH);
+			if (parentPath != null) {
+				ownersByParent.computeIfAbsent(parentPath, k -> new ArrayList<>()).add(doc.getObjectId(SubNode.OWNER));
+			}
+		}
+		if (ownersByParent.isEmpty())
+			return;
+
+		// FRIEND nodes are also used for blocked users, so only those in a friends list are followers
+		Query listQuery = new Query(Criteria.where(SubNode.PATH).in(ownersByParent.keySet()) //
+				.and(SubNode.TYPE).is(NodeType.FRIEND_LIST.s()));
+		listQuery.fields().include(SubNode.PATH);
+
+		HashSet<ObjectId> followers = new HashSet<>();
+		for (Document doc : ops.find(listQuery, Document.class, ops.getCollectionName(SubNode.class))) {
+			followers.addAll(ownersByParent.get(doc.getString(SubNode.PATH)));
+		}
+		if (followers.isEmpty())
+			return;
+
+		String itemNodeId = HomeTimeline.ITEMS + "." + HomeTimeline.Item.NODE_ID;
+		ops.updateMulti(new Query(Criteria.where(HomeTimeline.ID).in(followers).and(itemNodeId).is(nodeId)), //
+				new Update().set(HomeTimeline.ITEMS + ".$." + HomeTimeline.Item.TIME, time), HomeTimeline.class);
+
+		ops.updateMulti(new Query(Criteria.where(HomeTimeline.ID).in(followers).and(itemNodeId).ne(nodeId) //
+				.and(HomeTimeline.FAN_OUT_ON_READ).ne(true)), //
+				push(List.of(item(nodeId, time))), HomeTimeline.class);
+	}
+
+	// adds 'items' keeping the list newest first and capped at MAX_ITEMS
+	private Update push(List<Document> items) {
+		return new Update().push(HomeTimeline.ITEMS) //
+				.sort(Sort.by(Sort.Direction.DESC, HomeTimeline.Item.TIME)) //
+				.slice(MAX_ITEMS) //
+				.each(items.toArray());
+	}
+
+	private Document item(ObjectId nodeId, Date time) {
+		return new Document(HomeTimeline.Item.NODE_ID, nodeId).append(HomeTimeline.Item.TIME, time);
+	}
+
+	/* Drops the user's timeline, after a change to who they follow, so the next read builds it again */
+	public void invalidate(ObjectId accountId) {
+		if (accountId != null) {
+			ops.remove(new Query(Criteria.where(HomeTimeline.ID).is(accountId)), HomeTimeline.class);
+		}
+	}
+}
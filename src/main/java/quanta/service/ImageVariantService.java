@@ -0,0 +1,199 @@
+package quanta.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.result.UpdateResult;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.model.client.Attachment;
+import quanta.mongo.model.SubNode;
+import quanta.util.ExUtil;
+import quanta.util.ImageUtil;
+
+/**
+ * Makes downscaled copies of uploaded images, so pages showing them small (feeds, timelines, the
+ * editor) don't have to download the full size originals.
+ *
+ * After an image is stored in the grid we decode it (once) in the background, scale it down to each
+ * of WIDTHS, and store each copy as a grid file of its own. The copies are listed in the attachment's
+ * 'variants' (width -> grid ID), and a request for the binary can ask for a width ('w' param) to get
+ * the smallest copy at least that wide (see pick). Copies are only kept when they're narrower and
+ * smaller than the original, and are deleted with it.
+ *
+ * getStatsReport shows the bytes of images served as originals and as copies, and the CPU time it
+ * takes to make the copies.
+ */
+@Component
+@Slf4j
+public class ImageVariantService extends ServiceBase {
+	// largest first, since each is scaled from the one before
+	public static final int[] WIDTHS = {1024, 480, 160};
+
+	// grid metadata of a copy, holding the grid ID of the original
+	public static final String VARIANT_OF = "variantOf";
+
+	// animated GIFs would lose their animation, and SVGs don't need it
+	private static final Set<String> MIME_TYPES = Set.of("image/jpeg", "image/jpg", "image/png", "image/bmp");
+
+	private final AtomicLong imagesProcessed = new AtomicLong();
+	private final AtomicLong variantsStored = new AtomicLong();
+	private final AtomicLong cpuNanos = new AtomicLong();
+	private final AtomicLong originalBytesServed = new AtomicLong();
+	private final AtomicLong variantBytesServed = new AtomicLong();
+
+	/* Makes the copies of the image attached to the node as 'binId' in the background */
+	public void generateLater(ObjectId nodeId, String binId, String mimeType) {
+		if (nodeId == null || binId == null || mimeType == null || !MIME_TYPES.contains(mimeType.toLowerCase()))
+			return;
+		exec.run(() -> generate(nodeId, binId));
+	}
+
+	private void generate(ObjectId nodeId, String binId) {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		long startCpu = threadBean.getCurrentThreadCpuTime();
+		long startTime = System.currentTimeMillis();
+		HashMap<String, String> variants = new HashMap<>();
+
+		try {
+			GridFSFile file = attach.grid.findOne(new Query(Criteria.where("_id").is(binId)));
+			if (file == null)
+				return;
+
+			BufferedImage img;
+			try (InputStream is = attach.gridBucket.openDownloadStream(file.getObjectId())) {
+				img = ImageUtil.read(is, WIDTHS[0]);
+			}
+			if (img == null)
+				return;
+
+			for (int width : WIDTHS) {
+				if (img.getWidth() <= width)
+					continue;
+
+				img = ImageUtil.scaleImage(img, width);
+				byte[] bytes = ImageUtil.encode(img);
+
+				// no use in a copy bigger than the original (which can happen re-encoding a small PNG as JPEG)
+				if (bytes.length >= file.getLength())
+					continue;
+
+				String mime = bytes[0] == (byte) 0xFF ? "image/jpeg" : "image/png";
+				DBObject metaData = new BasicDBObject();
+				metaData.put("nodeId", nodeId);
+				metaData.put(VARIANT_OF, binId);
+				metaData.put("width", width);
+				String id = attach.grid.store(new ByteArrayInputStream(bytes), file.getFilename(), mime, metaData).toString();
+				variants.put(String.valueOf(width), id);
+			}
+
+			if (variants.isEmpty() || !setVariants(nodeId, binId, variants)) {
+				// the node (or that attachment) is gone, or had its binary replaced while we worked
+				deleteVariants(variants);
+				variants.clear();
+			}
+		} catch (Exception e) {
+			ExUtil.error(log, "Failed making image variants of " + binId, e);
+			deleteVariants(variants);
+			variants.clear();
+		} finally {
+			long cpu = threadBean.getCurrentThreadCpuTime() - startCpu;
+			imagesProcessed.incrementAndGet();
+			variantsStored.addAndGet(variants.size());
+			cpuNanos.addAndGet(cpu);
+			log.debug("Image variants of " + binId + ": " + variants.keySet() + " in " + (System.currentTimeMillis() - startTime)
+					+ "ms, cpu " + (cpu / 1000000) + "ms");
+		}
+	}
+
+	/*
+	 * Sets the variants on whichever attachment of the node still holds 'binId', returning false if
+	 * none does
+	 */
+	private boolean setVariants(ObjectId nodeId, String binId, HashMap<String, String> variants) {
+		return arun.run(as -> {
+			SubNode node = read.getNode(as, nodeId);
+			if (node == null || node.getAttachments() == null)
+				return false;
+
+			for (String key : node.getAttachments().keySet()) {
+				Attachment att = node.getAttachments().get(key);
+				if (!binId.equals(att.getBin()))
+					continue;
+
+				String attPath = SubNode.ATTACHMENTS + "." + key;
+				Query q = new Query(Criteria.where(SubNode.ID).is(nodeId).and(attPath + ".bin").is(binId));
+				UpdateResult res = ops.updateFirst(q, new Update().set(attPath + ".variants", variants), SubNode.class);
+				nodeCache.remove(nodeId);
+				return res.getModifiedCount() > 0;
+			}
+			return false;
+		});
+	}
+
+	/* Deletes the grid files of the copies, leaving the attachment itself alone */
+	public void deleteVariants(Attachment att) {
+		if (att != null && att.getVariants() != null) {
+			deleteVariants(att.getVariants());
+		}
+	}
+
+	private void deleteVariants(HashMap<String, String> variants) {
+		for (String id : variants.values()) {
+			attach.grid.delete(new Query(Criteria.where("_id").is(id)));
+		}
+	}
+
+	/*
+	 * Returns the grid ID of the smallest copy of the image at least 'width' wide, or null if the
+	 * original is what to send
+	 */
+	public String pick(Attachment att, Integer width) {
+		if (width == null || width <= 0 || att.getVariants() == null)
+			return null;
+
+		String ret = null;
+		int retWidth = Integer.MAX_VALUE;
+		for (String key : att.getVariants().keySet()) {
+			int variantWidth = Integer.parseInt(key);
+			if (variantWidth >= width && variantWidth < retWidth) {
+				ret = att.getVariants().get(key);
+				retWidth = variantWidth;
+			}
+		}
+		return ret;
+	}
+
+	public void countServed(Attachment att, boolean variant, long bytes) {
+		if (variant) {
+			variantBytesServed.addAndGet(bytes);
+		} else if (ImageUtil.isImageMime(att.getMime())) {
+			originalBytesServed.addAndGet(bytes);
+		}
+	}
+
+	public String getStatsReport() {
+		long images = imagesProcessed.get();
+		StringBuilder sb = new StringBuilder();
+		sb.append("\nImage Variant Stats:\n");
+		sb.append("Images Processed: " + images + "\n");
+		sb.append("Variants Stored: " + variantsStored.get() + "\n");
+		sb.append("CPU per Image: " + (images == 0 ? 0 : cpuNanos.get() / images / 1000000) + "ms\n");
+		sb.append("Original Image Bytes Served: " + originalBytesServed.get() + "\n");
+		sb.append("Variant Image Bytes Served: " + variantBytesServed.get() + "\n");
+		return sb.toString();
+	}
+}
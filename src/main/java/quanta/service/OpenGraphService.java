@@ -1,59 +1,175 @@
 package quanta.service;
 
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.PreDestroy;
 import org.apache.commons.collections4.map.LRUMap;
+import org.apache.commons.lang3.StringUtils;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
 import quanta.config.ServiceBase;
+import quanta.model.client.Constant;
 import quanta.model.client.OpenGraph;
+import quanta.mongo.MongoRepository;
+import quanta.mongo.model.OpenGraphEntry;
 import quanta.request.GetOpenGraphRequest;
 import quanta.response.GetOpenGraphResponse;
+import quanta.util.DateUtil;
+import quanta.util.ExUtil;
 
+/**
+ * Fetches and caches the OpenGraph data of the links in posts, for the browser to render previews.
+ *
+ * Lookups go to an in-memory LRU cache, then to the 'openGraph' collection (so restarts don't lose
+ * what we've fetched), and only then to the site itself. Concurrent lookups of the same URL share a
+ * single fetch: when a popular post loads in many browsers at once the first request fetches and the
+ * rest wait for its result. Results expire after OK_TTL, or FAILED_TTL for URLs we couldn't get
+ * anything from, and then get fetched again on the next lookup.
+ *
+ * Saving a node (or receiving one over ActivityPub from an account someone here follows) prefetches
+ * its links in the background (see prefetch), so usually the data is ready before any browser asks
+ * for it. Prefetches get a couple of threads of their own, and are dropped rather than queued up when
+ * those fall behind, since each can block for FETCH_TIMEOUT_MILLIS and we don't want a busy inbox
+ * holding up the shared executor.
+ */
 @Component
 @Slf4j
 public class OpenGraphService extends ServiceBase {
-	public final LRUMap<String, OpenGraph> ogCache = new LRUMap(1000);
+	private static final long OK_TTL = DateUtil.DAY_MILLIS;
+	private static final long FAILED_TTL = DateUtil.HOUR_MILLIS;
+
+	private static final int FETCH_TIMEOUT_MILLIS = 15000;
+
+	// how long a lookup waits for another thread's fetch of the same URL
+	private static final long WAIT_MILLIS = 30000;
+
+	// most links per node we prefetch
+	private static final int MAX_PREFETCH = 5;
+
+	private static final int PREFETCH_THREADS = 2;
+
+	// most nodes waiting to be prefetched, beyond which we drop them
+	private static final int PREFETCH_QUEUE = 100;
+
+	private static final Pattern URL_PATTERN = Pattern.compile("https?://[^\\s<>\"'()\\[\\]]+");
+
+	private final LRUMap<String, OpenGraphEntry> ogCache = new LRUMap<>(1000);
+
+	// URL -> the fetch in progress for it
+	private final ConcurrentHashMap<String, CompletableFuture<OpenGraph>> inFlight = new ConcurrentHashMap<>();
+
+	private final AtomicLong prefetchesDropped = new AtomicLong();
+	private ThreadPoolExecutor prefetcher;
 
 	public static final String BROWSER_USER_AGENT =
 			"Browser: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.114 Safari/537.36";
 
 	public GetOpenGraphResponse getOpenGraph(GetOpenGraphRequest ogReq) {
 		GetOpenGraphResponse res = new GetOpenGraphResponse();
-		OpenGraph openGraph = null;
+		res.setOpenGraph(getOpenGraph(ogReq.getUrl()));
+		return res;
+	}
+
+	/* Returns the OpenGraph data for the URL, which will only have the mime if it had none */
+	public OpenGraph getOpenGraph(String url) {
+		OpenGraphEntry entry = getCached(url);
+		if (entry != null)
+			return entry.getOpenGraph();
+
+		CompletableFuture<OpenGraph> fetch = new CompletableFuture<>();
+		CompletableFuture<OpenGraph> running = inFlight.putIfAbsent(url, fetch);
+
+		// someone else is already fetching it
+		if (running != null) {
+			try {
+				return running.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (Exception e) {
+				log.debug("Gave up waiting for OpenGraph of " + url);
+				return null;
+			}
+		}
 
-		// if the url is cached (even if null) then return whatever's in the cache
+		try {
+			OpenGraph openGraph = load(url);
+			fetch.complete(openGraph);
+			return openGraph;
+		} catch (RuntimeException e) {
+			fetch.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(url, fetch);
+		}
+	}
+
+	private OpenGraphEntry getCached(String url) {
 		synchronized (ogCache) {
-			if (ogCache.containsKey(ogReq.getUrl())) {
-				openGraph = ogCache.get(ogReq.getUrl());
-				res.setOpenGraph(openGraph);
-				return res;
+			OpenGraphEntry entry = ogCache.get(url);
+			if (entry != null && entry.getExpires().getTime() > System.currentTimeMillis()) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/* Only ever runs once at a time per URL (see getOpenGraph) */
+	private OpenGraph load(String url) {
+		// a fetch may have just finished between our cache check and our starting this one
+		OpenGraphEntry entry = getCached(url);
+		if (entry != null)
+			return entry.getOpenGraph();
+
+		entry = ops.findById(url, OpenGraphEntry.class);
+		if (entry == null || entry.getExpires() == null || entry.getExpires().getTime() <= System.currentTimeMillis()) {
+			entry = fetch(url);
+			try {
+				ops.save(entry);
+			} catch (Exception e) {
+				ExUtil.error(log, "Failed saving OpenGraph of " + url, e);
 			}
 		}
 
+		synchronized (ogCache) {
+			ogCache.put(url, entry);
+		}
+		return entry.getOpenGraph();
+	}
+
+	private OpenGraphEntry fetch(String url) {
+		OpenGraph openGraph;
+		boolean ok;
 		try {
-			openGraph = parseOpenGraph(ogReq.getUrl());
+			openGraph = parseOpenGraph(url);
+			ok = !StringUtils.isAllEmpty(openGraph.getTitle(), openGraph.getDescription(), openGraph.getImage());
 		} catch (Exception e) {
-			String mime = attach.getMimeTypeFromUrl(ogReq.getUrl());
+			String mime = attach.getMimeTypeFromUrl(url);
 			openGraph = new OpenGraph();
 			openGraph.setMime(mime);
+			ok = false;
 		}
 
-		// we allow storing a null if we got back a null. Cache it so we don't try again.
-		synchronized (ogCache) {
-			ogCache.put(ogReq.getUrl(), openGraph);
-		}
-
-		res.setOpenGraph(openGraph);
-		return res;
+		long expires = System.currentTimeMillis() + (ok ? OK_TTL : FAILED_TTL);
+		return new OpenGraphEntry(url, openGraph, new Date(expires));
 	}
 
 	public OpenGraph parseOpenGraph(String urlStr) throws Exception {
 		// log.debug("JSoup parsing URL: " + urlStr);
 		OpenGraph openGraph = new OpenGraph();
 		Connection con = Jsoup.connect(urlStr);
+		con.timeout(FETCH_TIMEOUT_MILLIS);
 
 		/*
 		 * this browseragent thing is important to trick servers into sending us the LARGEST versions of the
@@ -90,4 +206,93 @@ public class OpenGraphService extends ServiceBase {
 		Elements elm = doc.select("meta[property=" + prop + "]");
 		return elm != null ? elm.attr("content") : null;
 	}
+
+	/* Fetches (in the background) the OpenGraph data of the links in 'content' we don't have yet */
+	public void prefetch(String content) {
+		if (!MongoRepository.fullInit || StringUtils.isEmpty(content) || content.startsWith(Constant.ENC_TAG.s()))
+			return;
+
+		LinkedHashSet<String> urls = new LinkedHashSet<>();
+		for (String url : getLinks(content)) {
+			if (getCached(url) == null && !inFlight.containsKey(url)) {
+				urls.add(url);
+			}
+		}
+		if (urls.isEmpty())
+			return;
+
+		getPrefetcher().execute(() -> {
+			for (String url : urls) {
+				try {
+					getOpenGraph(url);
+				} catch (Exception e) {
+					ExUtil.error(log, "Failed prefetching OpenGraph of " + url, e);
+				}
+			}
+		});
+	}
+
+	private synchronized ThreadPoolExecutor getPrefetcher() {
+		if (prefetcher == null) {
+			AtomicInteger threadNum = new AtomicInteger();
+			prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(PREFETCH_QUEUE), runnable -> {
+						Thread t = new Thread(runnable, "og-prefetch-" + threadNum.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}, (runnable, executor) -> {
+						if (prefetchesDropped.incrementAndGet() % 100 == 1) {
+							log.debug("OpenGraph prefetch queue full, dropped: " + prefetchesDropped.get());
+						}
+					});
+			prefetcher.allowCoreThreadTimeOut(true);
+		}
+		return prefetcher;
+	}
+
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (prefetcher != null) {
+			prefetcher.shutdownNow();
+		}
+	}
+
+	/*
+	 * Returns the links in the content the browser will ask for OpenGraph data of, normalized the same
+	 * way (see NodeCompMarkdown.ts): the hrefs of HTML content other than mentions and hashtags, or the
+	 * bare URLs of markdown (not named links or list items).
+	 */
+	public LinkedHashSet<String> getLinks(String content) {
+		LinkedHashSet<String> urls = new LinkedHashSet<>();
+
+		if (content.contains("<a ")) {
+			for (Element a : Jsoup.parse(content).select("a[href]")) {
+				if (a.hasClass("mention") || a.hasClass("hashtag") || a.hasClass("u-url") || a.hasClass("nostr-note"))
+					continue;
+				String href = a.attr("href").trim();
+				if (href.startsWith("http://") || href.startsWith("https://")) {
+					addLink(urls, content, href);
+				}
+			}
+		} else {
+			Matcher matcher = URL_PATTERN.matcher(content);
+			while (matcher.find()) {
+				// trailing punctuation ends the sentence, not the url
+				addLink(urls, content, StringUtils.stripEnd(matcher.group(), ".,;:!?"));
+			}
+		}
+		return urls;
+	}
+
+	private void addLink(LinkedHashSet<String> urls, String content, String href) {
+		if (urls.size() >= MAX_PREFETCH)
+			return;
+
+		href = StringUtils.removeEnd(href, "/");
+		String hrefWithSlash = href;
+		href = href.replace("/?", "?");
+		if (content.contains("(" + href + ")") || content.contains("* " + href) || content.contains("* " + hrefWithSlash))
+			return;
+		urls.add(href);
+	}
 }
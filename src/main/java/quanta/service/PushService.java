@@ -1,6 +1,9 @@
 package quanta.service;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
@@ -10,12 +13,15 @@ import quanta.config.ServiceBase;
 import quanta.config.SessionContext;
 import quanta.instrument.PerfMon;
 import quanta.model.NodeInfo;
+import quanta.model.client.NodeProp;
+import quanta.model.client.PrincipalName;
 import quanta.mongo.MongoSession;
 import quanta.mongo.model.SubNode;
 import quanta.response.FeedPushInfo;
 import quanta.response.NodeEditedPushInfo;
 import quanta.response.ServerPushInfo;
 import quanta.util.Convert;
+import quanta.util.ConvertBatch;
 
 @Component
 @Slf4j 
@@ -35,48 +41,28 @@ public class PushService extends ServiceBase {
 				return;
 			}
 
-			// put user names in a hash set for faster performance
-			HashSet<String> usersSharedToSet = new HashSet<>();
-			usersSharedToSet.addAll(usersSharedTo);
-
-			/* Scan all sessions and push message to the ones that need to see it */
-			for (SessionContext sc : SessionContext.getAllSessions(true, false)) {
-				// if we know we already just pushed to this session, we can skip it in here.
-				if (sessionsPushed != null && sessionsPushed.contains(sc.hashCode())) {
-					// log.debug("Skipping push: " + sc.hashCode() + " to " + sc.getUserName());
-					continue;
-				}
+			/*
+			 * push to the sessions of the users in the shared set, and to the sessions of the node owner
+			 * 
+			 * Having "public" option here (pushing public nodes to everyone) floods in too many messages to be
+			 * practical, becuase the ActivityPub deamon that reads messages pushes them. Handling that firehose
+			 * of posts is a cool feature but will take some time to think thru the usability issues, so for now
+			 * we only live-push messages to the browser that created them (the guy who did the save), and the
+			 * people a node is specifically shared to.
+			 */
+			HashSet<String> userNames = new HashSet<>(usersSharedTo);
+			userNames.remove(PrincipalName.PUBLIC.s());
+			SubNode ownerNode = read.getNode(ms, node.getOwner());
+			if (ownerNode != null && ownerNode.getStr(NodeProp.USER) != null) {
+				userNames.add(ownerNode.getStr(NodeProp.USER));
+			}
 
-				/* Anonymous sessions won't have userName and can be ignored */
-				if (sc.getUserName() == null)
-					continue;
-
-				/*
-				 * push if the sc user is in the shared set or this session is OURs
-				 * 
-				 * Having "public" option here (pushing public nodes to everyone) floods in too many messages to be
-				 * practical, becuase the ActivityPub deamon that reads messages pushes them. Handling that firehose
-				 * of posts is a cool feature but will take some time to think thru the usability issues, so for now
-				 * we only live-push messages to the browser that created them (the guy who did the save), and the
-				 * people a node is specifically shared to.
-				 */
-				if (sc.getRootId().equals(node.getOwner().toHexString()) || // node owned by this 'sc' user
-				// usersSharedToSet.contains("public") ||
-						usersSharedToSet.contains(sc.getUserName())) {
-					/* build our push message payload */
-					NodeInfo info = convert.convertToNodeInfo(false, sc, ms, node, false, //
-							Convert.LOGICAL_ORDINAL_IGNORE, false, false, true, //
-							false, true, true, null, false);
-
-					if (info != null) {
-						FeedPushInfo pushInfo = new FeedPushInfo(info);
-
-						// push notification message to browser
-						// log.debug("Pushing to user: " + sc.getUserName());
-						push.sendServerPushInfo(sc, pushInfo);
-					}
-				}
+			List<SessionContext> sessions = new LinkedList<>();
+			for (String userName : userNames) {
+				sessions.addAll(SessionContext.getIndex().getByUserName(userName));
 			}
+
+			pushNodeToSessions(ms, pushableSessions(sessions, sessionsPushed), node, null);
 		});
 	}
 
@@ -87,72 +73,115 @@ public class PushService extends ServiceBase {
 	 */
 	public void pushNodeToBrowsers(MongoSession ms, HashSet<Integer> sessionsPushed, SubNode node) {
 		// log.debug("Push to monitoring Browsers: node.content=" + node.getContent());
-		/* Scan all sessions and push message to the ones that need to see it */
-		for (SessionContext sc : SessionContext.getAllSessions(true, false)) {
-			/* Anonymous sessions won't have userName and can be ignored */
-			if (sc.getUserName() == null)
-				continue;
-
-			// log.debug("Pushing NODE to SessionContext: hashCode=" + sc.hashCode() + " user=" +
-			// sc.getUserName() + " token="
-			// + sc.getUserToken() + "\nJSON: " + XString.prettyPrint(node));
+		if (node.getPath() == null)
+			return;
 
-			// if this node starts with the 'watchingPath' of the user that means the node is a descendant of
-			// the watching path
-			if (node.getPath() != null && sc.getWatchingPath() != null && node.getPath().startsWith(sc.getWatchingPath())) {
+		List<SessionContext> sessions = pushableSessions(SessionContext.getIndex().getWatching(node.getPath()), null);
+		pushNodeToSessions(ms, sessions, node, sessionsPushed);
+	}
 
-				/* build our push message payload */
-				NodeInfo info = convert.convertToNodeInfo(false, sc, ms, node, false, Convert.LOGICAL_ORDINAL_IGNORE, false, false, true, false, true, true,
-						null, false);
-				if (info != null) {
-					FeedPushInfo pushInfo = new FeedPushInfo(info);
+	/*
+	 * Pushes 'node' to each of 'sessions'. The NodeInfo is built once per user rather than once per
+	 * session, since that's all it depends on. If 'sessionsPushed' is given we add every session we
+	 * push to into it.
+	 */
+	private void pushNodeToSessions(MongoSession ms, List<SessionContext> sessions, SubNode node,
+			HashSet<Integer> sessionsPushed) {
+		if (sessions.isEmpty())
+			return;
 
-					// push notification message to browser
-					sendServerPushInfo(sc, pushInfo);
+		// what conversion needs to look up is the same for every session, so it's done only once
+		ConvertBatch batch = convert.prefetch(ms, Collections.singletonList(node), false, true, true, null);
+		HashMap<String, FeedPushInfo> infoByUser = new HashMap<>();
 
-					if (sessionsPushed != null) {
-						sessionsPushed.add(sc.hashCode());
-					}
+		for (SessionContext sc : sessions) {
+			FeedPushInfo pushInfo = infoByUser.computeIfAbsent(sc.getUserName(), userName -> {
+				/* build our push message payload */
+				NodeInfo info = convert.convertToNodeInfo(false, sc, ms, node, false, //
+						Convert.LOGICAL_ORDINAL_IGNORE, false, false, true, //
+						false, true, true, null, false, batch);
+				return info != null ? new FeedPushInfo(info) : null;
+			});
+
+			if (pushInfo != null) {
+				// push notification message to browser
+				sendServerPushInfo(sc, pushInfo);
+
+				if (sessionsPushed != null) {
+					sessionsPushed.add(sc.hashCode());
 				}
 			}
 		}
 	}
 
-	/* Notify all browser timelines if they have new info */
-	public void pushTimelineUpdateToBrowsers(MongoSession ms, NodeInfo nodeInfo) {
-		/* Scan all sessions and push message to the ones that need to see it */
-		for (SessionContext sc : SessionContext.getAllSessions(true, false)) {
-			/* Anonymous sessions can be ignored */
-			if (sc.getUserName() == null)
+	/*
+	 * Filters 'sessions' the same way the old scan of all sessions did: live, logged in sessions only,
+	 * one per user token, and skipping any in 'skip'
+	 */
+	private List<SessionContext> pushableSessions(List<SessionContext> sessions, HashSet<Integer> skip) {
+		List<SessionContext> ret = new LinkedList<>();
+		HashSet<String> tokens = new HashSet<>();
+		for (SessionContext sc : sessions) {
+			/* Anonymous sessions won't have userName and can be ignored */
+			if (!sc.isLive() || sc.getUserName() == null || sc.getUserToken() == null)
 				continue;
 
-			/*
-			 * Nodes whose path starts with "timeline path", are subnodes of (or descendants of) the timeline
-			 * node and therefore will be sent to their respecitve browsers
-			 */
-			if (sc.getTimelinePath() == null || !nodeInfo.getPath().startsWith(sc.getTimelinePath())) {
+			// if we know we already just pushed to this session, we can skip it in here.
+			if (skip != null && skip.contains(sc.hashCode()))
 				continue;
+
+			if (tokens.add(sc.getUserToken())) {
+				ret.add(sc);
 			}
+		}
+		return ret;
+	}
+
+	/* Notify all browser timelines if they have new info */
+	public void pushTimelineUpdateToBrowsers(MongoSession ms, NodeInfo nodeInfo) {
+		/*
+		 * Nodes whose path starts with "timeline path", are subnodes of (or descendants of) the timeline
+		 * node and therefore will be sent to their respecitve browsers
+		 */
+		if (nodeInfo.getPath() == null)
+			return;
+
+		List<SessionContext> sessions = pushableSessions(SessionContext.getIndex().getTimelineWatching(nodeInfo.getPath()), null);
+		if (sessions.isEmpty())
+			return;
 
-			NodeEditedPushInfo pushInfo = new NodeEditedPushInfo(nodeInfo);
+		NodeEditedPushInfo pushInfo = new NodeEditedPushInfo(nodeInfo);
+		for (SessionContext sc : sessions) {
 			sendServerPushInfo(sc, pushInfo);
 		}
 	}
 
+	/*
+	 * Queues 'info' for the browser of 'sc'. Each session has its own bounded queue, drained by at most
+	 * one task at a time, so a slow browser only ever delays its own messages and never ties up more
+	 * than one thread. If the queue is full the browser isn't keeping up and the message is dropped.
+	 */
 	@PerfMon(category = "push")
 	public void sendServerPushInfo(SessionContext sc, ServerPushInfo info) {
 		// If user is currently logged in we have a session here.
 		if (sc == null)
 			return;
 
-		exec.run(() -> {
-			SseEmitter pushEmitter = sc.getPushEmitter();
+		if (!sc.getPushQueue().offer(info)) {
+			log.debug("Push queue full, dropping push to: " + sc.getUserName());
+			return;
+		}
 
-			/*
-			 * Note: Each session has it's own pushEmitter, so this will not be a bottleck, and is desirable
-			 * even probably to be sure each session is only doing one emit at a time.
-			 */
-			synchronized (pushEmitter) {
+		if (sc.getPushDraining().compareAndSet(false, true)) {
+			exec.run(() -> drainPushQueue(sc));
+		}
+	}
+
+	private void drainPushQueue(SessionContext sc) {
+		SseEmitter pushEmitter = sc.getPushEmitter();
+		while (true) {
+			ServerPushInfo info;
+			while ((info = sc.getPushQueue().poll()) != null) {
 				// log.debug("Pushing to User: " + sc.getUserName());
 				try {
 					SseEventBuilder event = SseEmitter.event() //
@@ -173,8 +202,15 @@ public class PushService extends ServiceBase {
 				} catch (Exception ex) {
 					log.error("FAILED Pushing to Session User: " + sc.getUserName());
 					pushEmitter.completeWithError(ex);
+					sc.getPushQueue().clear();
 				}
 			}
-		});
+
+			sc.getPushDraining().set(false);
+
+			// something may have been queued after our last poll but before we cleared the flag
+			if (sc.getPushQueue().isEmpty() || !sc.getPushDraining().compareAndSet(false, true))
+				return;
+		}
 	}
 }
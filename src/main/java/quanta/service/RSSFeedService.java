@@ -783,7 +783,7 @@ public class RSSFeedService extends ServiceBase {
 		feed.setEntries(entries);
 
 		if (AclService.isPublic(ms, node)) {
-			Criteria crit = Criteria.where(SubNode.AC + "." + PrincipalName.PUBLIC.s()).ne(null);
+			Criteria crit = Criteria.where(SubNode.READERS).is(PrincipalName.PUBLIC.s());
 			Iterable<SubNode> iter = read.getChildren(ms, node, Sort.by(Sort.Direction.ASC, SubNode.ORDINAL), null, 0, crit);
 
 			if (iter != null) {
@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.http.HttpSession;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
@@ -31,7 +32,6 @@ import quanta.config.AppSessionListener;
 import quanta.config.ServiceBase;
 import quanta.config.SessionContext;
 import quanta.filter.AuditFilter;
-import quanta.filter.HitFilter;
 import quanta.model.UserStats;
 import quanta.model.client.Attachment;
 import quanta.model.client.Constant;
@@ -114,13 +114,14 @@ public class SystemService extends ServiceBase {
 		try {
 			prop.setDaemonsEnabled(false);
 
-			delete.deleteNodeOrphans();
+			String treeReport = delete.repairTree();
 			// do not delete.
 			// usrMgr.cleanUserAccounts();
 
 			/*
 			 * Create map to hold all user account storage statistics which gets updated by the various
-			 * processing in here and then written out in 'writeUserStats' below
+			 * processing in here and then checked against the totals on the accounts in 'verifyUserStats'
+			 * below
 			 */
 			final HashMap<ObjectId, UserStats> statsMap = new HashMap<>();
 
@@ -130,11 +131,9 @@ public class SystemService extends ServiceBase {
 				ret = ipfsGarbageCollect(statsMap);
 			}
 
-			arun.run(as -> {
-				user.writeUserStats(as, statsMap);
-				return null;
-			});
+			String statsReport = arun.run(as -> user.verifyUserStats(as, statsMap));
 
+			ret = treeReport + statsReport + ret;
 			ret += runMongoDbCommand(MongoAppConfig.databaseName, new Document("compact", "nodes"));
 			ret += "\n\nRemember to Rebuild Indexes next. Or else the system can be slow.";
 		}
@@ -243,6 +242,10 @@ public class SystemService extends ServiceBase {
 		sb.append(user.getUserAccountsReport(null));
 
 		sb.append(apub.getStatsReport());
+		sb.append(apDelivery.getStatsReport());
+		sb.append(nodeCache.getStatsReport());
+		sb.append(imageVariants.getStatsReport());
+		sb.append(gridDedup.getStatsReport());
 
 		if (!StringUtils.isEmpty(prop.getIPFSApiHostAndPort())) {
 			sb.append(ipfsConfig.getStat());
@@ -441,20 +444,18 @@ public class SystemService extends ServiceBase {
 	private static String getSessionReport() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("All Sessions (over 20 hits)\n");
-		HashMap<String, Integer> map = HitFilter.getHits();
-		synchronized (map) {
-			for (String key : map.keySet()) {
-				int hits = map.get(key);
-				if (hits > 20) {
-					sb.append("    " + key + " hits=" + hits + "\n");
-				}
+		Map<String, Long> map = rateLimiter.getHits();
+		for (String key : map.keySet()) {
+			long hits = map.get(key);
+			if (hits > 20) {
+				sb.append("    " + key + " hits=" + hits + "\n");
 			}
 		}
 
 		sb.append("Live Sessions:\n");
 		for (SessionContext sc : SessionContext.getAllSessions(false, true)) {
 			if (sc.isLive() && sc.getUserName() != null) {
-				Integer hits = map.get(sc.getSession().getId());
+				Long hits = map.get(sc.getSession().getId());
 				sb.append("    " + sc.getUserName() + " hits=" + (hits != null ? String.valueOf(hits) : "?"));
 				sb.append("\n");
 			}
@@ -0,0 +1,440 @@
+package quanta.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.function.Function;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.NodePath;
+import quanta.config.ServiceBase;
+import quanta.model.client.NodeProp;
+import quanta.model.client.NodeType;
+import quanta.model.client.PrincipalName;
+import quanta.mongo.MongoRepository;
+import quanta.mongo.model.SubNode;
+import quanta.mongo.model.TrendingBucket;
+import quanta.mongo.model.TrendingCounted;
+import quanta.response.GetNodeStatsResponse;
+import quanta.util.DateUtil;
+import quanta.util.val.LongVal;
+
+/**
+ * Trending words, hashtags and mentions of the public feed, counted as public posts are saved
+ * (including the ones we ingest from ActivityPub and Nostr) rather than by rescanning recent nodes.
+ *
+ * Counts go into hourly buckets each holding a HeavyHitters per category, and the trending lists are
+ * the buckets of the last WINDOW_BUCKETS hours merged, which 'refresh' recomputes every minute so
+ * that answering a trending request is just handing back the last result. The buckets are saved to
+ * the DB (as TrendingBucket) every few minutes and loaded again at startup, and the first time we
+ * start without any we count the public nodes already in the window.
+ *
+ * Posts are counted once each: the first time they're saved public with some content. Which ones
+ * we've counted is kept in the DB (as TrendingCounted), so edits after a restart, or after the node
+ * has dropped out of our in-memory list of them, don't count them again.
+ */
+@Component
+@Slf4j
+public class TrendingService extends ServiceBase {
+	private static final long BUCKET_MILLIS = DateUtil.HOUR_MILLIS;
+	private static final int WINDOW_BUCKETS = 24;
+
+	// heavy hitters kept per bucket, and how many of the merged ones we return
+	private static final int TOP_CAPACITY = 500;
+	private static final int TOP_COUNT = 100;
+
+	// how many IDs of counted nodes we remember, to not go to the DB to check them when they're edited
+	private static final int COUNTED_IDS = 100000;
+
+	// most nodes we load to fill in counts missed while the server was down
+	private static final int BACKFILL_LIMIT = 10000;
+	private static final int SNAPSHOT_MINS = 10;
+
+	private static class Bucket {
+		long num;
+		long nodeCount;
+		long wordCount;
+		HeavyHitters words = new HeavyHitters(TOP_CAPACITY);
+		HeavyHitters tags = new HeavyHitters(TOP_CAPACITY);
+		HeavyHitters mentions = new HeavyHitters(TOP_CAPACITY);
+
+		Bucket(long num) {
+			this.num = num;
+		}
+	}
+
+	// guarded by 'this', as is everything in the buckets
+	private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+	private final LinkedHashMap<ObjectId, Boolean> counted = new LinkedHashMap<>() {
+		protected boolean removeEldestEntry(Map.Entry<ObjectId, Boolean> eldest) {
+			return size() > COUNTED_IDS;
+		}
+	};
+	private volatile boolean loaded = false;
+
+	// owners whose posts we don't count (admin, and users the admin blocked). Null until loaded.
+	private volatile HashSet<ObjectId> blockedOwners;
+	private volatile GetNodeStatsResponse current;
+
+	/* Called after every save of a node, to count it if it's a public post we haven't counted yet */
+	public void saveNotify(SubNode node) {
+		if (!MongoRepository.fullInit || !loaded || node == null || node.getId() == null || !isTrendable(node))
+			return;
+		try {
+			long newest = bucketNum(System.currentTimeMillis());
+			if (bucketOf(node, newest) <= newest - WINDOW_BUCKETS)
+				return;
+
+			synchronized (this) {
+				if (counted.containsKey(node.getId()))
+					return;
+			}
+			if (!markCounted(node.getId()))
+				return;
+
+			synchronized (this) {
+				count(node);
+			}
+		} catch (Exception e) {
+			log.error("Failed counting trending node " + node.getIdStr(), e);
+		}
+	}
+
+	/*
+	 * Same as what the public feed shows: public posts under the users, not owned by admin or anyone the
+	 * admin blocked, and passing the strict content filtering (see SubNode.CLASSES)
+	 */
+	private boolean isTrendable(SubNode node) {
+		HashSet<ObjectId> blocked = blockedOwners;
+		if (blocked == null || blocked.contains(node.getOwner()) || StringUtils.isEmpty(node.getContent()))
+			return false;
+
+		if (node.getPath() == null || !node.getPath().startsWith(NodePath.USERS_PATH + "/"))
+			return false;
+
+		String type = node.getType();
+		if (NodeType.FRIEND.s().equals(type) || NodeType.POSTS.s().equals(type) || NodeType.ACT_PUB_POSTS.s().equals(type))
+			return false;
+
+		if (node.getAc() == null || !node.getAc().containsKey(PrincipalName.PUBLIC.s()))
+			return false;
+
+		return node.getClasses() == null || node.getClasses().isEmpty();
+	}
+
+	/*
+	 * Records in the DB that the node is counted, returning false if it already was. The record only
+	 * needs to outlast the window, since older nodes don't get counted anyway.
+	 */
+	private boolean markCounted(ObjectId id) {
+		Date expires = new Date(System.currentTimeMillis() + (WINDOW_BUCKETS + 1) * BUCKET_MILLIS);
+		try {
+			ops.insert(new TrendingCounted(id, expires));
+			return true;
+		} catch (DuplicateKeyException e) {
+			synchronized (this) {
+				counted.put(id, true);
+			}
+			return false;
+		}
+	}
+
+	// the bucket the node counts in, which is that of its create time
+	private static long bucketOf(SubNode node, long newest) {
+		return node.getCreateTime() != null ? Math.min(newest, bucketNum(node.getCreateTime().getTime())) : newest;
+	}
+
+	/* Counts the node into the bucket of its create time, if that's within the window */
+	private void count(SubNode node) {
+		long newest = bucketNum(System.currentTimeMillis());
+		long num = bucketOf(node, newest);
+		expire(newest);
+		if (num <= newest - WINDOW_BUCKETS)
+			return;
+
+		String content = node.getContent();
+		if (node.getTags() != null) {
+			content += " " + node.getTags();
+		}
+
+		HashMap<String, WordStats> wordMap = new HashMap<>();
+		HashMap<String, WordStats> tagMap = new HashMap<>();
+		HashMap<String, WordStats> mentionMap = new HashMap<>();
+		LongVal totalWords = new LongVal();
+		HashSet<String> knownTokens = search.countTokens(content, null, wordMap, tagMap, mentionMap, totalWords);
+		search.extractTagsAndMentions(node, knownTokens, tagMap, mentionMap, null);
+
+		Bucket bucket = buckets.computeIfAbsent(num, Bucket::new);
+		for (WordStats ws : wordMap.values()) {
+			bucket.words.add(ws.word, ws.count);
+		}
+		for (WordStats ws : tagMap.values()) {
+			bucket.tags.add(ws.word, ws.count);
+		}
+		for (WordStats ws : mentionMap.values()) {
+			bucket.mentions.add(ws.word, ws.count);
+		}
+		bucket.nodeCount++;
+		bucket.wordCount += totalWords.getVal();
+		counted.put(node.getId(), true);
+	}
+
+	// drops the buckets that have slid out of the window
+	private void expire(long newest) {
+		buckets.headMap(newest - WINDOW_BUCKETS, true).clear();
+	}
+
+	private static long bucketNum(long time) {
+		return time / BUCKET_MILLIS;
+	}
+
+	/* Fills in the trending part of 'res' */
+	public void getTrending(GetNodeStatsResponse res) {
+		GetNodeStatsResponse cur = current;
+		if (cur == null) {
+			res.setStats("Trending data is not available yet.");
+			res.setTopWords(new ArrayList<>());
+			res.setTopTags(new ArrayList<>());
+			res.setTopMentions(new ArrayList<>());
+		} else {
+			res.setStats(cur.getStats());
+			res.setTopWords(cur.getTopWords());
+			res.setTopTags(cur.getTopTags());
+			res.setTopMentions(cur.getTopMentions());
+		}
+		res.setSuccess(true);
+	}
+
+	/*
+	 * Loads the saved buckets the first time it runs, and then just recomputes the trending lists (and
+	 * the owners and words the admin has blocked, so those changes apply within a minute)
+	 */
+	@Scheduled(fixedDelay = DateUtil.MINUTE_MILLIS)
+	public void refresh() {
+		if (!MongoRepository.fullInit)
+			return;
+
+		try {
+			HashSet<ObjectId> blocked = new HashSet<>();
+			blocked.add(auth.getAdminSession().getUserNodeId());
+			userFeed.getBlockedUserIds(blocked, PrincipalName.ADMIN.s());
+			blockedOwners = blocked;
+
+			synchronized (this) {
+				if (!loaded) {
+					load();
+					loaded = true;
+				}
+			}
+			current = merge(getAdminBlockedWords());
+		} catch (Exception e) {
+			log.error("Failed refreshing trending data", e);
+		}
+	}
+
+	private synchronized GetNodeStatsResponse merge(HashSet<String> blockTerms) {
+		expire(bucketNum(System.currentTimeMillis()));
+
+		long nodeCount = 0;
+		long wordCount = 0;
+		for (Bucket bucket : buckets.values()) {
+			nodeCount += bucket.nodeCount;
+			wordCount += bucket.wordCount;
+		}
+
+		GetNodeStatsResponse res = new GetNodeStatsResponse();
+		res.setStats("Node count: " + nodeCount + ", Total Words: " + wordCount + "\n" + //
+				"(Public posts of the last " + WINDOW_BUCKETS + " hours)\n");
+		res.setTopWords(topList(b -> b.words, blockTerms));
+		res.setTopTags(topList(b -> b.tags, blockTerms));
+		res.setTopMentions(topList(b -> b.mentions, blockTerms));
+		res.setSuccess(true);
+		return res;
+	}
+
+	/*
+	 * Anything that's a heavy hitter in any bucket is a candidate, and its count over the window is the
+	 * sum of its estimates in every bucket.
+	 */
+	private ArrayList<String> topList(Function<Bucket, HeavyHitters> category, HashSet<String> blockTerms) {
+		HashMap<String, WordStats> merged = new HashMap<>();
+		for (Bucket bucket : buckets.values()) {
+			for (WordStats ws : category.apply(bucket).getTop()) {
+				String key = ws.word.toLowerCase();
+				if (!blockTerms.contains(key.replace("#", ""))) {
+					merged.putIfAbsent(key, new WordStats(ws.word));
+				}
+			}
+		}
+
+		List<WordStats> list = new ArrayList<>(merged.values());
+		for (WordStats ws : list) {
+			for (Bucket bucket : buckets.values()) {
+				ws.count += category.apply(bucket).estimate(ws.word);
+			}
+		}
+		list.sort((s1, s2) -> Long.compare(s2.count, s1.count));
+
+		ArrayList<String> top = new ArrayList<>();
+		for (WordStats ws : list) {
+			top.add(ws.word);
+			if (top.size() >= TOP_COUNT)
+				break;
+		}
+		return top;
+	}
+
+	private HashSet<String> getAdminBlockedWords() {
+		HashSet<String> blockTerms = new HashSet<>();
+		SubNode root = read.getDbRoot();
+		String blockedWords = root != null ? root.getStr(NodeProp.USER_BLOCK_WORDS) : null;
+		if (StringUtils.isNotEmpty(blockedWords)) {
+			StringTokenizer t = new StringTokenizer(blockedWords, " \n\r\t,", false);
+			while (t.hasMoreTokens()) {
+				blockTerms.add(t.nextToken().replace("#", "").toLowerCase());
+			}
+		}
+		return blockTerms;
+	}
+
+	public String refreshTrendingCache() {
+		refresh();
+		return "Trending Data refreshed.";
+	}
+
+	/*
+	 * Restores the saved buckets, and then counts whatever public nodes were created since they were
+	 * saved (or in the whole window if nothing was saved).
+	 */
+	private void load() {
+		long newest = bucketNum(System.currentTimeMillis());
+		long savedTime = 0;
+		for (TrendingBucket tb : ops.find(new Query(Criteria.where(TrendingBucket.ID).gt(newest - WINDOW_BUCKETS)),
+				TrendingBucket.class)) {
+			Bucket bucket = new Bucket(tb.getId());
+			bucket.nodeCount = tb.getNodeCount() != null ? tb.getNodeCount() : 0;
+			bucket.wordCount = tb.getWordCount() != null ? tb.getWordCount() : 0;
+			bucket.words.restore(tb.getWordSketch(), toStats(tb.getTopWords(), tb.getTopWordCounts()));
+			bucket.tags.restore(tb.getTagSketch(), toStats(tb.getTopTags(), tb.getTopTagCounts()));
+			bucket.mentions.restore(tb.getMentionSketch(), toStats(tb.getTopMentions(), tb.getTopMentionCounts()));
+			buckets.put(bucket.num, bucket);
+			if (tb.getSavedTime() != null) {
+				savedTime = Math.max(savedTime, tb.getSavedTime().getTime());
+			}
+		}
+		log.debug("Trending buckets loaded: " + buckets.size());
+
+		long since = Math.max(savedTime, (newest - WINDOW_BUCKETS + 1) * BUCKET_MILLIS);
+		Query q = new Query();
+		q.addCriteria(Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(NodePath.USERS_PATH)) //
+				.and(SubNode.READERS).is(PrincipalName.PUBLIC.s()) //
+				.and(SubNode.CREATE_TIME).gt(new Date(since)) //
+				.and(SubNode.OWNER).nin(blockedOwners));
+		q.with(Sort.by(Sort.Direction.DESC, SubNode.CREATE_TIME));
+		q.limit(BACKFILL_LIMIT);
+
+		int backfilled = 0;
+		for (SubNode node : mongoUtil.find(q)) {
+			// counted since the buckets were saved, so these aren't in them whether or not they're marked
+			if (isTrendable(node)) {
+				markCounted(node.getId());
+				count(node);
+				backfilled++;
+			}
+		}
+		log.debug("Trending nodes backfilled: " + backfilled);
+	}
+
+	private static List<WordStats> toStats(List<String> words, List<Long> counts) {
+		List<WordStats> list = new ArrayList<>();
+		if (words != null && counts != null) {
+			for (int i = 0; i < words.size() && i < counts.size(); i++) {
+				WordStats ws = new WordStats(words.get(i));
+				ws.count = counts.get(i);
+				list.add(ws);
+			}
+		}
+		return list;
+	}
+
+	@Scheduled(fixedDelay = SNAPSHOT_MINS * DateUtil.MINUTE_MILLIS)
+	public void snapshot() {
+		if (!prop.isDaemonsEnabled() || !MongoRepository.fullInit)
+			return;
+		saveBuckets();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (prop.isDaemonsEnabled()) {
+			saveBuckets();
+		}
+	}
+
+	private void saveBuckets() {
+		List<TrendingBucket> list = new ArrayList<>();
+		long newest = bucketNum(System.currentTimeMillis());
+		Date now = new Date();
+
+		// copy out under the lock, and write to the DB outside of it
+		synchronized (this) {
+			if (!loaded)
+				return;
+			expire(newest);
+			for (Bucket bucket : buckets.values()) {
+				TrendingBucket tb = new TrendingBucket();
+				tb.setId(bucket.num);
+				tb.setStartTime(new Date(bucket.num * BUCKET_MILLIS));
+				tb.setSavedTime(now);
+				tb.setNodeCount(bucket.nodeCount);
+				tb.setWordCount(bucket.wordCount);
+
+				tb.setWordSketch(bucket.words.getSketchBytes());
+				tb.setTopWords(new ArrayList<>());
+				tb.setTopWordCounts(new ArrayList<>());
+				fromStats(bucket.words, tb.getTopWords(), tb.getTopWordCounts());
+
+				tb.setTagSketch(bucket.tags.getSketchBytes());
+				tb.setTopTags(new ArrayList<>());
+				tb.setTopTagCounts(new ArrayList<>());
+				fromStats(bucket.tags, tb.getTopTags(), tb.getTopTagCounts());
+
+				tb.setMentionSketch(bucket.mentions.getSketchBytes());
+				tb.setTopMentions(new ArrayList<>());
+				tb.setTopMentionCounts(new ArrayList<>());
+				fromStats(bucket.mentions, tb.getTopMentions(), tb.getTopMentionCounts());
+				list.add(tb);
+			}
+		}
+
+		try {
+			for (TrendingBucket tb : list) {
+				ops.save(tb);
+			}
+			ops.remove(new Query(Criteria.where(TrendingBucket.ID).lte(newest - WINDOW_BUCKETS)), TrendingBucket.class);
+		} catch (Exception e) {
+			log.error("Failed saving trending buckets", e);
+		}
+	}
+
+	private static void fromStats(HeavyHitters hh, List<String> words, List<Long> counts) {
+		for (WordStats ws : hh.getTop()) {
+			words.add(ws.word);
+			counts.add(ws.count);
+		}
+	}
+}
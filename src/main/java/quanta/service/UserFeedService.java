@@ -1,6 +1,8 @@
 package quanta.service;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -24,15 +26,17 @@ import quanta.model.client.NodeType;
 import quanta.model.client.PrincipalName;
 import quanta.model.client.PrivilegeType;
 import quanta.mongo.MongoSession;
+import quanta.mongo.PageCursor;
 import quanta.mongo.model.SubNode;
 import quanta.request.CheckMessagesRequest;
 import quanta.request.NodeFeedRequest;
 import quanta.response.CheckMessagesResponse;
 import quanta.response.NodeFeedResponse;
+import quanta.util.ConvertBatch;
+import quanta.util.EnglishDictionary;
 import quanta.util.ExUtil;
 import quanta.util.ThreadLocals;
 import quanta.util.XString;
-import quanta.util.val.Val;
 
 @Component
 @Slf4j
@@ -80,7 +84,7 @@ public class UserFeedService extends ServiceBase {
 		crit = crit.and(SubNode.MODIFY_TIME).gt(new Date(lastActiveLong));
 		String myId = searchRoot.getOwner().toHexString();
 
-		crit = crit.and(SubNode.AC + "." + myId).ne(null);
+		crit = crit.and(SubNode.READERS).is(myId);
 
 		q.addCriteria(crit);
 		long count = ops.count(q, SubNode.class);
@@ -156,12 +160,15 @@ public class UserFeedService extends ServiceBase {
 		int counter = 0;
 		List<Criteria> orCriteria = new LinkedList<>();
 
+		// 'public' and/or our own id, matched with a single '$in' on the readers (see SubNode.READERS)
+		List<String> readers = new LinkedList<>();
+
 		/*
 		 * 2: should the 'friends' and 'public' options be mutually exclusive?? If someone's looking for all
 		 * public nodes why "OR" into that any friends?
 		 */
 		if (!testQuery && doAuth && req.getToPublic()) {
-			orCriteria.add(Criteria.where(SubNode.AC + "." + PrincipalName.PUBLIC.s()).ne(null));
+			readers.add(PrincipalName.PUBLIC.s());
 		}
 
 		SubNode myAcntNode = null;
@@ -175,7 +182,7 @@ public class UserFeedService extends ServiceBase {
 			myAcntNode = read.getNode(ms, sc.getRootId());
 
 			if (myAcntNode != null) {
-				orCriteria.add(Criteria.where(SubNode.AC + "." + myAcntNode.getOwner().toHexString()).ne(null));
+				readers.add(myAcntNode.getOwner().toHexString());
 
 				SubNode _myAcntNode = myAcntNode;
 				MongoSession _s = ms;
@@ -193,6 +200,10 @@ public class UserFeedService extends ServiceBase {
 			}
 		}
 
+		if (readers.size() > 0) {
+			orCriteria.add(Criteria.where(SubNode.READERS).in(readers));
+		}
+
 		List<NodeInfo> searchResults = new LinkedList<>();
 		res.setSearchResults(searchResults);
 
@@ -302,7 +313,7 @@ public class UserFeedService extends ServiceBase {
 						// where node is owned by us.
 						Criteria.where(SubNode.OWNER).is(myAcntNode.getOwner()) //
 								// and the node has any sharing on it.
-								.and(SubNode.AC + "." + toUserNode.getId().toHexString()).ne(null));
+								.and(SubNode.READERS).is(toUserNode.getId().toHexString()));
 
 				// sharing from the other user to us.
 				if (bidirectional) {
@@ -310,7 +321,7 @@ public class UserFeedService extends ServiceBase {
 							// where node is owned by us.
 							Criteria.where(SubNode.OWNER).is(toUserNode.getOwner()) //
 									// and the node has any sharing on it.
-									.and(SubNode.AC + "." + myAcntNode.getId().toHexString()).ne(null));
+									.and(SubNode.READERS).is(myAcntNode.getId().toHexString()));
 				}
 			}
 		}
@@ -329,7 +340,20 @@ public class UserFeedService extends ServiceBase {
 			}
 		}
 
-		if (!testQuery && doAuth && req.getFromFriends()) {
+		/*
+		 * A plain friends feed (not mixed with any other option, or filtered by friend tags) reads the
+		 * user's materialized timeline if they have one, rather than the posts of all their friends
+		 */
+		List<ObjectId> timelineIds = null;
+		if (!testQuery && doAuth && req.getFromFriends() && readers.isEmpty() && !req.getFromMe() && !bidirectional
+				&& searchForUserName == null && StringUtils.isEmpty(req.getFriendsTagSearch()) && !req.getLoadFriendsTags()
+				&& !sc.isFriendsTagsDirty() && sc.getRootId() != null) {
+			timelineIds = homeTimeline.getTimeline(ms, new ObjectId(sc.getRootId()));
+		}
+
+		if (timelineIds != null) {
+			orCriteria.add(Criteria.where(SubNode.ID).in(timelineIds));
+		} else if (!testQuery && doAuth && req.getFromFriends()) {
 			List<ObjectId> friendIds = new LinkedList<>();
 			boolean friendsProcessed = false;
 
@@ -462,49 +486,86 @@ public class UserFeedService extends ServiceBase {
 			q.addCriteria(textCriteria);
 		}
 
-		q.addCriteria(crit);
+		/*
+		 * Criteria that need their own '$or' (crit may already have one) get ANDed together into a single
+		 * criteria at the end.
+		 */
+		List<Criteria> andCriteria = new LinkedList<>();
 
-		// if we have a node id this is like a chat room type, and so we sort by create time.
-		if (req.getNodeId() != null) {
-			q.with(Sort.by(Sort.Direction.DESC, SubNode.CREATE_TIME));
+		/*
+		 * Leave out non-English content, and content with bad words unless it's our own, using the
+		 * classification done when nodes are saved (see SubNodeUtil.classify). A node with no CLASSES
+		 * would pass the '$nin', so nodes that haven't been classified yet (see MongoUtil.classifyNodes)
+		 * are left out too.
+		 */
+		List<String> excludeClasses = new LinkedList<>();
+		if (!allowNonEnglish) {
+			excludeClasses.add(EnglishDictionary.NON_ENGLISH);
+		}
+		if (!allowBadWords && sc.getRootId() != null) {
+			List<String> excludeOwnClasses = new LinkedList<>(excludeClasses);
+			excludeClasses.add(EnglishDictionary.BAD_WORDS);
+			andCriteria.add(new Criteria().orOperator( //
+					Criteria.where(SubNode.CLASSES).nin(excludeClasses), //
+					Criteria.where(SubNode.OWNER).is(new ObjectId(sc.getRootId())).and(SubNode.CLASSES).nin(excludeOwnClasses)));
 		} else {
-			q.with(Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME));
+			if (!allowBadWords) {
+				excludeClasses.add(EnglishDictionary.BAD_WORDS);
+			}
+			if (excludeClasses.size() > 0) {
+				crit = crit.and(SubNode.CLASSES).nin(excludeClasses);
+			}
+		}
+		if (excludeClasses.size() > 0) {
+			andCriteria.add(Criteria.where(SubNode.CLASSES_VERSION).exists(true));
 		}
 
+		q.addCriteria(crit);
+
+		// if we have a node id this is like a chat room type, and so we sort by create time.
+		Sort sort = Sort.by(Sort.Direction.DESC, req.getNodeId() != null ? SubNode.CREATE_TIME : SubNode.MODIFY_TIME);
+		q.with(sort);
+
 		// we get up to 2x the max item so that if large numbers of them are being filtered,
 		// we can still return a page of results hopefully
 		q.limit(MAX_FEED_ITEMS * 2);
 
-		if (req.getPage() > 0) {
+		PageCursor cursor = PageCursor.parse(req.getCursor(), sort);
+		if (cursor != null) {
+			andCriteria.add(cursor.criteria(sort));
+		} else if (req.getPage() > 0) {
 			q.skip(MAX_FEED_ITEMS * req.getPage());
 		}
 
-		Iterable<SubNode> iter = mongoUtil.find(q);
+		if (andCriteria.size() > 0) {
+			q.addCriteria(new Criteria().andOperator(andCriteria));
+		}
+
+		List<SubNode> iter = mongoUtil.find(q);
+
+		// look up all the boost targets with one query rather than one query per boosting node
+		HashSet<ObjectId> boostIds = new HashSet<>();
+		for (SubNode node : iter) {
+			String boostTargetId = node.getStr(NodeProp.BOOST);
+			if (boostTargetId != null && ObjectId.isValid(boostTargetId)) {
+				boostIds.add(new ObjectId(boostTargetId));
+			}
+		}
+		HashMap<ObjectId, SubNode> boostTargets = read.getNodesByIds(ms, boostIds, false);
+
+		// the nodes that passed all the filtering, which all get converted at once below
+		List<SubNode> pageNodes = new ArrayList<>();
 
 		int skipped = 0;
+		// how many of 'iter' we looked at, filtered or not, which is where the next page picks up
+		int examined = 0;
 		for (SubNode node : iter) {
+			examined++;
 			/*
-			 * todo-2: We could theoretically pre-calculate the 'isEnglish' and 'hasBadWords' state at the time
-			 * the node is saved, and ONLY set properties when they are NOT english or are bad. This way we
-			 * could avoid the hack of checking the isEnglish and hasBadWords here, and we'd be able to write a
-			 * query that can do this filtering based on property existence.
-			 * 
-			 * I'll leave this as is for now, because it's not a big problem, afaik, although the 'skipped'
-			 * counting we're doing could eventually lead to pagination problems if we get to where MOST items
-			 * are skipped and not accepted.
+			 * Non-English and bad words content was already left out by the query, including boosts of it
+			 * (boosts are classified by the content they boost). The filtering left here is only what
+			 * depends on this particular request, or is rare.
 			 */
-			if (!allowNonEnglish && !english.isEnglish(node.getContent())) {
-				// log.debug("Ignored nonEnglish: node.id=" + node.getIdStr() + " Content: " + node.getContent());
-				skipped++;
-				continue;
-			}
-
-			// only do the badWords blocking if it's NOT a node we own. We can never have this filter block
-			// our own content.
-			if (!allowBadWords && !auth.ownedByThreadUser(node) && english.hasBadWords(node.getContent())) {
-				skipped++;
-				continue;
-			}
 
 			// for the curated feed ignore valueless super short messages that also have no attachment, unless
 			// it's a boost! Be careful boosts also have no content, but we DO want to show boosts.
@@ -516,11 +577,9 @@ public class UserFeedService extends ServiceBase {
 				}
 			}
 
-			Val<SubNode> boostedNodeVal = null;
-
 			String boostTargetId = node.getStr(NodeProp.BOOST);
 			if (boostTargetId != null) {
-				SubNode boostedNode = read.getNode(ms, boostTargetId, false, null);
+				SubNode boostedNode = ObjectId.isValid(boostTargetId) ? boostTargets.get(new ObjectId(boostTargetId)) : null;
 
 				// if we can't find teh boostedNode, don't display this node (the boosting node) at all
 				if (boostedNode == null) {
@@ -528,10 +587,6 @@ public class UserFeedService extends ServiceBase {
 					continue;
 				}
 
-				// once we searched for the node, we want to have boostedNodeVal non-null, to propagate the result,
-				// even if boostedNode is null here, indicating it's not found.
-				boostedNodeVal = new Val<>(boostedNode);
-
 				// if the owner of the boosted node is a blocked user and we're querying public nodes and with
 				// applyAdminBlocks in effect then skip this post.
 				if (blockedUserIds.contains(boostedNode.getOwner())) {
@@ -539,21 +594,37 @@ public class UserFeedService extends ServiceBase {
 					continue;
 				}
 
-				if (!allowNonEnglish && !english.isEnglish(boostedNode.getContent())) {
-					// log.debug("Ignored nonEnglish: node.id=" + node.getIdStr() + " Content: " + node.getContent());
-					skipped++;
-					continue;
-				}
+				/*
+				 * The boost was classified by the boosted content when it was saved, but that content may have
+				 * been edited since, so check the boosted node's own (stored) classification too.
+				 */
+				List<String> classes = boostedNode.getClasses();
+				if (classes != null) {
+					if (!allowNonEnglish && classes.contains(EnglishDictionary.NON_ENGLISH)) {
+						skipped++;
+						continue;
+					}
 
-				if (!allowBadWords && !auth.ownedByThreadUser(boostedNode) && english.hasBadWords(boostedNode.getContent())) {
-					skipped++;
-					continue;
+					if (!allowBadWords && !auth.ownedByThreadUser(boostedNode) && classes.contains(EnglishDictionary.BAD_WORDS)) {
+						skipped++;
+						continue;
+					}
 				}
 			}
 
+			pageNodes.add(node);
+			if (pageNodes.size() >= MAX_FEED_ITEMS) {
+				break;
+			}
+		}
+
+		// boost targets are passed in here as already found, so they don't get looked up again
+		ConvertBatch batch = convert.prefetch(ms, pageNodes, false, false, true, boostTargets);
+
+		for (SubNode node : pageNodes) {
 			try {
-				NodeInfo info = convert.convertToNodeInfo(false, sc, ms, node, false, counter + 1, false, false, false, false,
-						true, true, boostedNodeVal, false);
+				NodeInfo info = convert.convertToNodeInfo(false, sc, ms, node, false, ++counter, false, false, false, false,
+						true, true, null, false, batch);
 				if (info != null) {
 					searchResults.add(info);
 
@@ -568,6 +639,12 @@ public class UserFeedService extends ServiceBase {
 
 		if (searchResults.size() < MAX_FEED_ITEMS - skipped) {
 			res.setEndReached(true);
+		} else {
+			/*
+			 * The cursor is taken from the last node we examined rather than the last one we're returning, so
+			 * the nodes filtered out above aren't read again for the next page and page boundaries don't drift
+			 */
+			res.setNextCursor(PageCursor.next(ops.getConverter(), sort, cursor, iter.subList(0, examined)));
 		}
 
 		res.setSuccess(true);
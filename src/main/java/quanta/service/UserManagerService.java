@@ -16,10 +16,16 @@ import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ObjectOperators;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.MediaType;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -84,6 +90,7 @@ import quanta.util.ExUtil;
 import quanta.util.ThreadLocals;
 import quanta.util.Util;
 import quanta.util.XString;
+import quanta.util.val.IntVal;
 import quanta.util.val.LongVal;
 import quanta.util.val.Val;
 
@@ -287,61 +294,144 @@ public class UserManagerService extends ServiceBase {
 
 	/**
 	 * 'userStats' Holds a map of User Root Node (account node) IDs as key mapped to the UserStats for
-	 * that user.
+	 * that user, as counted up from what's actually stored.
+	 * 
+	 * The binary totals on the account nodes are kept up to date as things are uploaded and deleted
+	 * (see addBytesToUserNodeBytes), so this only checks them against the counts, and corrects (and
+	 * reports) any that have drifted. Returns the report.
 	 */
-	public void writeUserStats(MongoSession ms, HashMap<ObjectId, UserStats> userStats) {
+	public String verifyUserStats(MongoSession ms, HashMap<ObjectId, UserStats> userStats) {
+		IntVal corrected = new IntVal();
 		userStats.forEach((ObjectId key, UserStats stat) -> {
 			SubNode node = read.getNode(ms, key);
 			if (node != null) {
-				// log.debug("Setting stat.binUsage=" + stat.binUsage);
-				node.set(NodeProp.BIN_TOTAL, stat.binUsage);
+				Long binTotal = node.getInt(NodeProp.BIN_TOTAL);
+				long drift = stat.binUsage - (binTotal == null ? 0L : binTotal);
+				if (drift != 0) {
+					log.debug("Storage total of " + key + " was off by " + (-drift) + " bytes");
+					incBinTotal(key, drift, null);
+					corrected.inc();
+				}
 			} else {
 				log.debug("Node not found by key: " + key);
 			}
 		});
+		return "Storage totals checked: " + userStats.size() + ", corrected: " + corrected.getVal() + "\n";
 	}
 
+	/* Total size of the node's attachments we store (in the grid or IPFS), which are what users get charged for */
 	public long getTotalAttachmentBytes(MongoSession ms, SubNode node) {
 		LongVal totalBytes = new LongVal();
 
 		if (node != null && node.getAttachments() != null) {
 			node.getAttachments().forEach((String key, Attachment att) -> {
-				if (att.getSize() > 0L) {
-					totalBytes.add(att.getSize());
-				}
+				totalBytes.add(getStoredBytes(att));
 			});
 		}
 		return totalBytes.getVal();
 	}
 
+	public long getStoredBytes(Attachment att) {
+		if (att.getSize() == null || att.getSize() <= 0L || (att.getBin() == null && att.getIpfsLink() == null))
+			return 0L;
+		return att.getSize();
+	}
+
+	/*
+	 * Totals the sizes of the stored attachments of the nodes matching 'crit', by owner, in one
+	 * aggregation. 'ipfs' says whether to include IPFS attachments or only grid ones.
+	 */
+	public HashMap<ObjectId, Long> getStoredAttachmentBytes(Criteria crit, boolean ipfs) {
+		String att = "att";
+		Criteria stored = ipfs ? new Criteria().orOperator(Criteria.where(att + ".v.bin").ne(null), //
+				Criteria.where(att + ".v.ipfsLink").ne(null)) //
+				: Criteria.where(att + ".v.bin").ne(null);
+
+		Aggregation agg = Aggregation.newAggregation(//
+				Aggregation.match(crit), //
+				Aggregation.match(Criteria.where(SubNode.ATTACHMENTS).ne(null)), //
+				Aggregation.project(SubNode.OWNER).and(ObjectOperators.valueOf(SubNode.ATTACHMENTS).toArray()).as(att), //
+				Aggregation.unwind(att), //
+				Aggregation.match(stored), //
+				Aggregation.group(SubNode.OWNER).sum(att + ".v.size").as("total"));
+
+		HashMap<ObjectId, Long> ret = new HashMap<>();
+		for (Document doc : ops.aggregate(agg, ops.getCollectionName(SubNode.class), Document.class)) {
+			Object owner = doc.get("_id");
+			Object total = doc.get("total");
+			if (owner instanceof ObjectId && total instanceof Number) {
+				ret.put((ObjectId) owner, ((Number) total).longValue());
+			}
+		}
+		return ret;
+	}
+
+	/* Takes the stored attachments of the nodes matching 'crit' off their owners' totals, before the nodes get deleted */
+	public void releaseAttachmentBytes(Criteria crit) {
+		getStoredAttachmentBytes(crit, true).forEach((owner, bytes) -> incBinTotal(owner, -bytes, null));
+	}
+
+	/* Adds to (or if negative takes from) the binary storage total of the account, with no quota check */
+	public void addBinBytes(ObjectId accountId, long binSize) {
+		if (accountId != null && binSize != 0) {
+			incBinTotal(accountId, binSize, null);
+		}
+	}
+
 	/*
 	 * We have 'sign' so we can use this method to either deduct from or add to the user's total usage
-	 * amount
+	 * amount. Adding more than a (non-admin) user's quota allows fails with OutOfSpaceException, and
+	 * adds nothing.
 	 */
 	public void addBytesToUserNodeBytes(MongoSession ms, long binSize, SubNode userNode) {
 		if (userNode == null) {
 			userNode = read.getUserNodeByUserName(null, null);
 		}
+		if (binSize == 0)
+			return;
 
-		// get the current binTotal on the user account (max they are allowed to upload)
-		Long binTotal = userNode.getInt(NodeProp.BIN_TOTAL);
-		if (binTotal == null) {
-			binTotal = 0L;
+		// max they are allowed to upload
+		Long maxTotal = binSize > 0 && !ms.isAdmin() ? userNode.getInt(NodeProp.BIN_QUOTA) : null;
+		if (incBinTotal(userNode.getId(), binSize, maxTotal) == null && maxTotal != null) {
+			throw new OutOfSpaceException();
 		}
+	}
 
-		// log.debug("before binTotal=" + binTotal);
-		binTotal += binSize;
-		if (binTotal < 0) {
-			binTotal = 0L;
+	/*
+	 * Adds 'binSize' bytes to the binary storage total of the account with a single $inc on the account
+	 * node, so concurrent uploads and deletes can't lose each other's updates (as reading, adding and
+	 * saving the total could). If 'maxTotal' is given and the total would go over it, nothing changes.
+	 * Returns the new total, or null if nothing changed.
+	 */
+	private Long incBinTotal(ObjectId accountId, long binSize, Long maxTotal) {
+		String field = SubNode.propField(NodeProp.BIN_TOTAL.s());
+		Criteria crit = Criteria.where(SubNode.ID).is(accountId);
+		if (maxTotal != null) {
+			if (binSize > maxTotal)
+				return null;
+			// no total yet counts as zero
+			crit = crit.orOperator(Criteria.where(field).lte(maxTotal - binSize), Criteria.where(field).exists(false));
 		}
 
-		Long userQuota = userNode.getInt(NodeProp.BIN_QUOTA);
-		if (!ms.isAdmin() && binTotal > userQuota) {
-			throw new OutOfSpaceException();
-		}
+		Query q = new Query(crit);
+		q.fields().include(field);
+		Document doc = ops.findAndModify(q, new Update().inc(field, binSize), FindAndModifyOptions.options().returnNew(true),
+				Document.class, ops.getCollectionName(SubNode.class));
+		if (doc == null)
+			return null;
+		nodeCache.remove(accountId);
+
+		Document props = doc.get(SubNode.PROPS, Document.class);
+		Object total = props != null ? props.get(NodeProp.BIN_TOTAL.s()) : null;
+		long ret = total instanceof Number ? ((Number) total).longValue() : 0L;
 
-		// log.debug("after binTotal=" + binTotal);
-		userNode.set(NodeProp.BIN_TOTAL, binTotal);
+		// deleting things stored before totals were kept this way can take it below zero
+		if (ret < 0) {
+			ops.updateFirst(new Query(Criteria.where(SubNode.ID).is(accountId).and(field).lt(0)), new Update().set(field, 0L),
+					Document.class, ops.getCollectionName(SubNode.class));
+			ret = 0L;
+		}
+		return ret;
 	}
 
 	/*
@@ -810,6 +900,7 @@ public class UserManagerService extends ServiceBase {
 			for (SubNode friendNode : friendNodes) {
 				// we delete with updateHasChildren=false, because it's more efficient
 				delete.delete(ms, friendNode, false);
+				homeTimeline.invalidate(friendNode.getOwner());
 			}
 		}
 		res.setSuccess(true);
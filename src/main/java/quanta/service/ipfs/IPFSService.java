@@ -20,6 +20,7 @@ import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -50,6 +51,7 @@ import quanta.util.Cast;
 import quanta.util.Const;
 import quanta.util.DateUtil;
 import quanta.util.LimitedInputStreamEx;
+import quanta.util.RangeStreamer;
 import quanta.util.StreamUtil;
 import quanta.util.ThreadLocals;
 import quanta.util.Util;
@@ -331,6 +333,14 @@ public class IPFSService extends ServiceBase {
     }
 
     public InputStream getStream(MongoSession ms, String hash) {
+        return getStream(ms, hash, 0);
+    }
+
+    /*
+     * Returns a stream of the content starting 'offset' bytes in. We ask the gateway for just that part
+     * with a Range header, and if it ignores that and sends everything we skip up to 'offset' ourselves.
+     */
+    public InputStream getStream(MongoSession ms, String hash, long offset) {
         checkIpfs();
         if (failedCIDs.get(hash) != null) {
             // log.debug("Abort CID already failed: " + hash);
@@ -350,8 +360,14 @@ public class IPFSService extends ServiceBase {
             HttpGet request = new HttpGet(sourceUrl);
 
             request.addHeader("User-Agent", Const.FAKE_USER_AGENT);
+            if (offset > 0) {
+                request.addHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+            }
             HttpResponse response = client.execute(request);
             InputStream is = response.getEntity().getContent();
+            if (offset > 0 && response.getStatusLine().getStatusCode() != HttpStatus.PARTIAL_CONTENT.value()) {
+                RangeStreamer.skipFully(is, offset);
+            }
             return is;
         } catch (Exception e) {
             failedCIDs.put(hash, true);
@@ -4,15 +4,21 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
@@ -41,6 +47,7 @@ import quanta.mongo.MongoSession;
 import quanta.mongo.model.AccessControl;
 import quanta.mongo.model.SubNode;
 import quanta.request.AppDropRequest;
+import quanta.request.CancelSubGraphUpdateRequest;
 import quanta.request.CreateSubNodeRequest;
 import quanta.request.DeletePropertyRequest;
 import quanta.request.InsertNodeRequest;
@@ -53,6 +60,7 @@ import quanta.request.SubGraphHashRequest;
 import quanta.request.TransferNodeRequest;
 import quanta.request.UpdateFriendNodeRequest;
 import quanta.response.AppDropResponse;
+import quanta.response.CancelSubGraphUpdateResponse;
 import quanta.response.CreateSubNodeResponse;
 import quanta.response.DeletePropertyResponse;
 import quanta.response.InsertNodeResponse;
@@ -71,7 +79,6 @@ import quanta.util.SubNodeUtil;
 import quanta.util.ThreadLocals;
 import quanta.util.Util;
 import quanta.util.XString;
-import quanta.util.val.IntVal;
 import quanta.util.val.Val;
 
 /**
@@ -467,7 +474,7 @@ public class NodeEditService extends ServiceBase {
 				if (req.isLike()) {
 					if (node.getLikes().add(userName)) {
 						// set node to dirty only if it just changed.
-						ThreadLocals.dirty(node);
+						ThreadLocals.dirty(node, SubNode.LIKES);
 
 						// if this is a foreign post send message out to fediverse
 						if (node.getStr(NodeProp.OBJECT_ID) != null) {
@@ -477,7 +484,7 @@ public class NodeEditService extends ServiceBase {
 				} else {
 					if (node.getLikes().remove(userName)) {
 						// set node to dirty only if it just changed.
-						ThreadLocals.dirty(node);
+						ThreadLocals.dirty(node, SubNode.LIKES);
 
 						if (node.getLikes().size() == 0) {
 							node.setLikes(null);
@@ -679,6 +686,9 @@ public class NodeEditService extends ServiceBase {
 			processAfterSave(ms, node, parent, req.isSaveToActPub());
 		}
 
+		// so the link previews are ready by the time browsers ask for them
+		openGraph.prefetch(node.getContent());
+
 		NodeInfo newNodeInfo = convert.convertToNodeInfo(false, ThreadLocals.getSC(), ms, node, false, //
 				Convert.LOGICAL_ORDINAL_GENERATE, false, false, true, //
 				false, true, true, null, false);
@@ -1129,7 +1139,11 @@ public class NodeEditService extends ServiceBase {
 		return hexString.toString();
 	}
 
-	// todo-2: need to be doing a bulk update in here.
+	/*
+	 * Transfers the node (and the nodes under it, if recursive) to another user, or accepts, rejects or
+	 * reclaims such a transfer, as bulk updates (see SubGraphUpdate). Which nodes each operation
+	 * applies to is part of the query, so only those get read.
+	 */
 	public TransferNodeResponse transferNode(MongoSession ms, TransferNodeRequest req) {
 		TransferNodeResponse res = new TransferNodeResponse();
 
@@ -1138,11 +1152,11 @@ public class NodeEditService extends ServiceBase {
 			req.setFromUser(null);
 		}
 
-		IntVal ops = new IntVal(0);
 		String nodeId = req.getNodeId();
+		String op = req.getOperation();
 
 		// get and auth node being transfered
-		log.debug("Transfer node: " + nodeId + " operation=" + req.getOperation());
+		log.debug("Transfer node: " + nodeId + " operation=" + op);
 
 		// we do allowAuth below, not here
 		SubNode node = read.getNode(ms, nodeId, false, null);
@@ -1152,7 +1166,7 @@ public class NodeEditService extends ServiceBase {
 
 		// get user node of person being transfered to
 		SubNode toUserNode = null;
-		if (req.getOperation().equals("transfer")) {
+		if (op.equals("transfer")) {
 			toUserNode = arun.run(as -> read.getUserNodeByUserName(as, req.getToUser()));
 			if (toUserNode == null) {
 				throw new RuntimeEx("User not found: " + req.getToUser());
@@ -1168,128 +1182,117 @@ public class NodeEditService extends ServiceBase {
 			}
 		}
 
-		transferNode(ms, req.getOperation(), node, fromUserNode, toUserNode, ops);
-
-		if (req.isRecursive()) {
-			// todo-1: make this ONLY query for the nodes that ARE owned by the person doing the transfer,
-			// but leave as ALL node for the admin who might specify the 'from'?
-			for (SubNode n : read.getSubGraph(ms, node, null, 0, true, false, true)) {
-				// log.debug("Node: path=" + path + " content=" + n.getContent());
-				transferNode(ms, req.getOperation(), n, fromUserNode, toUserNode, ops);
-			}
-		}
+		Criteria crit = req.isRecursive() ? subGraphUpdate.subGraph(node, true) : Criteria.where(SubNode.ID).is(node.getId());
+		crit = transferCriteria(ms, op, crit, fromUserNode);
 
-		if (ops.getVal() > 0) {
-			arun.run(as -> {
-				update.saveSession(as);
-				return null;
-			});
+		long count = 0;
+		if (crit != null) {
+			ObjectId toOwner = toUserNode != null ? toUserNode.getOwner() : null;
+			count = subGraphUpdate.updateEach("Transfer", crit, List.of(SubNode.OWNER, SubNode.XFR, SubNode.AC),
+					doc -> transferUpdate(op, doc, toOwner));
 		}
 
-		res.setMessage(String.valueOf(ops.getVal()) + " nodes were affected.");
+		res.setMessage(String.valueOf(count) + " nodes were affected.");
 		res.setSuccess(true);
 		return res;
 	}
 
-	public void transferNode(MongoSession ms, String op, SubNode node, SubNode fromUserNode, SubNode toUserNode, IntVal ops) {
-		if (node.getContent() != null && node.getContent().startsWith(Constant.ENC_TAG.s())) {
-			// for now we silently ignore encrypted nodes during transfers. This needs some more thought
-			// (todo-1)
-			return;
-		}
+	/*
+	 * Adds to 'crit' which nodes the transfer operation applies to, or returns null if it can't apply to
+	 * any.
+	 *
+	 * For now we silently ignore encrypted nodes during transfers. This needs some more thought (todo-1)
+	 */
+	private Criteria transferCriteria(MongoSession ms, String op, Criteria crit, SubNode fromUserNode) {
+		crit = crit.and(SubNode.CONTENT).not().regex("^" + Pattern.quote(Constant.ENC_TAG.s()));
 
 		/*
-		 * if we're transferring only from a specific user (will only be admin able to do this) then we
-		 * simply return without doing anything if this node in't owned by the person we're transferring
-		 * from
+		 * if we're transferring only from a specific user (will only be admin able to do this) then only
+		 * nodes owned by the person we're transferring from apply
 		 */
-		if (fromUserNode != null && !fromUserNode.getOwner().equals(node.getOwner())) {
-			return;
-		}
-
-		if (op.equals("transfer")) {
-			// if we don't happen do own this node, do nothing.
-			if (!ms.getUserNodeId().equals(node.getOwner())) {
-				return;
-			}
-			SubNode ownerAccnt = (SubNode) arun.run(as -> read.getNode(as, node.getOwner()));
-
-			ObjectId fromOwnerId = node.getOwner();
-			node.setOwner(toUserNode.getOwner());
-			node.setTransferFrom(fromOwnerId);
-
-			// now we ensure that the original owner (before the transfer request) is shared to so they can
-			// still see the node
-			if (ownerAccnt != null) {
-				acl.addPrivilege(ms, null, node, null, ownerAccnt, Arrays.asList(PrivilegeType.READ.s(), PrivilegeType.WRITE.s()),
-						null);
-			}
-			node.adminUpdate = true;
-			ops.inc();
-		} //
-		else if (op.equals("accept")) {
-			// if we don't happen do own this node, do nothing.
-			if (!ms.getUserNodeId().equals(node.getOwner())) {
-				return;
-			}
-
-			if (node.getTransferFrom() != null) {
-				// get user node of the person pointed to by the 'getTransferFrom' value to share back to them.
-				SubNode frmUsrNode = (SubNode) arun.run(as -> read.getNode(as, node.getTransferFrom()));
-				if (frmUsrNode != null) {
-					acl.addPrivilege(ms, null, node, null, frmUsrNode,
-							Arrays.asList(PrivilegeType.READ.s(), PrivilegeType.WRITE.s()), null);
+		ObjectId fromOwner = fromUserNode != null ? fromUserNode.getOwner() : null;
+
+		switch (op) {
+			case "transfer":
+			case "accept":
+			case "reject":
+				// only nodes we happen to own
+				if (fromOwner != null && !fromOwner.equals(ms.getUserNodeId())) {
+					return null;
 				}
-
-				node.setTransferFrom(null);
-				node.adminUpdate = true;
-				ops.inc();
-			}
-		} //
-		else if (op.equals("reject")) {
-			// if we don't happen do own this node, do nothing.
-			if (!ms.getUserNodeId().equals(node.getOwner())) {
-				return;
-			}
-
-			if (node.getTransferFrom() != null) {
-				// get user node of the person pointed to by the 'getTransferFrom' value to share back to them.
-				SubNode frmUsrNode = (SubNode) arun.run(as -> read.getNode(as, node.getOwner()));
-
-				node.setOwner(node.getTransferFrom());
-				node.setTransferFrom(null);
-
-				if (frmUsrNode != null) {
-					acl.addPrivilege(ms, null, node, null, frmUsrNode,
-							Arrays.asList(PrivilegeType.READ.s(), PrivilegeType.WRITE.s()), null);
+				crit = crit.and(SubNode.OWNER).is(ms.getUserNodeId());
+				if (!op.equals("transfer")) {
+					crit = crit.and(SubNode.XFR).ne(null);
 				}
+				return crit;
 
-				node.adminUpdate = true;
-				ops.inc();
-			}
-		} //
-		else if (op.equals("reclaim")) {
-			if (node.getTransferFrom() != null) {
-				// if we're reclaiming just make sure the transferFrom was us
-				if (!ms.getUserNodeId().equals(node.getTransferFrom())) {
-					// skip nodes that don't apply
-					return;
+			case "reclaim":
+				// only nodes transferred from us
+				crit = crit.and(SubNode.XFR).is(ms.getUserNodeId());
+				if (fromOwner != null) {
+					crit = crit.and(SubNode.OWNER).is(fromOwner);
 				}
+				return crit;
 
-				SubNode frmUsrNode = (SubNode) arun.run(as -> read.getNode(as, node.getOwner()));
-
-				node.setOwner(node.getTransferFrom());
-				node.setTransferFrom(null);
-
-				if (frmUsrNode != null) {
-					acl.addPrivilege(ms, null, node, null, frmUsrNode,
-							Arrays.asList(PrivilegeType.READ.s(), PrivilegeType.WRITE.s()), null);
-				}
+			default:
+				return null;
+		}
+	}
 
-				node.adminUpdate = true;
-				ops.inc();
-			}
+	/*
+	 * Returns the update applying the transfer operation to the node (holding only the owner, transfer
+	 * from, and sharing). Whoever ends up no longer owning the node is shared to, so they can still see
+	 * it.
+	 */
+	private Update transferUpdate(String op, Document doc, ObjectId toOwner) {
+		ObjectId owner = doc.getObjectId(SubNode.OWNER);
+		ObjectId transferFrom = doc.getObjectId(SubNode.XFR);
+
+		ObjectId newOwner;
+		ObjectId newTransferFrom = null;
+		ObjectId shareTo;
+
+		switch (op) {
+			case "transfer":
+				newOwner = toOwner;
+				newTransferFrom = owner;
+				shareTo = owner;
+				break;
+			case "accept":
+				newOwner = owner;
+				shareTo = transferFrom;
+				break;
+			// reject and reclaim both give the node back
+			default:
+				newOwner = transferFrom;
+				shareTo = owner;
+				break;
+		}
+
+		Object curAc = doc.get(SubNode.AC);
+		Document ac = curAc instanceof Document ? new Document((Document) curAc) : new Document();
+
+		// same as AclService.addPrivilege
+		Object curEntry = ac.get(shareTo.toHexString());
+		Document entry = curEntry instanceof Document ? new Document((Document) curEntry) : new Document();
+		entry.put(AccessControl.FIELD_PRVS, PrivilegeType.READ.s() + "," + PrivilegeType.WRITE.s());
+		ac.put(shareTo.toHexString(), entry);
+
+		// same as onBeforeSave, never share a node to its owner
+		ac.remove(newOwner.toHexString());
+
+		Update update = new Update().set(SubNode.OWNER, newOwner);
+		if (newTransferFrom != null) {
+			update.set(SubNode.XFR, newTransferFrom);
+		} else {
+			update.unset(SubNode.XFR);
+		}
+		if (ac.isEmpty()) {
+			update.unset(SubNode.AC);
+		} else {
+			update.set(SubNode.AC, ac);
 		}
+		return update.set(SubNode.READERS, SubNode.getReaders(ac));
 	}
 
 	public LinkNodesResponse linkNodes(MongoSession ms, LinkNodesRequest req) {
@@ -1414,51 +1417,61 @@ public class NodeEditService extends ServiceBase {
 		return ret.toString().trim();
 	}
 
-	/* todo-1: we should be using a bulk update in here */
+	/* Stops the bulk updates (see SubGraphUpdate) running for this session */
+	public CancelSubGraphUpdateResponse cancelSubGraphUpdate(MongoSession ms, CancelSubGraphUpdateRequest req) {
+		CancelSubGraphUpdateResponse res = new CancelSubGraphUpdateResponse();
+		int count = subGraphUpdate.cancel(ThreadLocals.getSC());
+		res.setMessage(count == 0 ? "No updates are running." : "Stopping " + count + " update(s).");
+		res.setSuccess(true);
+		return res;
+	}
+
+	/*
+	 * Replaces the text in the node (and the nodes under it the user owns, if recursive) as bulk
+	 * updates (see SubGraphUpdate). Only nodes containing the text are even read.
+	 */
 	public SearchAndReplaceResponse searchAndReplace(MongoSession ms, SearchAndReplaceRequest req) {
 		SearchAndReplaceResponse res = new SearchAndReplaceResponse();
-		int replacements = 0;
-		int cachedChanges = 0;
 		String nodeId = req.getNodeId();
+		String search = req.getSearch();
+		String replace = req.getReplace();
 
 		// log.debug("searchingAndReplace node: " + nodeId);
 		SubNode node = read.getNode(ms, nodeId);
 		auth.ownerAuth(ms, node);
 
-		if (replaceText(ms, node, req.getSearch(), req.getReplace())) {
-			replacements++;
-			cachedChanges++;
-		}
+		Criteria crit = req.isRecursive() ? subGraphUpdate.owned(ms, node, true) : Criteria.where(SubNode.ID).is(node.getId());
+		crit = crit.and(SubNode.CONTENT).regex(Pattern.quote(search));
 
-		if (req.isRecursive()) {
-			for (SubNode n : read.getSubGraph(ms, node, null, 0, true, false, true)) {
-				if (replaceText(ms, n, req.getSearch(), req.getReplace())) {
-					replacements++;
-					cachedChanges++;
-
-					// save session immediately every time we get up to 100 pending updates cached.
-					if (cachedChanges >= 100) {
-						cachedChanges = 0;
-						update.saveSession(ms);
-					}
+		String boostField = SubNode.propField(NodeProp.BOOST.s());
+		Integer classifyVersion = english.getClassifyVersion();
+		Date now = Calendar.getInstance().getTime();
+
+		long replacements = subGraphUpdate.updateEach("Search and Replace", crit, List.of(SubNode.CONTENT, boostField), doc -> {
+			String content = doc.getString(SubNode.CONTENT);
+			if (content == null || !content.contains(search))
+				return null;
+
+			String newContent = content.replace(search, replace);
+			Update update = new Update().set(SubNode.CONTENT, newContent).set(SubNode.MODIFY_TIME, now);
+
+			// reclassify the new content, same as onBeforeSave would have
+			if (classifyVersion != null) {
+				Object props = doc.get(SubNode.PROPS);
+				Object boost = props instanceof Document ? ((Document) props).get(NodeProp.BOOST.s()) : null;
+				List<String> classes = snUtil.classify(newContent, boost instanceof String ? (String) boost : null);
+				if (classes != null) {
+					update.set(SubNode.CLASSES, classes);
+				} else {
+					update.unset(SubNode.CLASSES);
 				}
+				update.set(SubNode.CLASSES_VERSION, classifyVersion);
 			}
-		}
+			return update;
+		});
 
 		res.setMessage(String.valueOf(replacements) + " nodes were updated.");
 		res.setSuccess(true);
 		return res;
 	}
-
-	private boolean replaceText(MongoSession ms, SubNode node, String search, String replace) {
-		String content = node.getContent();
-		if (content == null)
-			return false;
-		if (content.contains(search)) {
-			node.setContent(content.replace(search, replace));
-			node.touch();
-			return true;
-		}
-		return false;
-	}
 }
@@ -13,6 +13,7 @@ import lombok.extern.slf4j.Slf4j;
 import quanta.config.ServiceBase;
 import quanta.exception.base.RuntimeEx;
 import quanta.model.client.NodeProp;
+import quanta.mongo.MongoCreate;
 import quanta.mongo.MongoSession;
 import quanta.mongo.model.SubNode;
 import quanta.request.JoinNodesRequest;
@@ -25,6 +26,7 @@ import quanta.response.SelectAllNodesResponse;
 import quanta.response.SetNodePositionResponse;
 import quanta.util.Const;
 import quanta.util.ThreadLocals;
+import quanta.util.XString;
 
 /**
  * Service for controlling the positions (ordinals) of nodes relative to their parents and/or moving
@@ -93,15 +95,8 @@ public class NodeMoveService extends ServiceBase {
 		if (parentNode == null) {
 			return;
 		}
-		create.insertOrdinal(ms, parentNode, 0L, 1L);
-
-		/*
-		 * todo-2: there is a slight ineffieiency here in that 'node' does end up getting saved both as part
-		 * of the insertOrdinal, and also then with the setting of it to zero. Will be easy to fix when I
-		 * get to it.
-		 */
-		update.saveSession(ms);
-		node.setOrdinal(0L);
+		long ordinal = create.insertOrdinal(ms, parentNode, 0L, 1L);
+		node.setOrdinal(ordinal);
 		update.saveSession(ms);
 	}
 
@@ -110,7 +105,7 @@ public class NodeMoveService extends ServiceBase {
 		if (parentNode == null) {
 			return;
 		}
-		long ordinal = read.getMaxChildOrdinal(ms, parentNode) + 1L;
+		long ordinal = read.getMaxChildOrdinal(ms, parentNode) + MongoCreate.ORDINAL_GAP;
 		node.setOrdinal(ordinal);
 		update.saveSession(ms);
 	}
@@ -150,7 +145,7 @@ public class NodeMoveService extends ServiceBase {
 			nodes.add(node);
 		}
 
-		nodes.sort((s1, s2) -> (int) (s1.getOrdinal() - s2.getOrdinal()));
+		nodes.sort((s1, s2) -> Long.compare(s1.getOrdinal(), s2.getOrdinal()));
 
 		StringBuilder sb = new StringBuilder();
 		SubNode firstNode = null;
@@ -218,18 +213,16 @@ public class NodeMoveService extends ServiceBase {
 
 		// location==inside
 		if (location.equalsIgnoreCase("inside")) {
-			curTargetOrdinal = read.getMaxChildOrdinal(ms, targetNode) + 1;
+			curTargetOrdinal = read.getMaxChildOrdinal(ms, targetNode) + MongoCreate.ORDINAL_GAP;
 		}
 		// location==inline (todo-2: rename this to inline-below -- or better yet, do an
 		// enum)
 		else if (location.equalsIgnoreCase("inline")) {
-			curTargetOrdinal = targetNode.getOrdinal() + 1;
-			create.insertOrdinal(ms, parentToPasteInto, curTargetOrdinal, nodeIds.size());
+			curTargetOrdinal = create.insertOrdinal(ms, parentToPasteInto, targetNode.getOrdinal() + 1, nodeIds.size());
 		}
 		// location==inline-above
 		else if (location.equalsIgnoreCase("inline-above")) {
-			curTargetOrdinal = targetNode.getOrdinal();
-			create.insertOrdinal(ms, parentToPasteInto, curTargetOrdinal, nodeIds.size());
+			curTargetOrdinal = create.insertOrdinal(ms, parentToPasteInto, targetNode.getOrdinal(), nodeIds.size());
 		}
 
 		String sourceParentPath = null;
@@ -258,7 +251,7 @@ public class NodeMoveService extends ServiceBase {
 		}
 
 		// make sure nodes to move are in ordinal order.
-		nodesToMove.sort((n1, n2) -> (int) (n1.getOrdinal() - n2.getOrdinal()));
+		nodesToMove.sort((n1, n2) -> Long.compare(n1.getOrdinal(), n2.getOrdinal()));
 
 		// process all nodes being moved.
 		for (SubNode node : nodesToMove) {
@@ -349,7 +342,8 @@ public class NodeMoveService extends ServiceBase {
 			}
 
 			Query query = new Query().addCriteria(new Criteria("id").is(node.getId()));
-			Update update = new Update().set(SubNode.PATH, newPath);
+			Update update = new Update().set(SubNode.PATH, newPath) //
+					.set(SubNode.PARENT_PATH, XString.truncAfterLast(newPath, "/"));
 
 			if (node.getStr(NodeProp.CRYPTO_SIG) != null) {
 				// crypto sig uses path as part of it, so we just invalidated the signature.
@@ -359,6 +353,7 @@ public class NodeMoveService extends ServiceBase {
 			}
 
 			bops.updateOne(query, update);
+			nodeCache.removePending(node.getId());
 			if (++batchSize > Const.MAX_BULK_OPS) {
 				bops.execute();
 				batchSize = 0;
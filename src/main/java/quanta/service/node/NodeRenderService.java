@@ -29,6 +29,7 @@ import quanta.model.client.ErrorType;
 import quanta.model.client.NodeProp;
 import quanta.model.client.NodeType;
 import quanta.mongo.MongoSession;
+import quanta.mongo.PageCursor;
 import quanta.mongo.model.SubNode;
 import quanta.request.InitNodeEditRequest;
 import quanta.request.RenderCalendarRequest;
@@ -301,7 +302,18 @@ public class NodeRenderService extends ServiceBase {
 		// moreCriteria = Criteria.where(SubNode.TYPE).ne(NodeType.COMMENT.s());
 		// }
 
-		Iterable<SubNode> nodeIter = read.getChildren(ms, node, sort, queryLimit, offset, moreCriteria);
+		/*
+		 * When the client has the cursor for where the previous page ended we read from there rather than
+		 * skipping 'offset' children, which still numbers the children.
+		 */
+		PageCursor cursor = scanToNode != null ? null : PageCursor.parse(req.getCursor(), sort);
+		int skip = offset;
+		if (cursor != null) {
+			moreCriteria = cursor.criteria(sort);
+			skip = 0;
+		}
+
+		Iterable<SubNode> nodeIter = read.getChildren(ms, node, sort, queryLimit, skip, moreCriteria);
 		Iterator<SubNode> iterator = nodeIter.iterator();
 		int idx = offset;
 
@@ -324,12 +336,20 @@ public class NodeRenderService extends ServiceBase {
 		// }
 
 		List<SubNode> slidingWindow = null;
-		NodeInfo ninfo = null;
+
+		/*
+		 * The page of children, in display order, collected first so they can all be converted together
+		 * at the end. Since they're contiguous in the query results their logical ordinals are consecutive,
+		 * starting at 'firstOrdinal'
+		 */
+		LinkedList<SubNode> pageNodes = new LinkedList<>();
+		long firstOrdinal = 0;
 
 		// -1 means "no last ordinal known" (i.e. first iteration)
 		long lastOrdinal = -1;
 		BulkOperations bops = null;
 		int batchSize = 0;
+		boolean ordinalsRepaired = false;
 
 		/*
 		 * Main loop to keep reading nodes from the database until we have enough to render the page
@@ -359,6 +379,8 @@ public class NodeRenderService extends ServiceBase {
 					Query query = new Query().addCriteria(new Criteria("id").is(n.getId()));
 					Update update = new Update().set(SubNode.ORDINAL, lastOrdinal);
 					bops.updateOne(query, update);
+					ordinalsRepaired = true;
+					nodeCache.removePending(n.getId());
 					if (++batchSize > Const.MAX_BULK_OPS) {
 						bops.execute();
 						batchSize = 0;
@@ -390,9 +412,8 @@ public class NodeRenderService extends ServiceBase {
 							for (int i = count - 1; i >= 0; i--) {
 								SubNode sn = slidingWindow.get(i);
 								relativeIdx--;
-								ninfo = render.processRenderNode(adminOnly, ms, req, res, sn, null, relativeIdx, level + 1, limit,
-										showReplies);
-								nodeInfo.getChildren().add(0, ninfo);
+								pageNodes.addFirst(sn);
+								firstOrdinal = relativeIdx;
 
 								/*
 								 * If we have enough records we're done. Note having ">= ROWS_PER_PAGE/2" for example would also
@@ -401,7 +422,7 @@ public class NodeRenderService extends ServiceBase {
 								 * performance by iterating the smallese number of results in order to get a page that contains
 								 * what we need (namely the target node as indiated by scanToNode item)
 								 */
-								if (nodeInfo.getChildren().size() >= limit - 1) {
+								if (pageNodes.size() >= limit - 1) {
 									break;
 								}
 							}
@@ -433,8 +454,10 @@ public class NodeRenderService extends ServiceBase {
 			}
 
 			/* if we get here we're accumulating rows */
-			ninfo = render.processRenderNode(adminOnly, ms, req, res, n, null, idx - 1L, level + 1, limit, showReplies);
-			nodeInfo.getChildren().add(ninfo);
+			if (pageNodes.isEmpty()) {
+				firstOrdinal = idx - 1L;
+			}
+			pageNodes.add(n);
 
 			if (!iterator.hasNext()) {
 				// since we query for 'limit+1', we will end up here if we're at the true end of the records.
@@ -442,7 +465,7 @@ public class NodeRenderService extends ServiceBase {
 				break;
 			}
 
-			if (nodeInfo.getChildren().size() >= limit) {
+			if (pageNodes.size() >= limit) {
 				/* break out of while loop, we have enough children to send back */
 				// log.debug("Full page is ready. Exiting loop.");
 				break;
@@ -453,20 +476,18 @@ public class NodeRenderService extends ServiceBase {
 		 * if we accumulated less than ROWS_PER_PAGE, then try to scan back up the sliding window to build
 		 * up the ROW_PER_PAGE by looking at nodes that we encountered before we reached the end.
 		 */
-		if (slidingWindow != null && nodeInfo.getChildren().size() < limit) {
+		if (slidingWindow != null && pageNodes.size() < limit) {
 			int count = slidingWindow.size();
 			if (count > 0) {
 				int relativeIdx = idx - 1;
 				for (int i = count - 1; i >= 0; i--) {
 					SubNode sn = slidingWindow.get(i);
 					relativeIdx--;
-
-					ninfo = render.processRenderNode(adminOnly, ms, req, res, sn, null, (long) relativeIdx, level + 1, limit,
-							showReplies);
-					nodeInfo.getChildren().add(0, ninfo);
+					pageNodes.addFirst(sn);
+					firstOrdinal = relativeIdx;
 
 					// If we have enough records we're done
-					if (nodeInfo.getChildren().size() >= limit) {
+					if (pageNodes.size() >= limit) {
 						break;
 					}
 				}
@@ -477,7 +498,11 @@ public class NodeRenderService extends ServiceBase {
 			log.trace("no child nodes found.");
 		}
 
-		if (endReached && ninfo != null && nodeInfo.getChildren().size() > 0) {
+		// children are rendered the same way processRenderNode renders them at level > 0
+		nodeInfo.getChildren().addAll(convert.convertToNodeInfos(adminOnly, ThreadLocals.getSC(), ms, pageNodes, false,
+				firstOrdinal, true, true, false, true, true, null));
+
+		if (endReached && nodeInfo.getChildren().size() > 0) {
 			// set 'lastChild' on the last child
 			nodeInfo.getChildren().get(nodeInfo.getChildren().size() - 1).setLastChild(true);
 		}
@@ -485,6 +510,14 @@ public class NodeRenderService extends ServiceBase {
 		// log.debug("Setting endReached="+endReached);
 		res.setEndReached(endReached);
 
+		/*
+		 * If any ordinals were just repaired, the ones we have in memory are stale and would make a wrong
+		 * cursor, so the next page goes by offset instead.
+		 */
+		if (!endReached && !ordinalsRepaired) {
+			res.setNextCursor(PageCursor.next(ops.getConverter(), sort, cursor, pageNodes));
+		}
+
 		if (bops != null) {
 			bops.execute();
 		}
@@ -11,11 +11,9 @@ import org.bson.types.ObjectId;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import com.fasterxml.jackson.core.type.TypeReference;
 import lombok.extern.slf4j.Slf4j;
-import quanta.config.NodePath;
 import quanta.config.ServiceBase;
 import quanta.instrument.PerfMon;
 import quanta.instrument.PerfMonEvent;
@@ -43,9 +41,11 @@ import quanta.response.GetSharedNodesResponse;
 import quanta.response.NodeSearchResponse;
 import quanta.response.RenderDocumentResponse;
 import quanta.service.WordStats;
+import quanta.util.ConvertBatch;
 import quanta.util.ExUtil;
 import quanta.util.ThreadLocals;
 import quanta.util.XString;
+import quanta.util.val.LongVal;
 import quanta.util.val.Val;
 
 /**
@@ -60,9 +60,6 @@ import quanta.util.val.Val;
 @Component
 @Slf4j
 public class NodeSearchService extends ServiceBase {
-	public static Object trendingFeedInfoLock = new Object();
-	public static GetNodeStatsResponse trendingFeedInfo;
-
 	static final String SENTENCE_DELIMS = ".!?";
 
 	/*
@@ -75,26 +72,6 @@ public class NodeSearchService extends ServiceBase {
 	static final String WORD_DELIMS = " \n\r\t,;:\"'`()*{}[]<>=\\.!“";
 
 	static final int TRENDING_LIMIT = 10000;
-	private static final int REFRESH_FREQUENCY_MINS = 180; // 3 hrs
-
-	/*
-	 * Runs immediately at startup, and then every few minutes, to refresh the feedCache.
-	 */
-	@Scheduled(fixedDelay = REFRESH_FREQUENCY_MINS * 60 * 1000)
-	public void run() {
-		/* Setting the trending data to null causes it to refresh itself the next time it needs to. */
-		synchronized (NodeSearchService.trendingFeedInfoLock) {
-			NodeSearchService.trendingFeedInfo = null;
-		}
-	}
-
-	public String refreshTrendingCache() {
-		/* Setting the trending data to null causes it to refresh itself the next time it needs to. */
-		synchronized (NodeSearchService.trendingFeedInfoLock) {
-			NodeSearchService.trendingFeedInfo = null;
-		}
-		return "Trending Data will be refreshed immediately at next request to display it.";
-	}
 
 	@PerfMon(category = "search")
 	public RenderDocumentResponse renderDocument(MongoSession ms, RenderDocumentRequest req) {
@@ -119,9 +96,12 @@ public class NodeSearchService extends ServiceBase {
 
 		perf.chain("rendDoc:getDocList");
 
+		ConvertBatch batch = convert.prefetch(ms, nodes, false, false, true, null);
+		perf.chain("rendDoc:prefetch");
+
 		for (SubNode n : nodes) {
-			NodeInfo info = convert.convertToNodeInfo(adminOnly, ThreadLocals.getSC(), ms, n, false, counter + 1, false, false,
-					false, false, false, true, null, false);
+			NodeInfo info = convert.convertToNodeInfo(adminOnly, ThreadLocals.getSC(), ms, n, false, ++counter, false, false,
+					false, false, false, true, null, false, batch);
 
 			if (info != null) {
 				if (truncates.contains(n.getIdStr())) {
@@ -206,13 +186,18 @@ public class NodeSearchService extends ServiceBase {
 					delete.deleteMatches(ms, searchRoot, req.getSearchProp(), searchText, req.isFuzzy(), req.isCaseSensitive(),
 							req.getTimeRangeType(), req.isRecursive(), req.isRequirePriority());
 				} else {
-					for (SubNode node : read.searchSubGraph(ms, searchRoot, req.getSearchProp(), searchText, req.getSortField(),
-							req.getSortDir(), ConstantInt.ROWS_PER_PAGE.val(), ConstantInt.ROWS_PER_PAGE.val() * req.getPage(),
-							req.isFuzzy(), req.isCaseSensitive(), req.getTimeRangeType(), req.isRecursive(),
-							req.isRequirePriority(), req.isRequireAttachment())) {
+					Val<String> cursor = new Val<>(req.getCursor());
+					List<SubNode> nodes = read.searchSubGraph(ms, searchRoot, req.getSearchProp(), searchText, req.getSortField(),
+							req.getSortDir(), ConstantInt.ROWS_PER_PAGE.val(), ConstantInt.ROWS_PER_PAGE.val() * req.getPage(), cursor,
+							req.isFuzzy(), req.isCaseSensitive(), req.getTimeRangeType(), req.isRecursive(), req.isRequirePriority(),
+							req.isRequireAttachment());
+					res.setNextCursor(cursor.getVal());
+					ConvertBatch batch = convert.prefetch(ms, nodes, false, false, true, null);
+
+					for (SubNode node : nodes) {
 						try {
 							NodeInfo info = convert.convertToNodeInfo(adminOnly, ThreadLocals.getSC(), ms, node, false,
-									counter + 1, false, false, false, false, false, true, null, false);
+									++counter, false, false, false, false, false, true, null, false, batch);
 							if (info != null) {
 								searchResults.add(info);
 							}
@@ -246,14 +231,18 @@ public class NodeSearchService extends ServiceBase {
 		});
 
 		if (accountNodes.getVal() != null) {
+			List<SubNode> nodes = new LinkedList<>();
+			accountNodes.getVal().forEach(nodes::add);
+			ConvertBatch batch = convert.prefetch(ms, nodes, false, false, false, null);
+
 			/*
 			 * scan all userAccountNodes, and set a zero amount for those not found (which will be the correct
 			 * amount).
 			 */
-			for (SubNode node : accountNodes.getVal()) {
+			for (SubNode node : nodes) {
 				try {
 					NodeInfo info = convert.convertToNodeInfo(false, ThreadLocals.getSC(), ms, node, false, counter + 1, false,
-							false, false, false, false, false, null, false);
+							false, false, false, false, false, null, false, batch);
 					if (info != null) {
 						searchResults.add(info);
 					}
@@ -314,6 +303,7 @@ public class NodeSearchService extends ServiceBase {
 		 * 2) all my shared nodes globally, and the globally is done simply by passing null for the path
 		 * here
 		 */
+		List<SubNode> nodes = new LinkedList<>();
 		for (SubNode node : auth.searchSubGraphByAcl(ms, req.getPage() * ConstantInt.ROWS_PER_PAGE.val(), searchRoot.getPath(),
 				searchRoot.getOwner(), Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME), ConstantInt.ROWS_PER_PAGE.val())) {
 
@@ -347,13 +337,12 @@ public class NodeSearchService extends ServiceBase {
 				}
 			}
 
-			NodeInfo info = convert.convertToNodeInfo(false, ThreadLocals.getSC(), ms, node, false, counter + 1, false, false,
-					false, false, false, true, null, false);
-			if (info != null) {
-				searchResults.add(info);
-			}
+			nodes.add(node);
 		}
 
+		searchResults.addAll(convert.convertToNodeInfos(false, ThreadLocals.getSC(), ms, nodes, false, counter + 1, false, false,
+				false, false, true, null));
+
 		res.setSuccess(true);
 		// log.debug("search results count: " + counter);
 		return res;
@@ -380,28 +369,12 @@ public class NodeSearchService extends ServiceBase {
 	}
 
 	public void getNodeStats(MongoSession ms, GetNodeStatsRequest req, GetNodeStatsResponse res) {
-		boolean countVotes = !req.isFeed();
-
-		/*
-		 * If this is the 'feed' being queried (i.e. the Trending tab on the app), then get the data from
-		 * trendingFeedInfo (the cache), or else cache it
-		 */
+		// The Trending tab on the app is answered from the live counts
 		if (req.isFeed()) {
-			synchronized (NodeSearchService.trendingFeedInfoLock) {
-				if (NodeSearchService.trendingFeedInfo != null) {
-					res.setStats(NodeSearchService.trendingFeedInfo.getStats());
-					res.setTopMentions(NodeSearchService.trendingFeedInfo.getTopMentions());
-					res.setTopTags(NodeSearchService.trendingFeedInfo.getTopTags());
-					res.setTopWords(NodeSearchService.trendingFeedInfo.getTopWords());
-					res.setSuccess(true);
-					return;
-				}
-			}
+			trending.getTrending(res);
+			return;
 		}
-
-		// If we're doing the system-wide statistics get blockedTerms from Admin account and
-		// use those to ban unwanted things from trending
-		HashSet<String> blockTerms = getAdminBlockedWords(req);
+		boolean countVotes = true;
 
 		HashMap<String, WordStats> wordMap = req.isGetWords() ? new HashMap<>() : null;
 		HashMap<String, WordStats> tagMap = req.isGetTags() ? new HashMap<>() : null;
@@ -409,9 +382,8 @@ public class NodeSearchService extends ServiceBase {
 		HashMap<String, WordStats> voteMap = countVotes ? new HashMap<>() : null;
 
 		long nodeCount = 0;
-		long totalWords = 0;
+		LongVal totalWords = new LongVal();
 		Iterable<SubNode> iter = null;
-		boolean strictFiltering = false;
 
 		int publicCount = 0;
 		int publicWriteCount = 0;
@@ -422,84 +394,38 @@ public class NodeSearchService extends ServiceBase {
 		int failedSigCount = 0;
 
 		/*
-		 * NOTE: This query is similar to the one in UserFeedService.java, but simpler since we don't handle
-		 * a bunch of options but just the public feed query
-		 */
-		if (req.isFeed()) {
-			strictFiltering = true;
-			List<Criteria> ands = new LinkedList<>();
-			Query q = new Query();
-
-			Criteria crit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(NodePath.USERS_PATH));
-
-			// This pattern is what is required when you have multiple conditions added to a
-			// single field.
-			ands.add(Criteria.where(SubNode.TYPE).ne(NodeType.FRIEND.s())); //
-			ands.add(Criteria.where(SubNode.TYPE).ne(NodeType.POSTS.s())); //
-			ands.add(Criteria.where(SubNode.TYPE).ne(NodeType.ACT_PUB_POSTS.s()));
-
-			// For public feed statistics only consider PUBLIC nodes.
-			ands.add(Criteria.where(SubNode.AC + "." + PrincipalName.PUBLIC.s()).ne(null));
-
-			HashSet<ObjectId> blockedUserIds = new HashSet<>();
-
-			/*
-			 * We block the "remote users" and "local users" by blocking any admin owned nodes, but we also just
-			 * want to in general for other reasons block any admin-owned nodes from showing up in feeds. Feeds
-			 * are always only about user content.
-			 */
-			blockedUserIds.add(auth.getAdminSession().getUserNodeId());
-
-			// filter out any nodes owned by users the admin has blocked.
-			userFeed.getBlockedUserIds(blockedUserIds, PrincipalName.ADMIN.s());
-
-			if (blockedUserIds.size() > 0) {
-				ands.add(Criteria.where(SubNode.OWNER).nin(blockedUserIds));
-			}
-
-			crit.andOperator(ands);
-
-			q.addCriteria(crit);
-			q.with(Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME));
-			q.limit(TRENDING_LIMIT);
-
-			iter = mongoUtil.find(q);
-		}
-		/*
-		 * Otherwise this is not a Feed Tab query but just an arbitrary node stats request, like a user
-		 * running a stats request under the 'Node Info' main menu
+		 * This is not a Feed Tab query but just an arbitrary node stats request, like a user running a stats
+		 * request under the 'Node Info' main menu
 		 */
-		else {
-			ms = ThreadLocals.ensure(ms);
-			SubNode searchRoot = read.getNode(ms, req.getNodeId());
+		ms = ThreadLocals.ensure(ms);
+		SubNode searchRoot = read.getNode(ms, req.getNodeId());
 
-			if (req.isSignatureVerify()) {
-				String sig = searchRoot.getStr(NodeProp.CRYPTO_SIG);
-				if (sig != null) {
-					signedNodeCount++;
-					if (!crypto.nodeSigVerify(searchRoot, sig)) {
-						failedSigCount++;
-					}
-				} else {
-					log.debug("UNSIGNED: " + XString.prettyPrint(searchRoot));
-					unsignedNodeCount++;
+		if (req.isSignatureVerify()) {
+			String sig = searchRoot.getStr(NodeProp.CRYPTO_SIG);
+			if (sig != null) {
+				signedNodeCount++;
+				if (!crypto.nodeSigVerify(searchRoot, sig)) {
+					failedSigCount++;
 				}
+			} else {
+				log.debug("UNSIGNED: " + XString.prettyPrint(searchRoot));
+				unsignedNodeCount++;
 			}
+		}
 
-			Sort sort = null;
-			int limit = 0;
-			if (req.isTrending()) {
-				sort = Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME);
-				limit = TRENDING_LIMIT;
-			}
-
-			// We pass true if this is a basic subgraph (not a Trending analysis), so that running Node Stats
-			// has the side effect of cleaning out orphans.
-			// Note doAuth is saying here if there's any potential secrets in the results then use doAuth=true
-			boolean doAuth = wordMap != null || tagMap != null || mentionMap != null;
-			iter = read.getSubGraph(ms, searchRoot, sort, limit, limit == 0 ? true : false, false, doAuth);
+		Sort sort = null;
+		int limit = 0;
+		if (req.isTrending()) {
+			sort = Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME);
+			limit = TRENDING_LIMIT;
 		}
 
+		// We pass true if this is a basic subgraph (not a Trending analysis), so that running Node Stats
+		// has the side effect of cleaning out orphans.
+		// Note doAuth is saying here if there's any potential secrets in the results then use doAuth=true
+		boolean doAuth = wordMap != null || tagMap != null || mentionMap != null;
+		iter = read.getSubGraph(ms, searchRoot, sort, limit, limit == 0 ? true : false, false, doAuth);
+
 		HashSet<String> uniqueUsersSharedTo = new HashSet<>();
 		HashSet<ObjectId> uniqueVoters = countVotes ? new HashSet<>() : null;
 
@@ -548,90 +474,8 @@ public class NodeSearchService extends ServiceBase {
 				content += " " + node.getTags();
 			}
 
-			// if strict content filtering ignore non-english or bad words posts completely
-			if (strictFiltering && (!english.isEnglish(content) || english.hasBadWords(content))) {
-				continue;
-			}
-
-			HashSet<String> knownTokens = null;
-			StringTokenizer tokens = new StringTokenizer(content, WORD_DELIMS, false);
-			while (tokens.hasMoreTokens()) {
-				String token = tokens.nextToken().trim();
-
-				if (!english.isStopWord(token)) {
-					String lcToken = token.toLowerCase();
-
-					// if word is a mention.
-					if (token.startsWith("@")) {
-						if (token.length() < 3)
-							continue;
-
-						// lazy create and update knownTokens
-						if (knownTokens == null) {
-							knownTokens = new HashSet<>();
-						}
-						knownTokens.add(lcToken);
-
-						if (mentionMap != null) {
-							WordStats ws = mentionMap.get(lcToken);
-							if (ws == null) {
-								ws = new WordStats(token);
-								mentionMap.put(lcToken, ws);
-							}
-							ws.count++;
-						}
-					}
-					// if word is a hashtag.
-					else if (token.startsWith("#")) {
-						if (token.endsWith("#") || token.length() < 4)
-							continue;
-
-						String tokSearch = token.replace("#", "").toLowerCase();
-						if (blockTerms != null && blockTerms.contains(tokSearch))
-							continue;
-
-						// ignore stuff like #1 #23
-						String numCheck = token.substring(1);
-						if (StringUtils.isNumeric(numCheck))
-							continue;
-
-						// lazy create and update knownTokens
-						if (knownTokens == null) {
-							knownTokens = new HashSet<>();
-						}
-						knownTokens.add(lcToken);
-
-						if (tagMap != null) {
-							WordStats ws = tagMap.get(lcToken);
-							if (ws == null) {
-								ws = new WordStats(token);
-								tagMap.put(lcToken, ws);
-							}
-							ws.count++;
-						}
-					}
-					// ordinary word
-					else {
-						if (!StringUtils.isAlpha(token) || token.length() < 3) {
-							continue;
-						}
-
-						if (blockTerms != null && blockTerms.contains(token.toLowerCase()))
-							continue;
-
-						if (wordMap != null) {
-							WordStats ws = wordMap.get(lcToken);
-							if (ws == null) {
-								ws = new WordStats(token);
-								wordMap.put(lcToken, ws);
-							}
-							ws.count++;
-						}
-					}
-				}
-				totalWords++;
-			}
-			extractTagsAndMentions(node, knownTokens, tagMap, mentionMap, blockTerms);
+			HashSet<String> knownTokens = countTokens(content, null, wordMap, tagMap, mentionMap, totalWords);
+			extractTagsAndMentions(node, knownTokens, tagMap, mentionMap, null);
 
 			if (countVotes) {
 				String vote = node.getStr(NodeProp.VOTE.s());
@@ -667,7 +511,7 @@ public class NodeSearchService extends ServiceBase {
 			voteList.sort((s1, s2) -> (int) (s2.count - s1.count));
 
 		StringBuilder sb = new StringBuilder();
-		sb.append("Node count: " + nodeCount + ", Total Words: " + totalWords + "\n");
+		sb.append("Node count: " + nodeCount + ", Total Words: " + totalWords.getVal() + "\n");
 
 		if (wordList != null) {
 			sb.append("Unique Words: " + wordList.size() + "\n");
@@ -730,35 +574,97 @@ public class NodeSearchService extends ServiceBase {
 		}
 
 		res.setSuccess(true);
-
-		/*
-		 * If this is a feed query cache it. Only will refresh every 30mins based on a @Schedule event
-		 */
-		if (req.isFeed()) {
-			synchronized (NodeSearchService.trendingFeedInfoLock) {
-				NodeSearchService.trendingFeedInfo = res;
-			}
-		}
 	}
 
-	private HashSet<String> getAdminBlockedWords(GetNodeStatsRequest req) {
-		HashSet<String> blockTerms = null;
-		if (req.isFeed()) {
-			blockTerms = new HashSet<>();
-			SubNode root = read.getDbRoot();
-			String blockedWords = root.getStr(NodeProp.USER_BLOCK_WORDS);
-			if (StringUtils.isNotEmpty(blockedWords)) {
-				StringTokenizer t = new StringTokenizer(blockedWords, " \n\r\t,", false);
-				while (t.hasMoreTokens()) {
-					blockTerms.add(t.nextToken().replace("#", "").toLowerCase());
+	/*
+	 * Counts the words, hashtags and mentions in 'content' into the maps (any of which can be null),
+	 * and returns the (lower case) hashtags and mentions found, or null if there were none.
+	 */
+	public HashSet<String> countTokens(String content, HashSet<String> blockTerms, HashMap<String, WordStats> wordMap,
+			HashMap<String, WordStats> tagMap, HashMap<String, WordStats> mentionMap, LongVal totalWords) {
+		HashSet<String> knownTokens = null;
+		StringTokenizer tokens = new StringTokenizer(content, WORD_DELIMS, false);
+		while (tokens.hasMoreTokens()) {
+			String token = tokens.nextToken().trim();
+
+			if (!english.isStopWord(token)) {
+				String lcToken = token.toLowerCase();
+
+				// if word is a mention.
+				if (token.startsWith("@")) {
+					if (token.length() < 3)
+						continue;
+
+					// lazy create and update knownTokens
+					if (knownTokens == null) {
+						knownTokens = new HashSet<>();
+					}
+					knownTokens.add(lcToken);
+
+					if (mentionMap != null) {
+						WordStats ws = mentionMap.get(lcToken);
+						if (ws == null) {
+							ws = new WordStats(token);
+							mentionMap.put(lcToken, ws);
+						}
+						ws.count++;
+					}
+				}
+				// if word is a hashtag.
+				else if (token.startsWith("#")) {
+					if (token.endsWith("#") || token.length() < 4)
+						continue;
+
+					String tokSearch = token.replace("#", "").toLowerCase();
+					if (blockTerms != null && blockTerms.contains(tokSearch))
+						continue;
+
+					// ignore stuff like #1 #23
+					String numCheck = token.substring(1);
+					if (StringUtils.isNumeric(numCheck))
+						continue;
+
+					// lazy create and update knownTokens
+					if (knownTokens == null) {
+						knownTokens = new HashSet<>();
+					}
+					knownTokens.add(lcToken);
+
+					if (tagMap != null) {
+						WordStats ws = tagMap.get(lcToken);
+						if (ws == null) {
+							ws = new WordStats(token);
+							tagMap.put(lcToken, ws);
+						}
+						ws.count++;
+					}
+				}
+				// ordinary word
+				else {
+					if (!StringUtils.isAlpha(token) || token.length() < 3) {
+						continue;
+					}
+
+					if (blockTerms != null && blockTerms.contains(token.toLowerCase()))
+						continue;
+
+					if (wordMap != null) {
+						WordStats ws = wordMap.get(lcToken);
+						if (ws == null) {
+							ws = new WordStats(token);
+							wordMap.put(lcToken, ws);
+						}
+						ws.count++;
+					}
 				}
 			}
+			totalWords.inc();
 		}
-		return blockTerms;
+		return knownTokens;
 	}
 
 	// #tag-array
-	private void extractTagsAndMentions(SubNode node, HashSet<String> knownTokens, HashMap<String, WordStats> tagMap,
+	public void extractTagsAndMentions(SubNode node, HashSet<String> knownTokens, HashMap<String, WordStats> tagMap,
 			HashMap<String, WordStats> mentionMap, HashSet<String> blockTerms) {
 
 		List<APTag> tags = node.getTypedObj(NodeProp.ACT_PUB_TAG.s(), new TypeReference<List<APTag>>() {});
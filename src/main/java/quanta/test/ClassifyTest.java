@@ -0,0 +1,105 @@
+package quanta.test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.bson.Document;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.NodePath;
+import quanta.config.ServiceBase;
+import quanta.model.client.NodeProp;
+import quanta.model.client.NodeType;
+import quanta.mongo.model.SubNode;
+import quanta.util.EnglishDictionary;
+
+/**
+ * Checks SubNode.CLASSES follows the content thru full saves, field updates, and boosts.
+ */
+@Component("ClassifyTest")
+@Slf4j
+public class ClassifyTest extends ServiceBase implements TestIntf {
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("ClassifyTest Running!");
+
+		if (english.getClassifyVersion() == null) {
+			log.debug("ClassifyTest skipped: word lists aren't loaded.");
+			return;
+		}
+		String badWord = firstBadWord();
+
+		arun.run(as -> {
+			SubNode root = null;
+			try {
+				root = create.createNode(as, mongoUtil.findAvailablePath(NodePath.ROOT_PATH + "/"));
+				root.setContent("ClassifyTest root");
+				update.save(as, root);
+
+				// full save of a new node
+				SubNode node = create.createNode(as, root, NodeType.NONE.s(), 0L, null, false);
+				node.setContent("This is a simple sentence written in plain English words.");
+				update.save(as, node);
+				checkClasses(node);
+
+				// field update of only the content
+				node.setContent("This sentence is written in English but says " + badWord + " here.");
+				update.saveSession(as);
+				checkClasses(node, EnglishDictionary.BAD_WORDS);
+
+				// a boost takes on the classification of what it boosts
+				SubNode boost = create.createNode(as, root, NodeType.NONE.s(), 1L, null, false);
+				boost.set(NodeProp.BOOST, node.getIdStr());
+				update.save(as, boost);
+				checkClasses(boost, EnglishDictionary.BAD_WORDS);
+
+				node.setContent("This is a simple sentence written in plain English words.");
+				update.saveSession(as);
+				checkClasses(node);
+			} finally {
+				if (root != null) {
+					delete.delete(as, root, false);
+				}
+			}
+			return null;
+		});
+
+		log.debug("ClassifyTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	private void checkClasses(SubNode node, String... expected) {
+		Document doc = ops.findOne(new Query(Criteria.where(SubNode.ID).is(node.getId())), Document.class,
+				ops.getCollectionName(SubNode.class));
+		List<String> want = expected.length > 0 ? Arrays.asList(expected) : null;
+		Object got = doc.get(SubNode.CLASSES);
+		if (want == null ? got != null : !want.equals(got)) {
+			throw new RuntimeException("ClassifyTest failed: classes are " + got + " expected " + want);
+		}
+		if (!english.getClassifyVersion().equals(doc.get(SubNode.CLASSES_VERSION))) {
+			throw new RuntimeException("ClassifyTest failed: version is " + doc.get(SubNode.CLASSES_VERSION));
+		}
+	}
+
+	private String firstBadWord() throws Exception {
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new ClassPathResource("public/data/bad-words.txt").getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				// just a single word, since that's all hasBadWords can match
+				line = line.trim().toLowerCase();
+				if (line.matches("[a-z]+")) {
+					return line;
+				}
+			}
+		}
+		throw new RuntimeException("ClassifyTest failed: no bad words");
+	}
+}
@@ -0,0 +1,116 @@
+package quanta.test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import com.mongodb.BasicDBObject;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.mongo.model.GridRef;
+
+/**
+ * Checks repeat uploads of the same content share one grid file, which goes away only when the last
+ * reference is released, and logs the storage saved.
+ */
+@Component("GridDedupTest")
+@Slf4j
+public class GridDedupTest extends ServiceBase implements TestIntf {
+	private static final int[] SIZES = {10 * 1024, 200 * 1024, 900 * 1024, 3 * 1024 * 1024};
+	private static final int FILES_PER_SIZE = 3;
+	private static final int COPIES = 5;
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("GridDedupTest Running!");
+
+		Random rand = new Random();
+		List<byte[]> files = new ArrayList<>();
+		for (int size : SIZES) {
+			for (int i = 0; i < FILES_PER_SIZE; i++) {
+				byte[] bytes = new byte[size];
+				rand.nextBytes(bytes);
+				files.add(bytes);
+			}
+		}
+
+		List<Integer> uploads = new ArrayList<>();
+		for (int i = 0; i < files.size(); i++) {
+			for (int c = 0; c < COPIES; c++) {
+				uploads.add(i);
+			}
+		}
+		Collections.shuffle(uploads, rand);
+
+		HashMap<Integer, String> gidOfFile = new HashMap<>();
+		List<String> refs = new ArrayList<>();
+		long firstNanos = 0;
+		long repeatNanos = 0;
+		long logicalBytes = 0;
+
+		try {
+			for (int i : uploads) {
+				byte[] bytes = files.get(i);
+				long start = System.nanoTime();
+				String gid = gridDedup.store(new ByteArrayInputStream(bytes), "dedup-test", "application/octet-stream",
+						new BasicDBObject());
+				long nanos = System.nanoTime() - start;
+				refs.add(gid);
+				logicalBytes += bytes.length;
+
+				String firstGid = gidOfFile.putIfAbsent(i, gid);
+				if (firstGid == null) {
+					firstNanos += nanos;
+				} else {
+					repeatNanos += nanos;
+					if (!firstGid.equals(gid)) {
+						throw new RuntimeException("GridDedupTest failed: copy stored as " + gid + " not " + firstGid);
+					}
+				}
+			}
+
+			long storedBytes = 0;
+			for (String gid : gidOfFile.values()) {
+				storedBytes += attach.grid.findOne(new Query(Criteria.where("_id").is(gid))).getLength();
+			}
+			int repeats = uploads.size() - files.size();
+			log.debug("Dedup: " + uploads.size() + " uploads of " + logicalBytes + " bytes stored as " + storedBytes + " bytes");
+			log.debug("Dedup: avg first upload " + (firstNanos / files.size() / 1000) + "us, avg repeat upload "
+					+ (repeatNanos / repeats / 1000) + "us");
+
+			// all but the last reference to a file leaves it in place
+			HashSet<String> released = new HashSet<>();
+			for (int i = refs.size() - 1; i >= 0; i--) {
+				String gid = refs.get(i);
+				gridDedup.release(gid);
+				boolean last = !refs.subList(0, i).contains(gid);
+				boolean exists = attach.grid.findOne(new Query(Criteria.where("_id").is(gid))) != null;
+				if (exists == last) {
+					throw new RuntimeException("GridDedupTest failed: " + gid + " exists=" + exists + " after release");
+				}
+				if (last) {
+					released.add(gid);
+				}
+			}
+			refs.clear();
+
+			if (ops.count(new Query(Criteria.where(GridRef.GID).in(released)), GridRef.class) != 0) {
+				throw new RuntimeException("GridDedupTest failed: refs left after all released");
+			}
+		} finally {
+			for (String gid : refs) {
+				gridDedup.release(gid);
+			}
+		}
+
+		log.debug("GridDedupTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+}
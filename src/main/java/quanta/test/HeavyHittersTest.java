@@ -0,0 +1,88 @@
+package quanta.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.service.HeavyHitters;
+import quanta.service.WordStats;
+
+/**
+ * Checks HeavyHitters finds the most frequent words of a skewed stream, never undercounts, and
+ * survives a save and restore.
+ */
+@Component("HeavyHittersTest")
+@Slf4j
+public class HeavyHittersTest extends ServiceBase implements TestIntf {
+	private static final int DISTINCT = 50000;
+	private static final int ADDS = 500000;
+	private static final int CAPACITY = 200;
+	private static final int CHECK_TOP = 20;
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("HeavyHittersTest Running!");
+
+		// zipf-like: word i comes up about 1/i as often as word 1, in random order and mixed case
+		double[] cumulative = new double[DISTINCT];
+		double sum = 0;
+		for (int i = 0; i < DISTINCT; i++) {
+			sum += 1.0 / (i + 1);
+			cumulative[i] = sum;
+		}
+
+		Random rand = new Random(1);
+		HeavyHitters hh = new HeavyHitters(CAPACITY);
+		HashMap<String, Long> actual = new HashMap<>();
+		long start = System.currentTimeMillis();
+		for (int n = 0; n < ADDS; n++) {
+			int idx = Arrays.binarySearch(cumulative, rand.nextDouble() * sum);
+			int i = idx >= 0 ? idx : -idx - 1;
+			String word = "word" + i;
+			hh.add(rand.nextBoolean() ? word : word.toUpperCase(), 1);
+			actual.merge(word, 1L, Long::sum);
+		}
+		log.debug("Added " + ADDS + " in " + (System.currentTimeMillis() - start) + "ms");
+
+		checkTop(hh, actual);
+		for (String word : actual.keySet()) {
+			if (hh.estimate(word) < actual.get(word)) {
+				throw new RuntimeException("HeavyHittersTest failed: " + word + " undercounted");
+			}
+		}
+
+		HeavyHitters copy = new HeavyHitters(CAPACITY);
+		copy.restore(hh.getSketchBytes(), new ArrayList<>(hh.getTop()));
+		for (int i = 0; i < 100; i++) {
+			if (copy.estimate("word" + i) != hh.estimate("word" + i)) {
+				throw new RuntimeException("HeavyHittersTest failed: restored estimate differs");
+			}
+		}
+		checkTop(copy, actual);
+
+		log.debug("HeavyHittersTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	// the CHECK_TOP truly most frequent words must all be among the heavy hitters
+	private void checkTop(HeavyHitters hh, HashMap<String, Long> actual) {
+		HashSet<String> found = new HashSet<>();
+		for (WordStats ws : hh.getTop()) {
+			found.add(ws.word.toLowerCase());
+		}
+
+		List<String> words = new ArrayList<>(actual.keySet());
+		words.sort((a, b) -> Long.compare(actual.get(b), actual.get(a)));
+		for (String word : words.subList(0, CHECK_TOP)) {
+			if (!found.contains(word)) {
+				throw new RuntimeException("HeavyHittersTest failed: missed " + word + " counted " + actual.get(word));
+			}
+		}
+	}
+}
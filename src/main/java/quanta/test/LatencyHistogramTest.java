@@ -0,0 +1,72 @@
+package quanta.test;
+
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.instrument.LatencyHistogram;
+
+/**
+ * Checks LatencyHistogram percentiles against known distributions, and times 'record'.
+ */
+@Component("LatencyHistogramTest")
+@Slf4j
+public class LatencyHistogramTest extends ServiceBase implements TestIntf {
+	// buckets are 1/8 of a power of two wide
+	private static final double MAX_ERROR = 0.13;
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("LatencyHistogramTest Running!");
+
+		// 1..100000 microseconds, evenly
+		LatencyHistogram h = new LatencyHistogram("test");
+		for (long i = 1; i <= 100000; i++) {
+			h.record(i * 1000);
+		}
+		LatencyHistogram.Snapshot snap = h.snapshot(1);
+		check(snap.count == 100000, "count " + snap.count);
+		check(snap.maxNanos == 100000L * 1000, "max " + snap.maxNanos);
+		checkNear(snap.percentileNanos(50), 50000L * 1000, "p50");
+		checkNear(snap.percentileNanos(90), 90000L * 1000, "p90");
+		checkNear(snap.percentileNanos(99), 99000L * 1000, "p99");
+		checkNear(snap.percentileNanos(99.9), 99900L * 1000, "p99.9");
+
+		// mostly fast with a slow tail, which averages hide
+		h = new LatencyHistogram("test2");
+		for (int i = 0; i < 990; i++) {
+			h.record(200000);
+		}
+		for (int i = 0; i < 10; i++) {
+			h.record(2000000000L);
+		}
+		snap = h.snapshot(1);
+		checkNear(snap.percentileNanos(50), 200000, "tail p50");
+		checkNear(snap.percentileNanos(99.9), 2000000000L, "tail p99.9");
+
+		// sub-millisecond values are kept
+		h = new LatencyHistogram("test3");
+		h.record(1500);
+		checkNear(h.snapshot(1).percentileNanos(50), 1500, "sub-ms");
+
+		int count = 10000000;
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			h.record(i);
+		}
+		log.debug("record: " + ((System.nanoTime() - start) / count) + "ns per call");
+
+		log.debug("LatencyHistogramTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	private void checkNear(long val, long expected, String msg) {
+		check(Math.abs(val - expected) <= expected * MAX_ERROR, msg + ": got " + val + " expected " + expected);
+	}
+
+	private void check(boolean ok, String msg) {
+		if (!ok) {
+			throw new RuntimeException("LatencyHistogramTest failed: " + msg);
+		}
+	}
+}
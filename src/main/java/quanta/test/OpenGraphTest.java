@@ -0,0 +1,133 @@
+package quanta.test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.model.client.OpenGraph;
+import quanta.mongo.model.OpenGraphEntry;
+import quanta.util.DateUtil;
+import quanta.util.Util;
+
+/**
+ * Checks OpenGraphService against a local HTTP stub: concurrent lookups of a URL make one fetch,
+ * results and failures persist, and which links of a node get prefetched.
+ */
+@Component("OpenGraphTest")
+@Slf4j
+public class OpenGraphTest extends ServiceBase implements TestIntf {
+	private static final int CONCURRENT = 20;
+
+	private static final String PAGE = "<html><head>" //
+			+ "<meta property=\"og:title\" content=\"Stub Title\">" //
+			+ "<meta property=\"og:description\" content=\"Stub Description\">" //
+			+ "</head><body>stub</body></html>";
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("OpenGraphTest Running!");
+
+		AtomicInteger pageHits = new AtomicInteger();
+		AtomicInteger missingHits = new AtomicInteger();
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		ExecutorService serverPool = Executors.newFixedThreadPool(4);
+		server.setExecutor(serverPool);
+		server.createContext("/page", exchange -> {
+			pageHits.incrementAndGet();
+			// slow enough that all the lookups pile up on the one fetch
+			Util.sleep(500);
+			respond(exchange, 200, PAGE);
+		});
+		server.createContext("/missing", exchange -> {
+			missingHits.incrementAndGet();
+			respond(exchange, 404, "not found");
+		});
+		server.start();
+
+		// unique urls, so what earlier runs persisted doesn't count
+		String base = "http://localhost:" + server.getAddress().getPort();
+		String pageUrl = base + "/page?run=" + System.currentTimeMillis();
+		String missingUrl = base + "/missing?run=" + System.currentTimeMillis();
+
+		ExecutorService pool = Executors.newFixedThreadPool(CONCURRENT);
+		try {
+			List<Future<OpenGraph>> results = new ArrayList<>();
+			for (int i = 0; i < CONCURRENT; i++) {
+				results.add(pool.submit(() -> openGraph.getOpenGraph(pageUrl)));
+			}
+			for (Future<OpenGraph> result : results) {
+				OpenGraph og = result.get();
+				if (og == null || !"Stub Title".equals(og.getTitle())) {
+					throw new RuntimeException("OpenGraphTest failed: bad result " + og);
+				}
+			}
+			if (pageHits.get() != 1) {
+				throw new RuntimeException("OpenGraphTest failed: " + pageHits.get() + " fetches of one url");
+			}
+
+			OpenGraphEntry entry = ops.findById(pageUrl, OpenGraphEntry.class);
+			if (entry == null || !"Stub Description".equals(entry.getOpenGraph().getDescription())) {
+				throw new RuntimeException("OpenGraphTest failed: result not persisted");
+			}
+
+			// a failure is cached too, but not for as long
+			// (the first lookup may hit it twice, the second try being to get the mime type)
+			openGraph.getOpenGraph(missingUrl);
+			int fetches = missingHits.get();
+			OpenGraph missing = openGraph.getOpenGraph(missingUrl);
+			if (missing == null || missing.getTitle() != null || missingHits.get() != fetches) {
+				throw new RuntimeException("OpenGraphTest failed: failure not cached, fetches=" + missingHits.get());
+			}
+			entry = ops.findById(missingUrl, OpenGraphEntry.class);
+			if (entry == null || entry.getExpires().getTime() > System.currentTimeMillis() + DateUtil.HOUR_MILLIS) {
+				throw new RuntimeException("OpenGraphTest failed: failure not persisted with the short TTL");
+			}
+		} finally {
+			pool.shutdown();
+			server.stop(0);
+			serverPool.shutdown();
+			ops.remove(new Query(Criteria.where(OpenGraphEntry.ID).in(pageUrl, missingUrl)), OpenGraphEntry.class);
+		}
+
+		checkLinks("<p>hi <a href=\"https://a.com/x/\">a</a> <a class=\"mention\" href=\"https://b.com/@bob\">@bob</a></p>",
+				"https://a.com/x");
+		checkLinks("see https://a.com/x?y=1. and [named](https://b.com) or\n* https://c.com", "https://a.com/x?y=1");
+
+		log.debug("OpenGraphTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	private void checkLinks(String content, String expected) {
+		List<String> links = new ArrayList<>(openGraph.getLinks(content));
+		if (!links.equals(List.of(expected))) {
+			throw new RuntimeException("OpenGraphTest failed: links " + links + " in " + content);
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) {
+		try {
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		} catch (Exception e) {
+			log.error("stub failed", e);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package quanta.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import com.mongodb.client.result.UpdateResult;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.NodePath;
+import quanta.config.ServiceBase;
+import quanta.model.client.NodeType;
+import quanta.mongo.MongoCreate;
+import quanta.mongo.MongoSession;
+import quanta.mongo.model.SubNode;
+import quanta.util.Const;
+import quanta.util.ThreadLocals;
+
+/**
+ * Compares insert-in-the-middle latency of incrementing every later sibling's ordinal against
+ * MongoCreate.insertOrdinal, for parents with increasing numbers of children.
+ */
+@Component("OrdinalTest")
+@Slf4j
+public class OrdinalTest extends ServiceBase implements TestIntf {
+	private static final int[] SIBLING_COUNTS = {100, 1000, 10000};
+	private static final int INSERTS = 50;
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("OrdinalTest Running!");
+
+		arun.run(as -> {
+			SubNode root = null;
+			try {
+				root = create.createNode(as, mongoUtil.findAvailablePath(NodePath.ROOT_PATH + "/"));
+				root.setContent("OrdinalTest root");
+				update.save(as, root);
+
+				int idx = 0;
+				for (int count : SIBLING_COUNTS) {
+					// legacy numbering was consecutive, and new numbering is ORDINAL_GAP apart
+					SubNode legacyParent = buildParent(as, root, idx++, count, 1);
+					SubNode gapParent = buildParent(as, root, idx++, count, MongoCreate.ORDINAL_GAP);
+					benchmark(as, legacyParent, gapParent, count);
+				}
+			} finally {
+				if (root != null) {
+					delete.delete(as, root, false);
+				}
+			}
+			return null;
+		});
+
+		log.debug("OrdinalTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	private SubNode buildParent(MongoSession as, SubNode root, int idx, int count, long step) {
+		SubNode parent = new SubNode(as.getUserNodeId(), root.getPath() + "/p" + idx, NodeType.NONE.s(), (long) idx);
+		parent.setHasChildren(true);
+		update.save(as, parent);
+
+		ThreadLocals.setParentCheckEnabled(false);
+		try {
+			List<SubNode> batch = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				SubNode node = new SubNode(as.getUserNodeId(), parent.getPath() + "/c" + i, NodeType.NONE.s(), (i + 1) * step);
+				node.setContent("child " + i);
+				batch.add(node);
+
+				if (batch.size() >= Const.MAX_BULK_OPS) {
+					ops.insert(batch, SubNode.class);
+					batch = new ArrayList<>();
+				}
+			}
+			if (batch.size() > 0) {
+				ops.insert(batch, SubNode.class);
+			}
+		} finally {
+			ThreadLocals.setParentCheckEnabled(true);
+		}
+		return parent;
+	}
+
+	/*
+	 * Inserts INSERTS new nodes into the middle of each parent, timing just the ordinal assignment part
+	 * which is the only part that differs between the two schemes.
+	 */
+	private void benchmark(MongoSession as, SubNode legacyParent, SubNode gapParent, int count) {
+		long legacyWrites = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < INSERTS; i++) {
+			// legacy scheme: shift all siblings at or below the insert point down by one.
+			Query q = new Query(mongoUtil.directChildrenCriteria(legacyParent.getPath()) //
+					.and(SubNode.ORDINAL).gte((long) count / 2));
+			UpdateResult res = ops.updateMulti(q, new Update().inc(SubNode.ORDINAL, 1L), SubNode.class);
+			legacyWrites += res.getModifiedCount();
+			insertChild(as, legacyParent, "l" + i, (long) count / 2);
+		}
+		long legacyTime = (System.nanoTime() - start) / 1000;
+
+		start = System.nanoTime();
+		for (int i = 0; i < INSERTS; i++) {
+			long ordinal = create.insertOrdinal(as, gapParent, (count / 2) * MongoCreate.ORDINAL_GAP, 1L);
+			insertChild(as, gapParent, "g" + i, ordinal);
+		}
+		long gapTime = (System.nanoTime() - start) / 1000;
+
+		log.debug("Siblings: " + count);
+		log.debug("    legacy: avg=" + (legacyTime / INSERTS) + "us siblingsRewritten=" + legacyWrites);
+		log.debug("    gapped: avg=" + (gapTime / INSERTS) + "us");
+	}
+
+	private void insertChild(MongoSession as, SubNode parent, String name, long ordinal) {
+		SubNode node = new SubNode(as.getUserNodeId(), parent.getPath() + "/" + name, NodeType.NONE.s(), ordinal);
+		ops.insert(node);
+	}
+}
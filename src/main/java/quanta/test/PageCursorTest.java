@@ -0,0 +1,168 @@
+package quanta.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.NodePath;
+import quanta.config.ServiceBase;
+import quanta.model.client.NodeProp;
+import quanta.model.client.NodeType;
+import quanta.mongo.MongoSession;
+import quanta.mongo.PageCursor;
+import quanta.mongo.model.SubNode;
+import quanta.util.ThreadLocals;
+
+/**
+ * Checks PageCursor returns every child exactly once and in order, for several sort orders with ties
+ * and missing values, and with nodes inserted part way thru paging.
+ */
+@Component("PageCursorTest")
+@Slf4j
+public class PageCursorTest extends ServiceBase implements TestIntf {
+	private static final int NODE_COUNT = 500;
+	private static final int PAGE_SIZE = 25;
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("PageCursorTest Running!");
+
+		arun.run(as -> {
+			SubNode root = null;
+			try {
+				root = create.createNode(as, mongoUtil.findAvailablePath(NodePath.ROOT_PATH + "/"));
+				root.setContent("PageCursorTest root");
+				update.save(as, root);
+
+				long time = System.currentTimeMillis() - NODE_COUNT * 1000L;
+				insertNodes(as, root, 0, NODE_COUNT, time);
+
+				checkPaging(as, root, Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME), false);
+				checkPaging(as, root, Sort.by(Sort.Direction.ASC, SubNode.ORDINAL), false);
+				checkPaging(as, root, Sort.by(Sort.Direction.DESC, SubNode.PROPS + "." + NodeProp.PRIORITY.s())
+						.and(Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME)), false);
+				checkPaging(as, root, Sort.by(Sort.Direction.ASC, SubNode.PROPS + "." + NodeProp.PRIORITY.s()), false);
+				checkPaging(as, root, Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME), true);
+			} finally {
+				if (root != null) {
+					delete.delete(as, root, false);
+				}
+			}
+			return null;
+		});
+
+		log.debug("PageCursorTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	/*
+	 * Inserts children numbered 'start' up to 'end', with each modify time and ordinal shared by three
+	 * nodes, and a priority on two out of three nodes.
+	 */
+	private void insertNodes(MongoSession as, SubNode root, int start, int end, long time) {
+		List<SubNode> batch = new ArrayList<>();
+		ThreadLocals.setParentCheckEnabled(false);
+		try {
+			for (int i = start; i < end; i++) {
+				SubNode node = new SubNode(as.getUserNodeId(), root.getPath() + "/c" + i, NodeType.NONE.s(), (long) (i / 3));
+				node.setContent("node " + i);
+				node.setModifyTime(new Date(time + (i / 3) * 1000L));
+				if (i % 3 != 0) {
+					HashMap<String, Object> props = new HashMap<>();
+					props.put(NodeProp.PRIORITY.s(), String.valueOf(i % 5));
+					node.setProps(props);
+				}
+				batch.add(node);
+			}
+			ops.insert(batch, SubNode.class);
+		} finally {
+			ThreadLocals.setParentCheckEnabled(true);
+		}
+	}
+
+	/*
+	 * Reads all children a page at a time. If 'insertWhilePaging' we add newer children after the first
+	 * page, which sort ahead of the cursor and so must not show up or shift anything.
+	 */
+	private void checkPaging(MongoSession as, SubNode root, Sort sort, boolean insertWhilePaging) {
+		HashSet<ObjectId> seen = new HashSet<>();
+		List<SubNode> all = new ArrayList<>();
+		String token = null;
+		int pages = 0;
+
+		while (true) {
+			Query q = new Query(mongoUtil.directChildrenCriteria(root.getPath()));
+			PageCursor cursor = PageCursor.parse(token, sort);
+			if (cursor != null) {
+				q.addCriteria(cursor.criteria(sort));
+			}
+			q.with(sort);
+			q.limit(PAGE_SIZE);
+
+			List<SubNode> page = mongoUtil.find(q);
+			for (SubNode node : page) {
+				if (!seen.add(node.getId())) {
+					throw new RuntimeException("PageCursorTest failed: " + sort + " repeated " + node.getPath());
+				}
+			}
+			all.addAll(page);
+			pages++;
+
+			if (page.size() < PAGE_SIZE) {
+				break;
+			}
+			token = PageCursor.next(ops.getConverter(), sort, cursor, page);
+
+			if (insertWhilePaging && pages == 1) {
+				insertNodes(as, root, NODE_COUNT, NODE_COUNT + PAGE_SIZE, System.currentTimeMillis());
+			}
+		}
+
+		if (all.size() != NODE_COUNT) {
+			throw new RuntimeException("PageCursorTest failed: " + sort + " read " + all.size() + " nodes in " + pages
+					+ " pages. Expected " + NODE_COUNT);
+		}
+
+		// the same nodes in the same order, as far as the sort can tell, as reading them all at once
+		Query q = new Query(mongoUtil.directChildrenCriteria(root.getPath()));
+		q.with(sort);
+		if (insertWhilePaging) {
+			q.addCriteria(Criteria.where(SubNode.ID).in(seen));
+		}
+		List<SubNode> expected = mongoUtil.find(q);
+		String got = sortKeys(sort, all);
+		String want = sortKeys(sort, expected);
+		if (!got.equals(want)) {
+			throw new RuntimeException("PageCursorTest failed: " + sort + " paged order differs from the full query");
+		}
+		log.debug("Paged " + sort + " in " + pages + " pages ok." + (insertWhilePaging ? " (with inserts)" : ""));
+	}
+
+	// the sort values of every node in order, which is all a correct ordering is defined by when there are ties
+	private String sortKeys(Sort sort, List<SubNode> nodes) {
+		StringBuilder sb = new StringBuilder();
+		for (SubNode node : nodes) {
+			for (Sort.Order order : sort) {
+				String field = order.getProperty();
+				if (field.equals(SubNode.MODIFY_TIME)) {
+					sb.append(node.getModifyTime().getTime());
+				} else if (field.equals(SubNode.ORDINAL)) {
+					sb.append(node.getOrdinal());
+				} else {
+					sb.append(node.getStr(NodeProp.PRIORITY));
+				}
+				sb.append(",");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,159 @@
+package quanta.test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.NodePath;
+import quanta.config.ServiceBase;
+import quanta.model.client.NodeType;
+import quanta.mongo.MongoSession;
+import quanta.mongo.model.SubNode;
+import quanta.util.Const;
+import quanta.util.ThreadLocals;
+
+/**
+ * Compares the direct-children regex query on 'pth' against the equality query on the materialized
+ * parent path (SubNode.PARENT_PATH).
+ */
+@Component("ParentPathTest")
+@Slf4j
+public class ParentPathTest extends ServiceBase implements TestIntf {
+	private static final int DEPTH = 5;
+	private static final int FAN_OUT = 8;
+	private static final int ITERATIONS = 20;
+	private static final int PAGE_SIZE = 25;
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("ParentPathTest Running!");
+
+		arun.run(as -> {
+			SubNode root = null;
+			try {
+				root = buildTree(as);
+
+				// benchmark at each level going down the leftmost branch of the tree, so we cover parents having
+				// the most descendants (top) thru parents having no grandchildren at all (bottom)
+				String path = root.getPath();
+				for (int level = 0; level < DEPTH; level++) {
+					benchmark(path, level);
+					path = path + "/" + pathPart(0);
+				}
+			} finally {
+				if (root != null) {
+					delete.delete(as, root, false);
+				}
+			}
+			return null;
+		});
+
+		log.debug("ParentPathTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	/*
+	 * Creates a tree DEPTH levels deep where every node has FAN_OUT children, inserting one level at a
+	 * time in bulk. Paths are assigned here so no path lookups happen during insert.
+	 */
+	private SubNode buildTree(MongoSession as) {
+		SubNode root = create.createNode(as, mongoUtil.findAvailablePath(NodePath.ROOT_PATH + "/"));
+		root.setContent("ParentPathTest root");
+		update.save(as, root);
+
+		long start = System.currentTimeMillis();
+		int total = 0;
+		List<String> parentPaths = new LinkedList<>();
+		parentPaths.add(root.getPath());
+
+		// parent existence is guaranteed by construction, so skip checking it for every node
+		ThreadLocals.setParentCheckEnabled(false);
+		try {
+			for (int level = 0; level < DEPTH; level++) {
+				List<String> childPaths = new LinkedList<>();
+				List<SubNode> batch = new ArrayList<>();
+
+				for (String parentPath : parentPaths) {
+					for (int i = 0; i < FAN_OUT; i++) {
+						String path = parentPath + "/" + pathPart(i);
+						SubNode node = new SubNode(as.getUserNodeId(), path, NodeType.NONE.s(), (long) i);
+						node.setContent("level " + level + " child " + i);
+						node.setHasChildren(level < DEPTH - 1);
+						batch.add(node);
+						childPaths.add(path);
+
+						if (batch.size() >= Const.MAX_BULK_OPS) {
+							ops.insert(batch, SubNode.class);
+							total += batch.size();
+							batch = new ArrayList<>();
+						}
+					}
+				}
+
+				if (batch.size() > 0) {
+					ops.insert(batch, SubNode.class);
+					total += batch.size();
+				}
+				parentPaths = childPaths;
+			}
+		} finally {
+			ThreadLocals.setParentCheckEnabled(true);
+		}
+
+		log.debug("Synthetic tree created: " + total + " nodes in " + (System.currentTimeMillis() - start) + "ms");
+		return root;
+	}
+
+	private void benchmark(String parentPath, int level) {
+		Query regexQuery = new Query(Criteria.where(SubNode.PATH).regex(mongoUtil.regexDirectChildrenOfPath(parentPath)));
+		Query eqQuery = new Query(mongoUtil.directChildrenCriteria(parentPath));
+
+		long regexTime = timeQuery(regexQuery);
+		long eqTime = timeQuery(eqQuery);
+
+		log.debug("Level " + level + " path=" + parentPath);
+		log.debug("    regex: avg=" + (regexTime / ITERATIONS) + "us " + explain(regexQuery));
+		log.debug("    equal: avg=" + (eqTime / ITERATIONS) + "us " + explain(eqQuery));
+	}
+
+	// returns total microseconds to run the query ITERATIONS times, as a sorted page of children
+	private long timeQuery(Query q) {
+		q.with(Sort.by(Sort.Direction.ASC, SubNode.ORDINAL));
+		q.limit(PAGE_SIZE);
+
+		// warm up once so the first timed run isn't penalized for cold caches.
+		ops.find(q, Document.class, ops.getCollectionName(SubNode.class));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			ops.find(q, Document.class, ops.getCollectionName(SubNode.class));
+		}
+		return (System.nanoTime() - start) / 1000;
+	}
+
+	// Runs 'explain' on the query and returns the stats showing how many keys and docs Mongo examined
+	private String explain(Query q) {
+		Document find = new Document("find", ops.getCollectionName(SubNode.class)) //
+				.append("filter", q.getQueryObject()) //
+				.append("sort", q.getSortObject()) //
+				.append("limit", PAGE_SIZE);
+
+		Document res = ops.getDb().runCommand(new Document("explain", find).append("verbosity", "executionStats"));
+		Document stats = (Document) res.get("executionStats");
+		if (stats == null) {
+			return "(no stats)";
+		}
+		return "returned=" + stats.get("nReturned") + " keysExamined=" + stats.get("totalKeysExamined") + " docsExamined="
+				+ stats.get("totalDocsExamined");
+	}
+
+	private String pathPart(int idx) {
+		return "b" + idx;
+	}
+}
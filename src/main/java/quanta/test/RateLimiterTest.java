@@ -0,0 +1,134 @@
+package quanta.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.ServiceBase;
+import quanta.filter.RateLimiter;
+
+/**
+ * Checks RateLimiter turns away a client over its limit but never one under it, and that one
+ * abusive client doesn't raise everyone else's p99 latency.
+ */
+@Component("RateLimiterTest")
+@Slf4j
+public class RateLimiterTest extends ServiceBase implements TestIntf {
+	private static final int BURST = 20;
+	private static final int PER_SECOND = 200;
+
+	private static final int CLIENTS = 8;
+	private static final int ABUSER_THREADS = 4;
+	private static final long CLIENT_INTERVAL_MILLIS = 10;
+	private static final long RUN_MILLIS = 2000;
+
+	// far above the microseconds tryAcquire takes, and far below the old sleep of a throttled client
+	private static final long MAX_P99_MICROS = 5000;
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("RateLimiterTest Running!");
+
+		RateLimiter limiter = new RateLimiter();
+		limiter.configure(BURST, PER_SECOND);
+
+		// the burst gets thru, and then the wait is about one token's worth
+		for (int i = 0; i < BURST; i++) {
+			if (limiter.tryAcquire("burst") != 0) {
+				throw new RuntimeException("RateLimiterTest failed: burst request " + i + " limited");
+			}
+		}
+		long wait = limiter.tryAcquire("burst");
+		if (wait <= 0 || wait > 1000 / PER_SECOND + 1) {
+			throw new RuntimeException("RateLimiterTest failed: bad wait " + wait);
+		}
+
+		long baseline = run(limiter, "baseline", false);
+		long loaded = run(limiter, "loaded", true);
+		log.debug("Client p99 micros: alone=" + baseline + " with abuser=" + loaded);
+
+		if (loaded > MAX_P99_MICROS) {
+			throw new RuntimeException("RateLimiterTest failed: p99 " + loaded + " micros with an abuser");
+		}
+
+		log.debug("RateLimiterTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	/* Runs the well behaved clients, and optionally the abuser, and returns the clients' p99 in micros */
+	private long run(RateLimiter limiter, String phase, boolean abuse) throws Exception {
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicLong abuserAllowed = new AtomicLong();
+		AtomicLong abuserLimited = new AtomicLong();
+		AtomicLong clientsLimited = new AtomicLong();
+		List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+
+		List<Thread> threads = new ArrayList<>();
+		if (abuse) {
+			for (int i = 0; i < ABUSER_THREADS; i++) {
+				threads.add(new Thread(() -> {
+					while (!done.get()) {
+						if (limiter.tryAcquire(phase + "-abuser") == 0) {
+							abuserAllowed.incrementAndGet();
+						} else {
+							abuserLimited.incrementAndGet();
+						}
+					}
+				}));
+			}
+		}
+
+		CountDownLatch clientsDone = new CountDownLatch(CLIENTS);
+		for (int i = 0; i < CLIENTS; i++) {
+			String key = phase + "-client" + i;
+			threads.add(new Thread(() -> {
+				try {
+					while (!done.get()) {
+						long start = System.nanoTime();
+						if (limiter.tryAcquire(key) != 0) {
+							clientsLimited.incrementAndGet();
+						}
+						latencies.add((System.nanoTime() - start) / 1000);
+						Thread.sleep(CLIENT_INTERVAL_MILLIS);
+					}
+				} catch (InterruptedException e) {
+					// done
+				} finally {
+					clientsDone.countDown();
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(RUN_MILLIS);
+		done.set(true);
+		clientsDone.await();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		if (clientsLimited.get() > 0) {
+			throw new RuntimeException("RateLimiterTest failed: " + clientsLimited.get() + " client requests limited in " + phase);
+		}
+
+		// the abuser gets no more than its burst plus the refill over the run (with a little slack)
+		long maxAllowed = BURST + PER_SECOND * (RUN_MILLIS + 500) / 1000;
+		if (abuse && (abuserAllowed.get() > maxAllowed || abuserLimited.get() == 0)) {
+			throw new RuntimeException(
+					"RateLimiterTest failed: abuser allowed " + abuserAllowed.get() + ", limited " + abuserLimited.get());
+		}
+		log.debug(phase + ": " + latencies.size() + " client requests, abuser allowed=" + abuserAllowed.get() + " limited="
+				+ abuserLimited.get());
+
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		return sorted.get((int) (sorted.size() * 0.99));
+	}
+}
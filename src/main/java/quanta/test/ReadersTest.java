@@ -0,0 +1,224 @@
+package quanta.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import lombok.extern.slf4j.Slf4j;
+import quanta.config.NodePath;
+import quanta.config.ServiceBase;
+import quanta.model.client.NodeType;
+import quanta.model.client.PrincipalName;
+import quanta.model.client.PrivilegeType;
+import quanta.mongo.MongoSession;
+import quanta.mongo.model.AccessControl;
+import quanta.mongo.model.SubNode;
+import quanta.util.Const;
+import quanta.util.ThreadLocals;
+
+/**
+ * Checks SubNode.READERS is kept in sync with the sharing, and compares the query plans of a feed
+ * query using the '$or' of 'ac.<key>' checks against the '$in' on the readers.
+ */
+@Component("ReadersTest")
+@Slf4j
+public class ReadersTest extends ServiceBase implements TestIntf {
+	private static final int NODE_COUNT = 20000;
+	private static final int USER_COUNT = 50;
+	private static final int PAGE_SIZE = 25;
+
+	@Override
+	public void test() throws Exception {
+		log.debug("*****************************************************************************************");
+		log.debug("ReadersTest Running!");
+
+		arun.run(as -> {
+			SubNode root = null;
+			try {
+				root = create.createNode(as, mongoUtil.findAvailablePath(NodePath.ROOT_PATH + "/"));
+				root.setContent("ReadersTest root");
+				update.save(as, root);
+
+				testSync(as, root);
+
+				List<String> users = buildNodes(as, root);
+				String me = users.get(0);
+				comparePlans(root, Arrays.asList(PrincipalName.PUBLIC.s(), me));
+				comparePlans(root, Arrays.asList(me));
+				comparePlans(root, Arrays.asList(PrincipalName.PUBLIC.s()));
+			} finally {
+				if (root != null) {
+					delete.delete(as, root, false);
+				}
+			}
+			return null;
+		});
+
+		log.debug("ReadersTest Ok.");
+		log.debug("*****************************************************************************************");
+	}
+
+	/* Shares and unshares a node thru AclService, checking the stored readers after each save */
+	private void testSync(MongoSession as, SubNode root) {
+		SubNode node = create.createNode(as, root, NodeType.NONE.s(), 0L, null, false);
+		node.setContent("sync test");
+		update.save(as, node);
+		checkReaders(node);
+
+		acl.addPrivilege(as, null, node, PrincipalName.PUBLIC.s(), null, Arrays.asList(PrivilegeType.READ.s()), null);
+		update.saveSession(as);
+		checkReaders(node, PrincipalName.PUBLIC.s());
+
+		String other = new ObjectId().toHexString();
+		node.safeGetAc().put(other, new AccessControl(null, PrivilegeType.READ.s()));
+		update.save(as, node);
+		checkReaders(node, PrincipalName.PUBLIC.s(), other);
+
+		acl.removeAclEntry(as, node, PrincipalName.PUBLIC.s(), "*");
+		checkReaders(node, other);
+
+		acl.removeAclEntry(as, node, "*", null);
+		checkReaders(node);
+	}
+
+	private void checkReaders(SubNode node, String... expected) {
+		Document doc = ops.findOne(new Query(Criteria.where(SubNode.ID).is(node.getId())), Document.class,
+				ops.getCollectionName(SubNode.class));
+		List<String> want = new ArrayList<>(Arrays.asList(expected));
+		want.sort(null);
+		Object got = doc.get(SubNode.READERS);
+		if (!want.equals(got)) {
+			throw new RuntimeException("ReadersTest failed: readers are " + got + " expected " + want);
+		}
+	}
+
+	/*
+	 * Inserts NODE_COUNT nodes in bulk, about a third of them public and most of the rest shared to a
+	 * few of USER_COUNT made up users. Returns those users' ids.
+	 */
+	private List<String> buildNodes(MongoSession as, SubNode root) {
+		List<String> users = new ArrayList<>();
+		for (int i = 0; i < USER_COUNT; i++) {
+			users.add(new ObjectId().toHexString());
+		}
+
+		long start = System.currentTimeMillis();
+		Random rand = new Random(1);
+		List<SubNode> batch = new ArrayList<>();
+
+		// parent existence is guaranteed by construction, so skip checking it for every node
+		ThreadLocals.setParentCheckEnabled(false);
+		try {
+			for (int i = 0; i < NODE_COUNT; i++) {
+				SubNode node = new SubNode(as.getUserNodeId(), root.getPath() + "/r" + i, NodeType.NONE.s(), (long) i);
+				node.setContent("node " + i);
+
+				HashMap<String, AccessControl> ac = new HashMap<>();
+				int pct = rand.nextInt(100);
+				if (pct < 30) {
+					ac.put(PrincipalName.PUBLIC.s(), new AccessControl(null, PrivilegeType.READ.s()));
+				} else if (pct < 80) {
+					for (int s = rand.nextInt(3); s >= 0; s--) {
+						ac.put(users.get(rand.nextInt(USER_COUNT)), new AccessControl(null, PrivilegeType.READ.s()));
+					}
+				}
+				node.setAc(ac.size() > 0 ? ac : null);
+				batch.add(node);
+
+				if (batch.size() >= Const.MAX_BULK_OPS) {
+					ops.insert(batch, SubNode.class);
+					batch = new ArrayList<>();
+				}
+			}
+			if (batch.size() > 0) {
+				ops.insert(batch, SubNode.class);
+			}
+		} finally {
+			ThreadLocals.setParentCheckEnabled(true);
+		}
+
+		log.debug("Synthetic nodes created: " + NODE_COUNT + " in " + (System.currentTimeMillis() - start) + "ms");
+		return users;
+	}
+
+	/* Runs the old and new form of 'readable by any of readers' and checks they match the same nodes */
+	private void comparePlans(SubNode root, List<String> readers) {
+		Criteria pathCrit = Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(root.getPath()));
+
+		List<Criteria> orCriteria = new LinkedList<>();
+		for (String reader : readers) {
+			orCriteria.add(Criteria.where(SubNode.AC + "." + reader).ne(null));
+		}
+		Query oldQuery = new Query(new Criteria().andOperator(pathCrit, new Criteria().orOperator(orCriteria)));
+
+		Query newQuery = new Query(Criteria.where(SubNode.PATH).regex(mongoUtil.regexRecursiveChildrenOfPath(root.getPath()))
+				.and(SubNode.READERS).in(readers));
+
+		long oldCount = ops.count(oldQuery, SubNode.class);
+		long newCount = ops.count(newQuery, SubNode.class);
+		if (oldCount != newCount) {
+			throw new RuntimeException("ReadersTest failed: " + readers + " matched " + oldCount + " with ac and " + newCount
+					+ " with readers");
+		}
+
+		log.debug("Readers " + readers + " matching " + newCount + " nodes:");
+		log.debug("    ac $or:    " + explain(oldQuery));
+		log.debug("    rdr $in:   " + explain(newQuery));
+	}
+
+	// Runs 'explain' on the query as the first page of a feed, and returns the plan and the stats
+	private String explain(Query q) {
+		Document find = new Document("find", ops.getCollectionName(SubNode.class)) //
+				.append("filter", q.getQueryObject()) //
+				.append("sort", new Document(SubNode.MODIFY_TIME, -1)) //
+				.append("limit", PAGE_SIZE);
+
+		Document res = ops.getDb().runCommand(new Document("explain", find).append("verbosity", "executionStats"));
+		Document planner = (Document) res.get("queryPlanner");
+		Document stats = (Document) res.get("executionStats");
+		if (planner == null || stats == null) {
+			return "(no stats)";
+		}
+		return planStages((Document) planner.get("winningPlan")) + " returned=" + stats.get("nReturned") + " keysExamined="
+				+ stats.get("totalKeysExamined") + " docsExamined=" + stats.get("totalDocsExamined") + " ms="
+				+ stats.get("executionTimeMillis");
+	}
+
+	// Stage names from the top of the plan down, like "LIMIT <- FETCH <- SORT_MERGE <- IXSCAN(readers-mtm)"
+	private String planStages(Document stage) {
+		if (stage == null) {
+			return "";
+		}
+		String name = stage.getString("stage");
+		if (stage.get("indexName") != null) {
+			name += "(" + stage.get("indexName") + ")";
+		}
+
+		List<String> children = new ArrayList<>();
+		if (stage.get("inputStage") instanceof Document) {
+			children.add(planStages((Document) stage.get("inputStage")));
+		}
+		if (stage.get("inputStages") instanceof List) {
+			for (Object child : (List<?>) stage.get("inputStages")) {
+				if (child instanceof Document) {
+					children.add(planStages((Document) child));
+				}
+			}
+		}
+		if (children.size() == 1) {
+			return name + " <- " + children.get(0);
+		}
+		if (children.size() > 1) {
+			return name + " <- [" + String.join(", ", children) + "]";
+		}
+		return name;
+	}
+}
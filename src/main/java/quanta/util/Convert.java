@@ -1,15 +1,18 @@
 package quanta.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.types.ObjectId;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
@@ -50,6 +53,167 @@ public class Convert extends ServiceBase {
 	// indicates we need generate the correct logicalOrdinal
 	public static int LOGICAL_ORDINAL_GENERATE = -2;
 
+	// max number of inline children rendered under any node
+	private static final int MAX_INLINE_CHILDREN = 100;
+
+	/*
+	 * Converts a whole page of nodes, fetching everything the individual conversions need (see
+	 * 'prefetch') with a few queries for the whole page rather than several queries per node.
+	 * 
+	 * Logical ordinals are assigned from the position in 'nodes' starting at 'firstLogicalOrdinal', so
+	 * 'nodes' must be the page in display order. LOGICAL_ORDINAL_GENERATE queries for the first one
+	 * only, and LOGICAL_ORDINAL_IGNORE is passed thru to every node. Nodes that don't convert (see
+	 * convertToNodeInfo) are left out of the returned list.
+	 * 
+	 * boostTargets (optional) is for callers that already looked up the boost targets of these nodes.
+	 */
+	@PerfMon(category = "convert")
+	public List<NodeInfo> convertToNodeInfos(boolean adminOnly, SessionContext sc, MongoSession ms, List<SubNode> nodes,
+			boolean initNodeEdit, long firstLogicalOrdinal, boolean allowInlineChildren, boolean childrenCheck,
+			boolean getFollowers, boolean loadLikes, boolean attachBoosted, HashMap<ObjectId, SubNode> boostTargets) {
+		List<NodeInfo> ret = new ArrayList<>(nodes.size());
+		if (nodes.isEmpty()) {
+			return ret;
+		}
+
+		ConvertBatch batch = prefetch(ms, nodes, allowInlineChildren, childrenCheck, attachBoosted, boostTargets);
+
+		long logicalOrdinal = firstLogicalOrdinal;
+		if (logicalOrdinal == LOGICAL_ORDINAL_GENERATE) {
+			logicalOrdinal = read.generateLogicalOrdinal(ms, nodes.get(0));
+		}
+
+		for (SubNode node : nodes) {
+			NodeInfo info = convertToNodeInfo(adminOnly, sc, ms, node, initNodeEdit, logicalOrdinal, allowInlineChildren, false,
+					childrenCheck, getFollowers, loadLikes, attachBoosted, null, false, batch);
+			if (info != null) {
+				ret.add(info);
+			}
+			if (logicalOrdinal >= 0) {
+				logicalOrdinal++;
+			}
+		}
+		return ret;
+	}
+
+	/*
+	 * Looks up, for all of 'nodes' at once, what convertToNodeInfo would otherwise query per node: inline
+	 * children (one query per level of nesting), boost targets (one query), owner account nodes of all
+	 * of those (one query), and hasChildren wherever the node itself doesn't know it (one query).
+	 */
+	@PerfMon(category = "convert")
+	public ConvertBatch prefetch(MongoSession ms, List<SubNode> nodes, boolean allowInlineChildren, boolean childrenCheck,
+			boolean attachBoosted, HashMap<ObjectId, SubNode> boostTargets) {
+		ConvertBatch batch = new ConvertBatch();
+
+		// nodes that get converted with the 'childrenCheck' that was passed in
+		List<SubNode> checked = new ArrayList<>(nodes);
+
+		if (allowInlineChildren) {
+			List<SubNode> parents = new ArrayList<>();
+			for (SubNode node : nodes) {
+				if (node.getBool(NodeProp.INLINE_CHILDREN)) {
+					parents.add(node);
+				}
+			}
+
+			// inline children can have inline children of their own, so we go one level at a time
+			while (parents.size() > 0) {
+				HashSet<String> paths = new HashSet<>();
+				for (SubNode parent : parents) {
+					if (!read.noChildren(parent)) {
+						paths.add(parent.getPath());
+					}
+				}
+				HashMap<String, List<SubNode>> childrenByPath = read.getChildrenOfPaths(ms, paths, MAX_INLINE_CHILDREN);
+
+				List<SubNode> nextParents = new ArrayList<>();
+				for (SubNode parent : parents) {
+					List<SubNode> children = childrenByPath.getOrDefault(parent.getPath(), new ArrayList<>());
+					batch.inlineChildren.put(parent.getId(), children);
+					checked.addAll(children);
+
+					for (SubNode child : children) {
+						if (child.getBool(NodeProp.INLINE_CHILDREN) && !batch.inlineChildren.containsKey(child.getId())) {
+							nextParents.add(child);
+						}
+					}
+				}
+				parents = nextParents;
+			}
+		}
+
+		// boosted nodes are always converted with childrenCheck=false
+		List<SubNode> unchecked = new ArrayList<>();
+
+		if (attachBoosted) {
+			HashSet<ObjectId> boostIds = new HashSet<>();
+			for (SubNode node : nodes) {
+				String boostTargetId = node.getStr(NodeProp.BOOST);
+				if (boostTargetId == null)
+					continue;
+
+				if (!ObjectId.isValid(boostTargetId)) {
+					batch.boostDenied.add(boostTargetId);
+				} else {
+					boostIds.add(new ObjectId(boostTargetId));
+				}
+			}
+
+			if (boostTargets == null) {
+				boostTargets = read.getNodesByIds(ms, boostIds, false);
+				for (SubNode target : boostTargets.values()) {
+					try {
+						auth.auth(ms, target, PrivilegeType.READ);
+					} catch (Exception e) {
+						batch.boostDenied.add(target.getIdStr());
+					}
+				}
+			}
+
+			for (ObjectId id : boostIds) {
+				SubNode target = boostTargets.get(id);
+				batch.boostTargets.put(id.toHexString(), target);
+				if (target != null) {
+					unchecked.add(target);
+				}
+			}
+		}
+
+		HashSet<ObjectId> ownerIds = new HashSet<>();
+		HashSet<String> unknownPaths = new HashSet<>();
+		for (List<SubNode> list : Arrays.asList(checked, unchecked)) {
+			for (SubNode node : list) {
+				if (node.getOwner() != null && ThreadLocals.getCachedNode(node.getOwner()) == null) {
+					ownerIds.add(node.getOwner());
+				}
+				if (!SubNode.USE_HAS_CHILDREN || node.getHasChildren() == null) {
+					unknownPaths.add(node.getPath());
+				}
+			}
+		}
+
+		for (SubNode owner : read.getNodesByIds(ms, ownerIds, false).values()) {
+			ThreadLocals.cacheNode(owner);
+		}
+
+		HashSet<String> withChildren = read.getPathsWithChildren(unknownPaths);
+		for (String path : unknownPaths) {
+			batch.hasChildrenByPath.put(path, withChildren.contains(path));
+		}
+
+		// same as what read.hasChildren does when allowUpdate is true
+		if (childrenCheck) {
+			for (SubNode node : checked) {
+				Boolean hasChildren = batch.hasChildrenByPath.get(node.getPath());
+				if (hasChildren != null && node.getHasChildren() == null) {
+					node.setHasChildren(hasChildren);
+				}
+			}
+		}
+		return batch;
+	}
+
 	/*
 	 * Generates a NodeInfo object, which is the primary data type that is also used on the
 	 * browser/client to encapsulate the data for a given node which is used by the browser to render
@@ -63,6 +227,18 @@ public class Convert extends ServiceBase {
 	public NodeInfo convertToNodeInfo(boolean adminOnly, SessionContext sc, MongoSession ms, SubNode node, boolean initNodeEdit,
 			long logicalOrdinal, boolean allowInlineChildren, boolean lastChild, boolean childrenCheck, boolean getFollowers,
 			boolean loadLikes, boolean attachBoosted, Val<SubNode> boostedNodeVal, boolean attachLinkedNodes) {
+		return convertToNodeInfo(adminOnly, sc, ms, node, initNodeEdit, logicalOrdinal, allowInlineChildren, lastChild,
+				childrenCheck, getFollowers, loadLikes, attachBoosted, boostedNodeVal, attachLinkedNodes, null);
+	}
+
+	/*
+	 * Same as above, but takes whatever 'batch' has prefetched (see 'prefetch') instead of querying for
+	 * it. Anything not found in 'batch' is still queried for, and 'batch' can be null.
+	 */
+	public NodeInfo convertToNodeInfo(boolean adminOnly, SessionContext sc, MongoSession ms, SubNode node, boolean initNodeEdit,
+			long logicalOrdinal, boolean allowInlineChildren, boolean lastChild, boolean childrenCheck, boolean getFollowers,
+			boolean loadLikes, boolean attachBoosted, Val<SubNode> boostedNodeVal, boolean attachLinkedNodes,
+			ConvertBatch batch) {
 
 		String sig = node.getStr(NodeProp.CRYPTO_SIG);
 
@@ -103,7 +279,9 @@ public class Convert extends ServiceBase {
 
 		attach.fixAllAttachmentMimes(node);
 
-		boolean hasChildren = read.hasChildren(ms, node, false, childrenCheck);
+		Boolean knownHasChildren = batch != null ? batch.hasChildrenByPath.get(node.getPath()) : null;
+		boolean hasChildren =
+				knownHasChildren != null ? knownHasChildren.booleanValue() : read.hasChildren(ms, node, false, childrenCheck);
 
 		List<PropertyInfo> propList = buildPropertyInfoList(sc, node, initNodeEdit, sigFail);
 		List<AccessControlInfo> acList = buildAccessControlList(sc, node);
@@ -229,7 +407,10 @@ public class Convert extends ServiceBase {
 		if (allowInlineChildren) {
 			boolean hasInlineChildren = node.getBool(NodeProp.INLINE_CHILDREN);
 			if (hasInlineChildren) {
-				Iterable<SubNode> nodeIter = read.getChildren(ms, node, Sort.by(Sort.Direction.ASC, SubNode.ORDINAL), 100, 0);
+				Iterable<SubNode> nodeIter = batch != null ? batch.inlineChildren.get(node.getId()) : null;
+				if (nodeIter == null) {
+					nodeIter = read.getChildren(ms, node, Sort.by(Sort.Direction.ASC, SubNode.ORDINAL), MAX_INLINE_CHILDREN, 0);
+				}
 				Iterator<SubNode> iterator = nodeIter.iterator();
 				long inlineOrdinal = 0;
 				while (true) {
@@ -248,7 +429,7 @@ public class Convert extends ServiceBase {
 					boolean multiLevel = true;
 
 					NodeInfo info = convertToNodeInfo(false, sc, ms, n, initNodeEdit, inlineOrdinal++, multiLevel, lastChild,
-							childrenCheck, false, loadLikes, false, null, false);
+							childrenCheck, false, loadLikes, false, null, false, batch);
 					if (info != null) {
 						nodeInfo.safeGetChildren().add(info);
 					}
@@ -289,7 +470,12 @@ public class Convert extends ServiceBase {
 			} else {
 				// otherwise check to see if we have a boosted node from scratch.
 				String boostTargetId = node.getStr(NodeProp.BOOST);
-				if (boostTargetId != null) {
+				if (boostTargetId != null && batch != null && batch.boostDenied.contains(boostTargetId)) {
+					log.debug("Unable to access boosted node: " + boostTargetId);
+					return null;
+				} else if (boostTargetId != null && batch != null && batch.boostTargets.containsKey(boostTargetId)) {
+					boostedNode = batch.boostTargets.get(boostTargetId);
+				} else if (boostTargetId != null) {
 					try {
 						boostedNode = read.getNode(ms, boostTargetId);
 					} catch (Exception e) {
@@ -301,7 +487,7 @@ public class Convert extends ServiceBase {
 
 			if (boostedNode != null) {
 				NodeInfo info = convertToNodeInfo(false, sc, ms, boostedNode, false, Convert.LOGICAL_ORDINAL_IGNORE, false, false,
-						false, false, false, false, null, false);
+						false, false, false, false, null, false, batch);
 				if (info != null) {
 					nodeInfo.setBoostedNode(info);
 				}
@@ -0,0 +1,27 @@
+package quanta.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import org.bson.types.ObjectId;
+import quanta.mongo.model.SubNode;
+
+/**
+ * Everything Convert.convertToNodeInfo would otherwise query for one node at a time, fetched up
+ * front for a whole page of nodes by Convert.prefetch. Owner account nodes aren't held here because
+ * they go into the per-request node cache (ThreadLocals.cacheNode) where convertToNodeInfo already
+ * looks for them.
+ */
+public class ConvertBatch {
+	// hasChildren answer for nodes whose own hasChildren property was unknown
+	final HashMap<String, Boolean> hasChildrenByPath = new HashMap<>();
+
+	// boost target nodes by ID string (null value means not found)
+	final HashMap<String, SubNode> boostTargets = new HashMap<>();
+
+	// boost target IDs the user isn't allowed to see (the boosting node is then not shown at all)
+	final HashSet<String> boostDenied = new HashSet<>();
+
+	// inline children of every node having NodeProp.INLINE_CHILDREN, by parent node ID
+	final HashMap<ObjectId, List<SubNode>> inlineChildren = new HashMap<>();
+}
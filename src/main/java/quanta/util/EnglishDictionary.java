@@ -8,6 +8,8 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.StringTokenizer;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.context.event.ContextRefreshedEvent;
@@ -24,15 +26,31 @@ public class EnglishDictionary extends ServiceBase {
 	private static final HashSet<String> stopWords = new HashSet<>();
 	private static final HashSet<String> badWords = new HashSet<>();
 
+	/* Content classification flags, stored on nodes in SubNode.CLASSES (see classify) */
+	public static final String NON_ENGLISH = "ne";
+	public static final String BAD_WORDS = "bw";
+
+	/*
+	 * Increment this whenever isEnglish or hasBadWords change what they decide, so all nodes get
+	 * classified again. Changes to the word lists are picked up automatically (see getClassifyVersion)
+	 */
+	private static final int CLASSIFIER_VERSION = 1;
+	private static Integer classifyVersion;
+
 	@EventListener
 	public void handleContextRefresh(ContextRefreshedEvent event) {
 		ServiceBase.init(event.getApplicationContext());
 		log.debug("ContextRefreshedEvent");
-		loadWords("classpath:public/data/english-dictionary.txt", dictWords);
+		loadDictionary("classpath:public/data/english-dictionary.txt");
 		loadWords("classpath:public/data/stop-words.txt", stopWords);
 		loadWords("classpath:public/data/bad-words.txt", badWords);
 	}
 
+	/* Loads the dictionary used by isEnglish, unless one is already loaded */
+	public void loadDictionary(String fileName) {
+		loadWords(fileName, dictWords);
+	}
+
 	public void loadWords(String fileName, HashSet<String> words) {
 		if (words.size() > 0)
 			return;
@@ -157,6 +175,32 @@ public class EnglishDictionary extends ServiceBase {
 		return percent > 0.6f;
 	}
 
+	/*
+	 * Identifies the classifier logic together with the word lists, so any node classified under a
+	 * different version needs doing again. Null if the word lists aren't loaded, in which case nothing
+	 * can be classified.
+	 */
+	public Integer getClassifyVersion() {
+		if (dictWords.size() == 0 || badWords.size() == 0)
+			return null;
+		if (classifyVersion == null) {
+			classifyVersion = Objects.hash(CLASSIFIER_VERSION, dictWords, badWords);
+		}
+		return classifyVersion;
+	}
+
+	/* Returns the classification flags for text, which is an empty list for clean English text */
+	public List<String> classify(String text) {
+		List<String> classes = new ArrayList<>();
+		if (!isEnglish(text)) {
+			classes.add(NON_ENGLISH);
+		}
+		if (hasBadWords(text)) {
+			classes.add(BAD_WORDS);
+		}
+		return classes;
+	}
+
 	public boolean hasBadWords(String text) {
 		if (badWords.size() == 0)
 			throw new RuntimeException("called isBadWord before dictionary was loaded.");
@@ -1,18 +1,130 @@
 package quanta.util;
 
-import java.awt.Image;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 
 /**
  * Image manipulation utilities
  */
 public class ImageUtil {
+	private static final float JPEG_QUALITY = 0.85f;
 
 	public static BufferedImage scaleImage(BufferedImage image, int width) {
-		Image outImage = image.getScaledInstance(width, -1, Image.SCALE_SMOOTH);
-		BufferedImage outBufferedImage = new BufferedImage(outImage.getWidth(null), outImage.getHeight(null), BufferedImage.TYPE_INT_RGB);
-		outBufferedImage.getGraphics().drawImage(outImage, 0, 0, null);
-		return outBufferedImage;
+		int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+		return resize(image, width, height);
+	}
+
+	/*
+	 * Resizes by halving the image (with bilinear filtering) until the next step gets to the target
+	 * size. This looks about as good as getScaledInstance's SCALE_SMOOTH area averaging when shrinking,
+	 * at a small fraction of the cost.
+	 */
+	public static BufferedImage resize(BufferedImage image, int width, int height) {
+		int type = image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+		BufferedImage ret = image;
+		int w = image.getWidth();
+		int h = image.getHeight();
+
+		do {
+			w = w > width ? Math.max(width, w / 2) : width;
+			h = h > height ? Math.max(height, h / 2) : height;
+
+			BufferedImage step = new BufferedImage(w, h, type);
+			Graphics2D g = step.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(ret, 0, 0, w, h, null);
+			g.dispose();
+			ret = step;
+		} while (w != width || h != height);
+		return ret;
+	}
+
+	/*
+	 * Returns the size of the image, from its header alone without decoding it, or null if it's not a
+	 * format we can read.
+	 */
+	public static Dimension readSize(InputStream is) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+			ImageReader reader = getReader(iis);
+			if (reader == null)
+				return null;
+			try {
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/*
+	 * Decodes the image, skipping pixels (source subsampling) where it's more than twice 'maxWidth'
+	 * wide, which makes decoding big photos we'll only be shrinking several times faster. Returns null
+	 * if it's not a format we can read.
+	 */
+	public static BufferedImage read(InputStream is, int maxWidth) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+			ImageReader reader = getReader(iis);
+			if (reader == null)
+				return null;
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				int subsampling = reader.getWidth(0) / (maxWidth * 2);
+				if (subsampling > 1) {
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				}
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private static ImageReader getReader(ImageInputStream iis) {
+		if (iis == null)
+			return null;
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		if (!readers.hasNext())
+			return null;
+		ImageReader reader = readers.next();
+		reader.setInput(iis, true, true);
+		return reader;
+	}
+
+	/* Encodes the image as a JPEG if it's opaque, or else as a PNG */
+	public static byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		if (image.getTransparency() != Transparency.OPAQUE) {
+			ImageIO.write(image, "png", os);
+			return os.toByteArray();
+		}
+
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		try (ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(JPEG_QUALITY);
+			writer.setOutput(ios);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return os.toByteArray();
 	}
 
 	public static boolean isImageMime(String mimeType) {
@@ -0,0 +1,235 @@
+package quanta.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+
+/**
+ * Writes a binary to an HTTP response honoring the Range, If-Range, If-None-Match and
+ * If-Modified-Since request headers, including multipart/byteranges responses when several ranges
+ * are asked for.
+ *
+ * Content is never held in memory. For each range we ask the Source for a stream already positioned
+ * at the first byte of the range, and copy only the bytes of that range, so a seek near the end of a
+ * large video only reads the end of it.
+ */
+public class RangeStreamer {
+	// more ranges than this in one request is not a real player, so we just send the whole thing
+	private static final int MAX_RANGES = 20;
+
+	private static final String CRLF = "\r\n";
+
+	public interface Source {
+		/* Returns a stream positioned at 'offset' */
+		InputStream open(long offset) throws IOException;
+	}
+
+	/*
+	 * Sends 'length' bytes of 'mimeType' content from 'source'. 'etag' (unquoted) and 'lastModified'
+	 * (millis) are optional (null and 0). If 'sendLength' is false no Content-Length is sent on full
+	 * (non-range) responses, for sources whose size we aren't sure of.
+	 *
+	 * Any headers other than the ones about ranges and caching validators (like Content-Disposition)
+	 * must be set on 'res' by the caller before calling this.
+	 */
+	public static void send(HttpServletRequest req, HttpServletResponse res, Source source, long length, String mimeType,
+			String etag, long lastModified, boolean sendLength) throws IOException {
+		String quotedEtag = etag != null ? "\"" + etag + "\"" : null;
+		if (quotedEtag != null) {
+			res.setHeader(HttpHeaders.ETAG, quotedEtag);
+		}
+		if (lastModified > 0) {
+			res.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+		}
+		res.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+		if (notModified(req, quotedEtag, lastModified)) {
+			res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		List<HttpRange> ranges = null;
+		String rangeHeader = req.getHeader(HttpHeaders.RANGE);
+		if (rangeHeader != null && length > 0 && ifRangeMatches(req, quotedEtag, lastModified)) {
+			try {
+				ranges = HttpRange.parseRanges(rangeHeader);
+			} catch (IllegalArgumentException e) {
+				// a Range header we can't parse is ignored
+				ranges = null;
+			}
+			if (ranges != null && (ranges.size() == 0 || ranges.size() > MAX_RANGES)) {
+				ranges = null;
+			}
+
+			if (ranges != null) {
+				try {
+					for (HttpRange range : ranges) {
+						// throws if the range starts past the end
+						range.getRangeStart(length);
+					}
+				} catch (IllegalArgumentException e) {
+					res.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+					res.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+					return;
+				}
+			}
+		}
+
+		res.setContentType(mimeType);
+
+		// no ranges, so send it all
+		if (ranges == null) {
+			if (sendLength && length > 0) {
+				res.setContentLengthLong(length);
+			}
+			try (InputStream is = source.open(0)) {
+				OutputStream os = new BufferedOutputStream(res.getOutputStream());
+				IOUtils.copyLarge(is, os);
+				os.flush();
+			}
+			return;
+		}
+
+		res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+		if (ranges.size() == 1) {
+			long start = ranges.get(0).getRangeStart(length);
+			long end = ranges.get(0).getRangeEnd(length);
+			res.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(start, end, length));
+			res.setContentLengthLong(end - start + 1);
+
+			OutputStream os = new BufferedOutputStream(res.getOutputStream());
+			copyRange(source, os, start, end);
+			os.flush();
+			return;
+		}
+
+		/*
+		 * multipart/byteranges. We compute the exact length up front (the part headers are small and
+		 * predictable) so the client gets a Content-Length even here.
+		 */
+		String boundary = Util.genStrongToken();
+		List<byte[]> partHeaders = new ArrayList<>();
+		long totalLength = 0;
+		for (HttpRange range : ranges) {
+			long start = range.getRangeStart(length);
+			long end = range.getRangeEnd(length);
+			String partHeader = "--" + boundary + CRLF //
+					+ HttpHeaders.CONTENT_TYPE + ": " + mimeType + CRLF //
+					+ HttpHeaders.CONTENT_RANGE + ": " + contentRange(start, end, length) + CRLF + CRLF;
+			byte[] bytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+			partHeaders.add(bytes);
+			totalLength += bytes.length + (end - start + 1) + CRLF.length();
+		}
+		byte[] closing = ("--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+		totalLength += closing.length;
+
+		res.setContentType("multipart/byteranges; boundary=" + boundary);
+		res.setContentLengthLong(totalLength);
+
+		OutputStream os = new BufferedOutputStream(res.getOutputStream());
+		for (int i = 0; i < ranges.size(); i++) {
+			os.write(partHeaders.get(i));
+			copyRange(source, os, ranges.get(i).getRangeStart(length), ranges.get(i).getRangeEnd(length));
+			os.write(CRLF.getBytes(StandardCharsets.US_ASCII));
+		}
+		os.write(closing);
+		os.flush();
+	}
+
+	private static void copyRange(Source source, OutputStream os, long start, long end) throws IOException {
+		try (InputStream is = source.open(start)) {
+			long count = end - start + 1;
+			long copied = IOUtils.copyLarge(is, os, 0, count);
+			if (copied != count) {
+				throw new IOException("Short read: expected " + count + " bytes, got " + copied);
+			}
+		}
+	}
+
+	private static String contentRange(long start, long end, long length) {
+		return "bytes " + start + "-" + end + "/" + length;
+	}
+
+	private static boolean notModified(HttpServletRequest req, String quotedEtag, long lastModified) {
+		String ifNoneMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			// when If-None-Match is present If-Modified-Since must be ignored
+			return quotedEtag != null && etagListMatches(ifNoneMatch, quotedEtag);
+		}
+
+		if (lastModified > 0) {
+			try {
+				long ifModifiedSince = req.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+				// HTTP dates only have whole seconds
+				return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+			} catch (IllegalArgumentException e) {
+				// bad date, ignore it
+			}
+		}
+		return false;
+	}
+
+	/* The Range header only applies if there's no If-Range, or If-Range still matches what we have */
+	private static boolean ifRangeMatches(HttpServletRequest req, String quotedEtag, long lastModified) {
+		String ifRange = req.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange == null)
+			return true;
+
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals(quotedEtag);
+		}
+		// a weak etag never matches for ranges
+		if (ifRange.startsWith("W/"))
+			return false;
+
+		try {
+			long date = req.getDateHeader(HttpHeaders.IF_RANGE);
+			return lastModified > 0 && lastModified / 1000 == date / 1000;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static boolean etagListMatches(String header, String quotedEtag) {
+		for (String tok : header.split(",")) {
+			tok = tok.trim();
+			if (tok.startsWith("W/")) {
+				tok = tok.substring(2);
+			}
+			if (tok.equals("*") || tok.equals(quotedEtag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Skips exactly 'count' bytes of 'is'. Unlike IOUtils.skipFully this calls the stream's own skip(),
+	 * which for a GridFS stream jumps straight to the right chunk instead of reading all the ones before
+	 * it.
+	 */
+	public static void skipFully(InputStream is, long count) throws IOException {
+		while (count > 0) {
+			long skipped = is.skip(count);
+			if (skipped <= 0) {
+				// skip() is allowed to do nothing, so read one byte to tell if we're really at the end
+				if (is.read() == -1) {
+					throw new IOException("Unexpected end of stream while skipping");
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+}
@@ -4,6 +4,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
 import quanta.AppController;
@@ -79,6 +83,42 @@ public class SubNodeUtil extends ServiceBase {
 		return ret;
 	}
 
+	/*
+	 * Sets the content classification of 'node' (see SubNode.CLASSES), unless the word lists aren't
+	 * loaded, in which case the node is left to MongoUtil.classifyNodes.
+	 */
+	public void classify(SubNode node) {
+		// english is null if we're saving during startup, before the services are all initialized
+		Integer version = english != null ? english.getClassifyVersion() : null;
+		if (version == null)
+			return;
+		node.setClasses(classify(node.getContent(), node.getStr(NodeProp.BOOST)));
+		node.setClassesVersion(version);
+	}
+
+	/*
+	 * Returns the classification flags for a node's content, or null if there are none. A boost has no
+	 * content of its own, so it gets the flags of the node it boosts, which we read directly (not thru
+	 * MongoRead) because this runs during saves.
+	 */
+	public List<String> classify(String content, String boostTargetId) {
+		List<String> classes = english.classify(content);
+
+		if (boostTargetId != null && ObjectId.isValid(boostTargetId)) {
+			Query q = new Query(Criteria.where(SubNode.ID).is(new ObjectId(boostTargetId)));
+			q.fields().include(SubNode.CONTENT);
+			Document target = ops.findOne(q, Document.class, ops.getCollectionName(SubNode.class));
+			if (target != null) {
+				for (String cls : english.classify(target.getString(SubNode.CONTENT))) {
+					if (!classes.contains(cls)) {
+						classes.add(cls);
+					}
+				}
+			}
+		}
+		return classes.isEmpty() ? null : classes;
+	}
+
 	public HashMap<String, AccessControl> cloneAcl(SubNode node) {
 		if (node.getAc() == null)
 			return null;
@@ -9,6 +9,7 @@ import quanta.config.SessionContext;
 import quanta.exception.NodeAuthFailedException;
 import quanta.instrument.PerfMonEvent;
 import quanta.model.client.NostrUserInfo;
+import quanta.mongo.MongoQueryProfiler;
 import quanta.mongo.MongoSession;
 import quanta.mongo.model.SubNode;
 import quanta.response.base.ResponseBase;
@@ -41,6 +42,9 @@ public class ThreadLocals {
 	 */
 	private static final ThreadLocal<PerfMonEvent> rootEvent = new ThreadLocal<>();
 
+	// Mongo commands run by the current API call, counted by MongoQueryProfiler
+	private static final ThreadLocal<MongoQueryProfiler.RequestStats> mongoStats = new ThreadLocal<>();
+
 	/*
 	 * dirtyNodes is where we accumulate the set of nodes that will all be updated after processing is
 	 * done using the api.sessionSave() call. This is a way to not have to worry about doing SAVES on
@@ -73,6 +77,7 @@ public class ThreadLocals {
 		reqBearerToken.remove();
 		reqSig.remove();
 		rootEvent.remove();
+		mongoStats.remove();
 		saving.remove();
 		getDirtyNodes().clear();
 		getCachedNodes().clear();
@@ -139,6 +144,14 @@ public class ThreadLocals {
 		return rootEvent.get();
 	}
 
+	public static void setMongoStats(MongoQueryProfiler.RequestStats stats) {
+		mongoStats.set(stats);
+	}
+
+	public static MongoQueryProfiler.RequestStats getMongoStats() {
+		return mongoStats.get();
+	}
+
 	public static void setResponse(ResponseBase res) {
 		response.set(res);
 	}
@@ -265,9 +278,18 @@ public class ThreadLocals {
 	 * request, are guaranteed to be saved to the DB.
 	 */
 	public static void dirty(SubNode node) {
+		dirty(node, null);
+	}
+
+	/*
+	 * Same as dirty(node) but also records which field changed, so the save can write just that field.
+	 * 'field' is a SubNode field name (or SubNode.propField(key) for a property), and null means unknown.
+	 */
+	public static void dirty(SubNode node, String field) {
 		if (node == null || node.getId() == null) {
 			return;
 		}
+		node.addDirtyField(field);
 
 		SubNode nodeFound = getDirtyNodes().get(node.getId());
 
@@ -294,6 +316,7 @@ public class ThreadLocals {
 	/* Opposite of dirty */
 	public static void clean(SubNode node) {
 		// log.debug("Removing from Dirty: " + node.getIdStr());
+		node.clearDirtyFields();
 		getDirtyNodes().remove(node.getId());
 	}
 
@@ -7,6 +7,7 @@ import org.bson.types.ObjectId;
 import quanta.config.SessionContext;
 import quanta.instrument.PerfMonEvent;
 import quanta.model.client.NostrUserInfo;
+import quanta.mongo.MongoQueryProfiler;
 import quanta.mongo.MongoSession;
 import quanta.mongo.model.SubNode;
 import quanta.response.base.ResponseBase;
@@ -25,6 +26,7 @@ public class ThreadLocalsContext {
 	private HashMap<String, NostrUserInfo> newNostrUsers;
 	private Boolean saving;
 	private PerfMonEvent rootEvent;
+	private MongoQueryProfiler.RequestStats mongoStats;
 	private HashMap<ObjectId, SubNode> dirtyNodes;
 	private HashMap<ObjectId, SubNode> cachedNodes;
 	private Boolean parentCheckEnabled;
@@ -40,6 +42,7 @@ public class ThreadLocalsContext {
 		newNostrUsers = ThreadLocals.getNewNostrUsers();
 		saving = ThreadLocals.getSaving();
 		rootEvent = ThreadLocals.getRootEvent();
+		mongoStats = ThreadLocals.getMongoStats();
 		dirtyNodes = ThreadLocals.getDirtyNodes();
 		cachedNodes = ThreadLocals.getCachedNodes();
 		parentCheckEnabled = ThreadLocals.getParentCheckEnabled();
@@ -56,6 +59,7 @@ public class ThreadLocalsContext {
 		ThreadLocals.setNewNostrUsers(newNostrUsers);
 		ThreadLocals.setSaving(saving);
 		ThreadLocals.setRootEvent(rootEvent);
+		ThreadLocals.setMongoStats(mongoStats);
 		ThreadLocals.setDirtyNodes(dirtyNodes);
 		ThreadLocals.setCachedNodes(cachedNodes);
 		ThreadLocals.setParentCheckEnabled(parentCheckEnabled);
@@ -65,6 +65,8 @@ export class AppState {
     node: J.NodeInfo;
     highlightNodeId: string = null;
     endReached: boolean;
+    // server's token for the page of children after the ones in 'node'
+    nextCursor: string;
 
     /* Node Ids to move */
     nodesToMove: string[];
@@ -86,4 +86,18 @@ export class Attachment {
     getStreamUrlForNodeAttachment = (node: J.NodeInfo, attName: string): string => {
         return this.getAttachmentUrl("stream", node, attName, false);
     }
+
+    /* If the image has downscaled copies (see ImageVariantService.java) this asks for the smallest one
+    that's still sharp when shown at 'cssWidth' ("75px", "50%", etc) on this screen. Percentages are
+    taken of the whole window, so we err on the side of a larger copy. */
+    getImgUrlForWidth = (url: string, att: J.Attachment, cssWidth: string): string => {
+        if (!url || !att?.v || !cssWidth) return url;
+        let width = parseInt(cssWidth);
+        if (!width) return url;
+
+        if (cssWidth.trim().endsWith("%")) {
+            width = window.innerWidth * width / 100;
+        }
+        return url + "&w=" + Math.ceil(width * (window.devicePixelRatio || 1));
+    }
 }
@@ -860,6 +860,14 @@ export class Edit {
         S.util.showMessage("Request sumitted. Check the node for property " + J.NodeProp.SUBGRAPH_HASH);
     }
 
+    // stops any copy sharing, search and replace, or transfer still running on the server
+    cancelSubGraphUpdates = async () => {
+        const res = await S.rpcUtil.rpc<J.CancelSubGraphUpdateRequest, J.CancelSubGraphUpdateResponse>("cancelSubGraphUpdate", {}, true);
+        if (res.success) {
+            S.util.showMessage(res.message);
+        }
+    }
+
     joinNodes = async () => {
         const selNodesArray = S.nodeUtil.getSelNodeIdsArray();
         if (!selNodesArray || selNodesArray.length === 0) {
@@ -33,6 +33,7 @@ export interface Attachment {
     u: string;
     il: string;
     ir: string;
+    v: { [index: string]: string };
 }
 
 export interface Bookmark {
@@ -218,6 +219,9 @@ export interface BrowseFolderRequest extends RequestBase {
     nodeId: string;
 }
 
+export interface CancelSubGraphUpdateRequest extends RequestBase {
+}
+
 export interface ChangePasswordRequest extends RequestBase {
     newPassword: string;
     passCode: string;
@@ -473,6 +477,7 @@ export interface MoveNodesRequest extends RequestBase {
 
 export interface NodeFeedRequest extends RequestBase {
     page: number;
+    cursor: string;
     nodeId: string;
     toUser: string;
     toMe: boolean;
@@ -493,6 +498,7 @@ export interface NodeFeedRequest extends RequestBase {
 export interface NodeSearchRequest extends RequestBase {
     searchRoot: string;
     page: number;
+    cursor: string;
     sortDir: string;
     sortField: string;
     nodeId: string;
@@ -539,6 +545,7 @@ export interface RenderDocumentRequest extends RequestBase {
 export interface RenderNodeRequest extends RequestBase {
     nodeId: string;
     offset: number;
+    cursor: string;
     siblingOffset: number;
     upLevel: boolean;
     renderParentIfLeaf: boolean;
@@ -707,6 +714,9 @@ export interface BrowseFolderResponse {
     listingJson: string;
 }
 
+export interface CancelSubGraphUpdateResponse extends ResponseBase {
+}
+
 export interface ChangePasswordResponse extends ResponseBase {
     user: string;
 }
@@ -947,10 +957,12 @@ export interface NodeFeedResponse extends ResponseBase {
     endReached: boolean;
     searchResults: NodeInfo[];
     friendHashTags: string[];
+    nextCursor: string;
 }
 
 export interface NodeSearchResponse extends ResponseBase {
     searchResults: NodeInfo[];
+    nextCursor: string;
 }
 
 export interface NodeSigData {
@@ -998,6 +1010,7 @@ export interface RenderDocumentResponse extends ResponseBase {
 export interface RenderNodeResponse extends ResponseBase {
     node: NodeInfo;
     endReached: boolean;
+    nextCursor: string;
     noDataResponse: string;
     breadcrumbs: BreadcrumbInfo[];
     rssNode: boolean;
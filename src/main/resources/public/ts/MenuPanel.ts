@@ -258,6 +258,7 @@ export class MenuPanel extends Div {
 
                 new MenuItem("Set Headings", S.edit.setHeadings, selNodeIsMine), //
                 new MenuItem("Search and Replace", MenuPanel.searchAndReplace, selNodeIsMine), //
+                new MenuItem("Stop Bulk Updates", S.edit.cancelSubGraphUpdates, !ast.isAnonUser), //
 
                 new MenuItemSeparator(), //
 
@@ -95,7 +95,7 @@ export class Render {
                 }
 
                 const key = (a as any).key;
-                const imgUrl = S.attachment.getUrlForNodeAttachment(node, key, false);
+                const imgUrl = S.attachment.getImgUrlForWidth(S.attachment.getUrlForNodeAttachment(node, key, false), a, imgSize);
                 let topClass = null;
                 let suffix = "";
 
@@ -531,6 +531,7 @@ export class Render {
                         S.quanta.configRes.urlIdFailMsg = null;
                         s.node = res.node;
                         s.endReached = res.endReached;
+                        s.nextCursor = res.nextCursor;
                         s.breadcrumbs = res.breadcrumbs;
 
                         // if the rendered node has one child and it's an RSS node then render it right away.
@@ -8,6 +8,8 @@ export class ResultSetInfo {
     public node: J.NodeInfo;
     public page: number = 0;
     public endReached: boolean = false;
+    // server's token for the page after this one
+    public nextCursor: string = null;
     public fuzzy: boolean;
     public caseSensitive: boolean;
     public searchText: string;
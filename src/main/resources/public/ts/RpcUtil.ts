@@ -210,6 +210,15 @@ export class RpcUtil {
             status = error.response ? error.response.status : "";
             console.error("Failed: " + status + " " + (error.message || ""));
 
+            // 429==Too Many Requests (see ThrottleFilter)
+            if (error.response?.status === 429) {
+                if (!background && allowErrorDlg) {
+                    const retryAfter = error.response.headers?.get("Retry-After") || "1";
+                    S.util.showMessage("Too many requests. Try again in " + retryAfter + " second(s).", "Warning");
+                }
+                return;
+            }
+
             if (!background && allowErrorDlg) {
                 S.util.showMessage("Something went wrong. Try refreshing your browser.", "Warning", true);
             }
@@ -177,11 +177,13 @@ export class Search {
 
     search = async (node: J.NodeInfo, prop: string, searchText: string, searchType: string, description: string,
         searchRoot: string, fuzzy: boolean, caseSensitive: boolean, page: number, recursive: boolean,
-        sortField: string, sortDir: string, requirePriority: boolean, requireAttachment: boolean, deleteMatches: boolean): Promise<boolean> => {
+        sortField: string, sortDir: string, requirePriority: boolean, requireAttachment: boolean, deleteMatches: boolean,
+        cursor: string = null): Promise<boolean> => {
         return new Promise<boolean>(async (resolve, reject) => {
             const res = await S.rpcUtil.rpc<J.NodeSearchRequest, J.NodeSearchResponse>("nodeSearch", {
                 searchRoot,
                 page,
+                cursor,
                 nodeId: node ? node.id : null, // for user searchTypes this node can be null
                 searchText,
                 sortDir,
@@ -230,6 +232,7 @@ export class Search {
                     data.props.sortDir = sortDir;
                     data.props.prop = prop;
                     data.props.endReached = !res.searchResults || res.searchResults.length < J.ConstantInt.ROWS_PER_PAGE;
+                    data.props.nextCursor = res.nextCursor;
 
                     S.tabUtil.selectTabStateOnly(data.id);
 
@@ -300,7 +303,8 @@ export class Search {
     }
 
     /* prop = mtm (modification time) | ctm (create time) */
-    timeline = async (node: J.NodeInfo, prop: string, timeRangeType: string, timelineDescription: string, page: number, recursive: boolean) => {
+    timeline = async (node: J.NodeInfo, prop: string, timeRangeType: string, timelineDescription: string, page: number, recursive: boolean,
+        cursor: string = null) => {
 
         /* this code AND other similar code needs a way to lockin the node, here so it can't change during pagination
         including when the page==0 because user is just jumping to beginning. Need a specific param for saying
@@ -315,6 +319,7 @@ export class Search {
         const res = await S.rpcUtil.rpc<J.NodeSearchRequest, J.NodeSearchResponse>("nodeSearch", {
             searchRoot: null,
             page,
+            cursor,
             nodeId: node.id,
             searchText: "",
             sortDir: "DESC",
@@ -351,6 +356,7 @@ export class Search {
             info.recursive = recursive;
             info.node = node;
             info.endReached = !res.searchResults || res.searchResults.length < J.ConstantInt.ROWS_PER_PAGE;
+            info.nextCursor = res.nextCursor;
             info.page = page;
 
             S.tabUtil.selectTabStateOnly(TimelineTab.inst.id);
@@ -424,6 +430,8 @@ export class Search {
 
         const res = await S.rpcUtil.rpc<J.NodeFeedRequest, J.NodeFeedResponse>("nodeFeed", {
             page,
+            // the cursor continues from the last page loaded, so it's only good for the page after it
+            cursor: page > 0 ? FeedTab.inst.props.feedCursor : null,
             nodeId: FeedTab.inst.props.feedFilterRootNode?.id,
             toMe: FeedTab.inst.props.feedFilterToMe,
             myMentions: FeedTab.inst.props.feedFilterMyMentions,
@@ -475,6 +483,7 @@ export class Search {
             }
 
             FeedTab.inst.props.feedEndReached = res.endReached;
+            FeedTab.inst.props.feedCursor = res.nextCursor;
             FeedTab.inst.props.feedDirty = false;
             FeedTab.inst.props.feedLoading = false;
 
@@ -122,7 +122,7 @@ export class View {
         const lastChild = S.edit.getLastChildNode();
         if (lastChild) {
             const targetOffset = lastChild.logicalOrdinal + 1;
-            this.loadPage(false, targetOffset, false);
+            this.loadPage(false, targetOffset, false, getAs().nextCursor);
         }
     }
 
@@ -137,12 +137,12 @@ export class View {
         const lastChild = S.edit.getLastChildNode();
         if (lastChild) {
             const targetOffset = lastChild.logicalOrdinal + 1;
-            this.loadPage(false, targetOffset, true);
+            this.loadPage(false, targetOffset, true, getAs().nextCursor);
         }
     }
 
     /* Note: if growingPage==true we preserve the existing row data, and append more rows onto the current view */
-    private loadPage = async (goToLastPage: boolean, offset: number, growingPage: boolean) => {
+    private loadPage = async (goToLastPage: boolean, offset: number, growingPage: boolean, cursor: string = null) => {
         const ast = getAs();
         try {
             const res = await S.rpcUtil.rpc<J.RenderNodeRequest, J.RenderNodeResponse>("renderNode", {
@@ -152,6 +152,7 @@ export class View {
                 renderParentIfLeaf: true,
                 forceRenderParent: false,
                 offset,
+                cursor,
                 goToLastPage,
                 forceIPFSRefresh: false,
                 singleNode: false,
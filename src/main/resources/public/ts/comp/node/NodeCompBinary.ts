@@ -32,7 +32,7 @@ export class NodeCompBinary extends Div {
         if (!node) return null;
         const att = S.props.getAttachment(this.attName, node);
         if (!att) return null;
-        const src: string = S.attachment.getUrlForNodeAttachment(node, this.attName, false);
+        let src: string = S.attachment.getUrlForNodeAttachment(node, this.attName, false);
         const style: any = {};
         let size = "";
         let rtMargin = true;
@@ -71,6 +71,11 @@ export class NodeCompBinary extends Div {
             }
         }
 
+        // full screen shows the original
+        if (!this.isFullScreenEmbed) {
+            src = S.attachment.getImgUrlForWidth(src, att, this.isEditorEmbed ? style.width : size);
+        }
+
         const imgTitleSuffix = att.f ? "\n\n" + att.f + "\n(" + att.m + ")" : "";
         const className = this.isFullScreenEmbed ? "fullScreenImg" : (this.isEditorEmbed ? "imgInEditor" : "imgInRow")
         const imgAttrs: any = {
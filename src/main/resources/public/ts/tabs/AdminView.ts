@@ -54,6 +54,7 @@ export class AdminView extends AppTab<any, AdminView> {
                 this.settingsLink("Server Info", () => S.view.runServerCommand("getServerInfo", null, "Info View", null)), //
                 this.settingsLink("View Session Activity", () => S.view.runServerCommand("getSessionActivity", null, "Session Activity", null)), //
                 this.settingsLink("Performance Report", () => window.open(S.util.getHostAndPort() + "/performance-report", "_blank")), //
+                this.settingsLink("Mongo Query Report", () => window.open(S.util.getHostAndPort() + "/mongo-report", "_blank")), //
 
                 this.sectionTitle("Utils"),
                 this.settingsLink("Create User", () => { new SignupDlg(true).open(); }), //
@@ -25,6 +25,8 @@ export class FeedViewProps {
     feedLoading = false;
     feedResults: J.NodeInfo[] = null;
     feedEndReached = false;
+    // server's token for the page after the last one loaded
+    feedCursor: string = null;
 
     feedDirtyList: J.NodeInfo[] = null;
     filterExpanded = false;
@@ -31,7 +31,9 @@ export class SearchResultSetView<PT extends ResultSetInfo> extends ResultSetView
             this.data.props.sortDir,
             this.data.props.requirePriority,
             this.data.props.requireAttachment,
-            false);
+            false,
+            // the cursor only knows where the current page ends
+            delta === 1 ? this.data.props.nextCursor : null);
     }
 
     extraPagingComps = (): Comp[] => {
@@ -19,7 +19,7 @@ export class TimelineResultSetView<PT extends TimelineRSInfo> extends ResultSetV
 
         S.srch.timeline(this.data.props.node, this.data.props.prop, this.data.props.timeRangeType,
             this.data.props.description,
-            page, this.data.props.recursive);
+            page, this.data.props.recursive, delta === 1 ? this.data.props.nextCursor : null);
     }
 
     extraPagingComps = (): Comp[] => {